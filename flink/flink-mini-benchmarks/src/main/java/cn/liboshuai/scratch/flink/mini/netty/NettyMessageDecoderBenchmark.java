@@ -0,0 +1,127 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.SingleInputGate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码路径的吞吐基准：PartitionRequest 走服务端的 {@link NettyMessage.NettyMessageDecoder}，
+ * BufferResponse 走客户端的 {@link NettyMessageClientDecoderDelegate}，数据直接解码进接收通道的网络 buffer。
+ *
+ * <p>编码好的字节在准备阶段生成一次，每次调用只把它的一个 retainedDuplicate 喂给解码器，
+ * 因此测到的只有解码本身；分配速率同样用 {@code -prof gc} 观察。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NettyMessageDecoderBenchmark {
+
+    private static final int NETWORK_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"64", "1024", "8192", "65536"})
+    public int payloadSize;
+
+    @Param({"false", "true"})
+    public boolean compactReceiverIndex;
+
+    private NetworkBufferPool networkBufferPool;
+
+    private SingleInputGate inputGate;
+
+    private EmbeddedChannel serverDecoder;
+
+    private EmbeddedChannel clientDecoder;
+
+    private ByteBuf encodedPartitionRequest;
+
+    private ByteBuf encodedBufferResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        networkBufferPool = new NetworkBufferPool(8, NETWORK_BUFFER_SIZE);
+        inputGate = new SingleInputGate(networkBufferPool, 2, 0);
+        RemoteInputChannel inputChannel = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+        inputGate.setInputChannels(inputChannel);
+        inputGate.setup();
+
+        PartitionRequestClientHandler clientHandler = new PartitionRequestClientHandler(compactReceiverIndex);
+        int receiverIndex = clientHandler.addInputChannel(inputChannel);
+        clientDecoder = new EmbeddedChannel(new NettyMessageClientDecoderDelegate(
+                new NetworkBufferAllocator(clientHandler, NETWORK_BUFFER_SIZE)));
+        serverDecoder = new EmbeddedChannel(new NettyMessage.NettyMessageDecoder());
+
+        ByteBuf payload = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize);
+        payload.writerIndex(payloadSize);
+        encodedBufferResponse = encode(new NettyMessage.BufferResponse(
+                inputChannel.getInputChannelId(), receiverIndex, 0, 0, payload));
+        encodedPartitionRequest = encode(new NettyMessage.PartitionRequest(
+                new ResultPartitionID(), 0, inputChannel.getInputChannelId(), 2, receiverIndex));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encodedBufferResponse.release();
+        encodedPartitionRequest.release();
+        clientDecoder.finishAndReleaseAll();
+        serverDecoder.finishAndReleaseAll();
+        inputGate.close();
+        networkBufferPool.destroy();
+    }
+
+    @Benchmark
+    public Object decodeBufferResponse() {
+        clientDecoder.writeInbound(encodedBufferResponse.retainedDuplicate());
+        NettyMessage.BufferResponse response = clientDecoder.readInbound();
+        // 释放后 buffer 回到通道的独占 buffer 里，下一次解码还能拿到
+        response.getBuffer().release();
+        return response;
+    }
+
+    /**
+     * PartitionRequest 的大小固定，与 payloadSize 无关，只需要看其中一组参数的结果。
+     */
+    @Benchmark
+    public Object decodePartitionRequest() {
+        serverDecoder.writeInbound(encodedPartitionRequest.retainedDuplicate());
+        return serverDecoder.readInbound();
+    }
+
+    /**
+     * 把一条消息编码成一块连续的字节，模拟从 Socket 一次读到整条消息。
+     */
+    private static ByteBuf encode(NettyMessage msg) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+        encoder.writeOutbound(msg);
+        ByteBuf encoded = PooledByteBufAllocator.DEFAULT.directBuffer();
+        Object part;
+        while ((part = encoder.readOutbound()) != null) {
+            encoded.writeBytes((ByteBuf) part);
+            ReferenceCountUtil.release(part);
+        }
+        encoder.finishAndReleaseAll();
+        return encoded;
+    }
+}
@@ -0,0 +1,106 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NettyMessage.NettyMessageEncoder} 的吞吐基准：通过 EmbeddedChannel 只跑编码器，不涉及真实的 Socket。
+ *
+ * <p>每次调用编码一条消息，并把写出的 buffer 全部读出释放，测的是“编码 + 分配 header”的开销。
+ * 分配速率用 JMH 自带的 GC profiler 看：
+ * {@code java -jar target/benchmarks.jar NettyMessageEncoderBenchmark -prof gc}，
+ * 关注 {@code gc.alloc.rate.norm}，即每条消息在堆上分配的字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NettyMessageEncoderBenchmark {
+
+    @Param({"64", "1024", "8192", "65536"})
+    public int payloadSize;
+
+    @Param({"true", "false"})
+    public boolean zeroCopy;
+
+    private EmbeddedChannel channel;
+
+    private ByteBuf payload;
+
+    private InputChannelID receiverId;
+
+    private ResultPartitionID partitionId;
+
+    private int sequenceNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        channel = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(zeroCopy));
+        channel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+        payload = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize);
+        payload.writerIndex(payloadSize);
+        receiverId = new InputChannelID();
+        partitionId = new ResultPartitionID();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        payload.release();
+    }
+
+    @Benchmark
+    public void encodeBufferResponse(Blackhole blackhole) {
+        // retainedDuplicate 不拷贝数据，每条消息各自持有一份引用，由编码器/Channel 负责释放
+        channel.writeOutbound(new NettyMessage.BufferResponse(
+                receiverId, NettyMessage.NO_RECEIVER_INDEX, sequenceNumber++, 0, payload.retainedDuplicate()));
+        drain(blackhole);
+    }
+
+    /**
+     * 用连接内下标代替完整 ID 的紧凑格式，与 {@link #encodeBufferResponse} 对照看 header 变短带来的差异。
+     */
+    @Benchmark
+    public void encodeCompactBufferResponse(Blackhole blackhole) {
+        channel.writeOutbound(new NettyMessage.BufferResponse(
+                receiverId, 5, sequenceNumber++, 0, payload.retainedDuplicate()));
+        drain(blackhole);
+    }
+
+    /**
+     * PartitionRequest 的大小固定，与 payloadSize 无关，只需要看其中一组参数的结果。
+     */
+    @Benchmark
+    public void encodePartitionRequest(Blackhole blackhole) {
+        channel.writeOutbound(new NettyMessage.PartitionRequest(partitionId, 0, receiverId, 2));
+        drain(blackhole);
+    }
+
+    private void drain(Blackhole blackhole) {
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            blackhole.consume(msg);
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
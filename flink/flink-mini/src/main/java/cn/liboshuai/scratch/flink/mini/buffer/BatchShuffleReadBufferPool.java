@@ -0,0 +1,121 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.io.AvailabilityProvider;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegmentFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 服务端读取排序合并分区的文件时使用的读 buffer 池，一个 TaskManager 上所有分区共享。
+ * （在 Flink 源码中对应 BatchShuffleReadBufferPool）
+ *
+ * <p>和网络内存分开：下游读得再多，读文件占用的内存也不会超过这个池的大小，更不会挤占生产者和输入通道的网络 buffer。
+ * 申请从不阻塞，池用完时调用方通过 {@link #getAvailableFuture()} 等到有内存段被回收再来取，
+ * 读文件的 IO 线程因此不会被某一个慢消费者卡住。
+ */
+public class BatchShuffleReadBufferPool implements BufferRecycler, AvailabilityProvider {
+
+    private final int numTotalBuffers;
+
+    private final int bufferSize;
+
+    /** 空闲的内存段，同时作为本类所有状态的锁 */
+    private final ArrayDeque<MemorySegment> buffers;
+
+    private final AvailabilityHelper availabilityHelper = new AvailabilityHelper();
+
+    private boolean isDestroyed;
+
+    public BatchShuffleReadBufferPool(int numTotalBuffers, int bufferSize) {
+        if (numTotalBuffers <= 0) {
+            throw new IllegalArgumentException("读 buffer 数量必须为正数: " + numTotalBuffers);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("读 buffer 大小必须为正数: " + bufferSize);
+        }
+        this.numTotalBuffers = numTotalBuffers;
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayDeque<>(numTotalBuffers);
+        for (int i = 0; i < numTotalBuffers; i++) {
+            buffers.add(MemorySegmentFactory.allocateUnpooledOffHeapMemory(bufferSize));
+        }
+        availabilityHelper.getUnavailableToResetAvailable();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getNumTotalBuffers() {
+        return numTotalBuffers;
+    }
+
+    public int getNumberOfAvailableBuffers() {
+        synchronized (buffers) {
+            return buffers.size();
+        }
+    }
+
+    /**
+     * 最多取走 {@code maxBuffers} 个内存段，没有空闲的直接返回空列表，不会阻塞。
+     */
+    public List<MemorySegment> requestBuffers(int maxBuffers) {
+        synchronized (buffers) {
+            if (isDestroyed) {
+                throw new IllegalStateException("读 buffer 池已经被销毁");
+            }
+            int numBuffers = Math.min(maxBuffers, buffers.size());
+            List<MemorySegment> requested = new ArrayList<>(numBuffers);
+            for (int i = 0; i < numBuffers; i++) {
+                requested.add(buffers.poll());
+            }
+            if (buffers.isEmpty()) {
+                availabilityHelper.resetUnavailable();
+            }
+            return requested;
+        }
+    }
+
+    @Override
+    public void recycle(MemorySegment memorySegment) {
+        CompletableFuture<?> toNotify = null;
+        synchronized (buffers) {
+            if (isDestroyed) {
+                return;
+            }
+            if (buffers.isEmpty()) {
+                toNotify = availabilityHelper.getUnavailableToResetAvailable();
+            }
+            buffers.add(memorySegment);
+        }
+        if (toNotify != null) {
+            toNotify.complete(null);
+        }
+    }
+
+    public void recycle(Collection<MemorySegment> segments) {
+        for (MemorySegment segment : segments) {
+            recycle(segment);
+        }
+    }
+
+    @Override
+    public CompletableFuture<?> getAvailableFuture() {
+        return availabilityHelper.getAvailableFuture();
+    }
+
+    /**
+     * 丢掉所有空闲的内存段，之后回收的内存段也直接丢掉，由 GC 释放。
+     */
+    public void destroy() {
+        synchronized (buffers) {
+            isDestroyed = true;
+            buffers.clear();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+/**
+ * {@link LocalBufferPool} 暂时没有 buffer 时登记的等待者，有 buffer 被回收时按登记顺序通知。
+ * （在 Flink 源码中对应 BufferListener）
+ */
+public interface BufferListener {
+
+    /**
+     * 有一个 buffer 可用了，buffer 的所有权交给监听者。
+     *
+     * @return 是否还需要更多 buffer，返回 {@code true} 时会被重新登记
+     */
+    boolean notifyBufferAvailable(NetworkBuffer buffer);
+
+    /**
+     * buffer 池已经被销毁，不会再有 buffer 了。
+     */
+    void notifyBufferDestroyed();
+}
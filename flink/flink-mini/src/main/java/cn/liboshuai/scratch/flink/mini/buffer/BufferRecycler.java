@@ -0,0 +1,15 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+
+/**
+ * 内存段的回收者：{@link NetworkBuffer} 的引用计数归零时，把底层的内存段交还给它。
+ * （在 Flink 源码中对应 BufferRecycler）
+ */
+public interface BufferRecycler {
+
+    /**
+     * 回收一个内存段，可能在任意线程中调用。
+     */
+    void recycle(MemorySegment memorySegment);
+}
@@ -0,0 +1,38 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+/**
+ * buffer 里装的是什么。（在 Flink 源码中对应 Buffer.DataType）
+ *
+ * <p>优先事件（例如 checkpoint barrier、取消通知）不排在数据后面：子分区把它插到所有已经排队的数据前面，
+ * 发送时不消耗 credit，接收端也不占用 credit 对应的网络 buffer，因此在反压时也能立即到达下游。
+ * 这里还没有普通（非优先）事件。
+ */
+public enum DataType {
+
+    /** 序列化后的记录 */
+    DATA_BUFFER(false, false),
+
+    /** 越过已排队数据的优先事件 */
+    PRIORITIZED_EVENT_BUFFER(true, true);
+
+    private final boolean isEvent;
+
+    private final boolean hasPriority;
+
+    DataType(boolean isEvent, boolean hasPriority) {
+        this.isEvent = isEvent;
+        this.hasPriority = hasPriority;
+    }
+
+    public boolean isBuffer() {
+        return !isEvent;
+    }
+
+    public boolean isEvent() {
+        return isEvent;
+    }
+
+    public boolean hasPriority() {
+        return hasPriority;
+    }
+}
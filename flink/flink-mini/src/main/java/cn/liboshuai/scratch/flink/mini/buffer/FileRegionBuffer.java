@@ -0,0 +1,55 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.DefaultFileRegion;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * 文件中的一段数据，代替内存 buffer 交给网络层发送。（在 Flink 源码中对应 FileRegionBuffer）
+ *
+ * <p>Netty 写出 FileRegion 时使用 sendfile（NIO 下是 {@link FileChannel#transferTo}），
+ * 数据直接从 page cache 进入 socket，既不经过 JVM 堆，也不占用网络 buffer。
+ * 同一进程内的消费者无法直接使用它，需要先用 {@link #readInto(ByteBuf)} 读进内存。
+ *
+ * <p>文件通道归创建它的读取器所有，这里释放时不会关闭通道。
+ */
+public final class FileRegionBuffer extends DefaultFileRegion {
+
+    private final FileChannel fileChannel;
+
+    private final long position;
+
+    private final int size;
+
+    public FileRegionBuffer(FileChannel fileChannel, long position, int size) {
+        super(fileChannel, position, size);
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.size = size;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 把这段数据读进 {@code target} 的可写区域，读取不影响写出的进度。
+     */
+    public void readInto(ByteBuf target) throws IOException {
+        int read = 0;
+        while (read < size) {
+            int n = target.writeBytes(fileChannel, position + read, size - read);
+            if (n < 0) {
+                throw new IOException("文件在 " + (position + read) + " 处提前结束，缺少 " + (size - read) + " 字节");
+            }
+            read += n;
+        }
+    }
+
+    @Override
+    protected void deallocate() {
+        // 通道由读取器统一关闭
+    }
+}
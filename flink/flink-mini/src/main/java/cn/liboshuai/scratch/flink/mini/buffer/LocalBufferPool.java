@@ -0,0 +1,233 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 从 {@link NetworkBufferPool} 中划出来的一个本地 buffer 池（在 Flink 源码中对应 LocalBufferPool），
+ * 例如一个 InputGate 内所有通道共享的浮动 buffer。
+ *
+ * <p>创建时预留的 {@code numberOfRequiredMemorySegments} 个内存段始终留在池内；
+ * 超出的部分按需向全局池借，最多借到 {@code maxNumberOfMemorySegments} 个，回收时立刻还回全局池。
+ *
+ * <p>{@link #requestBuffer()} 从不阻塞，拿不到时调用方可以通过 {@link #addBufferListener(BufferListener)}
+ * 登记，等有 buffer 被回收时再由回收线程直接交给它。
+ * 生产者线程则使用 {@link #requestBufferBlocking()}，拿不到时一直等到有 buffer 被回收，以此对上游形成反压。
+ */
+public class LocalBufferPool implements BufferRecycler {
+
+    /** 阻塞申请时每隔这么久重新向全局池借一次，全局池有内存段归还时不会主动通知本地池 */
+    private static final long REQUEST_BUFFER_RETRY_MILLIS = 2000;
+
+    private final NetworkBufferPool networkBufferPool;
+
+    private final int numberOfRequiredMemorySegments;
+
+    private final int maxNumberOfMemorySegments;
+
+    /** 池内空闲的内存段，同时作为本类所有状态的锁 */
+    private final ArrayDeque<MemorySegment> availableMemorySegments = new ArrayDeque<>();
+
+    /** 等待 buffer 的监听者，按登记顺序通知 */
+    private final ArrayDeque<BufferListener> registeredListeners = new ArrayDeque<>();
+
+    /** 当前属于本池的内存段数量：空闲的 + 正在被使用的 */
+    private int numberOfRequestedMemorySegments;
+
+    /** 阻塞在 {@link #requestBufferBlocking()} 中的线程数，有人在等时借来的内存段回收后留在池内 */
+    private int numberOfWaitingRequesters;
+
+    private boolean isDestroyed;
+
+    LocalBufferPool(NetworkBufferPool networkBufferPool,
+                    int numberOfRequiredMemorySegments,
+                    int maxNumberOfMemorySegments,
+                    Collection<MemorySegment> requiredSegments) {
+        this.networkBufferPool = networkBufferPool;
+        this.numberOfRequiredMemorySegments = numberOfRequiredMemorySegments;
+        this.maxNumberOfMemorySegments = maxNumberOfMemorySegments;
+        this.availableMemorySegments.addAll(requiredSegments);
+        this.numberOfRequestedMemorySegments = requiredSegments.size();
+    }
+
+    public int getNumberOfRequiredMemorySegments() {
+        return numberOfRequiredMemorySegments;
+    }
+
+    public int getMemorySegmentSize() {
+        return networkBufferPool.getMemorySegmentSize();
+    }
+
+    public int getMaxNumberOfMemorySegments() {
+        return maxNumberOfMemorySegments;
+    }
+
+    public int getNumberOfAvailableMemorySegments() {
+        synchronized (availableMemorySegments) {
+            return availableMemorySegments.size();
+        }
+    }
+
+    /**
+     * 正在被使用（已经交给调用方、还没回收）的 buffer 数量。
+     */
+    public int bestEffortGetNumOfUsedBuffers() {
+        synchronized (availableMemorySegments) {
+            return Math.max(0, numberOfRequestedMemorySegments - availableMemorySegments.size());
+        }
+    }
+
+    public boolean isDestroyed() {
+        synchronized (availableMemorySegments) {
+            return isDestroyed;
+        }
+    }
+
+    /**
+     * 非阻塞地申请一个 buffer。
+     *
+     * @return 申请到的 buffer，池已经用完时返回 {@code null}
+     */
+    public NetworkBuffer requestBuffer() {
+        MemorySegment segment;
+        synchronized (availableMemorySegments) {
+            segment = requestMemorySegment();
+        }
+        return segment == null ? null : new NetworkBuffer(segment, this);
+    }
+
+    /**
+     * 阻塞地申请一个 buffer，池已经用完时一直等到有 buffer 被回收。
+     *
+     * @throws IllegalStateException 等待期间池被销毁
+     */
+    public NetworkBuffer requestBufferBlocking() throws InterruptedException {
+        MemorySegment segment;
+        synchronized (availableMemorySegments) {
+            while ((segment = requestMemorySegment()) == null) {
+                numberOfWaitingRequesters++;
+                try {
+                    availableMemorySegments.wait(REQUEST_BUFFER_RETRY_MILLIS);
+                } finally {
+                    numberOfWaitingRequesters--;
+                }
+            }
+        }
+        return new NetworkBuffer(segment, this);
+    }
+
+    /**
+     * 必须持有 {@code availableMemorySegments} 的锁。先取池内空闲的，没有再向全局池借。
+     */
+    private MemorySegment requestMemorySegment() {
+        if (isDestroyed) {
+            throw new IllegalStateException("buffer 池已经被销毁");
+        }
+        MemorySegment segment = availableMemorySegments.poll();
+        if (segment == null && numberOfRequestedMemorySegments < maxNumberOfMemorySegments) {
+            segment = networkBufferPool.requestMemorySegment();
+            if (segment != null) {
+                numberOfRequestedMemorySegments++;
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * 登记一个等待 buffer 的监听者。
+     *
+     * @return 是否登记成功；池内还有空闲 buffer 或池已经被销毁时返回 {@code false}，调用方应重新申请
+     */
+    public boolean addBufferListener(BufferListener listener) {
+        synchronized (availableMemorySegments) {
+            if (!availableMemorySegments.isEmpty() || isDestroyed) {
+                return false;
+            }
+            registeredListeners.add(listener);
+            return true;
+        }
+    }
+
+    @Override
+    public void recycle(MemorySegment memorySegment) {
+        BufferListener listener;
+        synchronized (availableMemorySegments) {
+            if (isDestroyed) {
+                numberOfRequestedMemorySegments--;
+                networkBufferPool.recycle(memorySegment);
+                return;
+            }
+
+            listener = registeredListeners.poll();
+            if (listener == null) {
+                if (numberOfWaitingRequesters == 0
+                        && numberOfRequestedMemorySegments > numberOfRequiredMemorySegments) {
+                    // 临时借来的内存段没人在等，直接还给全局池
+                    numberOfRequestedMemorySegments--;
+                    networkBufferPool.recycle(memorySegment);
+                } else {
+                    availableMemorySegments.add(memorySegment);
+                    availableMemorySegments.notify();
+                }
+                return;
+            }
+        }
+
+        // 在锁外通知，监听者在回调里可能会反过来访问本池
+        boolean needMoreBuffers = listener.notifyBufferAvailable(new NetworkBuffer(memorySegment, this));
+        if (needMoreBuffers) {
+            boolean destroyed;
+            synchronized (availableMemorySegments) {
+                destroyed = isDestroyed;
+                if (!destroyed) {
+                    registeredListeners.add(listener);
+                }
+            }
+            if (destroyed) {
+                listener.notifyBufferDestroyed();
+            }
+        }
+    }
+
+    /**
+     * 销毁本池：空闲的内存段立即还给全局池，正在被使用的在回收时再还；所有等待者都会收到销毁通知。
+     */
+    public void lazyDestroy() {
+        List<MemorySegment> segments;
+        List<BufferListener> listeners;
+        synchronized (availableMemorySegments) {
+            if (isDestroyed) {
+                return;
+            }
+            isDestroyed = true;
+            segments = new ArrayList<>(availableMemorySegments);
+            availableMemorySegments.clear();
+            numberOfRequestedMemorySegments -= segments.size();
+            listeners = new ArrayList<>(registeredListeners);
+            registeredListeners.clear();
+            // 唤醒阻塞申请的线程，让它们看到池已经被销毁
+            availableMemorySegments.notifyAll();
+        }
+
+        for (MemorySegment segment : segments) {
+            networkBufferPool.recycle(segment);
+        }
+        for (BufferListener listener : listeners) {
+            listener.notifyBufferDestroyed();
+        }
+        networkBufferPool.destroyBufferPool(this);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (availableMemorySegments) {
+            return String.format("LocalBufferPool[required=%d, max=%d, requested=%d, available=%d, listeners=%d, waiting=%d, destroyed=%s]",
+                    numberOfRequiredMemorySegments, maxNumberOfMemorySegments, numberOfRequestedMemorySegments,
+                    availableMemorySegments.size(), registeredListeners.size(), numberOfWaitingRequesters, isDestroyed);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import io.netty.buffer.AbstractReferenceCountedByteBuf;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * 把一个 {@link MemorySegment} 包装成 Netty 的 ByteBuf（在 Flink 源码中对应 NetworkBuffer）。
+ *
+ * <p>生产者的序列化结果直接写进内存段，这块内存原样交给 Netty 发出去：
+ * NIO 传输通过 {@link #nioBuffer(int, int)} 拿到指向同一块内存的 ByteBuffer，
+ * epoll 传输通过 {@link #memoryAddress()} 直接按地址写 socket，中间没有任何拷贝。
+ *
+ * <p>生命周期跟着 Netty 的引用计数走：引用计数归零时不释放内存，而是把内存段交还给创建时指定的
+ * {@link BufferRecycler}。容量固定为内存段的大小，写满后不会扩容。
+ */
+public class NetworkBuffer extends AbstractReferenceCountedByteBuf {
+
+    private final MemorySegment memorySegment;
+
+    private final BufferRecycler recycler;
+
+    public NetworkBuffer(MemorySegment memorySegment, BufferRecycler recycler) {
+        super(memorySegment.size());
+        this.memorySegment = memorySegment;
+        this.recycler = recycler;
+    }
+
+    public MemorySegment getMemorySegment() {
+        return memorySegment;
+    }
+
+    public BufferRecycler getRecycler() {
+        return recycler;
+    }
+
+    @Override
+    protected void deallocate() {
+        recycler.recycle(memorySegment);
+    }
+
+    // ------------------------------------------------------------------------
+    //  基本类型访问，范围已经由 AbstractByteBuf 检查过
+    // ------------------------------------------------------------------------
+
+    @Override
+    protected byte _getByte(int index) {
+        return memorySegment.getUnchecked(index);
+    }
+
+    @Override
+    protected short _getShort(int index) {
+        return memorySegment.getShortUnchecked(index);
+    }
+
+    @Override
+    protected short _getShortLE(int index) {
+        return Short.reverseBytes(memorySegment.getShortUnchecked(index));
+    }
+
+    @Override
+    protected int _getUnsignedMedium(int index) {
+        return (memorySegment.getUnchecked(index) & 0xff) << 16
+                | (memorySegment.getUnchecked(index + 1) & 0xff) << 8
+                | memorySegment.getUnchecked(index + 2) & 0xff;
+    }
+
+    @Override
+    protected int _getUnsignedMediumLE(int index) {
+        return memorySegment.getUnchecked(index) & 0xff
+                | (memorySegment.getUnchecked(index + 1) & 0xff) << 8
+                | (memorySegment.getUnchecked(index + 2) & 0xff) << 16;
+    }
+
+    @Override
+    protected int _getInt(int index) {
+        return memorySegment.getIntUnchecked(index);
+    }
+
+    @Override
+    protected int _getIntLE(int index) {
+        return Integer.reverseBytes(memorySegment.getIntUnchecked(index));
+    }
+
+    @Override
+    protected long _getLong(int index) {
+        return memorySegment.getLongUnchecked(index);
+    }
+
+    @Override
+    protected long _getLongLE(int index) {
+        return Long.reverseBytes(memorySegment.getLongUnchecked(index));
+    }
+
+    @Override
+    protected void _setByte(int index, int value) {
+        memorySegment.putUnchecked(index, (byte) value);
+    }
+
+    @Override
+    protected void _setShort(int index, int value) {
+        memorySegment.putShortUnchecked(index, (short) value);
+    }
+
+    @Override
+    protected void _setShortLE(int index, int value) {
+        memorySegment.putShortUnchecked(index, Short.reverseBytes((short) value));
+    }
+
+    @Override
+    protected void _setMedium(int index, int value) {
+        memorySegment.putUnchecked(index, (byte) (value >>> 16));
+        memorySegment.putUnchecked(index + 1, (byte) (value >>> 8));
+        memorySegment.putUnchecked(index + 2, (byte) value);
+    }
+
+    @Override
+    protected void _setMediumLE(int index, int value) {
+        memorySegment.putUnchecked(index, (byte) value);
+        memorySegment.putUnchecked(index + 1, (byte) (value >>> 8));
+        memorySegment.putUnchecked(index + 2, (byte) (value >>> 16));
+    }
+
+    @Override
+    protected void _setInt(int index, int value) {
+        memorySegment.putIntUnchecked(index, value);
+    }
+
+    @Override
+    protected void _setIntLE(int index, int value) {
+        memorySegment.putIntUnchecked(index, Integer.reverseBytes(value));
+    }
+
+    @Override
+    protected void _setLong(int index, long value) {
+        memorySegment.putLongUnchecked(index, value);
+    }
+
+    @Override
+    protected void _setLongLE(int index, long value) {
+        memorySegment.putLongUnchecked(index, Long.reverseBytes(value));
+    }
+
+    // ------------------------------------------------------------------------
+    //  容量与底层内存
+    // ------------------------------------------------------------------------
+
+    @Override
+    public int capacity() {
+        return memorySegment.size();
+    }
+
+    @Override
+    public ByteBuf capacity(int newCapacity) {
+        throw new UnsupportedOperationException("NetworkBuffer 的容量固定为内存段的大小: " + capacity());
+    }
+
+    @Override
+    public ByteBufAllocator alloc() {
+        return UnpooledByteBufAllocator.DEFAULT;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ByteOrder order() {
+        return ByteOrder.BIG_ENDIAN;
+    }
+
+    @Override
+    public ByteBuf unwrap() {
+        return null;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return true;
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return true;
+    }
+
+    @Override
+    public boolean hasArray() {
+        return false;
+    }
+
+    @Override
+    public byte[] array() {
+        throw new UnsupportedOperationException("NetworkBuffer 没有堆内数组");
+    }
+
+    @Override
+    public int arrayOffset() {
+        throw new UnsupportedOperationException("NetworkBuffer 没有堆内数组");
+    }
+
+    @Override
+    public boolean hasMemoryAddress() {
+        return true;
+    }
+
+    @Override
+    public long memoryAddress() {
+        return memorySegment.getAddress();
+    }
+
+    @Override
+    public int nioBufferCount() {
+        return 1;
+    }
+
+    @Override
+    public ByteBuffer nioBuffer(int index, int length) {
+        checkIndex(index, length);
+        return memorySegment.wrap(index, length).slice();
+    }
+
+    @Override
+    public ByteBuffer internalNioBuffer(int index, int length) {
+        return nioBuffer(index, length);
+    }
+
+    @Override
+    public ByteBuffer[] nioBuffers(int index, int length) {
+        return new ByteBuffer[]{nioBuffer(index, length)};
+    }
+
+    @Override
+    public ByteBuf copy(int index, int length) {
+        checkIndex(index, length);
+        ByteBuf copy = alloc().directBuffer(length, maxCapacity());
+        copy.writeBytes(this, index, length);
+        return copy;
+    }
+
+    // ------------------------------------------------------------------------
+    //  批量读
+    // ------------------------------------------------------------------------
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuf dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.capacity());
+        if (dst.hasArray()) {
+            memorySegment.get(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else if (dst.nioBufferCount() > 0) {
+            for (ByteBuffer bb : dst.nioBuffers(dstIndex, length)) {
+                int bbLength = bb.remaining();
+                memorySegment.get(index, bb, bbLength);
+                index += bbLength;
+            }
+        } else {
+            dst.setBytes(dstIndex, this, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, byte[] dst, int dstIndex, int length) {
+        checkDstIndex(index, length, dstIndex, dst.length);
+        memorySegment.get(index, dst, dstIndex, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, ByteBuffer dst) {
+        checkIndex(index, dst.remaining());
+        memorySegment.get(index, dst, dst.remaining());
+        return this;
+    }
+
+    @Override
+    public ByteBuf getBytes(int index, OutputStream out, int length) throws IOException {
+        checkIndex(index, length);
+        if (length > 0) {
+            byte[] tmp = new byte[length];
+            memorySegment.get(index, tmp, 0, length);
+            out.write(tmp);
+        }
+        return this;
+    }
+
+    @Override
+    public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
+        checkIndex(index, length);
+        return length == 0 ? 0 : out.write(memorySegment.wrap(index, length));
+    }
+
+    @Override
+    public int getBytes(int index, FileChannel out, long position, int length) throws IOException {
+        checkIndex(index, length);
+        return length == 0 ? 0 : out.write(memorySegment.wrap(index, length), position);
+    }
+
+    // ------------------------------------------------------------------------
+    //  批量写
+    // ------------------------------------------------------------------------
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuf src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.capacity());
+        if (src.hasArray()) {
+            memorySegment.put(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else {
+            // 交给源 buffer 往这里写：堆外的 ByteBuf 会用我们的 memoryAddress / nioBuffer 直接拷贝
+            src.getBytes(srcIndex, this, index, length);
+        }
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, byte[] src, int srcIndex, int length) {
+        checkSrcIndex(index, length, srcIndex, src.length);
+        memorySegment.put(index, src, srcIndex, length);
+        return this;
+    }
+
+    @Override
+    public ByteBuf setBytes(int index, ByteBuffer src) {
+        checkIndex(index, src.remaining());
+        memorySegment.put(index, src, src.remaining());
+        return this;
+    }
+
+    @Override
+    public int setBytes(int index, InputStream in, int length) throws IOException {
+        checkIndex(index, length);
+        byte[] tmp = new byte[length];
+        int readBytes = in.read(tmp);
+        if (readBytes > 0) {
+            memorySegment.put(index, tmp, 0, readBytes);
+        }
+        return readBytes;
+    }
+
+    @Override
+    public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        checkIndex(index, length);
+        try {
+            return in.read(memorySegment.wrap(index, length));
+        } catch (ClosedChannelException ignored) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int setBytes(int index, FileChannel in, long position, int length) throws IOException {
+        checkIndex(index, length);
+        try {
+            return in.read(memorySegment.wrap(index, length), position);
+        } catch (ClosedChannelException ignored) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkBuffer(ridx: " + readerIndex() + ", widx: " + writerIndex()
+                + ", cap: " + capacity() + ", refCnt: " + refCnt() + ", " + memorySegment + ')';
+    }
+}
@@ -0,0 +1,219 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegmentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 全局的网络内存池：启动时一次性分配固定数量、固定大小的堆外内存段，之后只在池内流转，不再向系统申请。
+ * （在 Flink 源码中对应 NetworkBufferPool）
+ *
+ * <p>内存段有两种用法：
+ * <ul>
+ *     <li>独占：{@link #requestMemorySegments(int)} 直接取走若干内存段，例如分给每个 InputChannel 的独占 buffer；</li>
+ *     <li>共享：{@link #createBufferPool(int, int)} 创建一个 {@link LocalBufferPool}，
+ *     例如每个 InputGate 一个浮动 buffer 池，其中的内存段由 gate 内的通道按需借用。</li>
+ * </ul>
+ * 两种用法都要先保证“承诺过的数量”不超过总量，申请失败时立即抛出 {@link IOException}，而不是在运行期悄悄超用内存。
+ */
+public class NetworkBufferPool implements BufferRecycler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NetworkBufferPool.class);
+
+    private final int totalNumberOfMemorySegments;
+
+    private final int memorySegmentSize;
+
+    /** 空闲的内存段，同时作为本类所有状态的锁 */
+    private final ArrayDeque<MemorySegment> availableMemorySegments;
+
+    /** 已经承诺出去的内存段数量：独占取走的 + 各个 LocalBufferPool 保证的最小数量 */
+    private int numTotalRequiredBuffers;
+
+    private final Set<LocalBufferPool> allBufferPools = new HashSet<>();
+
+    private boolean isDestroyed;
+
+    public NetworkBufferPool(int numberOfSegmentsToAllocate, int segmentSize) {
+        if (numberOfSegmentsToAllocate <= 0) {
+            throw new IllegalArgumentException("内存段数量必须为正数: " + numberOfSegmentsToAllocate);
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("内存段大小必须为正数: " + segmentSize);
+        }
+        this.totalNumberOfMemorySegments = numberOfSegmentsToAllocate;
+        this.memorySegmentSize = segmentSize;
+        this.availableMemorySegments = new ArrayDeque<>(numberOfSegmentsToAllocate);
+
+        try {
+            for (int i = 0; i < numberOfSegmentsToAllocate; i++) {
+                availableMemorySegments.add(MemorySegmentFactory.allocateUnpooledOffHeapMemory(segmentSize));
+            }
+        } catch (OutOfMemoryError e) {
+            availableMemorySegments.clear();
+            throw new OutOfMemoryError("无法分配 " + numberOfSegmentsToAllocate + " 个 " + segmentSize
+                    + " 字节的网络内存段，请调小网络 buffer 数量或调大 -XX:MaxDirectMemorySize");
+        }
+
+        LOG.info("分配了 {} MB 网络内存（{} 个 {} 字节的内存段）",
+                (long) numberOfSegmentsToAllocate * segmentSize >> 20, numberOfSegmentsToAllocate, segmentSize);
+    }
+
+    public int getMemorySegmentSize() {
+        return memorySegmentSize;
+    }
+
+    public int getTotalNumberOfMemorySegments() {
+        return totalNumberOfMemorySegments;
+    }
+
+    public int getNumberOfAvailableMemorySegments() {
+        synchronized (availableMemorySegments) {
+            return availableMemorySegments.size();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //  独占内存段
+    // ------------------------------------------------------------------------
+
+    /**
+     * 独占地取走 {@code numberOfSegmentsToRequest} 个内存段，要么全部成功，要么一个都不取。
+     * 用完后通过 {@link #recycleMemorySegments(Collection)} 归还。
+     */
+    public List<MemorySegment> requestMemorySegments(int numberOfSegmentsToRequest) throws IOException {
+        if (numberOfSegmentsToRequest <= 0) {
+            throw new IllegalArgumentException("申请的内存段数量必须为正数: " + numberOfSegmentsToRequest);
+        }
+        synchronized (availableMemorySegments) {
+            if (isDestroyed) {
+                throw new IllegalStateException("网络内存池已经被销毁");
+            }
+            if (numTotalRequiredBuffers + numberOfSegmentsToRequest > totalNumberOfMemorySegments
+                    || availableMemorySegments.size() < numberOfSegmentsToRequest) {
+                throw new IOException(String.format("网络 buffer 不足: 需要 %d 个，总共 %d 个，已承诺 %d 个，空闲 %d 个",
+                        numberOfSegmentsToRequest, totalNumberOfMemorySegments, numTotalRequiredBuffers,
+                        availableMemorySegments.size()));
+            }
+
+            numTotalRequiredBuffers += numberOfSegmentsToRequest;
+            List<MemorySegment> segments = new ArrayList<>(numberOfSegmentsToRequest);
+            for (int i = 0; i < numberOfSegmentsToRequest; i++) {
+                segments.add(availableMemorySegments.poll());
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * 归还通过 {@link #requestMemorySegments(int)} 独占取走的内存段。
+     */
+    public void recycleMemorySegments(Collection<MemorySegment> segments) {
+        synchronized (availableMemorySegments) {
+            numTotalRequiredBuffers -= segments.size();
+            availableMemorySegments.addAll(segments);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //  供 LocalBufferPool 按需借用的内存段
+    // ------------------------------------------------------------------------
+
+    /**
+     * 借一个内存段，没有空闲的直接返回 {@code null}。只供 {@link LocalBufferPool} 使用，
+     * 不计入承诺数量，用完通过 {@link #recycle(MemorySegment)} 归还。
+     */
+    MemorySegment requestMemorySegment() {
+        synchronized (availableMemorySegments) {
+            return availableMemorySegments.poll();
+        }
+    }
+
+    @Override
+    public void recycle(MemorySegment memorySegment) {
+        synchronized (availableMemorySegments) {
+            availableMemorySegments.add(memorySegment);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //  LocalBufferPool 管理
+    // ------------------------------------------------------------------------
+
+    /**
+     * 创建一个至少能拿到 {@code numRequiredBuffers}、最多持有 {@code maxUsedBuffers} 个 buffer 的本地池。
+     */
+    public LocalBufferPool createBufferPool(int numRequiredBuffers, int maxUsedBuffers) throws IOException {
+        if (numRequiredBuffers < 0 || maxUsedBuffers < Math.max(1, numRequiredBuffers)) {
+            throw new IllegalArgumentException(String.format(
+                    "buffer 池的大小不合法: 最少 %d 个，最多 %d 个", numRequiredBuffers, maxUsedBuffers));
+        }
+        synchronized (availableMemorySegments) {
+            if (isDestroyed) {
+                throw new IllegalStateException("网络内存池已经被销毁");
+            }
+            if (numTotalRequiredBuffers + numRequiredBuffers > totalNumberOfMemorySegments) {
+                throw new IOException(String.format("网络 buffer 不足: 需要 %d 个，总共 %d 个，已承诺 %d 个",
+                        numRequiredBuffers, totalNumberOfMemorySegments, numTotalRequiredBuffers));
+            }
+            if (availableMemorySegments.size() < numRequiredBuffers) {
+                throw new IOException(String.format("网络 buffer 不足: 需要 %d 个，空闲 %d 个（其余被临时借走）",
+                        numRequiredBuffers, availableMemorySegments.size()));
+            }
+            numTotalRequiredBuffers += numRequiredBuffers;
+
+            // 最小数量直接划给本地池，保证之后一定能拿到
+            List<MemorySegment> requiredSegments = new ArrayList<>(numRequiredBuffers);
+            for (int i = 0; i < numRequiredBuffers; i++) {
+                requiredSegments.add(availableMemorySegments.poll());
+            }
+            LocalBufferPool localBufferPool =
+                    new LocalBufferPool(this, numRequiredBuffers, maxUsedBuffers, requiredSegments);
+            allBufferPools.add(localBufferPool);
+            return localBufferPool;
+        }
+    }
+
+    void destroyBufferPool(LocalBufferPool bufferPool) {
+        synchronized (availableMemorySegments) {
+            if (allBufferPools.remove(bufferPool)) {
+                numTotalRequiredBuffers -= bufferPool.getNumberOfRequiredMemorySegments();
+            }
+        }
+    }
+
+    public int getNumberOfRegisteredBufferPools() {
+        synchronized (availableMemorySegments) {
+            return allBufferPools.size();
+        }
+    }
+
+    /**
+     * 销毁内存池。之后不能再申请内存段，已经分配出去的内存段仍可以归还，内存最终由 GC 回收。
+     */
+    public void destroy() {
+        List<LocalBufferPool> bufferPools;
+        synchronized (availableMemorySegments) {
+            if (isDestroyed) {
+                return;
+            }
+            isDestroyed = true;
+            bufferPools = new ArrayList<>(allBufferPools);
+        }
+        for (LocalBufferPool bufferPool : bufferPools) {
+            bufferPool.lazyDestroy();
+        }
+        synchronized (availableMemorySegments) {
+            availableMemorySegments.clear();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cn.liboshuai.scratch.flink.mini.io;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 用一个 future 表示“现在有没有可读的数据”。（在 Flink 源码中对应 AvailabilityProvider）
+ *
+ * <p>调用方在没有数据时拿到一个未完成的 future，数据到达时由数据的来源完成它，
+ * 调用方因此可以等待任意多个来源而不需要轮询，也不需要为每个来源占用一个线程。
+ */
+public interface AvailabilityProvider {
+
+    /** 表示“已经有数据”的常量，避免每次都创建已完成的 future */
+    CompletableFuture<?> AVAILABLE = CompletableFuture.completedFuture(null);
+
+    /**
+     * @return 有数据时是已完成的 future；否则是一个会在有数据时完成的 future
+     */
+    CompletableFuture<?> getAvailableFuture();
+
+    default boolean isAvailable() {
+        CompletableFuture<?> future = getAvailableFuture();
+        return future == AVAILABLE || future.isDone();
+    }
+
+    /**
+     * 维护可用性 future 的小工具，不是线程安全的，由使用者在自己的锁里调用修改方法。
+     * （在 Flink 源码中对应 AvailabilityProvider.AvailabilityHelper）
+     */
+    final class AvailabilityHelper implements AvailabilityProvider {
+
+        /** 初始时不可用；读取不加锁，因此是 volatile 的 */
+        private volatile CompletableFuture<?> availableFuture = new CompletableFuture<>();
+
+        /**
+         * 变为不可用。已经是不可用时保留原来的 future，已经在等它的调用方不受影响。
+         */
+        public void resetUnavailable() {
+            if (isAvailable()) {
+                availableFuture = new CompletableFuture<>();
+            }
+        }
+
+        /**
+         * 变为可用，并返回之前的 future。调用方应在锁外完成它，避免在锁里执行等待方的回调。
+         */
+        public CompletableFuture<?> getUnavailableToResetAvailable() {
+            CompletableFuture<?> toNotify = availableFuture;
+            availableFuture = AVAILABLE;
+            return toNotify;
+        }
+
+        @Override
+        public CompletableFuture<?> getAvailableFuture() {
+            return availableFuture;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package cn.liboshuai.scratch.flink.mini.memory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * 一块固定大小的堆外内存（在 Flink 源码中对应 org.apache.flink.core.memory.MemorySegment）。
+ *
+ * <p>所有读写都通过 {@link MemoryUtils} 里的 Unsafe 直接按地址进行，多字节的基本类型一律按大端序（网络字节序）存放，
+ * 与 Netty ByteBuf 的默认字节序一致，因此序列化器写进来的数据可以原样发到网络上。
+ *
+ * <p>访问方法分两类：
+ * <ul>
+ *     <li>{@code getInt(int)} 等带边界检查，越界时抛出 {@link IndexOutOfBoundsException}；</li>
+ *     <li>{@code getIntUnchecked(int)} 等不做任何检查，供已经自行检查过范围的调用方使用
+ *     （例如 ByteBuf 的 {@code _getInt}，或者一次检查整条记录范围的序列化器），越界访问会直接破坏内存。</li>
+ * </ul>
+ * 内存段本身不是线程安全的，也不做引用计数，生命周期由持有它的 buffer 池管理。
+ */
+public final class MemorySegment {
+
+    private static final long BYTE_ARRAY_BASE_OFFSET = MemoryUtils.BYTE_ARRAY_BASE_OFFSET;
+
+    /** Unsafe 按本机字节序读写，小端机器上需要翻转成大端 */
+    private static final boolean LITTLE_ENDIAN = MemoryUtils.NATIVE_BYTE_ORDER == ByteOrder.LITTLE_ENDIAN;
+
+    /** 持有底层 ByteBuffer 的引用，保证内存在内存段存活期间不会被回收 */
+    private final ByteBuffer offHeapBuffer;
+
+    private final long address;
+
+    private final int size;
+
+    MemorySegment(ByteBuffer offHeapBuffer) {
+        this.offHeapBuffer = offHeapBuffer;
+        this.address = MemoryUtils.getByteBufferAddress(offHeapBuffer);
+        this.size = offHeapBuffer.capacity();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 内存段的起始地址，可以交给需要裸地址的组件（例如 Netty 的 epoll 传输层）直接读写。
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * 把 {@code [offset, offset + length)} 这一段包装成 ByteBuffer，不拷贝数据。
+     */
+    public ByteBuffer wrap(int offset, int length) {
+        checkIndex(offset, length);
+        ByteBuffer wrapper = offHeapBuffer.duplicate();
+        ((Buffer) wrapper).limit(offset + length);
+        ((Buffer) wrapper).position(offset);
+        return wrapper;
+    }
+
+    // ------------------------------------------------------------------------
+    //  带边界检查的基本类型访问
+    // ------------------------------------------------------------------------
+
+    public byte get(int index) {
+        checkIndex(index, 1);
+        return MemoryUtils.getByte(address + index);
+    }
+
+    public void put(int index, byte b) {
+        checkIndex(index, 1);
+        MemoryUtils.putByte(address + index, b);
+    }
+
+    public short getShort(int index) {
+        checkIndex(index, 2);
+        return getShortUnchecked(index);
+    }
+
+    public void putShort(int index, short value) {
+        checkIndex(index, 2);
+        putShortUnchecked(index, value);
+    }
+
+    public int getInt(int index) {
+        checkIndex(index, 4);
+        return getIntUnchecked(index);
+    }
+
+    public void putInt(int index, int value) {
+        checkIndex(index, 4);
+        putIntUnchecked(index, value);
+    }
+
+    public long getLong(int index) {
+        checkIndex(index, 8);
+        return getLongUnchecked(index);
+    }
+
+    public void putLong(int index, long value) {
+        checkIndex(index, 8);
+        putLongUnchecked(index, value);
+    }
+
+    // ------------------------------------------------------------------------
+    //  不做检查的基本类型访问，调用方必须自己保证范围合法
+    // ------------------------------------------------------------------------
+
+    public byte getUnchecked(int index) {
+        return MemoryUtils.getByte(address + index);
+    }
+
+    public void putUnchecked(int index, byte b) {
+        MemoryUtils.putByte(address + index, b);
+    }
+
+    public short getShortUnchecked(int index) {
+        short value = MemoryUtils.getShort(address + index);
+        return LITTLE_ENDIAN ? Short.reverseBytes(value) : value;
+    }
+
+    public void putShortUnchecked(int index, short value) {
+        MemoryUtils.putShort(address + index, LITTLE_ENDIAN ? Short.reverseBytes(value) : value);
+    }
+
+    public int getIntUnchecked(int index) {
+        int value = MemoryUtils.getInt(address + index);
+        return LITTLE_ENDIAN ? Integer.reverseBytes(value) : value;
+    }
+
+    public void putIntUnchecked(int index, int value) {
+        MemoryUtils.putInt(address + index, LITTLE_ENDIAN ? Integer.reverseBytes(value) : value);
+    }
+
+    public long getLongUnchecked(int index) {
+        long value = MemoryUtils.getLong(address + index);
+        return LITTLE_ENDIAN ? Long.reverseBytes(value) : value;
+    }
+
+    public void putLongUnchecked(int index, long value) {
+        MemoryUtils.putLong(address + index, LITTLE_ENDIAN ? Long.reverseBytes(value) : value);
+    }
+
+    // ------------------------------------------------------------------------
+    //  批量访问
+    // ------------------------------------------------------------------------
+
+    public void get(int index, byte[] dst, int offset, int length) {
+        checkIndex(index, length);
+        checkArrayRange(dst.length, offset, length);
+        MemoryUtils.copyMemory(null, address + index, dst, BYTE_ARRAY_BASE_OFFSET + offset, length);
+    }
+
+    public void put(int index, byte[] src, int offset, int length) {
+        checkIndex(index, length);
+        checkArrayRange(src.length, offset, length);
+        MemoryUtils.copyMemory(src, BYTE_ARRAY_BASE_OFFSET + offset, null, address + index, length);
+    }
+
+    /**
+     * 从 {@code offset} 开始拷贝 {@code numBytes} 个字节到 {@code target} 的当前位置，并推进 target 的 position。
+     */
+    public void get(int offset, ByteBuffer target, int numBytes) {
+        checkIndex(offset, numBytes);
+        if (target.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int targetPosition = target.position();
+        if (numBytes > target.remaining()) {
+            throw new IndexOutOfBoundsException("目标 ByteBuffer 剩余空间不足: " + target.remaining() + " < " + numBytes);
+        }
+
+        if (target.isDirect()) {
+            long targetAddress = MemoryUtils.getByteBufferAddress(target) + targetPosition;
+            MemoryUtils.copyMemory(address + offset, targetAddress, numBytes);
+        } else {
+            MemoryUtils.copyMemory(null, address + offset,
+                    target.array(), BYTE_ARRAY_BASE_OFFSET + target.arrayOffset() + targetPosition, numBytes);
+        }
+        ((Buffer) target).position(targetPosition + numBytes);
+    }
+
+    /**
+     * 把 {@code source} 当前位置开始的 {@code numBytes} 个字节拷贝到 {@code offset} 处，并推进 source 的 position。
+     */
+    public void put(int offset, ByteBuffer source, int numBytes) {
+        checkIndex(offset, numBytes);
+        int sourcePosition = source.position();
+        if (numBytes > source.remaining()) {
+            throw new IndexOutOfBoundsException("源 ByteBuffer 剩余数据不足: " + source.remaining() + " < " + numBytes);
+        }
+
+        if (source.isDirect()) {
+            long sourceAddress = MemoryUtils.getByteBufferAddress(source) + sourcePosition;
+            MemoryUtils.copyMemory(sourceAddress, address + offset, numBytes);
+        } else if (source.hasArray()) {
+            MemoryUtils.copyMemory(source.array(), BYTE_ARRAY_BASE_OFFSET + source.arrayOffset() + sourcePosition,
+                    null, address + offset, numBytes);
+        } else {
+            // 只读的堆内 ByteBuffer 拿不到数组，只能逐字节拷贝
+            for (int i = 0; i < numBytes; i++) {
+                MemoryUtils.putByte(address + offset + i, source.get(sourcePosition + i));
+            }
+        }
+        ((Buffer) source).position(sourcePosition + numBytes);
+    }
+
+    /**
+     * 拷贝到另一个内存段。
+     */
+    public void copyTo(int offset, MemorySegment target, int targetOffset, int numBytes) {
+        checkIndex(offset, numBytes);
+        target.checkIndex(targetOffset, numBytes);
+        MemoryUtils.copyMemory(address + offset, target.address + targetOffset, numBytes);
+    }
+
+    private void checkIndex(int index, int length) {
+        if (index < 0 || length < 0 || index > size - length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("index=%d, length=%d, 内存段大小=%d", index, length, size));
+        }
+    }
+
+    private static void checkArrayRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("offset=%d, length=%d, 数组长度=%d", offset, length, arrayLength));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MemorySegment(address=0x" + Long.toHexString(address) + ", size=" + size + ')';
+    }
+}
@@ -0,0 +1,26 @@
+package cn.liboshuai.scratch.flink.mini.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 创建 {@link MemorySegment} 的工厂（在 Flink 源码中对应 MemorySegmentFactory）。
+ */
+public final class MemorySegmentFactory {
+
+    private MemorySegmentFactory() {
+    }
+
+    /**
+     * 分配一块新的堆外内存段。内存随内存段对象一起被 GC 回收，适合网络 buffer 这种启动时一次性分配、长期复用的场景。
+     */
+    public static MemorySegment allocateUnpooledOffHeapMemory(int size) {
+        return new MemorySegment(ByteBuffer.allocateDirect(size));
+    }
+
+    /**
+     * 把一个已有的堆外 ByteBuffer（从 position 0 到 capacity）包装成内存段，不拷贝数据。
+     */
+    public static MemorySegment wrapOffHeapMemory(ByteBuffer memory) {
+        return new MemorySegment(memory);
+    }
+}
@@ -0,0 +1,208 @@
+package cn.liboshuai.scratch.flink.mini.memory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * 直接操作堆外内存用到的工具（在 Flink 源码中对应 org.apache.flink.core.memory.MemoryUtils）。
+ *
+ * <p>{@code sun.misc.Unsafe} 只通过反射拿到，源码里不出现这个类型，编译时因此没有内部 API 的警告。
+ * 用到的每个方法在类加载时解析成绑定了 Unsafe 实例的 {@link MethodHandle}，放在 static final 字段里，
+ * JIT 把它当作常量内联，调用开销与直接调用 Unsafe 相同。
+ */
+public final class MemoryUtils {
+
+    /** 本机字节序 */
+    public static final ByteOrder NATIVE_BYTE_ORDER = ByteOrder.nativeOrder();
+
+    /** sun.misc.Unsafe 的实例 */
+    private static final Object UNSAFE = getUnsafe();
+
+    private static final MethodHandle GET_BYTE = unsafeMethod("getByte", methodType(byte.class, long.class));
+
+    private static final MethodHandle PUT_BYTE = unsafeMethod("putByte", methodType(void.class, long.class, byte.class));
+
+    private static final MethodHandle GET_SHORT = unsafeMethod("getShort", methodType(short.class, long.class));
+
+    private static final MethodHandle PUT_SHORT = unsafeMethod("putShort", methodType(void.class, long.class, short.class));
+
+    private static final MethodHandle GET_INT = unsafeMethod("getInt", methodType(int.class, long.class));
+
+    private static final MethodHandle PUT_INT = unsafeMethod("putInt", methodType(void.class, long.class, int.class));
+
+    private static final MethodHandle GET_LONG = unsafeMethod("getLong", methodType(long.class, long.class));
+
+    private static final MethodHandle PUT_LONG = unsafeMethod("putLong", methodType(void.class, long.class, long.class));
+
+    private static final MethodHandle GET_LONG_FIELD =
+            unsafeMethod("getLong", methodType(long.class, Object.class, long.class));
+
+    private static final MethodHandle COPY_MEMORY =
+            unsafeMethod("copyMemory", methodType(void.class, Object.class, long.class, Object.class, long.class, long.class));
+
+    /** byte[] 第一个元素相对数组对象的偏移量 */
+    static final long BYTE_ARRAY_BASE_OFFSET = getByteArrayBaseOffset();
+
+    /** {@link Buffer#address} 字段的偏移量，用于取出堆外 ByteBuffer 的内存地址 */
+    private static final long BUFFER_ADDRESS_FIELD_OFFSET = getBufferAddressFieldOffset();
+
+    private MemoryUtils() {
+    }
+
+    private static Object getUnsafe() {
+        try {
+            Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            return unsafeField.get(null);
+        } catch (Exception e) {
+            throw new Error("无法获取 sun.misc.Unsafe，当前 JVM 不支持直接访问内存", e);
+        }
+    }
+
+    private static MethodHandle unsafeMethod(String name, MethodType type) {
+        try {
+            return MethodHandles.lookup().findVirtual(UNSAFE.getClass(), name, type).bindTo(UNSAFE);
+        } catch (ReflectiveOperationException e) {
+            throw new Error("无法定位 sun.misc.Unsafe#" + name + type, e);
+        }
+    }
+
+    private static long getByteArrayBaseOffset() {
+        try {
+            return (int) unsafeMethod("arrayBaseOffset", methodType(int.class, Class.class)).invoke(byte[].class);
+        } catch (Throwable t) {
+            throw new Error("无法获取 byte[] 的基础偏移量", t);
+        }
+    }
+
+    private static long getBufferAddressFieldOffset() {
+        try {
+            return (long) unsafeMethod("objectFieldOffset", methodType(long.class, Field.class))
+                    .invoke(Buffer.class.getDeclaredField("address"));
+        } catch (Throwable t) {
+            throw new Error("无法定位 java.nio.Buffer#address 字段", t);
+        }
+    }
+
+    /**
+     * 取出堆外 ByteBuffer 的起始内存地址。
+     */
+    static long getByteBufferAddress(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("只能获取堆外 ByteBuffer 的地址");
+        }
+        long address;
+        try {
+            address = (long) GET_LONG_FIELD.invokeExact((Object) buffer, BUFFER_ADDRESS_FIELD_OFFSET);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        if (address <= 0) {
+            throw new IllegalStateException("ByteBuffer 的内存地址不合法: " + address);
+        }
+        return address;
+    }
+
+    // ------------------------------------------------------------------------
+    //  按地址读写，按本机字节序，不做任何检查
+    // ------------------------------------------------------------------------
+
+    static byte getByte(long address) {
+        try {
+            return (byte) GET_BYTE.invokeExact(address);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void putByte(long address, byte value) {
+        try {
+            PUT_BYTE.invokeExact(address, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static short getShort(long address) {
+        try {
+            return (short) GET_SHORT.invokeExact(address);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void putShort(long address, short value) {
+        try {
+            PUT_SHORT.invokeExact(address, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int getInt(long address) {
+        try {
+            return (int) GET_INT.invokeExact(address);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void putInt(long address, int value) {
+        try {
+            PUT_INT.invokeExact(address, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long getLong(long address) {
+        try {
+            return (long) GET_LONG.invokeExact(address);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void putLong(long address, long value) {
+        try {
+            PUT_LONG.invokeExact(address, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * 在两块内存之间拷贝。{@code base} 为 {@code null} 时 {@code offset} 是绝对地址，否则是相对数组对象的偏移量。
+     */
+    static void copyMemory(Object srcBase, long srcOffset, Object destBase, long destOffset, long bytes) {
+        try {
+            COPY_MEMORY.invokeExact(srcBase, srcOffset, destBase, destOffset, bytes);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void copyMemory(long srcAddress, long destAddress, long bytes) {
+        copyMemory(null, srcAddress, null, destAddress, bytes);
+    }
+
+    /**
+     * Unsafe 的这些方法不抛出受检异常，这里只是满足 {@link MethodHandle#invokeExact} 的签名。
+     */
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
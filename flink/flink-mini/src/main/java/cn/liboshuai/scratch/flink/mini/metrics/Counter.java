@@ -0,0 +1,26 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的计数器。（在 Flink 源码中对应 ThreadSafeSimpleCounter）
+ *
+ * <p>底层是分段的 {@link LongAdder}：多个 EventLoop 线程同时累加时各自落在不同的 cell 上，
+ * 不会像 AtomicLong 那样在同一个缓存行上反复 CAS 失败；只有读取时才把各段加起来，而读取只发生在 JMX 线程里。
+ */
+public final class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void inc() {
+        count.increment();
+    }
+
+    public void inc(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+}
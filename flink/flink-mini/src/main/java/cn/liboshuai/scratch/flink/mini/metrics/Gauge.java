@@ -0,0 +1,12 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+/**
+ * 读取时才计算的瞬时值，例如当前 credit、积压数。（在 Flink 源码中对应 Gauge）
+ *
+ * <p>取值在 JMX 线程中进行，实现只能读取 volatile 或线程安全的状态，读到略旧的值是可以接受的。
+ */
+@FunctionalInterface
+public interface Gauge<T> {
+
+    T getValue();
+}
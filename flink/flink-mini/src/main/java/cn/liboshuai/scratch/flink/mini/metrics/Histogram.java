@@ -0,0 +1,88 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按 2 的幂分桶的直方图，用来记录编解码耗时这类跨好几个数量级的值。
+ * （Flink 用 DescriptiveStatisticsHistogram 保存最近的样本，这里换成了固定分桶）
+ *
+ * <p>记录一个值只是对所在的桶做一次 {@link LongAdder} 累加，没有锁、不分配对象，可以放在每条消息的路径上；
+ * 代价是分位数只精确到桶的上界，也就是不超过真实值的两倍。统计从创建起累计，不会过期。
+ */
+public final class Histogram {
+
+    /** 第 0 个桶只放 0，第 i 个桶放 [2^(i-1), 2^i) 内的值；非负的 long 最多 63 位，64 个桶正好够用 */
+    private static final int NUM_BUCKETS = Long.SIZE;
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个值，负数按 0 处理。
+     */
+    public void update(long value) {
+        long v = Math.max(value, 0);
+        buckets[NUM_BUCKETS - Long.numberOfLeadingZeros(v)].increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 估算分位数，返回第一个累计数量达到 {@code quantile} 的桶的上界，但不超过记录过的最大值。
+     */
+    public long getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("分位数必须在 [0, 1] 之间: " + quantile);
+        }
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(quantile * total), 1);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static long bucketUpperBound(int bucket) {
+        // 最后一个桶的上界 (1L << 63) - 1 正好是 Long.MAX_VALUE
+        return (1L << bucket) - 1;
+    }
+}
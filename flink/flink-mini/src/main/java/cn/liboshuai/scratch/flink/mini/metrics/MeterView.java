@@ -0,0 +1,60 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+/**
+ * 由 {@link Counter} 换算出的每秒速率。（在 Flink 源码中对应 MeterView）
+ *
+ * <p>热路径上只累加计数器；{@link MetricRegistry} 的更新线程每 {@link #UPDATE_INTERVAL_SECONDS} 秒
+ * 调用一次 {@link #update()} 记下计数，速率是最近 {@code timeSpanInSeconds} 秒内计数的差值除以时长。
+ */
+public class MeterView {
+
+    /** 更新线程调用 {@link #update()} 的间隔 */
+    public static final int UPDATE_INTERVAL_SECONDS = 5;
+
+    private static final int DEFAULT_TIME_SPAN_IN_SECONDS = 60;
+
+    private final Counter counter;
+
+    /** 计算速率的时间窗口，取整到更新间隔的倍数 */
+    private final int timeSpanInSeconds;
+
+    /** 窗口内每次更新时的计数，环形使用，只在更新线程中访问 */
+    private final long[] values;
+
+    private int time;
+
+    private volatile double currentRate;
+
+    public MeterView(Counter counter) {
+        this(counter, DEFAULT_TIME_SPAN_IN_SECONDS);
+    }
+
+    public MeterView(Counter counter, int timeSpanInSeconds) {
+        this.counter = counter;
+        this.timeSpanInSeconds = Math.max(
+                timeSpanInSeconds - (timeSpanInSeconds % UPDATE_INTERVAL_SECONDS), UPDATE_INTERVAL_SECONDS);
+        this.values = new long[this.timeSpanInSeconds / UPDATE_INTERVAL_SECONDS + 1];
+    }
+
+    public void markEvent() {
+        counter.inc();
+    }
+
+    public void markEvent(long n) {
+        counter.inc(n);
+    }
+
+    public long getCount() {
+        return counter.getCount();
+    }
+
+    public double getRate() {
+        return currentRate;
+    }
+
+    void update() {
+        time = (time + 1) % values.length;
+        values[time] = counter.getCount();
+        currentRate = ((double) (values[time] - values[(time + 1) % values.length]) / timeSpanInSeconds);
+    }
+}
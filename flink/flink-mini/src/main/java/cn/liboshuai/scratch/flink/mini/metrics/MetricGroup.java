@@ -0,0 +1,133 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一组属于同一个对象（一条连接、一个通道）的指标，注册到 JMX 后作为一个 MBean，每个指标是它的一个只读属性。
+ * （在 Flink 源码中对应 MetricGroup，JMX 的部分对应 JMXReporter）
+ *
+ * <p>指标对象由使用方持有并直接更新，这里只保存读取它们的方式；属性值在 JMX 线程中按需计算。
+ * 直方图展开成 Count、Mean、P50、P99、Max 五个属性。
+ */
+public class MetricGroup implements DynamicMBean {
+
+    private static final String LONG_TYPE = Long.class.getName();
+
+    private static final String DOUBLE_TYPE = Double.class.getName();
+
+    /** 属性名到取值方式，按添加顺序排列 */
+    private final Map<String, Gauge<?>> attributes = new LinkedHashMap<>();
+
+    private final Map<String, String> attributeTypes = new LinkedHashMap<>();
+
+    private final List<MeterView> meters = new ArrayList<>();
+
+    public Counter counter(String name) {
+        Counter counter = new Counter();
+        addAttribute(name, LONG_TYPE, counter::getCount);
+        return counter;
+    }
+
+    /**
+     * 为已有的计数器添加一个每秒速率，速率由 {@link MetricRegistry} 的更新线程定期计算。
+     */
+    public MeterView meter(String name, Counter counter) {
+        MeterView meter = new MeterView(counter);
+        addAttribute(name, DOUBLE_TYPE, meter::getRate);
+        synchronized (this) {
+            meters.add(meter);
+        }
+        return meter;
+    }
+
+    public void gauge(String name, Gauge<Long> gauge) {
+        addAttribute(name, LONG_TYPE, gauge);
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        addAttribute(name + "Count", LONG_TYPE, histogram::getCount);
+        addAttribute(name + "Mean", DOUBLE_TYPE, histogram::getMean);
+        addAttribute(name + "P50", LONG_TYPE, () -> histogram.getQuantile(0.5));
+        addAttribute(name + "P99", LONG_TYPE, () -> histogram.getQuantile(0.99));
+        addAttribute(name + "Max", LONG_TYPE, histogram::getMax);
+        return histogram;
+    }
+
+    private synchronized void addAttribute(String name, String type, Gauge<?> gauge) {
+        if (attributes.containsKey(name)) {
+            throw new IllegalArgumentException("指标已经存在: " + name);
+        }
+        attributes.put(name, gauge);
+        attributeTypes.put(name, type);
+    }
+
+    /**
+     * 由更新线程定期调用，刷新所有速率。
+     */
+    synchronized void updateMeters() {
+        for (MeterView meter : meters) {
+            meter.update();
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Gauge<?> gauge;
+        synchronized (this) {
+            gauge = attributes.get(attribute);
+        }
+        if (gauge == null) {
+            throw new AttributeNotFoundException("没有这个指标: " + attribute);
+        }
+        return gauge.getValue();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("指标是只读的: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException ignored) {
+                // 按 DynamicMBean 的约定，取不到的属性直接不出现在结果里
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "指标不支持操作: " + actionName);
+    }
+
+    @Override
+    public synchronized MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : attributeTypes.entrySet()) {
+            infos[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue(), entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "网络栈指标", infos, null, null, null);
+    }
+}
@@ -0,0 +1,124 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 {@link MetricGroup} 发布为 JMX MBean，并定期刷新其中的速率。
+ * （在 Flink 源码中对应 MetricRegistryImpl 加上 JMXReporter 和 ViewUpdater）
+ *
+ * <p>MBean 的名字是 {@code cn.liboshuai.scratch.flink.mini:type=<类型>,name=<名字>}。
+ * 注册失败只打日志，指标问题不能影响数据传输。{@link #NO_OP} 什么都不注册，指标照常累加但不对外发布。
+ */
+public class MetricRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricRegistry.class);
+
+    public static final String JMX_DOMAIN = "cn.liboshuai.scratch.flink.mini";
+
+    /** 不发布任何指标，测试和关闭了 JMX 的配置使用 */
+    public static final MetricRegistry NO_OP = new MetricRegistry(null);
+
+    private final MBeanServer mBeanServer;
+
+    private final Map<MetricGroup, ObjectName> registeredGroups = new ConcurrentHashMap<>();
+
+    private final ViewUpdater viewUpdater;
+
+    /**
+     * 发布到当前 JVM 的平台 MBeanServer。
+     */
+    public MetricRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    private MetricRegistry(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+        if (mBeanServer != null) {
+            viewUpdater = new ViewUpdater();
+            viewUpdater.start();
+        } else {
+            viewUpdater = null;
+        }
+    }
+
+    public void register(String type, String name, MetricGroup group) {
+        if (mBeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            mBeanServer.registerMBean(group, objectName);
+            registeredGroups.put(group, objectName);
+        } catch (JMException e) {
+            LOG.warn("无法注册 {} {} 的指标", type, name, e);
+        }
+    }
+
+    public void unregister(MetricGroup group) {
+        ObjectName objectName = registeredGroups.remove(group);
+        if (objectName == null) {
+            return;
+        }
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException ignored) {
+            // 已经被注销了
+        } catch (JMException e) {
+            LOG.warn("无法注销指标 {}", objectName, e);
+        }
+    }
+
+    public void shutdown() {
+        if (viewUpdater != null) {
+            viewUpdater.terminate();
+        }
+        for (MetricGroup group : registeredGroups.keySet()) {
+            unregister(group);
+        }
+    }
+
+    /**
+     * 每隔 {@link MeterView#UPDATE_INTERVAL_SECONDS} 秒刷新一次已注册指标组的速率。
+     */
+    private class ViewUpdater extends Thread {
+
+        private volatile boolean running = true;
+
+        ViewUpdater() {
+            super("Metric View Updater");
+            setDaemon(true);
+        }
+
+        void terminate() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(MeterView.UPDATE_INTERVAL_SECONDS));
+                } catch (InterruptedException e) {
+                    if (running) {
+                        LOG.warn("{} 被意外中断，停止刷新指标", getName());
+                    }
+                    return;
+                }
+                for (MetricGroup group : registeredGroups.keySet()) {
+                    group.updateMeters();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * BufferResponse 的流式解码器：先累积固定长度的消息 header，
+ * 解析出接收者后向 {@link NetworkBufferAllocator} 要一块属于它的 buffer，
+ * 然后把数据字节随到随写进这块 buffer，整条消息从不在解码器里完整累积。
+ *
+ * <p>紧凑格式的 header 以变长下标开头，长度要等下标的最后一个字节到达后才能确定。
+ */
+class BufferResponseDecoder extends ClientMessageDecoder {
+
+    private final NetworkBufferAllocator allocator;
+
+    /** 累积消息 header 用的小 buffer */
+    private ByteBuf messageHeaderBuffer;
+
+    /** header 解析完成后创建，数据全部到齐前一直是“半成品” */
+    private NettyMessage.BufferResponse bufferResponse;
+
+    /** 当前消息的数据部分还剩多少字节没读 */
+    private int remainingDataBytes;
+
+    /** 当前消息 header 的长度，紧凑格式在下标读完之前为 -1 */
+    private int messageHeaderLength = -1;
+
+    BufferResponseDecoder(NetworkBufferAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    void onChannelActive(ByteBufAllocator alloc) {
+        messageHeaderBuffer = alloc.directBuffer(NettyMessage.BufferResponse.MESSAGE_HEADER_LENGTH);
+    }
+
+    @Override
+    DecodingResult onChannelRead(ByteBuf data) throws Exception {
+        if (bufferResponse == null) {
+            boolean compact = NettyMessage.BufferResponse.isCompact(msgId);
+            if (messageHeaderLength < 0) {
+                if (!compact) {
+                    messageHeaderLength = NettyMessage.BufferResponse.MESSAGE_HEADER_LENGTH;
+                } else if (!decodeCompactHeaderLength(data)) {
+                    return DecodingResult.NOT_FINISHED;
+                }
+            }
+
+            ByteBuf header = ByteBufUtils.accumulate(messageHeaderBuffer, data, messageHeaderLength);
+            if (header == null) {
+                return DecodingResult.NOT_FINISHED;
+            }
+
+            int dataLength = messageLength - messageHeaderLength;
+            if (dataLength < 0) {
+                throw new IllegalStateException("BufferResponse 的帧长度不正确: " + messageLength);
+            }
+            DataType dataType = NettyMessage.BufferResponse.getDataType(msgId);
+            bufferResponse = compact
+                    ? NettyMessage.BufferResponse.readCompactFrom(header, allocator, dataLength, dataType)
+                    : NettyMessage.BufferResponse.readFrom(header, allocator, dataLength, dataType);
+            remainingDataBytes = dataLength;
+        }
+
+        if (remainingDataBytes > 0) {
+            int actualBytesToDecode = Math.min(data.readableBytes(), remainingDataBytes);
+            ByteBuf dataBuffer = bufferResponse.getBuffer();
+            if (dataBuffer != null) {
+                // 唯一的一次拷贝：从 Socket 读到的 buffer 直接写进接收者自己的 buffer
+                dataBuffer.writeBytes(data, actualBytesToDecode);
+            } else {
+                // 接收者已经不在了，数据直接丢弃
+                data.skipBytes(actualBytesToDecode);
+            }
+            remainingDataBytes -= actualBytesToDecode;
+        }
+
+        if (remainingDataBytes == 0) {
+            NettyMessage.BufferResponse result = bufferResponse;
+            clearState();
+            return DecodingResult.fullMessage(result);
+        }
+        return DecodingResult.NOT_FINISHED;
+    }
+
+    /**
+     * 把紧凑 header 开头的变长下标逐字节攒进 header buffer，下标结束后确定 header 的总长度。
+     *
+     * @return header 长度是否已经确定
+     */
+    private boolean decodeCompactHeaderLength(ByteBuf data) {
+        while (data.isReadable()) {
+            byte b = data.readByte();
+            messageHeaderBuffer.writeByte(b);
+            if ((b & 0x80) == 0) {
+                messageHeaderLength = messageHeaderBuffer.readableBytes()
+                        + NettyMessage.BufferResponse.COMPACT_MESSAGE_HEADER_FIXED_LENGTH;
+                return true;
+            }
+            if (messageHeaderBuffer.readableBytes() >= ByteBufUtils.MAX_VAR_INT_LENGTH) {
+                throw new IllegalStateException("BufferResponse 的接收者下标超过 "
+                        + ByteBufUtils.MAX_VAR_INT_LENGTH + " 个字节");
+            }
+        }
+        return false;
+    }
+
+    private void clearState() {
+        bufferResponse = null;
+        remainingDataBytes = 0;
+        messageHeaderLength = -1;
+        messageHeaderBuffer.clear();
+    }
+
+    @Override
+    public void close() {
+        if (bufferResponse != null && bufferResponse.getBuffer() != null) {
+            bufferResponse.getBuffer().release();
+        }
+        bufferResponse = null;
+        if (messageHeaderBuffer != null) {
+            messageHeaderBuffer.release();
+            messageHeaderBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 解码时常用的 ByteBuf 小工具。
+ */
+final class ByteBufUtils {
+
+    private ByteBufUtils() {
+    }
+
+    /**
+     * 凑齐 {@code targetAccumulationSize} 个字节。
+     *
+     * <p>如果 {@code target} 还是空的并且 {@code src} 里已经有足够的字节，
+     * 就直接返回 {@code src} 本身（调用方直接从中读取），省掉一次拷贝；
+     * 否则把字节拷贝进 {@code target}，凑齐后返回 {@code target}，没凑齐返回 {@code null}。
+     */
+    static ByteBuf accumulate(ByteBuf target, ByteBuf src, int targetAccumulationSize) {
+        if (target.readableBytes() == 0 && src.readableBytes() >= targetAccumulationSize) {
+            return src;
+        }
+
+        int copyLength = Math.min(src.readableBytes(), targetAccumulationSize - target.readableBytes());
+        if (copyLength > 0) {
+            target.writeBytes(src, copyLength);
+        }
+
+        if (target.readableBytes() == targetAccumulationSize) {
+            return target;
+        }
+        return null;
+    }
+
+    /** 一个 int 编码成变长整数后最多占用的字节数 */
+    static final int MAX_VAR_INT_LENGTH = 5;
+
+    /**
+     * 以变长整数（每字节 7 位，最高位表示后面还有字节）写出一个非负 int，小于 128 的值只占 1 个字节。
+     */
+    static void writeVarInt(ByteBuf buf, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("只支持非负数: " + value);
+        }
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf buf) {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VAR_INT_LENGTH; shift += 7) {
+            byte b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("变长整数超过 " + MAX_VAR_INT_LENGTH + " 个字节");
+    }
+
+    static int varIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
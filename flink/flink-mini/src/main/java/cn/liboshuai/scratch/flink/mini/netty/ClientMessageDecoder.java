@@ -0,0 +1,60 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 客户端单条消息的解码器基类。
+ * 帧头（长度 + 魔数 + 消息 ID）由 {@link NettyMessageClientDecoderDelegate} 统一解析，
+ * 之后的字节按到达顺序分批交给具体的子解码器，子解码器自己决定要不要累积。
+ */
+abstract class ClientMessageDecoder implements AutoCloseable {
+
+    /** 当前正在解码的消息 ID */
+    protected int msgId;
+
+    /** 当前消息去掉帧头后的长度 */
+    protected int messageLength;
+
+    /**
+     * 通知有一条新消息开始解码。
+     */
+    void onNewMessageReceived(int msgId, int messageLength) {
+        this.msgId = msgId;
+        this.messageLength = messageLength;
+    }
+
+    /**
+     * 喂入新到达的字节。只会消费属于当前消息的部分，剩余字节留给下一条消息。
+     */
+    abstract DecodingResult onChannelRead(ByteBuf data) throws Exception;
+
+    @Override
+    public abstract void close();
+
+    /**
+     * 一次 {@link #onChannelRead(ByteBuf)} 的结果：消息要么已经完整，要么还需要更多字节。
+     */
+    static final class DecodingResult {
+        static final DecodingResult NOT_FINISHED = new DecodingResult(false, null);
+
+        private final boolean finished;
+        private final NettyMessage message;
+
+        private DecodingResult(boolean finished, NettyMessage message) {
+            this.finished = finished;
+            this.message = message;
+        }
+
+        static DecodingResult fullMessage(NettyMessage message) {
+            return new DecodingResult(true, message);
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        NettyMessage getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * 标识一条到远端 TaskManager 的 TCP 连接：远端地址 + 连接下标。
+ * 同一个远端地址可以有多条连接，连接下标用来区分它们。
+ */
+public class ConnectionID {
+
+    private final InetSocketAddress address;
+
+    private final int connectionIndex;
+
+    public ConnectionID(InetSocketAddress address, int connectionIndex) {
+        this.address = Objects.requireNonNull(address);
+        if (connectionIndex < 0) {
+            throw new IllegalArgumentException("连接下标不能为负数: " + connectionIndex);
+        }
+        this.connectionIndex = connectionIndex;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public int getConnectionIndex() {
+        return connectionIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ConnectionID that = (ConnectionID) o;
+        return connectionIndex == that.connectionIndex && address.equals(that.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return address.hashCode() * 31 + connectionIndex;
+    }
+
+    @Override
+    public String toString() {
+        return address + " [" + connectionIndex + "]";
+    }
+}
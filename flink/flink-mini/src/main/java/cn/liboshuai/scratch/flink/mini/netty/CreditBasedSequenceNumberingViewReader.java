@@ -0,0 +1,204 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.metrics.Counter;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricGroup;
+import cn.liboshuai.scratch.flink.mini.partition.BufferAndBacklog;
+import cn.liboshuai.scratch.flink.mini.partition.BufferAvailabilityListener;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionProvider;
+import cn.liboshuai.scratch.flink.mini.partition.ResultSubpartitionView;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端为每个下游 InputChannel 维护的读取器：包装一个子分区视图，记录对方还剩多少 credit，
+ * 并给发出的每个 buffer 编上递增的序号。
+ * （在 Flink 源码中对应 CreditBasedSequenceNumberingViewReader）
+ *
+ * <p>除了 {@link #notifyDataAvailable()} 之外，其余方法只在所属 Channel 的 EventLoop 线程中调用。
+ *
+ * <p>读取器的指标包括发出的字节数和 buffer 数、剩余 credit、子分区积压数，以及累计的“无 credit 时间”：
+ * 从 credit 耗尽到下一次 AddCredit 之间的时长，持续增长说明下游处理不过来，是反压的直接信号。
+ *
+ * <p>优先事件不消耗 credit：没有 credit 时读取器也会为它进入可用队列，并且排到队首。
+ */
+class CreditBasedSequenceNumberingViewReader implements BufferAvailabilityListener {
+
+    private final InputChannelID receiverId;
+
+    /** 客户端分配的连接内下标，不为 NO_RECEIVER_INDEX 时用紧凑格式发送 BufferResponse */
+    private final int receiverIndex;
+
+    private final PartitionRequestQueue requestQueue;
+
+    private volatile ResultSubpartitionView subpartitionView;
+
+    /** 下游还能接收多少个 buffer，每发出一个 BufferResponse 消耗一个；JMX 线程也会读取 */
+    private volatile int numCreditsAvailable;
+
+    private int sequenceNumber;
+
+    /** 是否已经在 {@link PartitionRequestQueue} 的可用队列里，避免重复入队 */
+    private boolean isRegisteredAsAvailable;
+
+    private final MetricGroup metricGroup = new MetricGroup();
+
+    private final Counter numBytesOut;
+
+    private final Counter numBuffersOut;
+
+    /** 已经结束的无 credit 时段的总时长 */
+    private final Counter timeWithoutCreditNanos;
+
+    /** 当前无 credit 时段的开始时间，有 credit 时为 -1 */
+    private volatile long noCreditSinceNanos = -1;
+
+    CreditBasedSequenceNumberingViewReader(InputChannelID receiverId, int initialCredit,
+                                           PartitionRequestQueue requestQueue) {
+        this(receiverId, NettyMessage.NO_RECEIVER_INDEX, initialCredit, requestQueue);
+    }
+
+    CreditBasedSequenceNumberingViewReader(InputChannelID receiverId, int receiverIndex, int initialCredit,
+                                           PartitionRequestQueue requestQueue) {
+        this.receiverId = receiverId;
+        this.receiverIndex = receiverIndex;
+        this.numCreditsAvailable = initialCredit;
+        this.requestQueue = requestQueue;
+
+        numBytesOut = metricGroup.counter("numBytesOut");
+        metricGroup.meter("numBytesOutPerSecond", numBytesOut);
+        numBuffersOut = metricGroup.counter("numBuffersOut");
+        metricGroup.meter("numBuffersOutPerSecond", numBuffersOut);
+        timeWithoutCreditNanos = new Counter();
+        metricGroup.gauge("numCreditsAvailable", () -> (long) numCreditsAvailable);
+        metricGroup.gauge("backlog", () -> {
+            ResultSubpartitionView view = subpartitionView;
+            return view == null ? 0L : view.getNumberOfQueuedBuffers();
+        });
+        metricGroup.gauge("timeWithoutCreditMs", this::getTimeWithoutCreditMillis);
+    }
+
+    void requestSubpartitionView(ResultPartitionProvider partitionProvider,
+                                 ResultPartitionID partitionId,
+                                 int subpartitionIndex) throws IOException {
+        if (subpartitionView != null) {
+            throw new IllegalStateException("已经请求过子分区视图了: " + receiverId);
+        }
+        subpartitionView = partitionProvider.createSubpartitionView(partitionId, subpartitionIndex, this);
+    }
+
+    InputChannelID getReceiverId() {
+        return receiverId;
+    }
+
+    int getReceiverIndex() {
+        return receiverIndex;
+    }
+
+    int getNumCreditsAvailable() {
+        return numCreditsAvailable;
+    }
+
+    void addCredit(int creditDeltas) {
+        long noCreditSince = noCreditSinceNanos;
+        if (noCreditSince >= 0 && creditDeltas > 0) {
+            timeWithoutCreditNanos.inc(System.nanoTime() - noCreditSince);
+            noCreditSinceNanos = -1;
+        }
+        numCreditsAvailable += creditDeltas;
+    }
+
+    /**
+     * 累计的无 credit 时间，包括正在进行中的那一段。
+     */
+    private long getTimeWithoutCreditMillis() {
+        long noCreditSince = noCreditSinceNanos;
+        long nanos = timeWithoutCreditNanos.getCount();
+        if (noCreditSince >= 0) {
+            nanos += System.nanoTime() - noCreditSince;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    MetricGroup getMetricGroup() {
+        return metricGroup;
+    }
+
+    /**
+     * 下游根据实测吞吐量要求以后按 {@code bufferSize} 切分 buffer。
+     */
+    void notifyNewBufferSize(int bufferSize) {
+        subpartitionView.notifyNewBufferSize(bufferSize);
+    }
+
+    boolean isRegisteredAsAvailable() {
+        return isRegisteredAsAvailable;
+    }
+
+    void setRegisteredAsAvailable(boolean isRegisteredAsAvailable) {
+        this.isRegisteredAsAvailable = isRegisteredAsAvailable;
+    }
+
+    /**
+     * 既有数据又有 credit 时才能发送；队头是优先事件时不需要 credit。
+     */
+    boolean isAvailable() {
+        return numCreditsAvailable > 0 ? subpartitionView.isAvailable() : subpartitionView.hasPriorityEvent();
+    }
+
+    /**
+     * 取出下一条要发送的 BufferResponse，数据 buffer 消耗一个 credit，优先事件不消耗。子分区此时的积压数随消息一起发给下游。
+     *
+     * @return 下一条消息；没有 credit 并且没有优先事件、或者暂时没有数据时返回 {@code null}
+     * @throws IOException 子分区从文件读取数据失败
+     */
+    NettyMessage.BufferResponse getNextBuffer() throws IOException {
+        // 优先事件只会被这个线程取走，检查之后不会消失
+        if (numCreditsAvailable <= 0 && !subpartitionView.hasPriorityEvent()) {
+            return null;
+        }
+        BufferAndBacklog next = subpartitionView.getNextBuffer();
+        if (next == null) {
+            return null;
+        }
+        if (next.dataType().isBuffer() && --numCreditsAvailable == 0) {
+            noCreditSinceNanos = System.nanoTime();
+        }
+        numBytesOut.inc(next.getSize());
+        numBuffersOut.inc();
+        if (next.isFileRegion()) {
+            return new NettyMessage.BufferResponse(
+                    receiverId, receiverIndex, sequenceNumber++, next.buffersInBacklog(), next.fileRegion());
+        }
+        return new NettyMessage.BufferResponse(
+                receiverId, receiverIndex, sequenceNumber++, next.buffersInBacklog(), next.buffer(), next.dataType());
+    }
+
+    /**
+     * 子分区有新数据了（可能在生产者线程中回调），交给队列切回 EventLoop 处理。
+     */
+    @Override
+    public void notifyDataAvailable() {
+        requestQueue.notifyReaderNonEmpty(this);
+    }
+
+    /**
+     * 子分区排进了优先事件（可能在生产者线程中回调），让队列把这个读取器排到最前面。
+     */
+    @Override
+    public void notifyPriorityEvent() {
+        requestQueue.notifyReaderPriorityEvent(this);
+    }
+
+    void releaseAllResources() {
+        if (subpartitionView != null) {
+            subpartitionView.releaseAllResources();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CreditBasedSequenceNumberingViewReader{receiverId=" + receiverId
+                + ", credit=" + numCreditsAvailable + ", sequenceNumber=" + sequenceNumber + '}';
+    }
+}
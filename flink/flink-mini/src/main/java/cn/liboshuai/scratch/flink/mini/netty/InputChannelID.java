@@ -1,42 +1,30 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import cn.liboshuai.scratch.flink.mini.util.AbstractID;
 import io.netty.buffer.ByteBuf;
-import java.util.UUID;
 
 /**
  * 简化的 InputChannelID，用于标识消费者端的接收通道。
- * 在 Flink 中，这通常由 16 个字节的 UUID 组成。
+ * 在 Flink 中，这通常由 16 个字节（两个 long）组成。
  */
-public class InputChannelID {
-    private final UUID uuid;
+public class InputChannelID extends AbstractID {
 
     public InputChannelID() {
-        this(UUID.randomUUID());
+        super();
     }
 
-    public InputChannelID(UUID uuid) {
-        this.uuid = uuid;
+    public InputChannelID(long upperPart, long lowerPart) {
+        super(upperPart, lowerPart);
     }
 
-    // 写入 ByteBuf
-    public void writeTo(ByteBuf buf) {
-        buf.writeLong(uuid.getMostSignificantBits());
-        buf.writeLong(uuid.getLeastSignificantBits());
-    }
-
-    // 从 ByteBuf 读取
+    // 从 ByteBuf 读取。热路径上请直接读两个 long 去查找已注册的通道，避免每条消息创建一个新对象
     public static InputChannelID fromByteBuf(ByteBuf buf) {
-        long mostSigBits = buf.readLong();
-        long leastSigBits = buf.readLong();
-        return new InputChannelID(new UUID(mostSigBits, leastSigBits));
+        long upperPart = buf.readLong();
+        long lowerPart = buf.readLong();
+        return new InputChannelID(upperPart, lowerPart);
     }
 
     public static int getByteBufLength() {
-        return 16; // 两个 long 占用 16 字节
-    }
-
-    @Override
-    public String toString() {
-        return uuid.toString();
+        return SIZE; // 两个 long 占用 16 字节
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,21 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetSocketAddress;
+
 public class NettyClient {
     private static final Logger LOG = LoggerFactory.getLogger(NettyClient.class);
 
@@ -18,7 +23,7 @@ public class NettyClient {
     private final NettyProtocol protocol;
 
     private Bootstrap bootstrap;
-    private NioEventLoopGroup clientGroup;
+    private EventLoopGroup clientGroup;
 
     public NettyClient(NettyConfig config, NettyProtocol protocol) {
         this.config = config;
@@ -26,13 +31,23 @@ public class NettyClient {
     }
 
     public void start() {
-        clientGroup = new NioEventLoopGroup(config.getClientNumThreads());
+        bootstrap = new Bootstrap();
+
+        NettyConfig.TransportType transportType = config.resolveTransportType();
+        if (transportType == NettyConfig.TransportType.EPOLL) {
+            clientGroup = new EpollEventLoopGroup(config.getClientNumThreads());
+            bootstrap.group(clientGroup).channel(EpollSocketChannel.class);
+        } else {
+            clientGroup = new NioEventLoopGroup(config.getClientNumThreads());
+            bootstrap.group(clientGroup).channel(NioSocketChannel.class);
+        }
 
-        bootstrap = new Bootstrap()
-                .group(clientGroup)
-                .channel(NioSocketChannel.class)
+        bootstrap
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getClientConnectTimeoutMillis())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
@@ -40,12 +55,21 @@ public class NettyClient {
                     }
                 });
 
-        LOG.info("Netty 客户端已就绪。");
+        if (config.getSendBufferSize() > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+
+        LOG.info("Netty 客户端已就绪，传输层 {}", transportType);
     }
 
-    public Channel connect() throws InterruptedException {
-        ChannelFuture future = bootstrap.connect(config.getServerAddress(), config.getServerPort()).sync();
-        return future.channel();
+    /**
+     * 异步连接到指定的远端，由调用方决定是否等待。
+     */
+    public ChannelFuture connect(InetSocketAddress serverSocketAddress) {
+        return bootstrap.connect(serverSocketAddress);
     }
 
     public void shutdown() {
@@ -54,4 +78,4 @@ public class NettyClient {
         }
         LOG.info("Netty 客户端已关闭。");
     }
-}
\ No newline at end of file
+}
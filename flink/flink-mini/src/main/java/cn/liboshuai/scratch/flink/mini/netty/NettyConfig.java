@@ -1,21 +1,146 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import io.netty.channel.epoll.Epoll;
 import lombok.Getter;
+import lombok.Setter;
 
 /**
  * 简化版的 Netty 相关的配置参数
  */
 @Getter
 public class NettyConfig {
+
+    /**
+     * 传输层实现：AUTO 在 epoll 可用时使用 epoll，否则回退到 NIO。
+     */
+    public enum TransportType {
+        NIO, EPOLL, AUTO
+    }
+
     private final String serverAddress;
     private final int serverPort;
     private final int serverNumThreads;
     private final int clientNumThreads;
 
+    /**
+     * BufferResponse 是否使用零拷贝编码：只写帧头，数据 buffer 原样交给 Channel。
+     * 关闭后退回到“分配整块 buffer 再拷贝数据”的旧实现，仅用于对比。
+     */
+    @Setter
+    private boolean zeroCopyEncoding = true;
+
+    /**
+     * 单个网络 buffer 的大小（字节）。客户端解码时 BufferResponse 的数据部分不允许超过它。
+     */
+    @Setter
+    private int networkBufferSize = 32 * 1024;
+
+    /** 启动时一次性分配的网络 buffer 总数，每个大小为 {@link #networkBufferSize}，决定了网络内存的上限 */
+    @Setter
+    private int numberOfNetworkBuffers = 1024;
+
+    /** 每个 InputChannel 的独占 buffer 数，也就是它请求子分区时的初始 credit */
+    @Setter
+    private int networkBuffersPerChannel = 2;
+
+    /** 每个 InputGate 内所有通道共享的浮动 buffer 数 */
+    @Setter
+    private int floatingBuffersPerGate = 8;
+
+    /** 到同一个远端最多建立多少条 TCP 连接，所有 InputChannel 在这些连接上多路复用 */
+    @Setter
+    private int maxNumberOfConnections = 1;
+
+    /**
+     * 客户端是否在 PartitionRequest 中为 InputChannel 申请连接内下标。
+     * 服务端支持时，BufferResponse 和 AddCredit 用变长下标代替 16 字节的 InputChannelID；
+     * 不支持的服务端会忽略这个字段，双方继续使用完整 ID。
+     */
+    @Setter
+    private boolean compactReceiverIndex = true;
+
+    /**
+     * 是否开启 buffer debloating：InputGate 定期按实测吞吐量算出合适的 buffer 大小通知上游，
+     * 让在途数据量保持在 {@link #bufferDebloatTargetMillis} 毫秒内能消费完，减少反压时堆积的数据。
+     */
+    @Setter
+    private boolean bufferDebloatEnabled = false;
+
+    /** 在途数据期望在多少毫秒内被消费完 */
+    @Setter
+    private long bufferDebloatTargetMillis = 1000;
+
+    /** 多久重新计算一次 buffer 大小 */
+    @Setter
+    private long bufferDebloatPeriodMillis = 200;
+
+    /** debloating 算出的 buffer 大小下限（字节），上限为 {@link #networkBufferSize} */
+    @Setter
+    private int bufferDebloatMinBufferSize = 256;
+
+    /** 新大小与上次通知的大小相差不到这个百分比时不通知上游 */
+    @Setter
+    private int bufferDebloatThresholdPercentages = 25;
+
+    /** 对 buffer 大小做指数移动平均时参考的样本数，越大越平滑、反应越慢 */
+    @Setter
+    private int bufferDebloatNumberOfSamples = 20;
+
+    /**
+     * 是否把连接和通道的指标发布为 JMX MBean。关闭后指标仍会累加，只是不对外暴露。
+     */
+    @Setter
+    private boolean jmxMetricsEnabled = true;
+
+    @Setter
+    private TransportType transportType = TransportType.AUTO;
+
+    /** Socket 发送缓冲区大小（SO_SNDBUF），0 表示使用系统默认值 */
+    @Setter
+    private int sendBufferSize = 0;
+
+    /** Socket 接收缓冲区大小（SO_RCVBUF），0 表示使用系统默认值 */
+    @Setter
+    private int receiveBufferSize = 0;
+
+    /** 服务端 accept 队列长度（SO_BACKLOG），0 表示使用 Netty 默认值 */
+    @Setter
+    private int serverConnectBacklog = 0;
+
+    /** 客户端建立连接的超时时间 */
+    @Setter
+    private int clientConnectTimeoutMillis = 10_000;
+
+    /** Channel 待发送字节低于该值时恢复为可写 */
+    @Setter
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    /** Channel 待发送字节超过该值时变为不可写，PartitionRequestQueue 据此暂停发送 */
+    @Setter
+    private int writeBufferHighWaterMark = 64 * 1024;
+
     public NettyConfig(String serverAddress, int serverPort, int serverNumThreads, int clientNumThreads) {
         this.serverAddress = serverAddress;
         this.serverPort = serverPort;
         this.serverNumThreads = serverNumThreads;
         this.clientNumThreads = clientNumThreads;
     }
-}
\ No newline at end of file
+
+    /**
+     * 把 AUTO 解析成实际使用的传输层；显式要求 EPOLL 但当前平台不支持时直接报错。
+     */
+    TransportType resolveTransportType() {
+        switch (transportType) {
+            case NIO:
+                return TransportType.NIO;
+            case EPOLL:
+                if (!Epoll.isAvailable()) {
+                    throw new IllegalStateException("当前平台不支持 epoll 传输层", Epoll.unavailabilityCause());
+                }
+                return TransportType.EPOLL;
+            case AUTO:
+            default:
+                return Epoll.isAvailable() ? TransportType.EPOLL : TransportType.NIO;
+        }
+    }
+}
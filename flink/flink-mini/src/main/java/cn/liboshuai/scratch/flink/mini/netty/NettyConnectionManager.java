@@ -1,19 +1,27 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
-import io.netty.channel.Channel;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionProvider;
+
+import java.io.IOException;
 
 /**
- * 门面类：统一管理网络组件的启动和关闭。
+ * 门面类：统一管理网络组件的启动和关闭，并对外提供复用的分区请求客户端。
  */
 public class NettyConnectionManager {
 
     private final NettyServer server;
     private final NettyClient client;
+    private final PartitionRequestClientFactory partitionRequestClientFactory;
+    private final MetricRegistry metricRegistry;
 
-    public NettyConnectionManager(NettyConfig config) {
-        NettyProtocol protocol = new NettyProtocol();
+    public NettyConnectionManager(ResultPartitionProvider partitionProvider, NettyConfig config) {
+        this.metricRegistry = config.isJmxMetricsEnabled() ? new MetricRegistry() : MetricRegistry.NO_OP;
+        NettyProtocol protocol = new NettyProtocol(partitionProvider, config, metricRegistry);
         this.server = new NettyServer(config, protocol);
         this.client = new NettyClient(config, protocol);
+        this.partitionRequestClientFactory =
+                new PartitionRequestClientFactory(client, config.getMaxNumberOfConnections());
     }
 
     public void start() throws InterruptedException {
@@ -21,12 +29,17 @@ public class NettyConnectionManager {
         client.start();
     }
 
-    public Channel createClientChannel() throws InterruptedException {
-        return client.connect();
+    /**
+     * 获取到远端的分区请求客户端，同一个 {@link ConnectionID} 总是复用同一条 TCP 连接。
+     */
+    public NettyPartitionRequestClient createPartitionRequestClient(ConnectionID connectionId)
+            throws IOException, InterruptedException {
+        return partitionRequestClientFactory.createPartitionRequestClient(connectionId);
     }
 
     public void shutdown() {
         client.shutdown();
         server.shutdown();
+        metricRegistry.shutdown();
     }
-}
\ No newline at end of file
+}
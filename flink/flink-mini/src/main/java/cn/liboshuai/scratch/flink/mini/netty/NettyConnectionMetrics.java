@@ -0,0 +1,84 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.metrics.Counter;
+import cn.liboshuai.scratch.flink.mini.metrics.Histogram;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricGroup;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * 一条 TCP 连接的指标，由同一个 Pipeline 里的编码器、解码器和处理器共同更新。
+ *
+ * <p>服务端只会统计 Out 方向的数据，客户端只会统计 In 方向的数据，控制消息不计入字节和 buffer 数。
+ * 编解码耗时是每条消息（解码时是每次 Socket 读）花在编解码器本身上的纳秒数，不包括后续处理器的耗时。
+ */
+class NettyConnectionMetrics {
+
+    final Counter numBytesIn;
+
+    final Counter numBytesOut;
+
+    final Counter numBuffersIn;
+
+    final Counter numBuffersOut;
+
+    final Histogram encodeTimeNanos;
+
+    final Histogram decodeTimeNanos;
+
+    private final MetricGroup metricGroup = new MetricGroup();
+
+    private final MetricRegistry registry;
+
+    /** 连接建立后才有 */
+    private volatile Channel channel;
+
+    NettyConnectionMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        numBytesIn = metricGroup.counter("numBytesIn");
+        metricGroup.meter("numBytesInPerSecond", numBytesIn);
+        numBytesOut = metricGroup.counter("numBytesOut");
+        metricGroup.meter("numBytesOutPerSecond", numBytesOut);
+        numBuffersIn = metricGroup.counter("numBuffersIn");
+        metricGroup.meter("numBuffersInPerSecond", numBuffersIn);
+        numBuffersOut = metricGroup.counter("numBuffersOut");
+        metricGroup.meter("numBuffersOutPerSecond", numBuffersOut);
+        encodeTimeNanos = metricGroup.histogram("encodeTimeNanos");
+        decodeTimeNanos = metricGroup.histogram("decodeTimeNanos");
+        metricGroup.gauge("outboundBufferBytes", this::getOutboundBufferBytes);
+    }
+
+    /**
+     * 已经写入 Channel、还没有交给 Socket 的字节数。
+     *
+     * <p>指标在上报线程里读取，而 ChannelOutboundBuffer 只能在 EventLoop 中使用，
+     * 这里只通过 Channel 的公开方法推算：不可写时是超出低水位的部分加上低水位，可写时是高水位减去离不可写还差的字节数。
+     */
+    private long getOutboundBufferBytes() {
+        Channel ch = channel;
+        if (ch == null || !ch.isActive()) {
+            return 0;
+        }
+        WriteBufferWaterMark waterMark = ch.config().getWriteBufferWaterMark();
+        long bytesBeforeWritable = ch.bytesBeforeWritable();
+        if (bytesBeforeWritable > 0) {
+            return waterMark.low() + bytesBeforeWritable;
+        }
+        return Math.max(0, waterMark.high() - ch.bytesBeforeUnwritable());
+    }
+
+    void register(String type, Channel channel) {
+        this.channel = channel;
+        registry.register(type, channel.localAddress() + "->" + channel.remoteAddress(), metricGroup);
+    }
+
+    void unregister() {
+        registry.unregister(metricGroup);
+        channel = null;
+    }
+
+    MetricRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,546 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.partition.PipelinedResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.BufferOrEvent;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.InputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.InputChannelFactory;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.InputGate;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.SingleInputGate;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.UnionInputGate;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import cn.liboshuai.scratch.flink.mini.writer.BroadcastChannelSelector;
+import cn.liboshuai.scratch.flink.mini.writer.ChannelSelector;
+import cn.liboshuai.scratch.flink.mini.writer.HashChannelSelector;
+import cn.liboshuai.scratch.flink.mini.writer.RecordWriter;
+import cn.liboshuai.scratch.flink.mini.writer.RoundRobinChannelSelector;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在回环地址上端到端地压测网络栈：N 个生产者各有一个结果分区，M 个消费者各有一个 InputGate，
+ * 每个消费者从每个生产者读一个子分区（all-to-all），数据经过完整的编码、TCP 和解码路径。
+ *
+ * <p>每条记录的前 8 个字节是生产者写入时的 {@link System#nanoTime()}，每个消费者有一个任务线程从 InputGate 取 buffer，
+ * 用每个通道自己的 {@link SpanningRecordDeserializer} 逐条还原记录并算出投递延迟，记录可以比 buffer 大。
+ * 预热阶段的数据不计入结果；每个消费者不加锁地各自用蓄水池抽样保留延迟样本，结束时按各自见过的延迟数等比例合并，
+ * 合并后最多 {@link #MAX_LATENCY_SAMPLES} 个样本，分位数是精确计算的。
+ *
+ * <p>用法：{@code NettyLoopbackBenchmark [--选项 值]...}，选项见 {@link #DEFAULTS}，例如
+ * {@code --producers 4 --consumers 4 --record-size 256 --buffer-timeout 0 --transport NIO}。
+ * skew 是每条记录固定发往第 0 个子分区的概率，其余记录轮流发往各个子分区；
+ * partitioner 不是 SKEW 时改用对应的 {@link ChannelSelector}（REBALANCE、HASH、BROADCAST）通过 {@link RecordWriter} 写出，skew 不再生效。
+ */
+public class NettyLoopbackBenchmark {
+
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("producers", "2");
+        DEFAULTS.put("consumers", "2");
+        DEFAULTS.put("record-size", "128");
+        DEFAULTS.put("buffer-size", String.valueOf(32 * 1024));
+        DEFAULTS.put("skew", "0.0");
+        DEFAULTS.put("partitioner", "SKEW");
+        DEFAULTS.put("duration", "10");
+        DEFAULTS.put("warmup", "3");
+        // 毫秒；-1 表示只在 buffer 写满时发送，0 表示每条记录都立即发送
+        DEFAULTS.put("buffer-timeout", "10");
+        DEFAULTS.put("transport", "AUTO");
+        DEFAULTS.put("connections", "1");
+        DEFAULTS.put("server-threads", "2");
+        DEFAULTS.put("client-threads", "2");
+        DEFAULTS.put("zero-copy", "true");
+        DEFAULTS.put("compact", "true");
+        DEFAULTS.put("buffers-per-channel", "2");
+        DEFAULTS.put("floating-buffers", "8");
+        // 每个生产者结果分区最多使用的 buffer 数，0 表示“子分区数 × 2”
+        DEFAULTS.put("producer-buffers", "0");
+        DEFAULTS.put("port", "9091");
+        // 为 true 时消费者通过 LocalInputChannel 直接读取同进程的子分区，不经过网络栈
+        DEFAULTS.put("local", "false");
+        // 大于 1 时把每个消费者的通道分到多个 SingleInputGate 里，再用 UnionInputGate 合起来读
+        DEFAULTS.put("gates-per-consumer", "1");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int producers = Integer.parseInt(options.get("producers"));
+        int consumers = Integer.parseInt(options.get("consumers"));
+        int recordSize = Integer.parseInt(options.get("record-size"));
+        int bufferSize = Integer.parseInt(options.get("buffer-size"));
+        double skew = Double.parseDouble(options.get("skew"));
+        String partitioner = options.get("partitioner").toUpperCase();
+        long durationSeconds = Long.parseLong(options.get("duration"));
+        long warmupSeconds = Long.parseLong(options.get("warmup"));
+        long bufferTimeout = Long.parseLong(options.get("buffer-timeout"));
+        int producerBuffers = Integer.parseInt(options.get("producer-buffers"));
+        int gatesPerConsumer = Integer.parseInt(options.get("gates-per-consumer"));
+        if (producerBuffers <= 0) {
+            producerBuffers = 2 * consumers;
+        }
+        if (producers <= 0 || consumers <= 0) {
+            throw new IllegalArgumentException("生产者和消费者数量必须为正数");
+        }
+        if (recordSize < Long.BYTES) {
+            throw new IllegalArgumentException("记录大小不能小于 " + Long.BYTES + ": " + recordSize);
+        }
+        if (!Arrays.asList("SKEW", "REBALANCE", "HASH", "BROADCAST").contains(partitioner)) {
+            throw new IllegalArgumentException("未知的 partitioner: " + partitioner);
+        }
+        if (skew < 0 || skew > 1) {
+            throw new IllegalArgumentException("skew 必须在 [0, 1] 之间: " + skew);
+        }
+        if (gatesPerConsumer <= 0 || gatesPerConsumer > producers) {
+            throw new IllegalArgumentException("每个消费者的 gate 数必须在 [1, 生产者数] 之间: " + gatesPerConsumer);
+        }
+        if (producerBuffers < consumers) {
+            throw new IllegalArgumentException("生产者的 buffer 数不能少于子分区数: " + producerBuffers);
+        }
+
+        NettyConfig config = new NettyConfig("127.0.0.1", Integer.parseInt(options.get("port")),
+                Integer.parseInt(options.get("server-threads")), Integer.parseInt(options.get("client-threads")));
+        config.setNetworkBufferSize(bufferSize);
+        config.setTransportType(NettyConfig.TransportType.valueOf(options.get("transport").toUpperCase()));
+        config.setMaxNumberOfConnections(Integer.parseInt(options.get("connections")));
+        config.setZeroCopyEncoding(Boolean.parseBoolean(options.get("zero-copy")));
+        config.setCompactReceiverIndex(Boolean.parseBoolean(options.get("compact")));
+        config.setNetworkBuffersPerChannel(Integer.parseInt(options.get("buffers-per-channel")));
+        config.setFloatingBuffersPerGate(Integer.parseInt(options.get("floating-buffers")));
+        config.setNumberOfNetworkBuffers(producers * producerBuffers
+                + consumers * (producers * config.getNetworkBuffersPerChannel()
+                + gatesPerConsumer * config.getFloatingBuffersPerGate()));
+
+        System.out.println("配置: " + new TreeMap<>(options) + ", 传输层 " + config.resolveTransportType()
+                + ", 网络 buffer " + config.getNumberOfNetworkBuffers() + " 个");
+
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(
+                config.getNumberOfNetworkBuffers(), config.getNetworkBufferSize());
+        NettyConnectionManager connectionManager = new NettyConnectionManager(partitionManager, config);
+        Measurement measurement = new Measurement(consumers);
+
+        List<ResultPartition> partitions = new ArrayList<>();
+        List<SingleInputGate> inputGates = new ArrayList<>();
+        List<Producer> producerThreads = new ArrayList<>();
+        List<Consumer> consumerThreads = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                ResultPartition partition = new PipelinedResultPartition(
+                        new ResultPartitionID(), consumers, bufferSize, bufferTimeout);
+                partition.setBufferPool(networkBufferPool.createBufferPool(consumers, producerBuffers));
+                partitionManager.registerResultPartition(partition);
+                partitions.add(partition);
+            }
+
+            connectionManager.start();
+
+            InetSocketAddress serverAddress = new InetSocketAddress(config.getServerAddress(), config.getServerPort());
+            InputChannelFactory channelFactory = new InputChannelFactory(connectionManager,
+                    Boolean.parseBoolean(options.get("local")) ? partitionManager : null);
+            for (int c = 0; c < consumers; c++) {
+                // 第 p 个生产者的子分区归第 p % gatesPerConsumer 个 gate 读取
+                SingleInputGate[] gates = new SingleInputGate[gatesPerConsumer];
+                for (int g = 0; g < gatesPerConsumer; g++) {
+                    gates[g] = new SingleInputGate(networkBufferPool,
+                            config.getNetworkBuffersPerChannel(), config.getFloatingBuffersPerGate());
+                    List<InputChannel> channels = new ArrayList<>();
+                    for (int p = g; p < producers; p += gatesPerConsumer) {
+                        // 连接下标会被折算到最大连接数以内，这样通道会均匀地分布在各条连接上
+                        channels.add(channelFactory.createInputChannel(gates[g], partitions.get(p).getPartitionId(), c,
+                                new ConnectionID(serverAddress, c * producers + p)));
+                    }
+                    gates[g].setInputChannels(channels.toArray(new InputChannel[0]));
+                    gates[g].setup();
+                    inputGates.add(gates[g]);
+                }
+                InputGate consumerGate = gatesPerConsumer == 1 ? gates[0] : new UnionInputGate(gates);
+                Consumer consumer = new Consumer(c, consumerGate, measurement);
+                consumer.start();
+                consumerThreads.add(consumer);
+            }
+            for (SingleInputGate inputGate : inputGates) {
+                inputGate.requestPartitions();
+            }
+
+            for (int p = 0; p < producers; p++) {
+                RecordWriter recordWriter = partitioner.equals("SKEW")
+                        ? null : RecordWriter.createRecordWriter(partitions.get(p), createChannelSelector(partitioner));
+                Producer producer = new Producer(p, partitions.get(p), recordWriter, recordSize, skew);
+                producer.start();
+                producerThreads.add(producer);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+            long start = System.nanoTime();
+            measurement.start(start, start + TimeUnit.SECONDS.toNanos(durationSeconds));
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        } finally {
+            for (Producer producer : producerThreads) {
+                producer.terminate();
+            }
+            for (Producer producer : producerThreads) {
+                producer.join();
+            }
+            // 生产者停下之后消费者才能停，否则被反压阻塞的生产者等不到 buffer
+            for (Consumer consumer : consumerThreads) {
+                consumer.terminate();
+            }
+            for (Consumer consumer : consumerThreads) {
+                consumer.join();
+            }
+            for (SingleInputGate inputGate : inputGates) {
+                inputGate.close();
+            }
+            connectionManager.shutdown();
+            partitionManager.shutdown();
+            networkBufferPool.destroy();
+        }
+
+        long emitted = 0;
+        for (Producer producer : producerThreads) {
+            emitted += producer.numRecordsEmitted;
+        }
+        boolean failed = false;
+        for (SingleInputGate inputGate : inputGates) {
+            for (InputChannel channel : inputGate.getInputChannels()) {
+                if (channel.getFailureCause() != null) {
+                    System.out.println(channel + " 出错: " + channel.getFailureCause());
+                    failed = true;
+                }
+            }
+        }
+        measurement.report(durationSeconds, emitted, recordSize);
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("参数格式应为 --选项 值: " + Arrays.toString(args));
+            }
+            String name = args[i].substring(2);
+            if (!DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("未知选项 " + args[i] + "，可用选项: " + DEFAULTS.keySet());
+            }
+            options.put(name, args[i + 1]);
+        }
+        return options;
+    }
+
+    private static ChannelSelector createChannelSelector(String partitioner) {
+        switch (partitioner) {
+            case "REBALANCE":
+                return new RoundRobinChannelSelector();
+            case "HASH":
+                // 用时间戳的低位当 key，分布足够随机
+                return new HashChannelSelector(record -> (int) record.getLong(record.position()));
+            case "BROADCAST":
+                return new BroadcastChannelSelector();
+            default:
+                throw new IllegalArgumentException("未知的 partitioner: " + partitioner);
+        }
+    }
+
+    // =================================================================================
+    //  Producer：一个生产者线程，不停地往自己的结果分区写记录，buffer 池用完时被反压阻塞
+    // =================================================================================
+    private static class Producer extends Thread {
+
+        private final ResultPartition partition;
+
+        /** 为 null 时按 skew 自己选择子分区 */
+        private final RecordWriter recordWriter;
+
+        private final ByteBuffer record;
+
+        private final double skew;
+
+        private volatile boolean running = true;
+
+        private volatile long numRecordsEmitted;
+
+        Producer(int index, ResultPartition partition, RecordWriter recordWriter, int recordSize, double skew) {
+            super("Producer-" + index);
+            setDaemon(true);
+            this.partition = partition;
+            this.recordWriter = recordWriter;
+            this.record = ByteBuffer.allocate(recordSize);
+            this.skew = skew;
+        }
+
+        void terminate() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            int numSubpartitions = partition.getNumberOfSubpartitions();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int nextSubpartition = 0;
+            long emitted = 0;
+            try {
+                while (running) {
+                    record.clear();
+                    record.putLong(0, System.nanoTime());
+                    if (recordWriter != null) {
+                        recordWriter.emit(record);
+                    } else {
+                        int target;
+                        if (skew > 0 && random.nextDouble() < skew) {
+                            target = 0;
+                        } else {
+                            target = nextSubpartition;
+                            nextSubpartition = (nextSubpartition + 1) % numSubpartitions;
+                        }
+                        partition.emitRecord(record, target);
+                    }
+                    numRecordsEmitted = ++emitted;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 流水线式分区不写文件，不会走到这里
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // =================================================================================
+    //  Consumer：一个消费者的任务线程，从 InputGate 取出 buffer 交给 Measurement，处理完释放
+    // =================================================================================
+    private static class Consumer extends Thread {
+
+        private final int index;
+
+        private final InputGate inputGate;
+
+        private final Measurement measurement;
+
+        private volatile boolean running = true;
+
+        Consumer(int index, InputGate inputGate, Measurement measurement) {
+            super("Consumer-" + index);
+            setDaemon(true);
+            this.index = index;
+            this.inputGate = inputGate;
+            this.measurement = measurement;
+        }
+
+        void terminate() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Optional<BufferOrEvent> next = inputGate.getNext();
+                    if (!next.isPresent()) {
+                        return;
+                    }
+                    BufferOrEvent bufferOrEvent = next.get();
+                    try {
+                        if (bufferOrEvent.isBuffer()) {
+                            measurement.onBuffer(index, bufferOrEvent.getBuffer(), bufferOrEvent.getChannel());
+                        }
+                    } finally {
+                        bufferOrEvent.getBuffer().release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // terminate() 打断了等待
+            } catch (IOException e) {
+                // 出错的通道会在结束时报告
+            }
+        }
+    }
+
+    // =================================================================================
+    //  Measurement：在消费者的任务线程中统计收到的记录，并抽样保存投递延迟
+    // =================================================================================
+    private static class Measurement {
+
+        private final LongAdder[] recordsPerConsumer;
+
+        private final LongAdder numBuffers = new LongAdder();
+
+        /** 一个通道只由所属 gate 的任务线程处理，因此每个反序列化器只被一个线程使用 */
+        private final Map<InputChannel, SpanningRecordDeserializer> deserializers = new ConcurrentHashMap<>();
+
+        /** 每个消费者一个，只由这个消费者的任务线程写入，消费者线程结束之后才读取 */
+        private final LatencyReservoir[] latencyReservoirs;
+
+        private volatile long startNanos = Long.MAX_VALUE;
+
+        private volatile long endNanos = Long.MAX_VALUE;
+
+        Measurement(int consumers) {
+            recordsPerConsumer = new LongAdder[consumers];
+            latencyReservoirs = new LatencyReservoir[consumers];
+            for (int i = 0; i < consumers; i++) {
+                recordsPerConsumer[i] = new LongAdder();
+                latencyReservoirs[i] = new LatencyReservoir(Math.max(1, MAX_LATENCY_SAMPLES / consumers));
+            }
+        }
+
+        void start(long startNanos, long endNanos) {
+            this.endNanos = endNanos;
+            this.startNanos = startNanos;
+        }
+
+        void onBuffer(int consumer, ByteBuf buffer, InputChannel channel) {
+            // 测量窗口之外也要反序列化，否则跨 buffer 的记录会被拆坏
+            SpanningRecordDeserializer deserializer =
+                    deserializers.computeIfAbsent(channel, ignored -> new SpanningRecordDeserializer());
+            deserializer.setNextBuffer(buffer);
+            long now = System.nanoTime();
+            boolean measuring = now >= startNanos && now < endNanos;
+            if (measuring) {
+                numBuffers.increment();
+            }
+
+            LatencyReservoir reservoir = latencyReservoirs[consumer];
+            int numRecords = 0;
+            DeserializationResult result;
+            do {
+                result = deserializer.getNextRecord();
+                if (!result.isFullRecord() || !measuring) {
+                    continue;
+                }
+                numRecords++;
+                ByteBuf record = deserializer.getCurrentRecord();
+                reservoir.add(now - record.getLong(record.readerIndex()));
+            } while (!result.isBufferConsumed());
+            recordsPerConsumer[consumer].add(numRecords);
+        }
+
+        void report(long durationSeconds, long emitted, int recordSize) {
+            long records = 0;
+            long[] perConsumer = new long[recordsPerConsumer.length];
+            for (int i = 0; i < perConsumer.length; i++) {
+                perConsumer[i] = recordsPerConsumer[i].sum();
+                records += perConsumer[i];
+            }
+            long buffers = numBuffers.sum();
+            long[] samples = mergeLatencySamples();
+            Arrays.sort(samples);
+
+            System.out.printf("生产者共写出 %d 条记录，测量窗口 %d 秒内消费者收到 %d 条记录、%d 个 buffer%n",
+                    emitted, durationSeconds, records, buffers);
+            System.out.printf("吞吐: %.0f 条/秒, %.1f MB/秒, %.0f buffer/秒, 平均每个 buffer %.1f 条记录%n",
+                    (double) records / durationSeconds,
+                    (double) records * recordSize / (1024 * 1024) / durationSeconds,
+                    (double) buffers / durationSeconds,
+                    buffers == 0 ? 0.0 : (double) records / buffers);
+            System.out.println("各消费者收到的记录数: " + Arrays.toString(perConsumer));
+            if (samples.length > 0) {
+                System.out.printf("投递延迟 (us): p50=%.1f p99=%.1f p999=%.1f max=%.1f（%d 个样本）%n",
+                        percentile(samples, 0.5), percentile(samples, 0.99), percentile(samples, 0.999),
+                        samples[samples.length - 1] / 1000.0, samples.length);
+            }
+        }
+
+        /**
+         * 每个消费者按同一比例贡献样本：比例取各个蓄水池里“样本数 / 见过的延迟数”的最小值，
+         * 合并后的样本因此在所有消费者的延迟里仍然是均匀的，不会偏向收到数据少的消费者。
+         */
+        private long[] mergeLatencySamples() {
+            double fraction = 1.0;
+            for (LatencyReservoir reservoir : latencyReservoirs) {
+                if (reservoir.numSeen > 0) {
+                    fraction = Math.min(fraction, (double) reservoir.size() / reservoir.numSeen);
+                }
+            }
+            int[] numTaken = new int[latencyReservoirs.length];
+            int total = 0;
+            for (int i = 0; i < latencyReservoirs.length; i++) {
+                LatencyReservoir reservoir = latencyReservoirs[i];
+                numTaken[i] = (int) Math.min(reservoir.size(), Math.round(reservoir.numSeen * fraction));
+                total += numTaken[i];
+            }
+            long[] merged = new long[total];
+            int position = 0;
+            for (int i = 0; i < latencyReservoirs.length; i++) {
+                position += latencyReservoirs[i].takeRandomSamples(merged, position, numTaken[i]);
+            }
+            return merged;
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+            return sorted[Math.max(index, 0)] / 1000.0;
+        }
+    }
+
+    /**
+     * 一个消费者的延迟样本，蓄水池抽样，只在这个消费者的任务线程里写入，不需要加锁。
+     */
+    private static final class LatencyReservoir {
+
+        private final long[] samples;
+
+        /** 测量窗口内见过的延迟总数 */
+        private long numSeen;
+
+        LatencyReservoir(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        void add(long latency) {
+            if (numSeen < samples.length) {
+                samples[(int) numSeen] = latency;
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong(numSeen + 1);
+                if (slot < samples.length) {
+                    samples[(int) slot] = latency;
+                }
+            }
+            numSeen++;
+        }
+
+        int size() {
+            return (int) Math.min(numSeen, samples.length);
+        }
+
+        /**
+         * 随机取出 {@code count} 个样本写进 {@code target}。蓄水池的槽位和写入顺序相关，不能直接取前缀。
+         */
+        int takeRandomSamples(long[] target, int offset, int count) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int size = size();
+            for (int i = 0; i < count; i++) {
+                int j = i + random.nextInt(size - i);
+                long sample = samples[j];
+                samples[j] = samples[i];
+                samples[i] = sample;
+                target[offset + i] = sample;
+            }
+            return count;
+        }
+    }
+}
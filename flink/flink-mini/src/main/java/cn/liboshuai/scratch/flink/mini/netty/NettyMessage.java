@@ -1,13 +1,21 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.metrics.Histogram;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.ReferenceCountUtil;
 import lombok.Getter;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Flink 网络栈通信的统一消息基类及编解码器集合。
  * 这是读懂 Flink Netty 源码最重要的一张“蓝图”。
@@ -19,6 +27,16 @@ public abstract class NettyMessage {
     // Flink 的魔数，用来校验数据包合法性 (谐音 Bad Coffee)
     static final int MAGIC_NUMBER = 0xBADC0FFE;
 
+    /**
+     * 表示接收者没有分配连接内下标，消息中用完整的 {@link InputChannelID} 标识接收者。
+     *
+     * <p>客户端可以在 PartitionRequest 末尾附带一个由它分配的、连接内唯一的小整数下标，
+     * 服务端据此改用紧凑格式（变长下标代替 16 字节的 ID）发送 BufferResponse；
+     * 客户端收到紧凑格式的数据后，才会在 AddCredit 中改用下标。
+     * 任何一方不认识这个字段时都会自然退回完整 ID 的格式，新旧版本可以互通。
+     */
+    static final int NO_RECEIVER_INDEX = -1;
+
     /**
      * 让子类自己决定如何将内容写入 ByteBuf 中。
      */
@@ -30,8 +48,29 @@ public abstract class NettyMessage {
      */
     protected static ByteBuf allocateBuffer(ByteBufAllocator allocator,
                                             byte id, int contentLength) {
-        int totalLength = FRAME_HEADER_LENGTH + contentLength;
-        ByteBuf buffer = allocator.directBuffer(totalLength);
+        return allocateBuffer(allocator, id, 0, contentLength, true);
+    }
+
+    /**
+     * 更通用的辅助分配器。
+     *
+     * @param messageHeaderLength 消息自身 header 的长度（紧跟在帧头之后）
+     * @param contentLength       消息体的长度，会被计入帧的总长度
+     * @param allocateForContent  是否同时为消息体分配空间；为 false 时只分配帧头 + 消息 header，
+     *                            消息体由调用方单独写出（零拷贝场景）
+     */
+    protected static ByteBuf allocateBuffer(ByteBufAllocator allocator,
+                                            byte id,
+                                            int messageHeaderLength,
+                                            int contentLength,
+                                            boolean allocateForContent) {
+        if (contentLength > Integer.MAX_VALUE - FRAME_HEADER_LENGTH - messageHeaderLength) {
+            throw new IllegalArgumentException("消息体过大: " + contentLength);
+        }
+
+        int headerLength = FRAME_HEADER_LENGTH + messageHeaderLength;
+        int totalLength = headerLength + contentLength;
+        ByteBuf buffer = allocator.directBuffer(allocateForContent ? totalLength : headerLength);
 
         // 1. 写入整个帧的总长度
         buffer.writeInt(totalLength);
@@ -49,33 +88,102 @@ public abstract class NettyMessage {
     public static class PartitionRequest extends NettyMessage {
         static final byte ID = 2;
         final ResultPartitionID partitionId;
+        final int queueIndex; // 要读取的子分区下标
         final InputChannelID receiverId;
-        final int credit; // 简化的流控 credit
+        final int credit; // 客户端为该通道准备好的初始 buffer 数量，即初始 credit
+        final int receiverIndex; // 客户端分配的连接内下标，NO_RECEIVER_INDEX 表示使用完整 ID
 
-        public PartitionRequest(ResultPartitionID partitionId, InputChannelID receiverId,
-                                int credit) {
+        public PartitionRequest(ResultPartitionID partitionId, int queueIndex,
+                                InputChannelID receiverId, int credit) {
+            this(partitionId, queueIndex, receiverId, credit, NO_RECEIVER_INDEX);
+        }
+
+        public PartitionRequest(ResultPartitionID partitionId, int queueIndex,
+                                InputChannelID receiverId, int credit, int receiverIndex) {
             this.partitionId = partitionId;
+            this.queueIndex = queueIndex;
             this.receiverId = receiverId;
             this.credit = credit;
+            this.receiverIndex = receiverIndex;
         }
 
         @Override
         void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) {
-            int contentLength = ResultPartitionID.getByteBufLength() + InputChannelID.getByteBufLength() + Integer.BYTES;
+            int contentLength = ResultPartitionID.getByteBufLength() + Integer.BYTES
+                    + InputChannelID.getByteBufLength() + Integer.BYTES;
+            if (receiverIndex != NO_RECEIVER_INDEX) {
+                contentLength += ByteBufUtils.varIntLength(receiverIndex);
+            }
             ByteBuf buf = allocateBuffer(allocator, ID, contentLength);
 
             partitionId.writeTo(buf);
+            buf.writeInt(queueIndex);
             receiverId.writeTo(buf);
             buf.writeInt(credit);
+            // 下标放在最后作为可选字段：不认识它的服务端读完前面的字段就结束了，直接忽略
+            if (receiverIndex != NO_RECEIVER_INDEX) {
+                ByteBufUtils.writeVarInt(buf, receiverIndex);
+            }
 
             ctx.write(buf, promise); // 注意这里交由 context 写出
         }
 
         static PartitionRequest readFrom(ByteBuf buffer) {
             ResultPartitionID partitionId = ResultPartitionID.fromByteBuf(buffer);
+            int queueIndex = buffer.readInt();
             InputChannelID receiverId = InputChannelID.fromByteBuf(buffer);
             int credit = buffer.readInt();
-            return new PartitionRequest(partitionId, receiverId, credit);
+            int receiverIndex = buffer.isReadable() ? ByteBufUtils.readVarInt(buffer) : NO_RECEIVER_INDEX;
+            return new PartitionRequest(partitionId, queueIndex, receiverId, credit, receiverIndex);
+        }
+    }
+
+    // =================================================================================
+    //  子类：ErrorResponse (服务端告诉客户端出错了)
+    // =================================================================================
+    public static class ErrorResponse extends NettyMessage {
+        static final byte ID = 1;
+        final String message;
+        final InputChannelID receiverId; // 为 null 表示整条连接都出错了
+
+        public ErrorResponse(String message, InputChannelID receiverId) {
+            this.message = message;
+            this.receiverId = receiverId;
+        }
+
+        boolean isFatalError() {
+            return receiverId == null;
+        }
+
+        @Override
+        void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) {
+            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+            int contentLength = 1 + InputChannelID.getByteBufLength() + Integer.BYTES + messageBytes.length;
+            ByteBuf buf = allocateBuffer(allocator, ID, contentLength);
+
+            if (receiverId != null) {
+                buf.writeBoolean(true);
+                receiverId.writeTo(buf);
+            } else {
+                buf.writeBoolean(false);
+                buf.writeZero(InputChannelID.getByteBufLength());
+            }
+            buf.writeInt(messageBytes.length);
+            buf.writeBytes(messageBytes);
+
+            ctx.write(buf, promise);
+        }
+
+        static ErrorResponse readFrom(ByteBuf buffer) {
+            boolean hasReceiverId = buffer.readBoolean();
+            InputChannelID receiverId = InputChannelID.fromByteBuf(buffer);
+            String message = buffer.readCharSequence(buffer.readInt(), StandardCharsets.UTF_8).toString();
+            return new ErrorResponse(message, hasReceiverId ? receiverId : null);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ErrorResponse(%s : %s)", receiverId, message);
         }
     }
 
@@ -84,56 +192,374 @@ public abstract class NettyMessage {
     // =================================================================================
     public static class BufferResponse extends NettyMessage {
         static final byte ID = 0;
-        final InputChannelID receiverId;
+        /** 紧凑格式：用变长的连接内下标代替完整的 receiverId */
+        static final byte COMPACT_ID = 10;
+        /**
+         * 优先事件使用单独的消息 ID，格式与数据完全相同：数据帧的格式不变，只有真正发送优先事件时对方才需要认识它们。
+         * 接收端为它们单独分配堆内 buffer，不占用 credit 对应的网络 buffer。
+         */
+        static final byte PRIORITY_EVENT_ID = 12;
+        static final byte PRIORITY_EVENT_COMPACT_ID = 13;
+        // receiverId (16) + sequenceNumber (4) + backlog (4)
+        static final int MESSAGE_HEADER_LENGTH = InputChannelID.getByteBufLength() + Integer.BYTES + Integer.BYTES;
+        // 紧凑格式中跟在 receiverIndex 后面的定长部分：sequenceNumber (4) + backlog (4)
+        static final int COMPACT_MESSAGE_HEADER_FIXED_LENGTH = Integer.BYTES + Integer.BYTES;
+        // receiverIndex (1~5) + sequenceNumber (4) + backlog (4)
+        static final int MAX_COMPACT_MESSAGE_HEADER_LENGTH =
+                ByteBufUtils.MAX_VAR_INT_LENGTH + COMPACT_MESSAGE_HEADER_FIXED_LENGTH;
+
+        final InputChannelID receiverId; // 紧凑格式下，接收者不存在时为 null
+        final int receiverIndex;  // 连接内下标，NO_RECEIVER_INDEX 表示完整格式
         final int sequenceNumber; // 包序号
+        final int backlog;        // 发送这个 buffer 之后，服务端子分区里还积压着的 buffer 数
         @Getter
-        final ByteBuf buffer;     // 数据载体
+        final ByteBuf buffer;     // 数据载体，数据在文件中时为 null
+        /** 只在服务端出现：阻塞式分区的数据留在文件里，写出时用 sendfile 直接发出 */
+        final FileRegionBuffer fileRegion;
+        @Getter
+        final DataType dataType;  // 数据还是优先事件
 
         public BufferResponse(InputChannelID receiverId, int sequenceNumber, ByteBuf buffer) {
+            this(receiverId, NO_RECEIVER_INDEX, sequenceNumber, 0, buffer);
+        }
+
+        public BufferResponse(InputChannelID receiverId, int receiverIndex, int sequenceNumber, int backlog,
+                              ByteBuf buffer) {
+            this(receiverId, receiverIndex, sequenceNumber, backlog, buffer, DataType.DATA_BUFFER);
+        }
+
+        public BufferResponse(InputChannelID receiverId, int receiverIndex, int sequenceNumber, int backlog,
+                              ByteBuf buffer, DataType dataType) {
+            if (backlog < 0) {
+                throw new IllegalArgumentException("积压数不能为负数: " + backlog);
+            }
             this.receiverId = receiverId;
+            this.receiverIndex = receiverIndex;
             this.sequenceNumber = sequenceNumber;
+            this.backlog = backlog;
             this.buffer = buffer;
+            this.fileRegion = null;
+            this.dataType = dataType;
+        }
+
+        public BufferResponse(InputChannelID receiverId, int receiverIndex, int sequenceNumber, int backlog,
+                              FileRegionBuffer fileRegion) {
+            if (backlog < 0) {
+                throw new IllegalArgumentException("积压数不能为负数: " + backlog);
+            }
+            this.receiverId = receiverId;
+            this.receiverIndex = receiverIndex;
+            this.sequenceNumber = sequenceNumber;
+            this.backlog = backlog;
+            this.buffer = null;
+            this.fileRegion = fileRegion;
+            this.dataType = DataType.DATA_BUFFER;
+        }
+
+        int getDataSize() {
+            return fileRegion != null ? fileRegion.getSize() : buffer.readableBytes();
+        }
+
+        boolean isCompact() {
+            return receiverIndex != NO_RECEIVER_INDEX;
+        }
+
+        static boolean isBufferResponse(int msgId) {
+            return msgId == ID || msgId == COMPACT_ID || msgId == PRIORITY_EVENT_ID || msgId == PRIORITY_EVENT_COMPACT_ID;
+        }
+
+        static boolean isCompact(int msgId) {
+            return msgId == COMPACT_ID || msgId == PRIORITY_EVENT_COMPACT_ID;
+        }
+
+        static DataType getDataType(int msgId) {
+            return msgId == PRIORITY_EVENT_ID || msgId == PRIORITY_EVENT_COMPACT_ID
+                    ? DataType.PRIORITIZED_EVENT_BUFFER
+                    : DataType.DATA_BUFFER;
+        }
+
+        private byte getMessageId() {
+            if (dataType.hasPriority()) {
+                return isCompact() ? PRIORITY_EVENT_COMPACT_ID : PRIORITY_EVENT_ID;
+            }
+            return isCompact() ? COMPACT_ID : ID;
+        }
+
+        int getMessageHeaderLength() {
+            return isCompact()
+                    ? ByteBufUtils.varIntLength(receiverIndex) + COMPACT_MESSAGE_HEADER_FIXED_LENGTH
+                    : MESSAGE_HEADER_LENGTH;
         }
 
+        private void writeMessageHeader(ByteBuf buf) {
+            if (isCompact()) {
+                ByteBufUtils.writeVarInt(buf, receiverIndex);
+            } else {
+                receiverId.writeTo(buf);
+            }
+            buf.writeInt(sequenceNumber);
+            buf.writeInt(backlog);
+        }
+
+        /**
+         * 零拷贝写出：只为帧头和消息 header 分配一小块池化 buffer，
+         * 原始数据 buffer 原封不动地交给 Channel，由 Netty 在写出完成后释放。
+         * 数据是文件区间时同样如此，Netty 用 sendfile 把它从 page cache 直接送进 socket。
+         */
         @Override
-        void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) {
-            int headerLength = InputChannelID.getByteBufLength() + Integer.BYTES;
-            // 数据的真实大小
-            int dataLength = buffer.readableBytes();
+        void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) throws IOException {
+            ByteBuf headerBuf = null;
+            Object data = fileRegion != null ? fileRegion : buffer;
+            try {
+                headerBuf = allocateBuffer(allocator, getMessageId(),
+                        getMessageHeaderLength(), getDataSize(), false);
+                writeMessageHeader(headerBuf);
 
-            // 为了简易，我们这里合成分配一整块 Buffer（Flink 源码为了零拷贝会使用 CompositeByteBuf 或直接分别 write）
-            ByteBuf outBuf = allocateBuffer(allocator, ID, headerLength + dataLength);
+                // 分两次 write：header 先行，数据紧随其后，二者在同一次 flush 中一起发出。
+                // 一旦交给 ctx.write，buffer 的所有权就转移给了 Netty，这里不能再释放。
+                ByteBuf header = headerBuf;
+                headerBuf = null;
+                ctx.write(header);
 
-            receiverId.writeTo(outBuf);
-            outBuf.writeInt(sequenceNumber);
-            outBuf.writeBytes(buffer); // 把数据拷贝进去
+                Object dataToWrite = data;
+                data = null;
+                ctx.write(dataToWrite, promise);
+            } catch (Throwable t) {
+                if (headerBuf != null) {
+                    headerBuf.release();
+                }
+                if (data != null) {
+                    ReferenceCountUtil.release(data);
+                }
+                throw new IOException(t);
+            }
+        }
+
+        /**
+         * 拷贝式写出：分配一整块 header + 数据大小的 buffer，把数据拷贝进去后释放原始 buffer。
+         * 只为对比和兼容保留，可以通过 {@link NettyConfig#isZeroCopyEncoding()} 切换回来。
+         * 数据是文件区间时从文件读进来。
+         */
+        void writeWithCopy(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator)
+                throws IOException {
+            // 数据的真实大小
+            int dataLength = getDataSize();
 
-            buffer.release(); // 使用完毕释放原始的包
+            ByteBuf outBuf = allocateBuffer(allocator, getMessageId(),
+                    getMessageHeaderLength() + dataLength);
+
+            try {
+                writeMessageHeader(outBuf);
+                if (fileRegion != null) {
+                    fileRegion.readInto(outBuf);
+                } else {
+                    outBuf.writeBytes(buffer); // 把数据拷贝进去
+                }
+            } catch (Throwable t) {
+                outBuf.release();
+                throw t;
+            } finally {
+                // 使用完毕释放原始的包
+                ReferenceCountUtil.release(fileRegion != null ? fileRegion : buffer);
+            }
 
             ctx.write(outBuf, promise);
         }
 
-        static BufferResponse readFrom(ByteBuf in) {
-            InputChannelID receiverId = InputChannelID.fromByteBuf(in);
-            int seqNum = in.readInt();
+        /**
+         * 只解析消息 header，并为数据部分向接收者要一块 buffer。
+         * 数据字节由 {@link BufferResponseDecoder} 随后写入，因此返回的是一个“尚未填满”的 BufferResponse。
+         */
+        static BufferResponse readFrom(ByteBuf messageHeader, NetworkBufferAllocator allocator, int dataLength,
+                                       DataType dataType) {
+            long upperPart = messageHeader.readLong();
+            long lowerPart = messageHeader.readLong();
+            int seqNum = messageHeader.readInt();
+            int backlog = messageHeader.readInt();
 
-            // 将剩余数据当做真实数据 Buffer (这需要分配新空间拷贝以避免 release 错误，
-            // 简易实现直接 readBytes)
-            ByteBuf dataBuf = in.alloc().buffer(in.readableBytes());
-            in.readBytes(dataBuf);
+            // 已注册的接收者直接复用它自己的 ID 对象，只有接收者不存在时才需要新建一个用于报错
+            RemoteInputChannel inputChannel = allocator.getInputChannel(upperPart, lowerPart);
+            InputChannelID receiverId = inputChannel != null
+                    ? inputChannel.getInputChannelId()
+                    : new InputChannelID(upperPart, lowerPart);
 
-            return new BufferResponse(receiverId, seqNum, dataBuf);
+            ByteBuf dataBuf = allocateDataBuffer(allocator, inputChannel, dataLength, dataType);
+            return new BufferResponse(receiverId, NO_RECEIVER_INDEX, seqNum, backlog, dataBuf, dataType);
         }
 
+        /**
+         * 紧凑格式的 {@link #readFrom}：按连接内下标查找接收者。
+         */
+        static BufferResponse readCompactFrom(ByteBuf messageHeader, NetworkBufferAllocator allocator, int dataLength,
+                                              DataType dataType) {
+            int receiverIndex = ByteBufUtils.readVarInt(messageHeader);
+            int seqNum = messageHeader.readInt();
+            int backlog = messageHeader.readInt();
+
+            RemoteInputChannel inputChannel = allocator.getInputChannel(receiverIndex);
+            InputChannelID receiverId = inputChannel != null ? inputChannel.getInputChannelId() : null;
+
+            ByteBuf dataBuf = allocateDataBuffer(allocator, inputChannel, dataLength, dataType);
+            return new BufferResponse(receiverId, receiverIndex, seqNum, backlog, dataBuf, dataType);
+        }
+
+        private static ByteBuf allocateDataBuffer(NetworkBufferAllocator allocator, RemoteInputChannel inputChannel,
+                                                  int dataLength, DataType dataType) {
+            return dataType.isEvent()
+                    ? allocator.allocateUnPooledNetworkBuffer(inputChannel, dataLength)
+                    : allocator.allocatePooledNetworkBuffer(inputChannel, dataLength);
+        }
+
+    }
+
+    // =================================================================================
+    //  子类：AddCredit (客户端释放了 buffer 之后，向服务端追加 credit)
+    // =================================================================================
+    public static class AddCredit extends NettyMessage {
+        static final byte ID = 6;
+        /** 紧凑格式：用变长的连接内下标代替完整的 receiverId */
+        static final byte COMPACT_ID = 11;
+        final int credit;
+        final InputChannelID receiverId; // 紧凑格式下为 null
+        final int receiverIndex;
+
+        public AddCredit(int credit, InputChannelID receiverId) {
+            this(credit, receiverId, NO_RECEIVER_INDEX);
+        }
+
+        private AddCredit(int credit, InputChannelID receiverId, int receiverIndex) {
+            if (credit <= 0) {
+                throw new IllegalArgumentException("credit 必须为正数: " + credit);
+            }
+            this.credit = credit;
+            this.receiverId = receiverId;
+            this.receiverIndex = receiverIndex;
+        }
+
+        /**
+         * 创建按连接内下标标识接收者的 AddCredit，只能发给已经确认支持紧凑格式的服务端。
+         */
+        static AddCredit compact(int credit, int receiverIndex) {
+            return new AddCredit(credit, null, receiverIndex);
+        }
+
+        boolean isCompact() {
+            return receiverIndex != NO_RECEIVER_INDEX;
+        }
+
+        @Override
+        void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) {
+            ByteBuf buf;
+            if (isCompact()) {
+                buf = allocateBuffer(allocator, COMPACT_ID, Integer.BYTES + ByteBufUtils.varIntLength(receiverIndex));
+                buf.writeInt(credit);
+                ByteBufUtils.writeVarInt(buf, receiverIndex);
+            } else {
+                buf = allocateBuffer(allocator, ID, Integer.BYTES + InputChannelID.getByteBufLength());
+                buf.writeInt(credit);
+                receiverId.writeTo(buf);
+            }
+
+            ctx.write(buf, promise);
+        }
+
+        static AddCredit readFrom(ByteBuf buffer) {
+            int credit = buffer.readInt();
+            InputChannelID receiverId = InputChannelID.fromByteBuf(buffer);
+            return new AddCredit(credit, receiverId);
+        }
+
+        static AddCredit readCompactFrom(ByteBuf buffer) {
+            int credit = buffer.readInt();
+            return compact(credit, ByteBufUtils.readVarInt(buffer));
+        }
+
+        @Override
+        public String toString() {
+            return isCompact()
+                    ? String.format("AddCredit(#%d : %d)", receiverIndex, credit)
+                    : String.format("AddCredit(%s : %d)", receiverId, credit);
+        }
+    }
+
+    // =================================================================================
+    //  子类：NewBufferSize (客户端根据实测吞吐量，通知服务端以后按多大切分 buffer)
+    // =================================================================================
+    public static class NewBufferSize extends NettyMessage {
+        static final byte ID = 7;
+        final int bufferSize;
+        final InputChannelID receiverId;
+
+        public NewBufferSize(int bufferSize, InputChannelID receiverId) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("buffer 大小必须为正数: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            this.receiverId = receiverId;
+        }
+
+        @Override
+        void write(ChannelHandlerContext ctx, ChannelPromise promise, ByteBufAllocator allocator) {
+            ByteBuf buf = allocateBuffer(allocator, ID, Integer.BYTES + InputChannelID.getByteBufLength());
+            buf.writeInt(bufferSize);
+            receiverId.writeTo(buf);
+
+            ctx.write(buf, promise);
+        }
+
+        static NewBufferSize readFrom(ByteBuf buffer) {
+            int bufferSize = buffer.readInt();
+            InputChannelID receiverId = InputChannelID.fromByteBuf(buffer);
+            return new NewBufferSize(bufferSize, receiverId);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("NewBufferSize(%s : %d)", receiverId, bufferSize);
+        }
     }
 
     // =================================================================================
     //  消息统一编码器 (ChannelOutboundHandlerAdapter)
     // =================================================================================
     public static class NettyMessageEncoder extends ChannelOutboundHandlerAdapter {
+
+        private final boolean zeroCopyEncoding;
+
+        /** 每条消息的编码耗时，为 null 时不计时 */
+        private final Histogram encodeTimeNanos;
+
+        public NettyMessageEncoder() {
+            this(true);
+        }
+
+        public NettyMessageEncoder(boolean zeroCopyEncoding) {
+            this(zeroCopyEncoding, null);
+        }
+
+        NettyMessageEncoder(boolean zeroCopyEncoding, Histogram encodeTimeNanos) {
+            this.zeroCopyEncoding = zeroCopyEncoding;
+            this.encodeTimeNanos = encodeTimeNanos;
+        }
+
         @Override
         public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-            if (msg instanceof NettyMessage) {
+            if (encodeTimeNanos == null) {
+                encode(ctx, msg, promise);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                encode(ctx, msg, promise);
+            } finally {
+                encodeTimeNanos.update(System.nanoTime() - start);
+            }
+        }
+
+        private void encode(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!zeroCopyEncoding && msg instanceof BufferResponse) {
+                ((BufferResponse) msg).writeWithCopy(ctx, promise, ctx.alloc());
+            } else if (msg instanceof NettyMessage) {
                 // 委托给各个具体的消息类自己去 write
                 ((NettyMessage) msg).write(ctx, promise, ctx.alloc());
             } else {
@@ -143,10 +569,25 @@ public abstract class NettyMessage {
     }
 
     // =================================================================================
-    //  消息统一解码器 (基于 LengthFieldBasedFrameDecoder 解决粘包)
+    //  服务端消息解码器 (基于 LengthFieldBasedFrameDecoder 解决粘包)
+    //  客户端的 BufferResponse 走的是流式的 NettyMessageClientDecoderDelegate
     // =================================================================================
     public static class NettyMessageDecoder extends LengthFieldBasedFrameDecoder {
+
+        /**
+         * 服务端只会收到很小的控制消息，帧长度超过这个值直接视为数据流损坏，
+         * 避免对端随便发一个长度字段就让我们去累积任意大小的帧。
+         */
+        static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+        /** 每条消息的解码耗时，为 null 时不计时 */
+        private final Histogram decodeTimeNanos;
+
         public NettyMessageDecoder() {
+            this(null);
+        }
+
+        NettyMessageDecoder(Histogram decodeTimeNanos) {
             /*
              * Flink 经典的配置:
              * lengthFieldOffset = 0    (长度在开头)
@@ -154,16 +595,27 @@ public abstract class NettyMessage {
              * lengthAdjustment = -4    (由于写入的 length 包含了自身长度，而 Netty 默认不包含，需要调整回去)
              * initialBytesToStrip = 4  (把 4 个字节的 length 字段剥离掉，丢弃)
              */
-            super(Integer.MAX_VALUE, 0, 4, -4, 4);
+            super(MAX_FRAME_LENGTH, 0, 4, -4, 4);
+            this.decodeTimeNanos = decodeTimeNanos;
         }
 
         @Override
         protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+            long start = decodeTimeNanos != null ? System.nanoTime() : 0;
             ByteBuf msg = (ByteBuf) super.decode(ctx, in);
             if (msg == null) {
                 return null;
             }
+            try {
+                return decodeMessage(msg);
+            } finally {
+                if (decodeTimeNanos != null) {
+                    decodeTimeNanos.update(System.nanoTime() - start);
+                }
+            }
+        }
 
+        private static Object decodeMessage(ByteBuf msg) {
             try {
                 // 读取剩余的 header
                 int magicNumber = msg.readInt();
@@ -177,8 +629,12 @@ public abstract class NettyMessage {
                 switch (msgId) {
                     case PartitionRequest.ID:
                         return PartitionRequest.readFrom(msg);
-                    case BufferResponse.ID:
-                        return BufferResponse.readFrom(msg);
+                    case AddCredit.ID:
+                        return AddCredit.readFrom(msg);
+                    case AddCredit.COMPACT_ID:
+                        return AddCredit.readCompactFrom(msg);
+                    case NewBufferSize.ID:
+                        return NewBufferSize.readFrom(msg);
                     default:
                         throw new IllegalStateException("收到未知消息类型 ID: " + msgId);
                 }
@@ -188,4 +644,4 @@ public abstract class NettyMessage {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.metrics.Histogram;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * 客户端的消息解码入口（在 Flink 源码中对应 NettyMessageClientDecoderDelegate）。
+ *
+ * <p>与服务端基于 LengthFieldBasedFrameDecoder 的 {@link NettyMessage.NettyMessageDecoder} 不同，
+ * 这里只累积 9 个字节的帧头，之后的字节直接交给对应消息的子解码器处理。
+ * 对于 BufferResponse，数据部分会被直接写入接收者的 buffer，不再先把整帧攒在内存里；
+ * 其它控制消息都很小，由 {@link NonBufferResponseDecoder} 整条累积后解析。
+ */
+public class NettyMessageClientDecoderDelegate extends ChannelInboundHandlerAdapter {
+
+    private final BufferResponseDecoder bufferResponseDecoder;
+
+    private final NonBufferResponseDecoder nonBufferResponseDecoder;
+
+    /** 累积帧头用的小 buffer */
+    private ByteBuf frameHeaderBuffer;
+
+    /** 当前正在工作的子解码器，为 null 表示正在等待下一个帧头 */
+    private ClientMessageDecoder currentDecoder;
+
+    /** 每次 Socket 读花在解码上的时间，不包括后续处理器的耗时；为 null 时不计时 */
+    private final Histogram decodeTimeNanos;
+
+    public NettyMessageClientDecoderDelegate(NetworkBufferAllocator allocator) {
+        this(allocator, null);
+    }
+
+    NettyMessageClientDecoderDelegate(NetworkBufferAllocator allocator, Histogram decodeTimeNanos) {
+        this.bufferResponseDecoder = new BufferResponseDecoder(allocator);
+        this.nonBufferResponseDecoder = new NonBufferResponseDecoder();
+        this.decodeTimeNanos = decodeTimeNanos;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        bufferResponseDecoder.onChannelActive(ctx.alloc());
+        nonBufferResponseDecoder.onChannelActive(ctx.alloc());
+        frameHeaderBuffer = ctx.alloc().directBuffer(NettyMessage.FRAME_HEADER_LENGTH);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        bufferResponseDecoder.close();
+        nonBufferResponseDecoder.close();
+        if (frameHeaderBuffer != null) {
+            frameHeaderBuffer.release();
+            frameHeaderBuffer = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        ByteBuf data = (ByteBuf) msg;
+        boolean timed = decodeTimeNanos != null;
+        long decodeNanos = 0;
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            while (data.isReadable()) {
+                if (currentDecoder != null) {
+                    ClientMessageDecoder.DecodingResult result = currentDecoder.onChannelRead(data);
+                    if (!result.isFinished()) {
+                        break;
+                    }
+                    // 把消息交给下游处理器的时间不算进解码耗时
+                    if (timed) {
+                        decodeNanos += System.nanoTime() - start;
+                    }
+                    ctx.fireChannelRead(result.getMessage());
+                    if (timed) {
+                        start = System.nanoTime();
+                    }
+
+                    currentDecoder = null;
+                    frameHeaderBuffer.clear();
+                }
+
+                decodeFrameHeader(data);
+            }
+        } finally {
+            data.release();
+            if (timed) {
+                decodeTimeNanos.update(decodeNanos + System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void decodeFrameHeader(ByteBuf data) {
+        ByteBuf fullFrameHeaderBuf = ByteBufUtils.accumulate(
+                frameHeaderBuffer, data, NettyMessage.FRAME_HEADER_LENGTH);
+        if (fullFrameHeaderBuf == null) {
+            return;
+        }
+
+        int frameLength = fullFrameHeaderBuf.readInt();
+        int magicNumber = fullFrameHeaderBuf.readInt();
+        if (magicNumber != NettyMessage.MAGIC_NUMBER) {
+            throw new CorruptedFrameException("网络流已损坏，收到的魔数不正确！");
+        }
+        if (frameLength < NettyMessage.FRAME_HEADER_LENGTH) {
+            throw new CorruptedFrameException("网络流已损坏，帧长度不正确: " + frameLength);
+        }
+
+        byte msgId = fullFrameHeaderBuf.readByte();
+        if (NettyMessage.BufferResponse.isBufferResponse(msgId)) {
+            currentDecoder = bufferResponseDecoder;
+        } else {
+            currentDecoder = nonBufferResponseDecoder;
+        }
+        currentDecoder.onNewMessageReceived(msgId, frameLength - NettyMessage.FRAME_HEADER_LENGTH);
+    }
+}
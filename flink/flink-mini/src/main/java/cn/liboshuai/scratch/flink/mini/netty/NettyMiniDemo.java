@@ -1,53 +1,192 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
-import io.netty.channel.Channel;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import cn.liboshuai.scratch.flink.mini.partition.PipelinedResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.BufferOrEvent;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.InputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.SingleInputGate;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
 /**
  * 完整模拟 Flink 中 Task 间数据交换（拉取）的简易流程：
- * 1. 启动服务与客户端
- * 2. 消费者构建拉取请求 PartitionRequest
- * 3. 消费者通过 Client Channel 向远端发出拉取
- * 4. 远端接收并推送 BufferResponse
+ * 1. 生产者注册结果分区，启动服务与客户端
+ * 2. 消费者为每个子分区创建一个 RemoteInputChannel，由 InputGate 从网络内存池中为它们分配 buffer
+ * 3. 各个 InputChannel 复用同一条 TCP 连接向远端发出 PartitionRequest，初始 credit 就是独占 buffer 数
+ * 4. 远端从子分区中读取数据，在有 credit 时推送 BufferResponse
+ * 5. 消费者的任务线程从 InputGate 取出 buffer，还原出记录，释放 buffer 后 credit 回到远端
  */
 public class NettyMiniDemo {
 
     private static final Logger LOG = LoggerFactory.getLogger(NettyMiniDemo.class);
 
-    public static void main(String[] args) throws InterruptedException {
-        // 1. 初始化配置
+    private static final int NUM_SUBPARTITIONS = 2;
+
+    public static void main(String[] args) throws Exception {
+        // 1. 初始化配置，生产者注册一个有 2 个子分区的结果分区，bufferTimeout = 100ms
         NettyConfig config = new NettyConfig("127.0.0.1", 9090, 2, 2);
-        NettyConnectionManager connectionManager = new NettyConnectionManager(config);
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        ResultPartitionID partitionId = new ResultPartitionID();
+        ResultPartition partition = new PipelinedResultPartition(
+                partitionId, NUM_SUBPARTITIONS, config.getNetworkBufferSize(), 100);
+        partitionManager.registerResultPartition(partition);
+
+        NettyConnectionManager connectionManager = new NettyConnectionManager(partitionManager, config);
+        // 网络内存在启动时一次性分配好，之后生产者写数据、消费者收数据用的 buffer 都从这里来
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(
+                config.getNumberOfNetworkBuffers(), config.getNetworkBufferSize());
+        // 生产者每个子分区至少一个 buffer，最多再多借一倍，用完后 emitRecord 会阻塞
+        partition.setBufferPool(networkBufferPool.createBufferPool(NUM_SUBPARTITIONS, 2 * NUM_SUBPARTITIONS));
+        SingleInputGate inputGate = new SingleInputGate(
+                networkBufferPool, config.getNetworkBuffersPerChannel(), config.getFloatingBuffersPerGate());
+        ConsumerTask consumerTask = new ConsumerTask(inputGate);
 
         try {
             // 2. 启动服务端与客户端线程池
             connectionManager.start();
 
-            // 3. 建立连接获取 Channel
-            Channel clientChannel = connectionManager.createClientChannel();
-
-            // 4. 模拟准备好消费者 ReceiverID 与 上游的 PartitionID
-            InputChannelID receiverId = new InputChannelID();
-            ResultPartitionID partitionId = new ResultPartitionID();
-
+            // 3. 每个子分区一个 InputChannel，它们使用同一个 ConnectionID，因此复用同一条 TCP 连接
+            ConnectionID connectionId = new ConnectionID(
+                    new InetSocketAddress(config.getServerAddress(), config.getServerPort()), 0);
             LOG.info(">>> 准备发起数据请求: 从分区 {} 拉取数据", partitionId);
 
-            // 5. 构造请求并发送
-            NettyMessage.PartitionRequest request = new NettyMessage.PartitionRequest(
-                    partitionId,
-                    receiverId,
-                    10  // 初始 credit = 10
-            );
+            RemoteInputChannel[] inputChannels = new RemoteInputChannel[NUM_SUBPARTITIONS];
+            for (int i = 0; i < NUM_SUBPARTITIONS; i++) {
+                inputChannels[i] = new RemoteInputChannel(
+                        inputGate,
+                        partitionId,
+                        i,  // 子分区下标
+                        connectionId,
+                        connectionManager
+                );
+            }
+            inputGate.setInputChannels(inputChannels);
+            if (config.isBufferDebloatEnabled()) {
+                inputGate.enableBufferDebloating(config);
+            }
+            // 每个通道拿到 2 个独占 buffer（初始 credit = 2），后续数据要等 buffer 被回收、追加 credit 后才会发送
+            inputGate.setup();
+            consumerTask.start();
+            inputGate.requestPartitions();
 
-            clientChannel.writeAndFlush(request);
+            // 4. 生产者源源不断地往子分区里写记录，记录会先攒在 buffer 里，由 OutputFlusher 定时发出
+            for (int i = 0; i < 10; i++) {
+                String record = "Hello Flink Data Stream [" + i + "]";
+                partition.emitRecord(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)), i % NUM_SUBPARTITIONS);
+                Thread.sleep(30);
+            }
 
             // 让主线程等一会，观察日志里 Handler 收发的过程
             Thread.sleep(3000);
 
+            // 6. 连接和通道的指标都发布在 JMX 上，JConsole 里也能看到
+            logJmxMetrics();
+
         } finally {
-            // 6. 关闭清理资源
+            // 7. 关闭清理资源
+            consumerTask.terminate();
+            consumerTask.join();
+            inputGate.close();
             connectionManager.shutdown();
+            partitionManager.shutdown();
+            networkBufferPool.destroy();
+        }
+    }
+
+    /**
+     * 消费者的任务线程：不停地从 InputGate 取 buffer，用每个通道自己的反序列化器把记录还原出来打印。
+     */
+    private static class ConsumerTask extends Thread {
+
+        private final SingleInputGate inputGate;
+
+        /** 只在本线程中访问 */
+        private final Map<InputChannel, SpanningRecordDeserializer> deserializers = new HashMap<>();
+
+        private volatile boolean running = true;
+
+        ConsumerTask(SingleInputGate inputGate) {
+            super("ConsumerTask");
+            setDaemon(true);
+            this.inputGate = inputGate;
+        }
+
+        void terminate() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Optional<BufferOrEvent> next = inputGate.getNext();
+                    if (!next.isPresent()) {
+                        return;
+                    }
+                    BufferOrEvent bufferOrEvent = next.get();
+                    try {
+                        if (bufferOrEvent.isEvent()) {
+                            LOG.info("任务收到优先事件：Channel={}, 大小={}",
+                                    bufferOrEvent.getChannel(), bufferOrEvent.getBuffer().readableBytes());
+                        } else {
+                            logRecords(bufferOrEvent.getBuffer(), bufferOrEvent.getChannel());
+                        }
+                    } finally {
+                        // 释放后 buffer 回到通道，由通道把 credit 还给远端
+                        bufferOrEvent.getBuffer().release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // terminate() 打断了等待
+            } catch (IOException e) {
+                LOG.error("读取数据失败", e);
+            }
+        }
+
+        private void logRecords(ByteBuf buffer, InputChannel channel) {
+            SpanningRecordDeserializer deserializer =
+                    deserializers.computeIfAbsent(channel, ignored -> new SpanningRecordDeserializer());
+            deserializer.setNextBuffer(buffer);
+            DeserializationResult result;
+            do {
+                result = deserializer.getNextRecord();
+                if (result.isFullRecord()) {
+                    LOG.info("任务收到记录：Channel={}, 数据内容=[{}]",
+                            channel, deserializer.getCurrentRecord().toString(StandardCharsets.UTF_8));
+                }
+            } while (!result.isBufferConsumed());
+        }
+    }
+
+    private static void logJmxMetrics() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server.queryNames(new ObjectName(MetricRegistry.JMX_DOMAIN + ":*"), null)) {
+            StringBuilder values = new StringBuilder();
+            for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes()) {
+                values.append(attribute.getName()).append('=')
+                        .append(server.getAttribute(name, attribute.getName())).append(' ');
+            }
+            LOG.info("指标 {}: {}", name, values);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * 一条到远端的 TCP 连接的客户端包装，多个 InputChannel 复用同一条连接发起请求。
+ * （在 Flink 源码中对应 NettyPartitionRequestClient）
+ */
+public class NettyPartitionRequestClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyPartitionRequestClient.class);
+
+    private final Channel tcpChannel;
+
+    private final PartitionRequestClientHandler clientHandler;
+
+    private final ConnectionID connectionId;
+
+    NettyPartitionRequestClient(Channel tcpChannel,
+                                PartitionRequestClientHandler clientHandler,
+                                ConnectionID connectionId) {
+        this.tcpChannel = tcpChannel;
+        this.clientHandler = clientHandler;
+        this.connectionId = connectionId;
+    }
+
+    public ConnectionID getConnectionId() {
+        return connectionId;
+    }
+
+    boolean isActive() {
+        return tcpChannel.isActive();
+    }
+
+    /**
+     * 在这条连接上为 {@code inputChannel} 请求一个子分区。
+     * 先把 InputChannel 注册到连接的处理器上，这样服务端的响应一到就能找到接收者。
+     */
+    public void requestSubpartition(ResultPartitionID partitionId,
+                                    int subpartitionIndex,
+                                    RemoteInputChannel inputChannel,
+                                    int initialCredit) throws IOException {
+        if (!tcpChannel.isActive()) {
+            throw new IOException("到 " + connectionId + " 的连接已经关闭");
+        }
+        int receiverIndex = clientHandler.addInputChannel(inputChannel);
+
+        NettyMessage.PartitionRequest request = new NettyMessage.PartitionRequest(
+                partitionId, subpartitionIndex, inputChannel.getInputChannelId(), initialCredit, receiverIndex);
+        tcpChannel.writeAndFlush(request).addListener(future -> {
+            if (!future.isSuccess()) {
+                clientHandler.removeInputChannel(inputChannel);
+                inputChannel.onError(new IOException("向 " + connectionId + " 发送分区请求失败", future.cause()));
+            }
+        });
+        LOG.debug("通过连接 {} 请求分区 {} 的子分区 {}", connectionId, partitionId, subpartitionIndex);
+    }
+
+    /**
+     * 通知处理器这个 InputChannel 有新的 credit 需要告诉服务端，可以在任意线程中调用。
+     */
+    public void notifyCreditAvailable(RemoteInputChannel inputChannel) {
+        clientHandler.notifyCreditAvailable(inputChannel);
+    }
+
+    /**
+     * 通知服务端以后按 {@code bufferSize} 为这个 InputChannel 切分 buffer，可以在任意线程中调用。
+     */
+    public void notifyNewBufferSize(RemoteInputChannel inputChannel, int bufferSize) {
+        tcpChannel.writeAndFlush(new NettyMessage.NewBufferSize(bufferSize, inputChannel.getInputChannelId()))
+                .addListener(future -> {
+                    if (!future.isSuccess()) {
+                        inputChannel.onError(new IOException(
+                                "向 " + connectionId + " 发送新的 buffer 大小失败", future.cause()));
+                    }
+                });
+    }
+
+    /**
+     * InputChannel 不再使用这条连接。连接本身保留在连接池中给其它 InputChannel 继续复用。
+     */
+    public void close(RemoteInputChannel inputChannel) {
+        clientHandler.removeInputChannel(inputChannel);
+    }
+
+    @Override
+    public String toString() {
+        return "NettyPartitionRequestClient(" + connectionId + ")";
+    }
+}
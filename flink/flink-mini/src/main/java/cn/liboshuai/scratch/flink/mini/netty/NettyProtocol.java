@@ -1,5 +1,7 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionProvider;
 import io.netty.channel.ChannelHandler;
 
 /**
@@ -7,19 +9,48 @@ import io.netty.channel.ChannelHandler;
  */
 public class NettyProtocol {
 
+    private final ResultPartitionProvider partitionProvider;
+
+    private final NettyConfig config;
+
+    private final MetricRegistry metricRegistry;
+
+    public NettyProtocol(ResultPartitionProvider partitionProvider, NettyConfig config) {
+        this(partitionProvider, config, MetricRegistry.NO_OP);
+    }
+
+    public NettyProtocol(ResultPartitionProvider partitionProvider, NettyConfig config,
+                         MetricRegistry metricRegistry) {
+        this.partitionProvider = partitionProvider;
+        this.config = config;
+        this.metricRegistry = metricRegistry;
+    }
+
     public ChannelHandler[] getServerChannelHandlers() {
+        // 每条连接一个发送队列，服务端处理器负责把请求翻译成队列里的读取器
+        NettyConnectionMetrics metrics = new NettyConnectionMetrics(metricRegistry);
+        PartitionRequestQueue queueOfPartitionQueues = new PartitionRequestQueue(metrics);
+        PartitionRequestServerHandler serverHandler =
+                new PartitionRequestServerHandler(partitionProvider, queueOfPartitionQueues);
         return new ChannelHandler[] {
-                new NettyMessage.NettyMessageEncoder(),
-                new NettyMessage.NettyMessageDecoder(),
-                new PartitionRequestServerHandler()
+                new NettyMessage.NettyMessageEncoder(config.isZeroCopyEncoding(), metrics.encodeTimeNanos),
+                new NettyMessage.NettyMessageDecoder(metrics.decodeTimeNanos),
+                serverHandler,
+                queueOfPartitionQueues
         };
     }
 
     public ChannelHandler[] getClientChannelHandlers() {
+        // 客户端不再使用 LengthFieldBasedFrameDecoder 累积整帧，而是把数据直接解码进接收者的 buffer
+        NettyConnectionMetrics metrics = new NettyConnectionMetrics(metricRegistry);
+        PartitionRequestClientHandler clientHandler =
+                new PartitionRequestClientHandler(config.isCompactReceiverIndex(), metrics);
+        NetworkBufferAllocator bufferAllocator =
+                new NetworkBufferAllocator(clientHandler, config.getNetworkBufferSize());
         return new ChannelHandler[] {
-                new NettyMessage.NettyMessageEncoder(),
-                new NettyMessage.NettyMessageDecoder(),
-                new PartitionRequestClientHandler()
+                new NettyMessage.NettyMessageEncoder(config.isZeroCopyEncoding(), metrics.encodeTimeNanos),
+                new NettyMessageClientDecoderDelegate(bufferAllocator, metrics.decodeTimeNanos),
+                clientHandler
         };
     }
-}
\ No newline at end of file
+}
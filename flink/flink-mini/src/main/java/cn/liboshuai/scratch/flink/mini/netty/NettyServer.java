@@ -4,6 +4,10 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -18,8 +22,8 @@ public class NettyServer {
 
     private ServerBootstrap bootstrap;
     private ChannelFuture bindFuture;
-    private NioEventLoopGroup bossGroup;
-    private NioEventLoopGroup workerGroup;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
 
     public NettyServer(NettyConfig config, NettyProtocol protocol) {
         this.config = config;
@@ -27,14 +31,20 @@ public class NettyServer {
     }
 
     public void start() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup(config.getServerNumThreads());
+        bootstrap = new ServerBootstrap();
+
+        NettyConfig.TransportType transportType = config.resolveTransportType();
+        if (transportType == NettyConfig.TransportType.EPOLL) {
+            initEpollBootstrap();
+        } else {
+            initNioBootstrap();
+        }
 
-        bootstrap = new ServerBootstrap()
-                .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+        bootstrap
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
@@ -42,8 +52,31 @@ public class NettyServer {
                     }
                 });
 
+        if (config.getServerConnectBacklog() > 0) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, config.getServerConnectBacklog());
+        }
+        if (config.getSendBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+        }
+        if (config.getReceiveBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+
         bindFuture = bootstrap.bind(config.getServerAddress(), config.getServerPort()).sync();
-        LOG.info("Netty 服务端已启动，监听地址 {}:{}", config.getServerAddress(), config.getServerPort());
+        LOG.info("Netty 服务端已启动，监听地址 {}:{}，传输层 {}",
+                config.getServerAddress(), config.getServerPort(), transportType);
+    }
+
+    private void initNioBootstrap() {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(config.getServerNumThreads());
+        bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class);
+    }
+
+    private void initEpollBootstrap() {
+        bossGroup = new EpollEventLoopGroup(1);
+        workerGroup = new EpollEventLoopGroup(config.getServerNumThreads());
+        bootstrap.group(bossGroup, workerGroup).channel(EpollServerSocketChannel.class);
     }
 
     public void shutdown() {
@@ -56,4 +89,4 @@ public class NettyServer {
         }
         LOG.info("Netty 服务端已关闭。");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 客户端解码时为 BufferResponse 的数据部分分配目标 buffer。
+ * 解码器会把网络上读到的字节直接写进这里返回的 buffer，而不是先攒成完整的帧再拷贝出来。
+ */
+public class NetworkBufferAllocator {
+
+    private final PartitionRequestClientHandler clientHandler;
+    private final int maxBufferSize;
+
+    public NetworkBufferAllocator(PartitionRequestClientHandler clientHandler, int maxBufferSize) {
+        this.clientHandler = clientHandler;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * 按 ID 的两个 long 查找接收数据的 InputChannel，不会创建任何对象。
+     *
+     * @return 已注册的 InputChannel；若接收者已经不存在则返回 {@code null}
+     */
+    public RemoteInputChannel getInputChannel(long upperPart, long lowerPart) {
+        return clientHandler.getInputChannel(upperPart, lowerPart);
+    }
+
+    /**
+     * 按连接内下标查找接收数据的 InputChannel，用于紧凑格式的 BufferResponse。
+     *
+     * @return 已注册的 InputChannel；若接收者已经不存在则返回 {@code null}
+     */
+    public RemoteInputChannel getInputChannel(int receiverIndex) {
+        return clientHandler.getInputChannel(receiverIndex);
+    }
+
+    /**
+     * 向目标 InputChannel 要一块能容纳 {@code size} 字节的 buffer。
+     * 通道有多少空闲 buffer 就给过服务端多少 credit，所以正常情况下一定能拿到。
+     *
+     * @param inputChannel 接收者，为 {@code null} 表示接收者已经不存在
+     * @return 分配好的 buffer；若接收者已经不存在或没有空闲 buffer 则返回 {@code null}，调用方应丢弃对应的数据
+     */
+    public ByteBuf allocatePooledNetworkBuffer(RemoteInputChannel inputChannel, int size) {
+        if (size > maxBufferSize) {
+            throw new IllegalStateException("BufferResponse 的数据大小 " + size
+                    + " 超过了网络 buffer 的上限 " + maxBufferSize + "，接收者: "
+                    + (inputChannel == null ? "未知" : inputChannel.getInputChannelId()));
+        }
+        if (inputChannel == null) {
+            return null;
+        }
+        // 网络 buffer 的容量固定为 maxBufferSize，上面的检查保证数据一定放得下
+        return inputChannel.requestBuffer();
+    }
+
+    /**
+     * 为事件分配一块堆内 buffer。事件不消耗 credit，因此不能占用通道的网络 buffer。
+     *
+     * @param inputChannel 接收者，为 {@code null} 表示接收者已经不存在
+     * @return 分配好的 buffer；若接收者已经不存在则返回 {@code null}，调用方应丢弃对应的数据
+     */
+    public ByteBuf allocateUnPooledNetworkBuffer(RemoteInputChannel inputChannel, int size) {
+        if (inputChannel == null) {
+            return null;
+        }
+        return Unpooled.buffer(size, size);
+    }
+}
@@ -0,0 +1,57 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * 除 BufferResponse 之外的消息都很小，直接把整条消息累积起来再解析。
+ * （在 Flink 源码中对应 NonBufferResponseDecoder）
+ */
+class NonBufferResponseDecoder extends ClientMessageDecoder {
+
+    /** 初始的累积 buffer 大小，绝大多数控制消息都放得下 */
+    private static final int INITIAL_MESSAGE_HEADER_BUFFER_LENGTH = 128;
+
+    /** 控制消息的长度上限，与服务端解码器保持一致 */
+    static final int MAX_MESSAGE_LENGTH = NettyMessage.NettyMessageDecoder.MAX_FRAME_LENGTH;
+
+    private ByteBuf messageBuffer;
+
+    void onChannelActive(ByteBufAllocator alloc) {
+        messageBuffer = alloc.directBuffer(INITIAL_MESSAGE_HEADER_BUFFER_LENGTH);
+    }
+
+    @Override
+    void onNewMessageReceived(int msgId, int messageLength) {
+        if (messageLength > MAX_MESSAGE_LENGTH) {
+            throw new TooLongFrameException("控制消息过长: " + messageLength);
+        }
+        super.onNewMessageReceived(msgId, messageLength);
+        messageBuffer.clear();
+        messageBuffer.ensureWritable(messageLength);
+    }
+
+    @Override
+    DecodingResult onChannelRead(ByteBuf data) throws Exception {
+        ByteBuf fullMessageBuf = ByteBufUtils.accumulate(messageBuffer, data, messageLength);
+        if (fullMessageBuf == null) {
+            return DecodingResult.NOT_FINISHED;
+        }
+
+        switch (msgId) {
+            case NettyMessage.ErrorResponse.ID:
+                return DecodingResult.fullMessage(NettyMessage.ErrorResponse.readFrom(fullMessageBuf));
+            default:
+                throw new IllegalStateException("客户端收到未知消息类型 ID: " + msgId);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (messageBuffer != null) {
+            messageBuffer.release();
+            messageBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 按 {@link ConnectionID} 复用到远端的 TCP 连接：同一个远端地址最多建立
+ * {@link NettyConfig#getMaxNumberOfConnections()} 条连接，所有 InputChannel 都在这些连接上多路复用。
+ * （在 Flink 源码中对应 PartitionRequestClientFactory）
+ *
+ * <p>多个线程同时请求同一个连接时，只有第一个线程真正发起连接，其余线程等待同一个 future。
+ */
+public class PartitionRequestClientFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionRequestClientFactory.class);
+
+    private final NettyClient nettyClient;
+
+    private final int maxNumberOfConnections;
+
+    private final ConcurrentMap<ConnectionID, CompletableFuture<NettyPartitionRequestClient>> clients =
+            new ConcurrentHashMap<>();
+
+    PartitionRequestClientFactory(NettyClient nettyClient, int maxNumberOfConnections) {
+        if (maxNumberOfConnections <= 0) {
+            throw new IllegalArgumentException("每个远端的最大连接数必须为正数: " + maxNumberOfConnections);
+        }
+        this.nettyClient = nettyClient;
+        this.maxNumberOfConnections = maxNumberOfConnections;
+    }
+
+    /**
+     * 获取到指定远端的连接，没有就新建一个。连接下标会被折算到 [0, maxNumberOfConnections) 范围内。
+     */
+    NettyPartitionRequestClient createPartitionRequestClient(ConnectionID connectionId)
+            throws IOException, InterruptedException {
+        ConnectionID pooledId = new ConnectionID(
+                connectionId.getAddress(), connectionId.getConnectionIndex() % maxNumberOfConnections);
+
+        while (true) {
+            CompletableFuture<NettyPartitionRequestClient> newFuture = new CompletableFuture<>();
+            CompletableFuture<NettyPartitionRequestClient> existing = clients.putIfAbsent(pooledId, newFuture);
+
+            if (existing == null) {
+                // 由当前线程负责建立连接，其它线程在 newFuture 上等待
+                try {
+                    NettyPartitionRequestClient client = connect(pooledId);
+                    newFuture.complete(client);
+                    return client;
+                } catch (Throwable t) {
+                    clients.remove(pooledId, newFuture);
+                    newFuture.completeExceptionally(t);
+                    throw t;
+                }
+            }
+
+            NettyPartitionRequestClient client;
+            try {
+                client = existing.get();
+            } catch (ExecutionException e) {
+                throw new IOException("连接 " + pooledId + " 失败", e.getCause());
+            }
+            if (client.isActive()) {
+                return client;
+            }
+            // 连接已经断开，移除后重新建立
+            clients.remove(pooledId, existing);
+        }
+    }
+
+    private NettyPartitionRequestClient connect(ConnectionID connectionId) throws IOException, InterruptedException {
+        ChannelFuture connectFuture = nettyClient.connect(connectionId.getAddress()).await();
+        if (!connectFuture.isSuccess()) {
+            throw new IOException("连接 " + connectionId + " 失败", connectFuture.cause());
+        }
+
+        Channel channel = connectFuture.channel();
+        PartitionRequestClientHandler clientHandler = channel.pipeline().get(PartitionRequestClientHandler.class);
+        NettyPartitionRequestClient client = new NettyPartitionRequestClient(channel, clientHandler, connectionId);
+
+        // 连接关闭后从池中移除，下次请求时重新建立
+        channel.closeFuture().addListener(future -> clients.computeIfPresent(connectionId,
+                (id, clientFuture) -> clientFuture.getNow(null) == client ? null : clientFuture));
+
+        LOG.info("建立到 {} 的连接", connectionId);
+        return client;
+    }
+
+    int getNumberOfActiveClients() {
+        return clients.size();
+    }
+}
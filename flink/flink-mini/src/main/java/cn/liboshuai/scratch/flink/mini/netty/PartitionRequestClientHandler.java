@@ -1,44 +1,312 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import cn.liboshuai.scratch.flink.mini.util.CopyOnWriteIdMap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
- * 位于客户端的处理器：接收来自服务端的真实数据缓冲 BufferResponse。
+ * 位于客户端的处理器：一条 TCP 连接一个，负责把服务端的响应分发给连接上复用的各个 InputChannel。
  * （在 Flink 源码中对应 CreditBasedPartitionRequestClientHandler）
+ *
+ * <p>处理器只把收到的 buffer 放进对应 InputChannel 的无锁接收队列，反序列化和处理记录都在任务线程中进行，
+ * 慢的消费者不会拖住同一个 EventLoop 上的其它连接。收到数据的通道先记下来，等一轮读取结束（{@link #channelReadComplete}）
+ * 再统一通知它们的 InputGate，一次读取解码出多个 BufferResponse 时每个通道只通知一次。
+ *
+ * <p>任务线程释放 buffer 后，InputChannel 通过 {@link #notifyCreditAvailable} 登记自己，
+ * 处理器在 EventLoop 中把攒下的 credit 合并成 AddCredit 发回服务端，避免每个 buffer 一条消息。
+ *
+ * <p>开启紧凑下标后，每个注册的 InputChannel 还会分到一个连接内递增的小整数下标，随 PartitionRequest 发给服务端。
+ * 下标从不复用：InputChannel 释放时不会通知服务端，服务端仍可能按旧下标发来迟到的数据，复用会把它分发给后来注册的 InputChannel。
+ * 因此一条连接最多分配 {@link #MAX_RECEIVER_INDICES} 个下标，用完后新注册的 InputChannel 退回完整 ID 格式，
+ * 按下标索引的数组也不会无限增长。
+ *
+ * <p>连接建立后把连接的指标注册为 ClientConnection，注册的每个 InputChannel 的指标注册为 InputChannel。
  */
 public class PartitionRequestClientHandler extends SimpleChannelInboundHandler<NettyMessage> {
 
     private static final Logger LOG = LoggerFactory.getLogger(PartitionRequestClientHandler.class);
 
+    /** 一条连接最多分配的下标数，下标都在 varint 的 2 个字节以内 */
+    static final int MAX_RECEIVER_INDICES = 1 << 14;
+
+    /**
+     * 这条连接上的所有 InputChannel，注册发生在任务线程，查找发生在 EventLoop。
+     * 注册很少而每个 BufferResponse 都要查找一次，因此用写时复制的表，解码时可以直接拿两个 long 无锁查找。
+     */
+    private final CopyOnWriteIdMap<InputChannelID, RemoteInputChannel> inputChannels = new CopyOnWriteIdMap<>();
+
+    /** 是否为 InputChannel 分配连接内下标，让服务端使用紧凑格式 */
+    private final boolean compactReceiverIndex;
+
+    /** 这条连接最多分配的下标数 */
+    private final int maxReceiverIndices;
+
+    /** 按连接内下标索引的 InputChannel，写时复制，已移除的位置为 null */
+    private volatile RemoteInputChannel[] inputChannelsByIndex = new RemoteInputChannel[0];
+
+    /** 已分配的连接内下标，发送紧凑格式的 AddCredit 时使用 */
+    private final ConcurrentMap<InputChannelID, Integer> receiverIndices = new ConcurrentHashMap<>();
+
+    /** 是否收到过紧凑格式的 BufferResponse，即服务端确认支持下标，只在 EventLoop 线程中访问 */
+    private boolean receiverIndexConfirmed;
+
+    /** 本轮读取中收到了数据、还没通知 InputGate 的 InputChannel，只在 EventLoop 线程中访问 */
+    private final ArrayDeque<RemoteInputChannel> inputChannelsWithUnnotifiedData = new ArrayDeque<>();
+
+    /** 有 credit 需要通知服务端的 InputChannel，只在 EventLoop 线程中访问 */
+    private final ArrayDeque<RemoteInputChannel> inputChannelsWithCredit = new ArrayDeque<>();
+
+    private final NettyConnectionMetrics metrics;
+
+    private volatile ChannelHandlerContext ctx;
+
+    public PartitionRequestClientHandler() {
+        this(false);
+    }
+
+    public PartitionRequestClientHandler(boolean compactReceiverIndex) {
+        this(compactReceiverIndex, new NettyConnectionMetrics(MetricRegistry.NO_OP));
+    }
+
+    PartitionRequestClientHandler(boolean compactReceiverIndex, NettyConnectionMetrics metrics) {
+        this(compactReceiverIndex, metrics, MAX_RECEIVER_INDICES);
+    }
+
+    PartitionRequestClientHandler(boolean compactReceiverIndex, NettyConnectionMetrics metrics, int maxReceiverIndices) {
+        this.compactReceiverIndex = compactReceiverIndex;
+        this.maxReceiverIndices = maxReceiverIndices;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 注册 InputChannel。
+     *
+     * @return 分配给它的连接内下标；未开启紧凑下标或下标已经用完时返回 {@link NettyMessage#NO_RECEIVER_INDEX}
+     */
+    int addInputChannel(RemoteInputChannel inputChannel) {
+        InputChannelID inputChannelId = inputChannel.getInputChannelId();
+        if (inputChannels.putIfAbsent(inputChannelId, inputChannel) != null) {
+            return receiverIndices.getOrDefault(inputChannelId, NettyMessage.NO_RECEIVER_INDEX);
+        }
+        metrics.getRegistry().register("InputChannel", inputChannelId.toString(), inputChannel.getMetricGroup());
+        if (!compactReceiverIndex) {
+            return NettyMessage.NO_RECEIVER_INDEX;
+        }
+        synchronized (receiverIndices) {
+            RemoteInputChannel[] current = inputChannelsByIndex;
+            int receiverIndex = current.length;
+            if (receiverIndex >= maxReceiverIndices) {
+                LOG.debug("连接内下标已经用完，InputChannel {} 使用完整 ID", inputChannelId);
+                return NettyMessage.NO_RECEIVER_INDEX;
+            }
+            RemoteInputChannel[] updated = Arrays.copyOf(current, receiverIndex + 1);
+            updated[receiverIndex] = inputChannel;
+            inputChannelsByIndex = updated;
+            receiverIndices.put(inputChannelId, receiverIndex);
+            return receiverIndex;
+        }
+    }
+
+    void removeInputChannel(RemoteInputChannel inputChannel) {
+        InputChannelID inputChannelId = inputChannel.getInputChannelId();
+        if (inputChannels.remove(inputChannelId) != null) {
+            metrics.getRegistry().unregister(inputChannel.getMetricGroup());
+        }
+        synchronized (receiverIndices) {
+            Integer receiverIndex = receiverIndices.remove(inputChannelId);
+            if (receiverIndex != null) {
+                RemoteInputChannel[] updated = inputChannelsByIndex.clone();
+                updated[receiverIndex] = null;
+                inputChannelsByIndex = updated;
+            }
+        }
+    }
+
+    RemoteInputChannel getInputChannel(InputChannelID inputChannelId) {
+        return inputChannels.get(inputChannelId);
+    }
+
+    /**
+     * 按 ID 的两个 long 查找 InputChannel，解码路径用它避免为查找创建 {@link InputChannelID}。
+     */
+    RemoteInputChannel getInputChannel(long upperPart, long lowerPart) {
+        return inputChannels.get(upperPart, lowerPart);
+    }
+
+    /**
+     * 按连接内下标查找 InputChannel，用于紧凑格式的 BufferResponse。
+     */
+    RemoteInputChannel getInputChannel(int receiverIndex) {
+        RemoteInputChannel[] current = inputChannelsByIndex;
+        return receiverIndex >= 0 && receiverIndex < current.length ? current[receiverIndex] : null;
+    }
+
+    /**
+     * InputChannel 有新的 credit 了，可能在任意线程中调用。
+     */
+    void notifyCreditAvailable(RemoteInputChannel inputChannel) {
+        ctx.executor().execute(() -> ctx.pipeline().fireUserEventTriggered(inputChannel));
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.register("ClientConnection", ctx.channel());
+        super.channelActive(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, NettyMessage msg) throws Exception {
         if (msg instanceof NettyMessage.BufferResponse) {
             NettyMessage.BufferResponse response = (NettyMessage.BufferResponse) msg;
             ByteBuf buffer = response.getBuffer();
+            RemoteInputChannel inputChannel;
+            if (response.isCompact()) {
+                receiverIndexConfirmed = true;
+                inputChannel = getInputChannel(response.receiverIndex);
+            } else {
+                inputChannel = inputChannels.get(response.receiverId);
+            }
+            if (buffer == null && inputChannel != null) {
+                // 接收者还在却没有空闲 buffer，说明服务端发送的数据超过了 credit
+                inputChannel.onError(new IllegalStateException("没有空闲的网络 buffer 接收数据，SeqNum="
+                        + response.sequenceNumber + "，服务端发送的数据超过了 credit"));
+                return;
+            }
+            if (buffer == null || inputChannel == null) {
+                // 接收者已经不存在，数据已被丢弃
+                LOG.debug("丢弃发往未知接收者的缓冲数据：SeqNum={}, ReceiverId={}, ReceiverIndex={}",
+                        response.sequenceNumber, response.receiverId, response.receiverIndex);
+                if (buffer != null) {
+                    buffer.release();
+                }
+                return;
+            }
+            metrics.numBytesIn.inc(buffer.readableBytes());
+            metrics.numBuffersIn.inc();
+            if (inputChannel.onBuffer(buffer, response.sequenceNumber, response.backlog, response.dataType)) {
+                inputChannelsWithUnnotifiedData.add(inputChannel);
+            }
+        } else if (msg instanceof NettyMessage.ErrorResponse) {
+            NettyMessage.ErrorResponse error = (NettyMessage.ErrorResponse) msg;
+            if (error.isFatalError()) {
+                LOG.error("服务端报告连接级错误，关闭连接: {}", error.message);
+                notifyAllChannelsOfError(new IOException("远端 " + ctx.channel().remoteAddress()
+                        + " 报告连接级错误: " + error.message));
+                ctx.close();
+            } else {
+                RemoteInputChannel inputChannel = inputChannels.get(error.receiverId);
+                if (inputChannel != null) {
+                    inputChannel.onError(new IOException(error.message));
+                } else {
+                    LOG.warn("服务端报告了未知接收者 {} 的错误: {}", error.receiverId, error.message);
+                }
+            }
+        }
+    }
 
-            try {
-                // 读取真实数据
-                byte[] bytes = new byte[buffer.readableBytes()];
-                buffer.readBytes(bytes);
-                String dataStr = new String(bytes);
+    /**
+     * 一轮读取结束，把这一轮收到的数据统一通知给各个 InputGate。
+     */
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        RemoteInputChannel inputChannel;
+        while ((inputChannel = inputChannelsWithUnnotifiedData.poll()) != null) {
+            inputChannel.notifyReceivedBuffers();
+        }
+        super.channelReadComplete(ctx);
+    }
 
-                LOG.info("客户端收到缓冲数据：SeqNum={}, ReceiverId={}, 数据内容=[{}]",
-                        response.sequenceNumber, response.receiverId, dataStr);
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RemoteInputChannel) {
+            boolean triggerWrite = inputChannelsWithCredit.isEmpty();
+            inputChannelsWithCredit.add((RemoteInputChannel) msg);
+            if (triggerWrite) {
+                writeAndFlushCredits(ctx);
+            }
+        } else {
+            ctx.fireUserEventTriggered(msg);
+        }
+    }
 
-            } finally {
-                // 数据消费完毕，记得释放 Netty Buffer 以防内存泄漏
-                buffer.release();
+    /**
+     * 把所有待通知的 credit 合并写出，最后只 flush 一次。
+     */
+    private void writeAndFlushCredits(ChannelHandlerContext ctx) {
+        boolean written = false;
+        RemoteInputChannel inputChannel;
+        while ((inputChannel = inputChannelsWithCredit.poll()) != null) {
+            if (!inputChannels.containsKey(inputChannel.getInputChannelId())) {
+                continue;
             }
+            int credit = inputChannel.getAndResetUnannouncedCredit();
+            if (credit > 0) {
+                // 只有确认服务端认识下标后才发紧凑格式，否则老版本的服务端会解析失败
+                Integer receiverIndex = receiverIndexConfirmed
+                        ? receiverIndices.get(inputChannel.getInputChannelId())
+                        : null;
+                NettyMessage.AddCredit addCredit = receiverIndex != null
+                        ? NettyMessage.AddCredit.compact(credit, receiverIndex)
+                        : new NettyMessage.AddCredit(credit, inputChannel.getInputChannelId());
+                ctx.write(addCredit)
+                        .addListener(future -> {
+                            if (!future.isSuccess()) {
+                                exceptionCaught(ctx, future.cause());
+                            }
+                        });
+                written = true;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!inputChannels.isEmpty()) {
+            notifyAllChannelsOfError(new IOException("到 " + ctx.channel().remoteAddress() + " 的连接已断开"));
+        }
+        metrics.unregister();
+        super.channelInactive(ctx);
+    }
+
+    private void notifyAllChannelsOfError(Throwable cause) {
+        List<RemoteInputChannel> channels = new ArrayList<>(inputChannels.values());
+        inputChannels.clear();
+        synchronized (receiverIndices) {
+            receiverIndices.clear();
+            inputChannelsByIndex = new RemoteInputChannel[inputChannelsByIndex.length];
+        }
+        for (RemoteInputChannel inputChannel : channels) {
+            metrics.getRegistry().unregister(inputChannel.getMetricGroup());
+            inputChannel.onError(cause);
         }
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         LOG.error("客户端发生异常", cause);
+        notifyAllChannelsOfError(cause);
         ctx.close();
     }
-}
\ No newline at end of file
+}
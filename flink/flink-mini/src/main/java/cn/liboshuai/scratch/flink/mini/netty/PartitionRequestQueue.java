@@ -0,0 +1,323 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 每条服务端连接一个的发送队列：维护“既有数据又有 credit”的读取器，
+ * 只在 Channel 可写时从中取数据写出，不可写时停下，等 {@link #channelWritabilityChanged} 再继续。
+ * （在 Flink 源码中对应 PartitionRequestQueue）
+ *
+ * <p>flush 是合并的：写出消息时并不立即 flush，而是向 EventLoop 提交一个 flush 任务，
+ * 同一轮 EventLoop 迭代中的多次写出只会触发一次 flush，也就是一次系统调用。
+ *
+ * <p>除 {@link #notifyReaderNonEmpty} 和 {@link #notifyReaderPriorityEvent} 外，所有状态只在 EventLoop 线程中访问；
+ * 来自生产者线程的通知会先攒在一个并发队列里，再由一个 EventLoop 任务批量处理。
+ *
+ * <p>有优先事件的读取器插到可用队列的队首，即使它已经在队列里排着；优先事件也不需要 credit。
+ * 已经交给 Channel 但还没写出的数据不能撤回，优先事件最多排在这部分数据后面，它的量受 Channel 写缓冲的水位线限制。
+ *
+ * <p>连接建立后把连接的指标注册为 ServerConnection，每个读取器的指标注册为 SubpartitionReader。
+ */
+class PartitionRequestQueue extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionRequestQueue.class);
+
+    /** 可以发送数据的读取器，轮流发送保证多个通道之间的公平 */
+    private final ArrayDeque<CreditBasedSequenceNumberingViewReader> availableReaders = new ArrayDeque<>();
+
+    /** 本连接上的全部读取器 */
+    private final Map<InputChannelID, CreditBasedSequenceNumberingViewReader> allReaders = new HashMap<>();
+
+    /** 申请了连接内下标的读取器，紧凑格式的 AddCredit 按下标查找 */
+    private final Map<Integer, CreditBasedSequenceNumberingViewReader> readersByIndex = new HashMap<>();
+
+    /** 生产者线程发来的“有数据了”的通知，等待 EventLoop 批量处理 */
+    private final ConcurrentLinkedQueue<CreditBasedSequenceNumberingViewReader> pendingNotifications =
+            new ConcurrentLinkedQueue<>();
+
+    /** 有优先事件的读取器的通知，先于 {@code pendingNotifications} 处理 */
+    private final ConcurrentLinkedQueue<CreditBasedSequenceNumberingViewReader> pendingPriorityNotifications =
+            new ConcurrentLinkedQueue<>();
+
+    /** 是否已经提交了处理通知的任务，保证同一时刻最多只有一个 */
+    private final AtomicBoolean notificationTaskScheduled = new AtomicBoolean();
+
+    /** 是否已经提交了 flush 任务，只在 EventLoop 线程中访问 */
+    private boolean flushScheduled;
+
+    private final NettyConnectionMetrics metrics;
+
+    private ChannelHandlerContext ctx;
+
+    PartitionRequestQueue() {
+        this(new NettyConnectionMetrics(MetricRegistry.NO_OP));
+    }
+
+    PartitionRequestQueue(NettyConnectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        if (this.ctx == null) {
+            this.ctx = ctx;
+        }
+        super.channelRegistered(ctx);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.register("ServerConnection", ctx.channel());
+        super.channelActive(ctx);
+    }
+
+    /**
+     * 读取器有新数据了，可能在任意线程中调用。
+     */
+    void notifyReaderNonEmpty(CreditBasedSequenceNumberingViewReader reader) {
+        pendingNotifications.add(reader);
+        scheduleNotificationTask();
+    }
+
+    /**
+     * 读取器有优先事件了，可能在任意线程中调用。
+     */
+    void notifyReaderPriorityEvent(CreditBasedSequenceNumberingViewReader reader) {
+        pendingPriorityNotifications.add(reader);
+        scheduleNotificationTask();
+    }
+
+    private void scheduleNotificationTask() {
+        // 统一切回 EventLoop 中处理，短时间内的多次通知只提交一个任务
+        if (notificationTaskScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this::processPendingNotifications);
+        }
+    }
+
+    private void processPendingNotifications() {
+        notificationTaskScheduled.set(false);
+
+        CreditBasedSequenceNumberingViewReader reader;
+        while ((reader = pendingPriorityNotifications.poll()) != null) {
+            if (allReaders.get(reader.getReceiverId()) == reader) {
+                enqueuePriorityReader(reader);
+            }
+        }
+        while ((reader = pendingNotifications.poll()) != null) {
+            // 读取器可能在通知途中已经被释放
+            if (allReaders.get(reader.getReceiverId()) == reader) {
+                enqueueAvailableReader(reader);
+            }
+        }
+    }
+
+    void notifyReaderCreated(CreditBasedSequenceNumberingViewReader reader) {
+        CreditBasedSequenceNumberingViewReader previous = allReaders.put(reader.getReceiverId(), reader);
+        if (previous != null) {
+            readersByIndex.remove(previous.getReceiverIndex(), previous);
+            releaseReader(previous);
+        }
+        if (reader.getReceiverIndex() != NettyMessage.NO_RECEIVER_INDEX) {
+            readersByIndex.put(reader.getReceiverIndex(), reader);
+        }
+        metrics.getRegistry().register(
+                "SubpartitionReader", reader.getReceiverId().toString(), reader.getMetricGroup());
+        enqueueAvailableReader(reader);
+    }
+
+    void addCredit(InputChannelID receiverId, int credit) {
+        CreditBasedSequenceNumberingViewReader reader = allReaders.get(receiverId);
+        if (reader == null) {
+            // 通道可能已经被释放，迟到的 credit 直接忽略
+            LOG.debug("忽略发往未知接收者 {} 的 credit: {}", receiverId, credit);
+            return;
+        }
+        addCredit(reader, credit);
+    }
+
+    void addCredit(int receiverIndex, int credit) {
+        CreditBasedSequenceNumberingViewReader reader = readersByIndex.get(receiverIndex);
+        if (reader == null) {
+            LOG.debug("忽略发往未知接收者 #{} 的 credit: {}", receiverIndex, credit);
+            return;
+        }
+        addCredit(reader, credit);
+    }
+
+    private void addCredit(CreditBasedSequenceNumberingViewReader reader, int credit) {
+        reader.addCredit(credit);
+        enqueueAvailableReader(reader);
+    }
+
+    void notifyNewBufferSize(InputChannelID receiverId, int bufferSize) {
+        CreditBasedSequenceNumberingViewReader reader = allReaders.get(receiverId);
+        if (reader == null) {
+            LOG.debug("忽略发往未知接收者 {} 的新 buffer 大小: {}", receiverId, bufferSize);
+            return;
+        }
+        reader.notifyNewBufferSize(bufferSize);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        writeAndFlushNextMessagesIfPossible(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void enqueueAvailableReader(CreditBasedSequenceNumberingViewReader reader) {
+        if (reader.isRegisteredAsAvailable() || !reader.isAvailable()) {
+            return;
+        }
+
+        // 队列原本为空说明当前没有在发送，需要主动触发一次；否则新读取器排队等待即可
+        boolean triggerWrite = availableReaders.isEmpty();
+        registerAvailableReader(reader);
+
+        if (triggerWrite) {
+            writeAndFlushNextMessagesIfPossible(ctx.channel());
+        }
+    }
+
+    /**
+     * 把有优先事件的读取器移到可用队列的队首。
+     */
+    private void enqueuePriorityReader(CreditBasedSequenceNumberingViewReader reader) {
+        if (!reader.isAvailable()) {
+            return;
+        }
+        boolean triggerWrite = availableReaders.isEmpty();
+        if (reader.isRegisteredAsAvailable()) {
+            availableReaders.remove(reader);
+        }
+        availableReaders.addFirst(reader);
+        reader.setRegisteredAsAvailable(true);
+
+        if (triggerWrite) {
+            writeAndFlushNextMessagesIfPossible(ctx.channel());
+        }
+    }
+
+    /**
+     * 在 Channel 可写期间轮流从可用读取器中取数据写出，写完后提交一次合并的 flush。
+     */
+    private void writeAndFlushNextMessagesIfPossible(Channel channel) {
+        boolean written = false;
+        try {
+            while (channel.isWritable()) {
+                CreditBasedSequenceNumberingViewReader reader = pollAvailableReader();
+                if (reader == null) {
+                    return;
+                }
+
+                NettyMessage.BufferResponse next;
+                try {
+                    next = reader.getNextBuffer();
+                } catch (IOException e) {
+                    // 只影响这一个下游通道，连接上的其它读取器照常发送
+                    LOG.warn("读取 {} 的数据失败", reader, e);
+                    removeReader(reader);
+                    channel.write(new NettyMessage.ErrorResponse(e.toString(), reader.getReceiverId()));
+                    written = true;
+                    continue;
+                }
+                if (next == null) {
+                    continue;
+                }
+
+                // 还有数据和 credit 就排到队尾，让其它读取器也有机会发送
+                if (reader.isAvailable()) {
+                    registerAvailableReader(reader);
+                }
+                metrics.numBytesOut.inc(next.getDataSize());
+                metrics.numBuffersOut.inc();
+                channel.write(next).addListener(future -> {
+                    if (!future.isSuccess()) {
+                        handleException(channel, future.cause());
+                    }
+                });
+                written = true;
+            }
+        } finally {
+            if (written) {
+                scheduleFlush(channel);
+            }
+        }
+    }
+
+    /**
+     * 提交一个 flush 任务。任务排在本轮 EventLoop 已提交任务的后面执行，
+     * 期间其它读取器/通知产生的写出都会搭上同一次 flush。
+     */
+    private void scheduleFlush(Channel channel) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        channel.eventLoop().execute(() -> {
+            flushScheduled = false;
+            channel.flush();
+        });
+    }
+
+    private void registerAvailableReader(CreditBasedSequenceNumberingViewReader reader) {
+        availableReaders.add(reader);
+        reader.setRegisteredAsAvailable(true);
+    }
+
+    private CreditBasedSequenceNumberingViewReader pollAvailableReader() {
+        CreditBasedSequenceNumberingViewReader reader = availableReaders.poll();
+        if (reader != null) {
+            reader.setRegisteredAsAvailable(false);
+        }
+        return reader;
+    }
+
+    private void handleException(Channel channel, Throwable cause) {
+        LOG.error("向 {} 发送数据失败，关闭连接", channel.remoteAddress(), cause);
+        releaseAllResources();
+        channel.close();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseAllResources();
+        metrics.unregister();
+        super.channelInactive(ctx);
+    }
+
+    private void releaseAllResources() {
+        for (CreditBasedSequenceNumberingViewReader reader : allReaders.values()) {
+            releaseReader(reader);
+        }
+        allReaders.clear();
+        readersByIndex.clear();
+        availableReaders.clear();
+    }
+
+    private void removeReader(CreditBasedSequenceNumberingViewReader reader) {
+        allReaders.remove(reader.getReceiverId());
+        if (reader.getReceiverIndex() != NettyMessage.NO_RECEIVER_INDEX) {
+            readersByIndex.remove(reader.getReceiverIndex());
+        }
+        releaseReader(reader);
+    }
+
+    private void releaseReader(CreditBasedSequenceNumberingViewReader reader) {
+        reader.setRegisteredAsAvailable(false);
+        availableReaders.remove(reader);
+        reader.releaseAllResources();
+        metrics.getRegistry().unregister(reader.getMetricGroup());
+    }
+}
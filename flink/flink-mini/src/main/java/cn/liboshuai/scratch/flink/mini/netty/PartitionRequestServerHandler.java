@@ -1,46 +1,79 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
-import io.netty.buffer.ByteBuf;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionProvider;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+
 /**
- * 位于服务端的处理器：负责接收下游的 PartitionRequest，并开始推送数据。
+ * 位于服务端的处理器：负责接收下游的 PartitionRequest / AddCredit / NewBufferSize，
+ * 为每个请求创建读取器并交给 {@link PartitionRequestQueue} 按 credit 和 Channel 可写性发送数据。
+ *
+ * <p>基于 credit 的流控：每个 InputChannel 在请求时带上初始 credit，
+ * 服务端每发出一个 BufferResponse 消耗一个 credit，credit 用完就停下来，
+ * 直到客户端释放 buffer 后通过 AddCredit 追加。这样一个慢消费者不会撑爆服务端的发送缓冲，
+ * 也不会堵住同一条 TCP 连接上的其他快消费者。
  */
 public class PartitionRequestServerHandler extends SimpleChannelInboundHandler<NettyMessage> {
 
     private static final Logger LOG = LoggerFactory.getLogger(PartitionRequestServerHandler.class);
 
+    private final ResultPartitionProvider partitionProvider;
+
+    private final PartitionRequestQueue outboundQueue;
+
+    PartitionRequestServerHandler(ResultPartitionProvider partitionProvider, PartitionRequestQueue outboundQueue) {
+        this.partitionProvider = partitionProvider;
+        this.outboundQueue = outboundQueue;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, NettyMessage msg) throws Exception {
         if (msg instanceof NettyMessage.PartitionRequest) {
             NettyMessage.PartitionRequest request = (NettyMessage.PartitionRequest) msg;
-            LOG.info("服务端收到数据拉取请求: Partition={}, Receiver={}", request.partitionId, request.receiverId);
-
-            // 在真正的 Flink 中，这里会创建 ViewReader，挂载到 Queue 中。
-            // 为了简易演示，我们立即模拟源源不断地回复 3 条数据
-            for (int i = 0; i < 3; i++) {
-                String payload = "Hello Flink Data Stream [" + i + "]";
-                ByteBuf data = ctx.alloc().buffer();
-                data.writeBytes(payload.getBytes());
-
-                NettyMessage.BufferResponse response = new NettyMessage.BufferResponse(
-                        request.receiverId,
-                        i,
-                        data
-                );
-
-                // 写回并刷新
-                ctx.writeAndFlush(response);
+            LOG.info("服务端收到数据拉取请求: Partition={}, Subpartition={}, Receiver={}, Credit={}",
+                    request.partitionId, request.queueIndex, request.receiverId, request.credit);
+
+            try {
+                CreditBasedSequenceNumberingViewReader reader = new CreditBasedSequenceNumberingViewReader(
+                        request.receiverId, request.receiverIndex, request.credit, outboundQueue);
+                reader.requestSubpartitionView(partitionProvider, request.partitionId, request.queueIndex);
+                outboundQueue.notifyReaderCreated(reader);
+            } catch (Exception e) {
+                LOG.warn("无法为 {} 创建子分区视图", request.receiverId, e);
+                ctx.writeAndFlush(new NettyMessage.ErrorResponse(e.toString(), request.receiverId));
             }
+        } else if (msg instanceof NettyMessage.AddCredit) {
+            NettyMessage.AddCredit request = (NettyMessage.AddCredit) msg;
+            if (request.isCompact()) {
+                outboundQueue.addCredit(request.receiverIndex, request.credit);
+            } else {
+                outboundQueue.addCredit(request.receiverId, request.credit);
+            }
+        } else if (msg instanceof NettyMessage.NewBufferSize) {
+            NettyMessage.NewBufferSize request = (NettyMessage.NewBufferSize) msg;
+            outboundQueue.notifyNewBufferSize(request.receiverId, request.bufferSize);
         }
     }
 
+    /**
+     * 对端断开（例如下游任务结束时 Connection reset by peer）属于正常情况：连接已经不能用了，直接关闭，不再往里写。
+     * 其余的协议或处理错误才作为致命错误通知对端。
+     */
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof IOException || !ctx.channel().isActive()) {
+            LOG.debug("连接 {} 已断开", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+            return;
+        }
         LOG.error("服务端发生异常", cause);
-        ctx.close();
+        // 连接级别的致命错误：先通知对端，写出后再关闭连接
+        ctx.writeAndFlush(new NettyMessage.ErrorResponse(cause.toString(), null))
+                .addListener(ChannelFutureListener.CLOSE);
     }
-}
\ No newline at end of file
+}
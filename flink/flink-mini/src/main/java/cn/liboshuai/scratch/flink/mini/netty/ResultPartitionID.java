@@ -1,39 +1,28 @@
 package cn.liboshuai.scratch.flink.mini.netty;
 
+import cn.liboshuai.scratch.flink.mini.util.AbstractID;
 import io.netty.buffer.ByteBuf;
-import java.util.UUID;
 
 /**
  * 简化的 ResultPartitionID，用于标识生产者端的数据分区。
  */
-public class ResultPartitionID {
-    private final UUID uuid;
+public class ResultPartitionID extends AbstractID {
 
     public ResultPartitionID() {
-        this(UUID.randomUUID());
+        super();
     }
 
-    public ResultPartitionID(UUID uuid) {
-        this.uuid = uuid;
-    }
-
-    public void writeTo(ByteBuf buf) {
-        buf.writeLong(uuid.getMostSignificantBits());
-        buf.writeLong(uuid.getLeastSignificantBits());
+    public ResultPartitionID(long upperPart, long lowerPart) {
+        super(upperPart, lowerPart);
     }
 
     public static ResultPartitionID fromByteBuf(ByteBuf buf) {
-        long mostSigBits = buf.readLong();
-        long leastSigBits = buf.readLong();
-        return new ResultPartitionID(new UUID(mostSigBits, leastSigBits));
+        long upperPart = buf.readLong();
+        long lowerPart = buf.readLong();
+        return new ResultPartitionID(upperPart, lowerPart);
     }
 
     public static int getByteBufLength() {
-        return 16;
-    }
-
-    @Override
-    public String toString() {
-        return uuid.toString();
+        return SIZE;
     }
-}
\ No newline at end of file
+}
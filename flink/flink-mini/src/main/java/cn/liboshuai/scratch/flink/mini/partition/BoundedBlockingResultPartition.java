@@ -0,0 +1,45 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 批处理作业使用的阻塞式结果分区：每个子分区的数据写进 {@code tempDirectory} 下的一个文件，
+ * {@link #finish()} 之后下游才能读取。（在 Flink 源码中对应 BoundedBlockingResultPartition）
+ *
+ * <p>生产者和消费者的生命周期因此解耦：生产者结束时把每个子分区正在写的 buffer 落盘，
+ * 随即归还整个 buffer 池，下游晚些时候再启动也只占用文件，不占用网络内存。
+ * 远程读取时数据以 FileRegion 或映射内存的切片发送，见 {@link BoundedBlockingSubpartitionType}。
+ *
+ * <p>记录不会因为超时被 flush，bufferTimeout 对这种分区没有意义。
+ * 也不支持优先事件：已经落盘的数据没法被越过，而下游本来就要等写完才开始读。
+ */
+public class BoundedBlockingResultPartition extends BufferWritingResultPartition {
+
+    public BoundedBlockingResultPartition(ResultPartitionID partitionId,
+                                          int numberOfSubpartitions,
+                                          int networkBufferSize,
+                                          File tempDirectory,
+                                          BoundedBlockingSubpartitionType type) {
+        super(partitionId, numberOfSubpartitions, networkBufferSize, FLUSH_ONLY_WHEN_FULL,
+                (index, parent) -> new BoundedBlockingSubpartition(index, parent,
+                        new File(tempDirectory, partitionId + "-" + index + ".data").toPath(), type));
+    }
+
+    @Override
+    public void broadcastPriorityEvent(ByteBuffer event) {
+        throw new UnsupportedOperationException("阻塞式结果分区不支持优先事件: " + this);
+    }
+
+    /**
+     * 所有子分区落盘之后立即归还 buffer 池，不必等到分区被释放。
+     */
+    @Override
+    public void finish() throws IOException {
+        super.finish();
+        destroyBufferPool();
+    }
+}
@@ -0,0 +1,276 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 阻塞式子分区：生产者把数据全部写进文件，{@link #finish()} 之后下游才能读取，
+ * 并且可以被读取任意多次。（在 Flink 源码中对应 BoundedBlockingSubpartition）
+ *
+ * <p>生产者只占用一个正在写的 buffer，写满就落盘并清空复用，结束时归还；
+ * 因此生产者可以在下游开始消费之前就结束并释放全部网络内存，数据量也不受网络内存的限制。
+ *
+ * <p>文件在第一次写入时才创建，没有数据的子分区不产生文件。
+ * 分区释放时如果还有读取器没有结束，文件会保留到最后一个读取器释放为止。
+ *
+ * <p>阻塞式子分区不区分 buffer 何时对下游可见，因此 flush 什么也不做，也不支持优先事件。
+ */
+class BoundedBlockingSubpartition extends ResultSubpartition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedBlockingSubpartition.class);
+
+    private final Object lock = new Object();
+
+    private final Path filePath;
+
+    private final BoundedBlockingSubpartitionType type;
+
+    /** 只在生产者线程中使用 */
+    private final SpanningRecordSerializer serializer = new SpanningRecordSerializer();
+
+    /** 第一次写入时才创建 */
+    private BoundedData data;
+
+    /** 正在写的 buffer，写满后落盘并清空复用 */
+    private ByteBuf currentBuffer;
+
+    /** 已经落盘的 buffer 数，结束之后不再变化 */
+    private int numDataBuffersWritten;
+
+    private final Set<BoundedBlockingSubpartitionReader> readers = new HashSet<>();
+
+    private volatile boolean isFinished;
+
+    private boolean isReleased;
+
+    BoundedBlockingSubpartition(int index, ResultPartition parent, Path filePath, BoundedBlockingSubpartitionType type) {
+        super(index, parent);
+        this.filePath = filePath;
+        this.type = type;
+    }
+
+    /**
+     * 把 buffer 的内容写进文件，之前正在写的 buffer 会先落盘以保证顺序。buffer 写完即释放。
+     */
+    @Override
+    void add(ByteBuf buffer) throws IOException {
+        try {
+            synchronized (lock) {
+                checkWritable();
+                writeCurrentBuffer();
+                writeBuffer(buffer);
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    void emitRecord(ByteBuffer record) throws IOException, InterruptedException {
+        serializer.serializeRecord(record);
+        try {
+            while (serializer.hasSerializedData()) {
+                if (currentBuffer == null) {
+                    // 锁外申请：池用完时阻塞，整个子分区只申请这一次
+                    ByteBuf newBuffer = parent.requestBuffer();
+                    synchronized (lock) {
+                        if (isReleased) {
+                            newBuffer.release();
+                            return;
+                        }
+                        currentBuffer = newBuffer;
+                    }
+                }
+                synchronized (lock) {
+                    checkWritable();
+                    serializer.copyToBuffer(currentBuffer, currentBuffer.writableBytes());
+                    if (!currentBuffer.isWritable()) {
+                        writeCurrentBuffer();
+                    }
+                }
+            }
+        } finally {
+            if (serializer.hasSerializedData()) {
+                // 写文件失败、分区被释放或者申请 buffer 时被中断，丢掉这条记录剩下的部分
+                serializer.clear();
+            }
+        }
+    }
+
+    /**
+     * 下游要等到 {@link #finish()} 才能读取，提前落盘不完整的 buffer 只会让文件更碎，这里什么也不做。
+     */
+    @Override
+    void flush() {
+    }
+
+    /**
+     * 落盘正在写的 buffer 并归还它，关闭文件的写入，然后通知已经在等待的读取器。
+     */
+    @Override
+    void finish() throws IOException {
+        List<BoundedBlockingSubpartitionReader> readersToNotify;
+        synchronized (lock) {
+            checkWritable();
+            writeCurrentBuffer();
+            if (currentBuffer != null) {
+                currentBuffer.release();
+                currentBuffer = null;
+            }
+            if (data != null) {
+                data.finishWrite();
+            }
+            isFinished = true;
+            readersToNotify = numDataBuffersWritten > 0 ? new ArrayList<>(readers) : new ArrayList<>(0);
+            LOG.debug("{} 写入结束，共 {} 个 buffer，{} 字节",
+                    this, numDataBuffersWritten, data == null ? 0 : data.getSize());
+        }
+        for (BoundedBlockingSubpartitionReader reader : readersToNotify) {
+            reader.notifyDataAvailable();
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void checkWritable() {
+        if (isFinished) {
+            throw new IllegalStateException("子分区已经结束写入: " + this);
+        }
+        if (isReleased) {
+            throw new IllegalStateException("子分区已释放: " + this);
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void writeCurrentBuffer() throws IOException {
+        if (currentBuffer != null && currentBuffer.isReadable()) {
+            writeBuffer(currentBuffer);
+            currentBuffer.clear();
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void writeBuffer(ByteBuf buffer) throws IOException {
+        if (!buffer.isReadable()) {
+            return;
+        }
+        if (data == null) {
+            data = type.create(filePath);
+        }
+        data.writeBuffer(buffer);
+        numDataBuffersWritten++;
+    }
+
+    /**
+     * 读取视图可以在写入结束之前创建，结束之后才会有数据。同一个子分区可以有多个读取视图。
+     */
+    @Override
+    BoundedBlockingSubpartitionReader createReadView(BufferAvailabilityListener availabilityListener) {
+        BoundedBlockingSubpartitionReader reader;
+        boolean notifyDataAvailable;
+        synchronized (lock) {
+            if (isReleased) {
+                throw new IllegalStateException("子分区已释放: " + this);
+            }
+            reader = new BoundedBlockingSubpartitionReader(this, availabilityListener);
+            readers.add(reader);
+            notifyDataAvailable = isFinished && numDataBuffersWritten > 0;
+        }
+        if (notifyDataAvailable) {
+            reader.notifyDataAvailable();
+        }
+        return reader;
+    }
+
+    boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * 只在 {@link #isFinished()} 之后调用。
+     */
+    int getNumberOfDataBuffers() {
+        synchronized (lock) {
+            return numDataBuffersWritten;
+        }
+    }
+
+    /**
+     * 只在 {@link #isFinished()} 之后、子分区至少有一个 buffer 时调用。
+     */
+    BoundedData.Reader createDataReader() throws IOException {
+        synchronized (lock) {
+            if (data == null) {
+                throw new IllegalStateException("子分区没有数据: " + this);
+            }
+            return data.createReader();
+        }
+    }
+
+    void releaseReaderReference(BoundedBlockingSubpartitionReader reader) {
+        synchronized (lock) {
+            if (readers.remove(reader) && isReleased && readers.isEmpty()) {
+                disposeData();
+            }
+        }
+    }
+
+    @Override
+    void release() {
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            if (currentBuffer != null) {
+                currentBuffer.release();
+                currentBuffer = null;
+            }
+            if (readers.isEmpty()) {
+                disposeData();
+            }
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void disposeData() {
+        if (data == null) {
+            return;
+        }
+        try {
+            data.close();
+        } catch (IOException e) {
+            LOG.warn("删除 {} 的数据文件失败", this, e);
+        }
+        data = null;
+    }
+
+    @Override
+    boolean isReleased() {
+        synchronized (lock) {
+            return isReleased;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedBlockingSubpartition#" + index + " of " + parent.getPartitionId();
+    }
+}
@@ -0,0 +1,115 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import java.io.IOException;
+
+/**
+ * {@link BoundedBlockingSubpartition} 的读取视图，写入结束之前一直没有数据。
+ * （在 Flink 源码中对应 BoundedBlockingSubpartitionReader）
+ *
+ * <p>数据已经全部在文件里，积压数就是还没读出的 buffer 数，下游一开始就能按它准备浮动 buffer。
+ * 读取由 EventLoop 或本地通道的取数线程发起，释放可能来自任务线程，所以方法都加了锁。
+ */
+final class BoundedBlockingSubpartitionReader implements ResultSubpartitionView {
+
+    private final BoundedBlockingSubpartition parent;
+
+    private final BufferAvailabilityListener availabilityListener;
+
+    /** 第一次取数据时才打开 */
+    private BoundedData.Reader dataReader;
+
+    /** 还没读出的 buffer 数，打开数据读取器之前为 -1 */
+    private int dataBufferBacklog = -1;
+
+    private boolean isReleased;
+
+    BoundedBlockingSubpartitionReader(BoundedBlockingSubpartition parent,
+                                      BufferAvailabilityListener availabilityListener) {
+        this.parent = parent;
+        this.availabilityListener = availabilityListener;
+    }
+
+    @Override
+    public synchronized BufferAndBacklog getNextBuffer() throws IOException {
+        if (isReleased || !parent.isFinished()) {
+            return null;
+        }
+        if (dataReader == null) {
+            dataBufferBacklog = parent.getNumberOfDataBuffers();
+            if (dataBufferBacklog == 0) {
+                return null;
+            }
+            dataReader = parent.createDataReader();
+        }
+        if (dataBufferBacklog == 0) {
+            return null;
+        }
+        BufferAndBacklog next = dataReader.nextBuffer(dataBufferBacklog - 1);
+        if (next == null) {
+            throw new IOException("数据文件比预期的短，还缺 " + dataBufferBacklog + " 个 buffer: " + parent);
+        }
+        dataBufferBacklog--;
+        return next;
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        if (isReleased || !parent.isFinished()) {
+            return false;
+        }
+        return dataReader == null ? parent.getNumberOfDataBuffers() > 0 : dataBufferBacklog > 0;
+    }
+
+    @Override
+    public boolean hasPriorityEvent() {
+        return false;
+    }
+
+    /**
+     * 数据已经按生产时的大小切好写进了文件，不再调整。
+     */
+    @Override
+    public void notifyNewBufferSize(int newBufferSize) {
+    }
+
+    @Override
+    public synchronized int getNumberOfQueuedBuffers() {
+        if (dataReader == null) {
+            return parent.isFinished() ? parent.getNumberOfDataBuffers() : 0;
+        }
+        return dataBufferBacklog;
+    }
+
+    void notifyDataAvailable() {
+        availabilityListener.notifyDataAvailable();
+    }
+
+    @Override
+    public void releaseAllResources() {
+        synchronized (this) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            if (dataReader != null) {
+                try {
+                    dataReader.close();
+                } catch (IOException ignored) {
+                    // 只是关闭读取用的文件通道，文件本身由子分区删除
+                }
+                dataReader = null;
+            }
+        }
+        parent.releaseReaderReference(this);
+    }
+
+    @Override
+    public synchronized boolean isReleased() {
+        return isReleased;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedBlockingSubpartitionReader(" + parent + ")";
+    }
+}
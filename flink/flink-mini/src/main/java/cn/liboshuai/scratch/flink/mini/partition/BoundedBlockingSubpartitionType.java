@@ -0,0 +1,34 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 阻塞式子分区的数据怎样落盘、怎样被读出。（在 Flink 源码中对应 BoundedBlockingSubpartitionType）
+ */
+public enum BoundedBlockingSubpartitionType {
+
+    /**
+     * 写普通文件，远程读取时以 FileRegion 发送（sendfile），数据不进入 JVM；
+     * 本地读取时才把数据读进内存。
+     */
+    FILE {
+        @Override
+        BoundedData create(Path filePath) throws IOException {
+            return FileChannelBoundedData.create(filePath);
+        }
+    },
+
+    /**
+     * 写普通文件，写完后映射进内存，读取器给出映射内存的切片。本地读取也不需要拷贝，
+     * 但映射会占用进程的虚拟地址空间。
+     */
+    MMAP {
+        @Override
+        BoundedData create(Path filePath) throws IOException {
+            return FileChannelMemoryMappedBoundedData.create(filePath);
+        }
+    };
+
+    abstract BoundedData create(Path filePath) throws IOException;
+}
@@ -0,0 +1,50 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 阻塞式子分区的数据存储：先顺序写入所有 buffer，写完之后可以被读取任意多次。
+ * （在 Flink 源码中对应 BoundedData）
+ *
+ * <p>写入只在生产者线程中进行；每个读取器各自维护读取位置，互不影响。
+ */
+interface BoundedData extends Closeable {
+
+    /**
+     * 追加一个 buffer 的可读部分，不会改变它的读写下标，也不会释放它。
+     */
+    void writeBuffer(ByteBuf buffer) throws IOException;
+
+    /**
+     * 写入结束，之后才能创建读取器。
+     */
+    void finishWrite() throws IOException;
+
+    Reader createReader() throws IOException;
+
+    /**
+     * 已经写入的字节数，包括每个 buffer 的长度头。
+     */
+    long getSize();
+
+    /**
+     * 释放数据并删除文件。已经创建的读取器应当先被关闭。
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 按写入顺序逐个读出 buffer。
+     */
+    interface Reader extends Closeable {
+
+        /**
+         * @param buffersInBacklog 取出这个 buffer 之后剩下的 buffer 数，原样放进返回值
+         * @return 下一个 buffer；读完时返回 {@code null}
+         */
+        BufferAndBacklog nextBuffer(int buffersInBacklog) throws IOException;
+    }
+}
@@ -0,0 +1,71 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 从子分区取出的一个 buffer，以及取出之后子分区里还积压着多少个已经完成的 buffer。
+ * （在 Flink 源码中对应 ResultSubpartition.BufferAndBacklog）
+ *
+ * <p>积压数随 BufferResponse 一起发给下游，下游据此提前准备浮动 buffer、预先发放 credit。
+ * 积压数只统计数据 buffer，不包括排队的优先事件。
+ *
+ * <p>从文件读取的子分区可以不把数据读进内存，而是给出一个 {@link FileRegionBuffer}，
+ * 这时 {@link #buffer()} 为 {@code null}，由网络层直接把文件区间发出去。
+ */
+public final class BufferAndBacklog {
+
+    private final ByteBuf buffer;
+
+    private final FileRegionBuffer fileRegion;
+
+    private final int buffersInBacklog;
+
+    private final DataType dataType;
+
+    public BufferAndBacklog(ByteBuf buffer, int buffersInBacklog) {
+        this(buffer, buffersInBacklog, DataType.DATA_BUFFER);
+    }
+
+    public BufferAndBacklog(ByteBuf buffer, int buffersInBacklog, DataType dataType) {
+        this.buffer = buffer;
+        this.fileRegion = null;
+        this.buffersInBacklog = buffersInBacklog;
+        this.dataType = dataType;
+    }
+
+    public BufferAndBacklog(FileRegionBuffer fileRegion, int buffersInBacklog) {
+        this.buffer = null;
+        this.fileRegion = fileRegion;
+        this.buffersInBacklog = buffersInBacklog;
+        this.dataType = DataType.DATA_BUFFER;
+    }
+
+    public ByteBuf buffer() {
+        return buffer;
+    }
+
+    public FileRegionBuffer fileRegion() {
+        return fileRegion;
+    }
+
+    public boolean isFileRegion() {
+        return fileRegion != null;
+    }
+
+    /**
+     * 数据的字节数。
+     */
+    public int getSize() {
+        return fileRegion != null ? fileRegion.getSize() : buffer.readableBytes();
+    }
+
+    public int buffersInBacklog() {
+        return buffersInBacklog;
+    }
+
+    public DataType dataType() {
+        return dataType;
+    }
+}
@@ -0,0 +1,20 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+/**
+ * 子分区有新数据可读时的回调。
+ */
+public interface BufferAvailabilityListener {
+
+    /**
+     * 子分区从“没有数据”变成“有数据”时调用，可能在生产者线程中执行，实现方需要自行切回合适的线程。
+     */
+    void notifyDataAvailable();
+
+    /**
+     * 子分区里排进了一个优先事件，即使之前已经有数据、或者下游没有 credit 也会调用，线程同 {@link #notifyDataAvailable()}。
+     * 默认当作普通的数据通知处理。
+     */
+    default void notifyPriorityEvent() {
+        notifyDataAvailable();
+    }
+}
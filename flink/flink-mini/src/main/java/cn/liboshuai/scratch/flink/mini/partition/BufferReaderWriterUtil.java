@@ -0,0 +1,87 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 把 buffer 写进文件、再从文件中读出时使用的格式：每个 buffer 前面有一个 4 字节的长度头。
+ * （在 Flink 源码中对应 BufferReaderWriterUtil）
+ *
+ * <p>阻塞式分区不支持优先事件，文件里只有数据 buffer，所以不需要像网络消息那样记录类型。
+ */
+final class BufferReaderWriterUtil {
+
+    static final int HEADER_LENGTH = Integer.BYTES;
+
+    private BufferReaderWriterUtil() {
+    }
+
+    static ByteBuffer allocateHeaderBuffer() {
+        return ByteBuffer.allocateDirect(HEADER_LENGTH);
+    }
+
+    /**
+     * 用一次 gather 写把长度头和数据一起写到文件末尾。
+     *
+     * @return 写入的字节数，包括长度头
+     */
+    static long writeToByteChannel(FileChannel channel, ByteBuf buffer, ByteBuffer headerBuffer) throws IOException {
+        int size = buffer.readableBytes();
+        headerBuffer.clear();
+        headerBuffer.putInt(size);
+        headerBuffer.flip();
+
+        ByteBuffer[] nioBuffers = buffer.nioBuffers(buffer.readerIndex(), size);
+        ByteBuffer[] headerAndData = new ByteBuffer[nioBuffers.length + 1];
+        headerAndData[0] = headerBuffer;
+        System.arraycopy(nioBuffers, 0, headerAndData, 1, nioBuffers.length);
+
+        long expected = HEADER_LENGTH + size;
+        long written = 0;
+        while (written < expected) {
+            written += channel.write(headerAndData);
+        }
+        return expected;
+    }
+
+    /**
+     * 从 {@code position} 处读出一个长度头。
+     *
+     * @return buffer 的字节数；已经到达文件末尾时返回 -1
+     */
+    static int readHeader(FileChannel channel, ByteBuffer headerBuffer, long position) throws IOException {
+        headerBuffer.clear();
+        while (headerBuffer.hasRemaining()) {
+            int n = channel.read(headerBuffer, position + headerBuffer.position());
+            if (n < 0) {
+                if (headerBuffer.position() == 0) {
+                    return -1;
+                }
+                throw new IOException("文件在长度头中间结束，位置 " + position);
+            }
+        }
+        headerBuffer.flip();
+        int size = headerBuffer.getInt();
+        if (size < 0) {
+            throw new IOException("损坏的长度头: " + size + "，位置 " + position);
+        }
+        return size;
+    }
+
+    /**
+     * 从 {@code position} 处读满 {@code target} 的剩余空间，文件提前结束时抛出异常。
+     */
+    static void readByteBufferFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        long nextPosition = position;
+        while (target.hasRemaining()) {
+            int n = channel.read(target, nextPosition);
+            if (n < 0) {
+                throw new IOException("文件提前结束，位置 " + nextPosition + "，还缺 " + target.remaining() + " 字节");
+            }
+            nextPosition += n;
+        }
+    }
+}
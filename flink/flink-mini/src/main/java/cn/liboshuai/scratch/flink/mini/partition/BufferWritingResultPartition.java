@@ -0,0 +1,333 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 每个子分区各自攒 buffer 的结果分区，记录按目标子分区直接写进它正在写的 buffer。
+ * （在 Flink 源码中对应 BufferWritingResultPartition）
+ *
+ * <p>记录会先攒在每个子分区正在写的 buffer 里，以下三种情况才会发给下游：
+ * <ul>
+ *     <li>buffer 写满；</li>
+ *     <li>距上次 flush 超过了 bufferTimeout，由后台的 OutputFlusher 线程触发；</li>
+ *     <li>调用方显式调用 {@link #flush(int)} / {@link #flushAll()}。</li>
+ * </ul>
+ * bufferTimeout 为 0 时每条记录都立即 flush，适合对延迟敏感的作业；调大则换取更高的吞吐。
+ *
+ * <p>通过 {@link #setBufferPool(LocalBufferPool)} 设置 buffer 池后，记录直接序列化进池里的网络内存段，
+ * 同一块内存随后原样发到网络上；池用完时生产者阻塞，直到下游消费掉数据、buffer 被回收。
+ *
+ * <p>{@link #broadcastRecord(ByteBuffer)} 把记录只序列化一次，写进一个所有子分区共享的广播 buffer，
+ * 广播 buffer 结束时以 {@link ByteBuf#retainedDuplicate()} 的形式分给每个子分区：内存和拷贝量与下游数量无关，
+ * 每个子分区各自的读写下标互不影响，最后一个下游释放之后内存段才回到池里。
+ * 单播和广播交替写入时，单播之前会先结束广播 buffer，广播 buffer 分发时会先结束各子分区正在写的 buffer，以保证每个子分区内的记录顺序。
+ *
+ * <p>{@link #broadcastPriorityEvent(ByteBuffer)} 发出的优先事件越过所有已经排队的数据，事件 buffer 不从 buffer 池申请，
+ * 因此反压、池被用完时也不会阻塞。
+ *
+ * <p>现有的子分区在 flush 时都不会失败，以下只是防御：OutputFlusher 线程里的 flush 一旦失败，线程记下原因后停止，
+ * 生产者下一次写入或结束时收到这个异常，不会在 bufferTimeout 悄悄失效之后继续写下去。
+ *
+ * <p>子分区由子类决定：流水线式的 {@link PipelinedResultPartition}，或者把数据写进文件的 {@link BoundedBlockingResultPartition}。
+ */
+public abstract class BufferWritingResultPartition extends ResultPartition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BufferWritingResultPartition.class);
+
+    private final boolean flushAlways;
+
+    private final ResultSubpartition[] subpartitions;
+
+    private final OutputFlusher outputFlusher;
+
+    /** 只在生产者线程的 {@link #broadcastRecord} 中使用，不需要加锁 */
+    private final SpanningRecordSerializer broadcastSerializer = new SpanningRecordSerializer();
+
+    /** 保护广播 buffer 和释放状态，生产者线程和 OutputFlusher 线程都会分发广播 buffer */
+    private final Object broadcastLock = new Object();
+
+    /** 正在写的广播 buffer，写满或被 flush 时分发给所有子分区 */
+    private volatile ByteBuf broadcastBuffer;
+
+    private boolean isReleased;
+
+    /** OutputFlusher 线程 flush 失败的原因，生产者下一次写入时抛出 */
+    private volatile Throwable flusherFailureCause;
+
+    protected BufferWritingResultPartition(ResultPartitionID partitionId,
+                                           int numberOfSubpartitions,
+                                           int networkBufferSize,
+                                           long bufferTimeout,
+                                           SubpartitionFactory subpartitionFactory) {
+        super(partitionId, numberOfSubpartitions, networkBufferSize);
+        if (bufferTimeout < FLUSH_ONLY_WHEN_FULL) {
+            throw new IllegalArgumentException("bufferTimeout 不能小于 -1: " + bufferTimeout);
+        }
+        this.subpartitions = new ResultSubpartition[numberOfSubpartitions];
+        for (int i = 0; i < numberOfSubpartitions; i++) {
+            subpartitions[i] = subpartitionFactory.create(i, this);
+        }
+
+        this.flushAlways = bufferTimeout == 0;
+        if (bufferTimeout > 0) {
+            outputFlusher = new OutputFlusher("OutputFlusher for " + partitionId, bufferTimeout);
+            outputFlusher.start();
+        } else {
+            outputFlusher = null;
+        }
+    }
+
+    /**
+     * 把一条记录写进指定子分区正在写的 buffer 中，放不下的部分写进后续的 buffer，需要新 buffer 而 buffer 池已经用完时阻塞。
+     * 记录的格式是“4 字节长度 + 记录内容”，下游用 {@link cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer} 还原。
+     */
+    @Override
+    public void emitRecord(ByteBuffer record, int targetSubpartition) throws IOException, InterruptedException {
+        checkSubpartitionIndex(targetSubpartition);
+        checkFlusherFailure();
+        if (broadcastBuffer != null) {
+            // 之前广播的记录要排在这条记录前面
+            flushBroadcastBuffer();
+        }
+        subpartitions[targetSubpartition].emitRecord(record);
+        if (flushAlways) {
+            subpartitions[targetSubpartition].flush();
+        }
+    }
+
+    /**
+     * 把一条记录写给所有子分区。记录只序列化一次，写进共享的广播 buffer，放不下的部分写进下一个广播 buffer，
+     * 需要新 buffer 而 buffer 池已经用完时阻塞。广播 buffer 不受下游 debloating 的 buffer 大小影响。
+     */
+    @Override
+    public void broadcastRecord(ByteBuffer record) throws IOException, InterruptedException {
+        checkFlusherFailure();
+        broadcastSerializer.serializeRecord(record);
+        ByteBuf newBuffer = null;
+        try {
+            while (true) {
+                synchronized (broadcastLock) {
+                    if (isReleased) {
+                        return;
+                    }
+                    if (broadcastBuffer == null && newBuffer != null) {
+                        broadcastBuffer = newBuffer;
+                        newBuffer = null;
+                    }
+                    if (broadcastBuffer != null) {
+                        broadcastSerializer.copyToBuffer(broadcastBuffer, broadcastBuffer.writableBytes());
+                        if (!broadcastBuffer.isWritable()) {
+                            fanOutBroadcastBuffer();
+                        }
+                    }
+                }
+                if (!broadcastSerializer.hasSerializedData()) {
+                    break;
+                }
+                newBuffer = requestBuffer();
+            }
+        } finally {
+            if (newBuffer != null) {
+                newBuffer.release();
+            }
+            if (broadcastSerializer.hasSerializedData()) {
+                // 分区被释放或者申请 buffer 时被中断，丢掉这条记录剩下的部分
+                broadcastSerializer.clear();
+            }
+        }
+        if (flushAlways) {
+            flushAll();
+        }
+    }
+
+    /**
+     * 把一个优先事件发给所有子分区，它会排在每个子分区已有的数据前面。
+     * 事件只拷贝一次到堆内 buffer，各子分区共享它的 duplicate；不会从 buffer 池申请，因此不会阻塞。
+     */
+    @Override
+    public void broadcastPriorityEvent(ByteBuffer event) {
+        ByteBuf eventBuffer = Unpooled.buffer(event.remaining(), event.remaining()).writeBytes(event);
+        try {
+            for (ResultSubpartition subpartition : subpartitions) {
+                subpartition.addPriorityEvent(eventBuffer.retainedDuplicate());
+            }
+        } finally {
+            eventBuffer.release();
+        }
+    }
+
+    /**
+     * 把正在写的广播 buffer 分发给所有子分区，即使它还没写满。
+     */
+    private void flushBroadcastBuffer() throws IOException {
+        synchronized (broadcastLock) {
+            if (broadcastBuffer != null) {
+                fanOutBroadcastBuffer();
+            }
+        }
+    }
+
+    /**
+     * 必须持有 {@code broadcastLock}。在锁内分发，避免另一个线程分发的同时生产者写入单播记录而打乱顺序。
+     */
+    private void fanOutBroadcastBuffer() throws IOException {
+        ByteBuf buffer = broadcastBuffer;
+        broadcastBuffer = null;
+        try {
+            if (buffer.isReadable()) {
+                for (ResultSubpartition subpartition : subpartitions) {
+                    subpartition.add(buffer.retainedDuplicate());
+                }
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 把一个写满的 buffer 交给指定子分区，buffer 的所有权随之转移给分区。
+     */
+    public void addBuffer(ByteBuf buffer, int subpartitionIndex) throws IOException {
+        checkSubpartitionIndex(subpartitionIndex);
+        try {
+            checkFlusherFailure();
+            flushBroadcastBuffer();
+        } catch (Throwable t) {
+            buffer.release();
+            throw t;
+        }
+        subpartitions[subpartitionIndex].add(buffer);
+    }
+
+    @Override
+    public void flush(int subpartitionIndex) {
+        checkSubpartitionIndex(subpartitionIndex);
+        flushBroadcastBufferUnchecked();
+        subpartitions[subpartitionIndex].flush();
+    }
+
+    @Override
+    public void flushAll() {
+        flushBroadcastBufferUnchecked();
+        for (ResultSubpartition subpartition : subpartitions) {
+            subpartition.flush();
+        }
+    }
+
+    /**
+     * flush 可能由 OutputFlusher 线程发起，不方便声明受检异常；只有写文件的子分区在分发广播 buffer 时才可能失败。
+     */
+    private void flushBroadcastBufferUnchecked() {
+        try {
+            flushBroadcastBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 生产者写完了所有数据：交出所有正在写的 buffer，之后不能再写入。
+     */
+    @Override
+    public void finish() throws IOException {
+        checkFlusherFailure();
+        flushBroadcastBuffer();
+        for (ResultSubpartition subpartition : subpartitions) {
+            subpartition.finish();
+        }
+    }
+
+    private void checkFlusherFailure() throws IOException {
+        Throwable cause = flusherFailureCause;
+        if (cause != null) {
+            throw new IOException("周期性 flush 失败: " + this, cause);
+        }
+    }
+
+    @Override
+    ResultSubpartitionView createSubpartitionView(int subpartitionIndex,
+                                                  BufferAvailabilityListener availabilityListener) {
+        checkSubpartitionIndex(subpartitionIndex);
+        return subpartitions[subpartitionIndex].createReadView(availabilityListener);
+    }
+
+    @Override
+    void release() {
+        if (outputFlusher != null) {
+            outputFlusher.terminate();
+        }
+        synchronized (broadcastLock) {
+            isReleased = true;
+            if (broadcastBuffer != null) {
+                broadcastBuffer.release();
+                broadcastBuffer = null;
+            }
+        }
+        for (ResultSubpartition subpartition : subpartitions) {
+            subpartition.release();
+        }
+        destroyBufferPool();
+    }
+
+    /**
+     * 为分区创建第 {@code index} 个子分区。
+     */
+    protected interface SubpartitionFactory {
+
+        ResultSubpartition create(int index, ResultPartition parent);
+    }
+
+    // =================================================================================
+    //  OutputFlusher：按 bufferTimeout 周期性地 flush 所有子分区
+    // =================================================================================
+    private class OutputFlusher extends Thread {
+
+        private final long timeout;
+
+        private volatile boolean running = true;
+
+        OutputFlusher(String name, long timeout) {
+            super(name);
+            setDaemon(true);
+            this.timeout = timeout;
+        }
+
+        void terminate() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(timeout);
+                } catch (InterruptedException e) {
+                    // terminate() 会打断睡眠，此时 running 已经是 false，直接退出
+                    if (running) {
+                        LOG.warn("{} 被意外中断，停止周期性 flush", getName());
+                    }
+                    return;
+                }
+                try {
+                    flushAll();
+                } catch (Throwable t) {
+                    // 分区已经坏了，继续 flush 只会重复失败；交给生产者在下一次写入时处理
+                    LOG.error("{} flush 失败，停止周期性 flush", getName(), t);
+                    flusherFailureCause = t instanceof UncheckedIOException ? t.getCause() : t;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 把 buffer 顺序写进一个普通文件，读取时不把数据读进 JVM，只读出长度头，
+ * 数据部分以 {@link FileRegionBuffer} 的形式交给网络层用 sendfile 发出。
+ * （在 Flink 源码中对应 FileChannelBoundedData）
+ *
+ * <p>每个读取器打开自己的文件通道，读取位置互不影响。
+ */
+final class FileChannelBoundedData implements BoundedData {
+
+    private final Path filePath;
+
+    private final FileChannel fileChannel;
+
+    private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+    private long size;
+
+    private FileChannelBoundedData(Path filePath, FileChannel fileChannel) {
+        this.filePath = filePath;
+        this.fileChannel = fileChannel;
+    }
+
+    static FileChannelBoundedData create(Path filePath) throws IOException {
+        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return new FileChannelBoundedData(filePath, fileChannel);
+    }
+
+    @Override
+    public void writeBuffer(ByteBuf buffer) throws IOException {
+        size += BufferReaderWriterUtil.writeToByteChannel(fileChannel, buffer, headerBuffer);
+    }
+
+    @Override
+    public void finishWrite() throws IOException {
+        fileChannel.close();
+    }
+
+    @Override
+    public Reader createReader() throws IOException {
+        if (fileChannel.isOpen()) {
+            throw new IllegalStateException("文件还没有写完: " + filePath);
+        }
+        return new FileBufferReader(FileChannel.open(filePath, StandardOpenOption.READ));
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+        Files.deleteIfExists(filePath);
+    }
+
+    @Override
+    public String toString() {
+        return "FileChannelBoundedData(" + filePath + ", " + size + " 字节)";
+    }
+
+    private static final class FileBufferReader implements Reader {
+
+        private final FileChannel fileChannel;
+
+        private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+        /** 下一个长度头的位置 */
+        private long position;
+
+        FileBufferReader(FileChannel fileChannel) {
+            this.fileChannel = fileChannel;
+        }
+
+        @Override
+        public BufferAndBacklog nextBuffer(int buffersInBacklog) throws IOException {
+            int bufferSize = BufferReaderWriterUtil.readHeader(fileChannel, headerBuffer, position);
+            if (bufferSize < 0) {
+                return null;
+            }
+            long dataPosition = position + BufferReaderWriterUtil.HEADER_LENGTH;
+            position = dataPosition + bufferSize;
+            return new BufferAndBacklog(new FileRegionBuffer(fileChannel, dataPosition, bufferSize), buffersInBacklog);
+        }
+
+        /**
+         * 还在 Netty 写出队列里的 FileRegion 会因为通道关闭而写出失败，只在连接释放读取器时发生。
+         */
+        @Override
+        public void close() throws IOException {
+            fileChannel.close();
+        }
+    }
+}
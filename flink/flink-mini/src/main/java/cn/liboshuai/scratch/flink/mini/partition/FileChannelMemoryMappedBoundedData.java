@@ -0,0 +1,159 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 写入时和 {@link FileChannelBoundedData} 一样顺序写文件，写完之后把文件映射进内存，
+ * 读取器给出的是映射区域的切片：数据留在 page cache 里，网络层直接从映射的地址写进 socket，不经过 JVM 堆。
+ * （在 Flink 源码中对应 FileChannelMemoryMappedBoundedData）
+ *
+ * <p>单个映射区域不能超过 2GB，写入时记下区域的边界，保证一个 buffer 不会跨越两个区域。
+ *
+ * <p>关闭时不主动 unmap：网络层可能还在写出某个切片，提前 unmap 会让 JVM 直接崩溃，
+ * 映射随最后一个引用被回收时解除；文件本身可以立即删除。
+ */
+final class FileChannelMemoryMappedBoundedData implements BoundedData {
+
+    private final Path filePath;
+
+    private final FileChannel fileChannel;
+
+    private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+    private final long maxRegionSize;
+
+    /** 每个映射区域的结束位置（不含），最后一个区域在写入结束时加入 */
+    private final List<Long> regionEnds = new ArrayList<>();
+
+    private long regionStart;
+
+    private long size;
+
+    /** 写入结束后才有，读取器共享，各自使用 duplicate */
+    private volatile ByteBuffer[] mappedRegions;
+
+    private FileChannelMemoryMappedBoundedData(Path filePath, FileChannel fileChannel, long maxRegionSize) {
+        this.filePath = filePath;
+        this.fileChannel = fileChannel;
+        this.maxRegionSize = maxRegionSize;
+    }
+
+    static FileChannelMemoryMappedBoundedData create(Path filePath) throws IOException {
+        return create(filePath, Integer.MAX_VALUE);
+    }
+
+    static FileChannelMemoryMappedBoundedData create(Path filePath, long maxRegionSize) throws IOException {
+        FileChannel fileChannel = FileChannel.open(filePath,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new FileChannelMemoryMappedBoundedData(filePath, fileChannel, maxRegionSize);
+    }
+
+    @Override
+    public void writeBuffer(ByteBuf buffer) throws IOException {
+        long bytes = BufferReaderWriterUtil.HEADER_LENGTH + buffer.readableBytes();
+        if (bytes > maxRegionSize) {
+            throw new IOException("buffer 比映射区域还大: " + bytes + " > " + maxRegionSize);
+        }
+        if (size + bytes - regionStart > maxRegionSize) {
+            regionEnds.add(size);
+            regionStart = size;
+        }
+        size += BufferReaderWriterUtil.writeToByteChannel(fileChannel, buffer, headerBuffer);
+    }
+
+    @Override
+    public void finishWrite() throws IOException {
+        if (size > regionStart) {
+            regionEnds.add(size);
+        }
+        ByteBuffer[] regions = new ByteBuffer[regionEnds.size()];
+        long start = 0;
+        for (int i = 0; i < regions.length; i++) {
+            long end = regionEnds.get(i);
+            regions[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            start = end;
+        }
+        // 映射建立之后文件通道就不需要了
+        fileChannel.close();
+        mappedRegions = regions;
+    }
+
+    @Override
+    public Reader createReader() {
+        ByteBuffer[] regions = mappedRegions;
+        if (regions == null) {
+            throw new IllegalStateException("文件还没有写完: " + filePath);
+        }
+        return new MemoryMappedBufferReader(regions);
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+        mappedRegions = null;
+        Files.deleteIfExists(filePath);
+    }
+
+    @Override
+    public String toString() {
+        return "FileChannelMemoryMappedBoundedData(" + filePath + ", " + size + " 字节)";
+    }
+
+    private static final class MemoryMappedBufferReader implements Reader {
+
+        private final ByteBuffer[] regions;
+
+        private int currentRegion = -1;
+
+        /** 当前区域的 duplicate，读取位置互不影响 */
+        private ByteBuffer current;
+
+        MemoryMappedBufferReader(ByteBuffer[] regions) {
+            this.regions = regions;
+        }
+
+        @Override
+        public BufferAndBacklog nextBuffer(int buffersInBacklog) throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (++currentRegion >= regions.length) {
+                    current = null;
+                    return null;
+                }
+                current = regions[currentRegion].duplicate();
+            }
+            if (current.remaining() < BufferReaderWriterUtil.HEADER_LENGTH) {
+                throw new IOException("映射区域在长度头中间结束");
+            }
+            int bufferSize = current.getInt();
+            if (bufferSize < 0 || bufferSize > current.remaining()) {
+                throw new IOException("损坏的长度头: " + bufferSize + "，区域剩余 " + current.remaining() + " 字节");
+            }
+            ByteBuffer slice = current.slice();
+            slice.limit(bufferSize);
+            current.position(current.position() + bufferSize);
+            // 包装映射内存，不拷贝；释放时也不会去释放映射
+            return new BufferAndBacklog(Unpooled.wrappedBuffer(slice), buffersInBacklog);
+        }
+
+        @Override
+        public void close() {
+            current = null;
+        }
+    }
+}
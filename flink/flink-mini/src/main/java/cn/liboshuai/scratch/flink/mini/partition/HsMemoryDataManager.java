@@ -0,0 +1,224 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 管理 {@link HsResultPartition} 占用的网络内存，决定什么时候把哪些 buffer 溢写到文件。
+ * （在 Flink 源码中对应 HsMemoryDataManager 和 HsFullSpillingStrategy）
+ *
+ * <p>生产者每次申请新 buffer 之前调用 {@link #maybeSpill()}：buffer 池已用的 buffer 达到
+ * {@link #HIGH_WATERMARK_RATIO} 时，把所有子分区里最早结束的 buffer 依次写进文件，直到降到
+ * {@link #LOW_WATERMARK_RATIO}。写完的 buffer 立即归还给池，生产者因此不会因为下游慢而停下来；
+ * 下游跟得上时 buffer 在溢写之前就被取走了，不会产生任何磁盘 IO。
+ *
+ * <p>所有子分区共用一个数据文件，第一次溢写时才创建。溢写只在生产者线程里进行，
+ * 写文件时不持有任何子分区的锁，下游可以同时取走正在溢写的 buffer。
+ * 写文件和读文件使用两个通道：读的一方按位置读，不受写入位置的影响。
+ */
+final class HsMemoryDataManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HsMemoryDataManager.class);
+
+    /** 已用 buffer 达到池上限的这个比例时开始溢写 */
+    static final float HIGH_WATERMARK_RATIO = 0.8f;
+
+    /** 溢写到已用 buffer 降到池上限的这个比例为止 */
+    static final float LOW_WATERMARK_RATIO = 0.5f;
+
+    private final Path dataFilePath;
+
+    /** 子分区在分区的构造函数里注册，之后不再变化 */
+    private final List<HsSubpartition> subpartitions = new CopyOnWriteArrayList<>();
+
+    /** 子分区结束 buffer 的全局顺序，生产者线程和 OutputFlusher 线程都会结束 buffer */
+    private final AtomicLong sequenceNumberGenerator = new AtomicLong();
+
+    /** 只在生产者线程里使用 */
+    private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+    private volatile LocalBufferPool bufferPool;
+
+    /** 保护下面的字段 */
+    private final Object lock = new Object();
+
+    /** 第一次溢写之前为 null */
+    private FileChannel writeFileChannel;
+
+    private FileChannel readFileChannel;
+
+    private boolean isReleased;
+
+    HsMemoryDataManager(Path dataFilePath) {
+        this.dataFilePath = dataFilePath;
+    }
+
+    void registerSubpartition(HsSubpartition subpartition) {
+        subpartitions.add(subpartition);
+    }
+
+    void setBufferPool(LocalBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    long nextSequenceNumber() {
+        return sequenceNumberGenerator.getAndIncrement();
+    }
+
+    /**
+     * 已经溢写的数据都从这个通道读取。
+     */
+    FileChannel getReadFileChannel() {
+        synchronized (lock) {
+            return readFileChannel;
+        }
+    }
+
+    /**
+     * 只在生产者线程里调用。没有设置 buffer 池时不溢写，这时生产者的内存本来就不受池的限制。
+     */
+    void maybeSpill() throws IOException {
+        LocalBufferPool pool = bufferPool;
+        if (pool == null) {
+            return;
+        }
+        int maxBuffers = pool.getMaxNumberOfMemorySegments();
+        int usedBuffers = pool.bestEffortGetNumOfUsedBuffers();
+        if (usedBuffers < Math.max(1, (int) (maxBuffers * HIGH_WATERMARK_RATIO))) {
+            return;
+        }
+        spillOldestBuffers(usedBuffers - (int) (maxBuffers * LOW_WATERMARK_RATIO));
+    }
+
+    /**
+     * 按结束顺序挑出最早的 {@code numBuffersToSpill} 个 buffer 写进文件。
+     * 正在写的 buffer 和已经被下游取走的 buffer 不在挑选范围内，所以实际溢写的可能更少。
+     */
+    private void spillOldestBuffers(int numBuffersToSpill) throws IOException {
+        // 只按挑选时的序号排序，子分区的队头在这期间可能被下游取走，那时 startSpillingOldest 会拿到下一个
+        PriorityQueue<SpillCandidate> candidates =
+                new PriorityQueue<>(Comparator.comparingLong(candidate -> candidate.sequenceNumber));
+        for (HsSubpartition subpartition : subpartitions) {
+            long sequenceNumber = subpartition.getOldestMemoryBufferSequenceNumber();
+            if (sequenceNumber != Long.MAX_VALUE) {
+                candidates.add(new SpillCandidate(subpartition, sequenceNumber));
+            }
+        }
+
+        List<HsSubpartition.BufferContext> toSpill = new ArrayList<>(numBuffersToSpill);
+        List<HsSubpartition> owners = new ArrayList<>(numBuffersToSpill);
+        while (toSpill.size() < numBuffersToSpill && !candidates.isEmpty()) {
+            HsSubpartition subpartition = candidates.poll().subpartition;
+            HsSubpartition.BufferContext context = subpartition.startSpillingOldest();
+            if (context == null) {
+                continue;
+            }
+            toSpill.add(context);
+            owners.add(subpartition);
+            long next = subpartition.getOldestMemoryBufferSequenceNumber();
+            if (next != Long.MAX_VALUE) {
+                candidates.add(new SpillCandidate(subpartition, next));
+            }
+        }
+        if (toSpill.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileChannel channel = getOrCreateWriteFileChannel();
+            for (int i = 0; i < toSpill.size(); i++) {
+                HsSubpartition.BufferContext context = toSpill.get(i);
+                long position = channel.position();
+                BufferReaderWriterUtil.writeToByteChannel(channel, context.spillingBuffer, headerBuffer);
+                owners.get(i).finishSpilling(context, position + BufferReaderWriterUtil.HEADER_LENGTH);
+            }
+            LOG.debug("{} 溢写了 {} 个 buffer", dataFilePath, toSpill.size());
+        } finally {
+            // 没写成的 buffer 还留在子分区里，下游照样可以从内存取走
+            for (HsSubpartition.BufferContext context : toSpill) {
+                context.spillingBuffer.release();
+                context.spillingBuffer = null;
+            }
+        }
+    }
+
+    private FileChannel getOrCreateWriteFileChannel() throws IOException {
+        synchronized (lock) {
+            if (isReleased) {
+                throw new IOException("分区已经被释放了: " + dataFilePath);
+            }
+            if (writeFileChannel == null) {
+                writeFileChannel = FileChannel.open(dataFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                try {
+                    readFileChannel = FileChannel.open(dataFilePath, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    closeFileChannels();
+                    throw e;
+                }
+                LOG.debug("开始溢写到 {}", dataFilePath);
+            }
+            return writeFileChannel;
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void closeFileChannels() {
+        for (FileChannel channel : new FileChannel[]{writeFileChannel, readFileChannel}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("关闭溢写文件 {} 的通道失败", dataFilePath, e);
+                }
+            }
+        }
+        writeFileChannel = null;
+        readFileChannel = null;
+    }
+
+    /**
+     * 关闭并删除溢写文件，在所有子分区释放之后调用。
+     */
+    void release() {
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            closeFileChannels();
+        }
+        try {
+            Files.deleteIfExists(dataFilePath);
+        } catch (IOException e) {
+            LOG.warn("删除溢写文件 {} 失败", dataFilePath, e);
+        }
+    }
+
+    private static final class SpillCandidate {
+
+        final HsSubpartition subpartition;
+
+        final long sequenceNumber;
+
+        SpillCandidate(HsSubpartition subpartition, long sequenceNumber) {
+            this.subpartition = subpartition;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 混合 shuffle 的结果分区：下游跟得上时像 {@link PipelinedResultPartition} 一样直接从内存读，
+ * 跟不上时把最早的 buffer 溢写到 {@code tempDirectory} 下的文件里，生产者继续写。（在 Flink 源码中对应 HsResultPartition）
+ *
+ * <p>纯流水线分区在下游变慢时会让生产者卡在 buffer 池上，阻塞分区则要等全部写完才能读；
+ * 这里占用的网络内存由 buffer 池封顶，同时数据写出即可读。什么时候溢写、溢写哪些由 {@link HsMemoryDataManager} 决定，
+ * 每个子分区按顺序交出文件里和内存里的数据，见 {@link HsSubpartition}。
+ */
+public class HsResultPartition extends BufferWritingResultPartition {
+
+    private final HsMemoryDataManager memoryDataManager;
+
+    public HsResultPartition(ResultPartitionID partitionId,
+                             int numberOfSubpartitions,
+                             int networkBufferSize,
+                             long bufferTimeout,
+                             File tempDirectory) {
+        this(partitionId, numberOfSubpartitions, networkBufferSize, bufferTimeout,
+                new HsMemoryDataManager(new File(tempDirectory, partitionId + ".hybrid.data").toPath()));
+    }
+
+    private HsResultPartition(ResultPartitionID partitionId,
+                              int numberOfSubpartitions,
+                              int networkBufferSize,
+                              long bufferTimeout,
+                              HsMemoryDataManager memoryDataManager) {
+        super(partitionId, numberOfSubpartitions, networkBufferSize, bufferTimeout,
+                (index, parent) -> new HsSubpartition(index, parent, memoryDataManager));
+        this.memoryDataManager = memoryDataManager;
+    }
+
+    /**
+     * 溢写的高低水位按这个池的上限计算。
+     */
+    @Override
+    public void setBufferPool(LocalBufferPool bufferPool) {
+        super.setBufferPool(bufferPool);
+        memoryDataManager.setBufferPool(bufferPool);
+    }
+
+    @Override
+    public void broadcastRecord(ByteBuffer record) throws IOException, InterruptedException {
+        memoryDataManager.maybeSpill();
+        super.broadcastRecord(record);
+    }
+
+    /**
+     * 先释放子分区里的内存，再删除溢写文件。
+     */
+    @Override
+    void release() {
+        super.release();
+        memoryDataManager.release();
+    }
+}
@@ -0,0 +1,400 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 混合 shuffle 的子分区：写法和 {@link PipelinedSubpartition} 一样边写边读，
+ * 但排队的 buffer 可以被 {@link HsMemoryDataManager} 溢写到文件里，腾出内存。
+ * （在 Flink 源码中对应 HsSubpartitionMemoryDataManager）
+ *
+ * <p>排队的 buffer 按消费顺序分成两段：前面是已经溢写（或正在溢写）的 {@code spilledBuffers}，
+ * 后面是只在内存里的 {@code memoryBuffers}。溢写总是从内存段的队头取，所以两段之间的顺序不会乱。
+ * 读取时先取前一段再取后一段：已经溢写完的以 {@link FileRegionBuffer} 的形式交给网络层，
+ * 正在溢写、内存还没释放的直接交出内存里的 buffer，下游看不出数据来自哪里。
+ *
+ * <p>所有状态由 {@code lock} 保护，只有 {@code serializer} 例外，它只被唯一的生产者线程使用。
+ */
+class HsSubpartition extends ResultSubpartition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HsSubpartition.class);
+
+    private final HsMemoryDataManager memoryDataManager;
+
+    /** 只在生产者线程的 {@link #emitRecord} 中使用，不需要加锁 */
+    private final SpanningRecordSerializer serializer = new SpanningRecordSerializer();
+
+    private final Object lock = new Object();
+
+    /** 已经溢写或者正在溢写的 buffer，排在 {@code memoryBuffers} 前面 */
+    private final ArrayDeque<BufferContext> spilledBuffers = new ArrayDeque<>();
+
+    /** 只在内存里的 buffer */
+    private final ArrayDeque<BufferContext> memoryBuffers = new ArrayDeque<>();
+
+    /** 还没被取走的优先事件，排在所有数据前面，不会被溢写 */
+    private final ArrayDeque<ByteBuf> priorityEvents = new ArrayDeque<>();
+
+    /** 正在被追加记录、尚未对消费者可见的 buffer */
+    private ByteBuf currentBuffer;
+
+    private HsSubpartitionView readView;
+
+    /** buffer 写到这么多字节就结束，不超过网络 buffer 的容量 */
+    private int bufferSize;
+
+    private boolean isReleased;
+
+    HsSubpartition(int index, ResultPartition parent, HsMemoryDataManager memoryDataManager) {
+        super(index, parent);
+        this.memoryDataManager = memoryDataManager;
+        this.bufferSize = parent.getNetworkBufferSize();
+        memoryDataManager.registerSubpartition(this);
+    }
+
+    @Override
+    void add(ByteBuf buffer) {
+        HsSubpartitionView viewToNotify;
+        synchronized (lock) {
+            if (isReleased) {
+                buffer.release();
+                return;
+            }
+            viewToNotify = finishCurrentBuffer();
+            if (enqueueFinishedBuffer(buffer) != null) {
+                viewToNotify = readView;
+            }
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    /**
+     * 和 {@link PipelinedSubpartition#emitRecord(ByteBuffer)} 相同，只是申请新 buffer 之前先检查是否需要溢写，
+     * 消费者跟不上时生产者因此不会卡在 buffer 池上。
+     */
+    @Override
+    void emitRecord(ByteBuffer record) throws IOException, InterruptedException {
+        serializer.serializeRecord(record);
+        ByteBuf newBuffer = null;
+        try {
+            while (true) {
+                HsSubpartitionView viewToNotify = null;
+                synchronized (lock) {
+                    if (isReleased) {
+                        return;
+                    }
+                    if (currentBuffer == null && newBuffer != null) {
+                        currentBuffer = newBuffer;
+                        newBuffer = null;
+                    }
+                    if (currentBuffer != null) {
+                        serializer.copyToBuffer(currentBuffer, bufferSize - currentBuffer.readableBytes());
+                        if (!currentBuffer.isWritable() || currentBuffer.readableBytes() >= bufferSize) {
+                            viewToNotify = finishCurrentBuffer();
+                        }
+                    }
+                }
+                notifyDataAvailable(viewToNotify);
+                if (!serializer.hasSerializedData()) {
+                    return;
+                }
+                memoryDataManager.maybeSpill();
+                newBuffer = parent.requestBuffer();
+            }
+        } finally {
+            if (newBuffer != null) {
+                newBuffer.release();
+            }
+            if (serializer.hasSerializedData()) {
+                // 溢写失败、分区被释放或者申请 buffer 时被中断，丢掉这条记录剩下的部分
+                serializer.clear();
+            }
+        }
+    }
+
+    void setBufferSize(int newBufferSize) {
+        if (newBufferSize <= 0) {
+            throw new IllegalArgumentException("buffer 大小必须为正数: " + newBufferSize);
+        }
+        HsSubpartitionView viewToNotify = null;
+        synchronized (lock) {
+            bufferSize = Math.min(newBufferSize, parent.getNetworkBufferSize());
+            if (!isReleased && currentBuffer != null && currentBuffer.readableBytes() >= bufferSize) {
+                viewToNotify = finishCurrentBuffer();
+            }
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    @Override
+    void addPriorityEvent(ByteBuf event) {
+        HsSubpartitionView viewToNotify;
+        synchronized (lock) {
+            if (isReleased) {
+                event.release();
+                return;
+            }
+            priorityEvents.add(event);
+            viewToNotify = priorityEvents.size() == 1 ? readView : null;
+        }
+        if (viewToNotify != null) {
+            viewToNotify.notifyPriorityEvent();
+        }
+    }
+
+    @Override
+    void flush() {
+        HsSubpartitionView viewToNotify;
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            viewToNotify = finishCurrentBuffer();
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    /**
+     * 和流水线式子分区一样，结束时只需要把正在写的 buffer 交出去；已经溢写的数据留在文件里直到被读走。
+     */
+    @Override
+    void finish() {
+        flush();
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private HsSubpartitionView finishCurrentBuffer() {
+        if (currentBuffer == null || !currentBuffer.isReadable()) {
+            return null;
+        }
+        ByteBuf finished = currentBuffer;
+        currentBuffer = null;
+        return enqueueFinishedBuffer(finished);
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private HsSubpartitionView enqueueFinishedBuffer(ByteBuf buffer) {
+        memoryBuffers.add(new BufferContext(memoryDataManager.nextSequenceNumber(), buffer));
+        return getNumberOfQueuedBuffersUnsafe() == 1 ? readView : null;
+    }
+
+    private static void notifyDataAvailable(HsSubpartitionView viewToNotify) {
+        if (viewToNotify != null) {
+            viewToNotify.notifyDataAvailable();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //  溢写，由 HsMemoryDataManager 在生产者线程里调用
+    // ------------------------------------------------------------------------
+
+    /**
+     * 内存里最早的 buffer 的全局序号，没有时返回 {@link Long#MAX_VALUE}。
+     */
+    long getOldestMemoryBufferSequenceNumber() {
+        synchronized (lock) {
+            BufferContext oldest = memoryBuffers.peek();
+            return oldest == null ? Long.MAX_VALUE : oldest.sequenceNumber;
+        }
+    }
+
+    /**
+     * 把内存里最早的 buffer 移到溢写段，返回时 {@link BufferContext#spillingBuffer} 是留给写文件用的一份引用。
+     *
+     * @return 没有可以溢写的 buffer 时返回 {@code null}
+     */
+    BufferContext startSpillingOldest() {
+        synchronized (lock) {
+            if (isReleased || memoryBuffers.isEmpty()) {
+                return null;
+            }
+            BufferContext context = memoryBuffers.poll();
+            context.spillingBuffer = context.buffer.retainedDuplicate();
+            spilledBuffers.add(context);
+            return context;
+        }
+    }
+
+    /**
+     * 数据已经写进文件：还没被取走的话释放内存里的 buffer，之后从文件读取。
+     */
+    void finishSpilling(BufferContext context, long dataOffset) {
+        synchronized (lock) {
+            context.dataOffset = dataOffset;
+            if (context.buffer != null) {
+                context.buffer.release();
+                context.buffer = null;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    //  读取
+    // ------------------------------------------------------------------------
+
+    @Override
+    HsSubpartitionView createReadView(BufferAvailabilityListener availabilityListener) {
+        HsSubpartitionView view;
+        boolean notifyDataAvailable;
+        boolean notifyPriorityEvent;
+        synchronized (lock) {
+            if (isReleased) {
+                throw new IllegalStateException("子分区已释放: " + this);
+            }
+            if (readView != null) {
+                throw new IllegalStateException("子分区已经有一个读取视图了: " + this);
+            }
+            LOG.debug("为 {} 创建读取视图", this);
+            view = new HsSubpartitionView(this, availabilityListener);
+            readView = view;
+            notifyDataAvailable = getNumberOfQueuedBuffersUnsafe() > 0;
+            notifyPriorityEvent = !priorityEvents.isEmpty();
+        }
+
+        if (notifyPriorityEvent) {
+            view.notifyPriorityEvent();
+        } else if (notifyDataAvailable) {
+            view.notifyDataAvailable();
+        }
+        return view;
+    }
+
+    /**
+     * 取出下一个 buffer：优先事件、已经溢写的、内存里的，依次往后。
+     */
+    BufferAndBacklog pollBuffer() {
+        synchronized (lock) {
+            ByteBuf event = priorityEvents.poll();
+            if (event != null) {
+                return new BufferAndBacklog(event, getNumberOfQueuedBuffersUnsafe(), DataType.PRIORITIZED_EVENT_BUFFER);
+            }
+            BufferContext context = spilledBuffers.poll();
+            if (context == null) {
+                context = memoryBuffers.poll();
+            }
+            if (context == null) {
+                return null;
+            }
+            int backlog = getNumberOfQueuedBuffersUnsafe();
+            if (context.buffer != null) {
+                ByteBuf buffer = context.buffer;
+                context.buffer = null;
+                return new BufferAndBacklog(buffer, backlog);
+            }
+            return new BufferAndBacklog(new FileRegionBuffer(
+                    memoryDataManager.getReadFileChannel(), context.dataOffset, context.size), backlog);
+        }
+    }
+
+    private int getNumberOfQueuedBuffersUnsafe() {
+        return spilledBuffers.size() + memoryBuffers.size();
+    }
+
+    int getNumberOfQueuedBuffers() {
+        synchronized (lock) {
+            return getNumberOfQueuedBuffersUnsafe();
+        }
+    }
+
+    boolean isAvailable() {
+        synchronized (lock) {
+            return getNumberOfQueuedBuffersUnsafe() > 0 || !priorityEvents.isEmpty();
+        }
+    }
+
+    boolean hasPriorityEvent() {
+        synchronized (lock) {
+            return !priorityEvents.isEmpty();
+        }
+    }
+
+    void onConsumedSubpartition() {
+        synchronized (lock) {
+            readView = null;
+        }
+    }
+
+    @Override
+    void release() {
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            if (currentBuffer != null) {
+                currentBuffer.release();
+                currentBuffer = null;
+            }
+            releaseBuffers(spilledBuffers);
+            releaseBuffers(memoryBuffers);
+            ByteBuf event;
+            while ((event = priorityEvents.poll()) != null) {
+                event.release();
+            }
+            readView = null;
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。正在溢写的 buffer 还被 {@link HsMemoryDataManager} 引用着，它写完之后自己释放。
+     */
+    private static void releaseBuffers(ArrayDeque<BufferContext> contexts) {
+        BufferContext context;
+        while ((context = contexts.poll()) != null) {
+            if (context.buffer != null) {
+                context.buffer.release();
+                context.buffer = null;
+            }
+        }
+    }
+
+    @Override
+    boolean isReleased() {
+        synchronized (lock) {
+            return isReleased;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HsSubpartition#" + index + " of " + parent.getPartitionId();
+    }
+
+    /**
+     * 一个排队中的数据 buffer。（在 Flink 源码中对应 HsBufferContext）
+     */
+    static final class BufferContext {
+
+        /** 全局的结束顺序，溢写时据此找出所有子分区里最早的 buffer */
+        final long sequenceNumber;
+
+        final int size;
+
+        /** 内存里的数据，被取走或者溢写完成后为 null */
+        ByteBuf buffer;
+
+        /** 溢写期间写文件用的引用，由 {@link HsMemoryDataManager} 写完之后释放 */
+        ByteBuf spillingBuffer;
+
+        /** 数据在文件中的位置，溢写完成之前为 -1 */
+        long dataOffset = -1;
+
+        BufferContext(long sequenceNumber, ByteBuf buffer) {
+            this.sequenceNumber = sequenceNumber;
+            this.size = buffer.readableBytes();
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link HsSubpartition} 的读取视图，内存里和文件里的数据都从这里取，下游不需要区分。（在 Flink 源码中对应 HsSubpartitionConsumer）
+ */
+class HsSubpartitionView implements ResultSubpartitionView {
+
+    private final HsSubpartition parent;
+
+    private final BufferAvailabilityListener availabilityListener;
+
+    private final AtomicBoolean isReleased = new AtomicBoolean();
+
+    HsSubpartitionView(HsSubpartition parent, BufferAvailabilityListener availabilityListener) {
+        this.parent = parent;
+        this.availabilityListener = availabilityListener;
+    }
+
+    @Override
+    public BufferAndBacklog getNextBuffer() {
+        return parent.pollBuffer();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return parent.isAvailable();
+    }
+
+    @Override
+    public boolean hasPriorityEvent() {
+        return parent.hasPriorityEvent();
+    }
+
+    @Override
+    public void notifyNewBufferSize(int newBufferSize) {
+        parent.setBufferSize(newBufferSize);
+    }
+
+    @Override
+    public int getNumberOfQueuedBuffers() {
+        return parent.getNumberOfQueuedBuffers();
+    }
+
+    void notifyDataAvailable() {
+        availabilityListener.notifyDataAvailable();
+    }
+
+    void notifyPriorityEvent() {
+        availabilityListener.notifyPriorityEvent();
+    }
+
+    @Override
+    public void releaseAllResources() {
+        if (isReleased.compareAndSet(false, true)) {
+            parent.onConsumedSubpartition();
+        }
+    }
+
+    @Override
+    public boolean isReleased() {
+        return isReleased.get() || parent.isReleased();
+    }
+
+    @Override
+    public String toString() {
+        return "HsSubpartitionView(" + parent + ")";
+    }
+}
@@ -0,0 +1,24 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+
+import java.io.IOException;
+
+/**
+ * 请求的分区没有在本进程中注册（可能还没开始生产，也可能已经被释放）。
+ */
+public class PartitionNotFoundException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ResultPartitionID partitionId;
+
+    public PartitionNotFoundException(ResultPartitionID partitionId) {
+        super("找不到分区 " + partitionId);
+        this.partitionId = partitionId;
+    }
+
+    public ResultPartitionID getPartitionId() {
+        return partitionId;
+    }
+}
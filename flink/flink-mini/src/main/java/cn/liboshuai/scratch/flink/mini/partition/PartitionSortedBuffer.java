@@ -0,0 +1,230 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 排序合并分区的内存排序缓冲：记录按到达顺序追加，读出时按子分区下标排好序。
+ * （在 Flink 源码中对应 SortBuffer / PartitionSortedBuffer）
+ *
+ * <p>内存是固定数量的网络 buffer，逻辑上首尾相连成一段连续的地址空间，地址 = 第几个 buffer × buffer 大小 + 偏移。
+ * 每条记录前面有一个 12 字节的索引项“4 字节长度 + 8 字节同一子分区下一条记录的地址”，
+ * 同一子分区的记录因此串成一个链表，排序只是按子分区依次遍历这些链表，不移动任何数据。
+ * 索引项不跨 buffer，放不下时跳到下一个 buffer 的开头；记录内容可以跨 buffer。
+ *
+ * <p>只在生产者线程里使用，不是线程安全的。
+ */
+final class PartitionSortedBuffer {
+
+    /** 索引项的大小：4 字节记录长度 + 8 字节下一条记录的地址 */
+    static final int INDEX_ENTRY_SIZE = Integer.BYTES + Long.BYTES;
+
+    private static final long NO_ADDRESS = -1L;
+
+    private final ResultPartition parent;
+
+    private final int numGuaranteedBuffers;
+
+    private final int bufferSize;
+
+    /** 第一次写到的时候才从分区的 buffer 池申请，多次 spill 之间复用 */
+    private final List<ByteBuf> buffers = new ArrayList<>();
+
+    private final long[] firstIndexEntryAddresses;
+
+    private final long[] lastIndexEntryAddresses;
+
+    /** 下一条记录的写入地址 */
+    private long writeAddress;
+
+    private long numTotalRecords;
+
+    private boolean isFinished;
+
+    // ------------------------------------------------------------------------
+    //  读取状态，只在 finish 之后使用
+    // ------------------------------------------------------------------------
+
+    /** 正在读的子分区，全部读完时等于子分区数量 */
+    private int readSubpartition;
+
+    /** 正在读的记录的索引项地址 */
+    private long readIndexEntryAddress;
+
+    /** 正在读的记录已经读出的字节数，包括 4 字节的长度头 */
+    private int recordBytesRead;
+
+    PartitionSortedBuffer(ResultPartition parent, int numGuaranteedBuffers) {
+        if (numGuaranteedBuffers <= 0) {
+            throw new IllegalArgumentException("排序缓冲的 buffer 数量必须为正数: " + numGuaranteedBuffers);
+        }
+        if (parent.getNetworkBufferSize() < INDEX_ENTRY_SIZE) {
+            throw new IllegalArgumentException("网络 buffer 至少要能放下一个 " + INDEX_ENTRY_SIZE
+                    + " 字节的索引项: " + parent.getNetworkBufferSize());
+        }
+        this.parent = parent;
+        this.numGuaranteedBuffers = numGuaranteedBuffers;
+        this.bufferSize = parent.getNetworkBufferSize();
+        this.firstIndexEntryAddresses = new long[parent.getNumberOfSubpartitions()];
+        this.lastIndexEntryAddresses = new long[parent.getNumberOfSubpartitions()];
+        reset();
+    }
+
+    /**
+     * 追加一条发往 {@code subpartitionIndex} 的记录，需要新 buffer 而 buffer 池已经用完时阻塞。
+     *
+     * @return 剩余空间放不下这条记录时返回 {@code false}，什么也不写
+     */
+    boolean append(ByteBuffer record, int subpartitionIndex) throws InterruptedException {
+        if (isFinished) {
+            throw new IllegalStateException("排序缓冲已经结束写入");
+        }
+        int recordSize = record.remaining();
+        int offset = offsetInBuffer(writeAddress);
+        int padding = bufferSize - offset < INDEX_ENTRY_SIZE ? bufferSize - offset : 0;
+        long capacity = (long) numGuaranteedBuffers * bufferSize;
+        if (writeAddress + padding + INDEX_ENTRY_SIZE + recordSize > capacity) {
+            return false;
+        }
+
+        long indexEntryAddress = writeAddress + padding;
+        ByteBuf indexBuffer = requireBuffer(bufferIndex(indexEntryAddress));
+        int indexOffset = offsetInBuffer(indexEntryAddress);
+        indexBuffer.setInt(indexOffset, recordSize);
+        indexBuffer.setLong(indexOffset + Integer.BYTES, NO_ADDRESS);
+        if (lastIndexEntryAddresses[subpartitionIndex] == NO_ADDRESS) {
+            firstIndexEntryAddresses[subpartitionIndex] = indexEntryAddress;
+        } else {
+            long previous = lastIndexEntryAddresses[subpartitionIndex];
+            buffers.get(bufferIndex(previous)).setLong(offsetInBuffer(previous) + Integer.BYTES, indexEntryAddress);
+        }
+        lastIndexEntryAddresses[subpartitionIndex] = indexEntryAddress;
+
+        long address = indexEntryAddress + INDEX_ENTRY_SIZE;
+        int limit = record.limit();
+        while (record.hasRemaining()) {
+            ByteBuf buffer = requireBuffer(bufferIndex(address));
+            int length = Math.min(record.remaining(), bufferSize - offsetInBuffer(address));
+            record.limit(record.position() + length);
+            buffer.setBytes(offsetInBuffer(address), record);
+            record.limit(limit);
+            address += length;
+        }
+        writeAddress = address;
+        numTotalRecords++;
+        return true;
+    }
+
+    private ByteBuf requireBuffer(int bufferIndex) throws InterruptedException {
+        while (buffers.size() <= bufferIndex) {
+            buffers.add(parent.requestBuffer());
+        }
+        return buffers.get(bufferIndex);
+    }
+
+    boolean isEmpty() {
+        return numTotalRecords == 0;
+    }
+
+    /**
+     * 结束写入，之后按子分区的顺序读出。
+     */
+    void finish() {
+        isFinished = true;
+        readSubpartition = -1;
+        moveToNextSubpartition();
+    }
+
+    /**
+     * finish 之后是否还有没读出的记录。
+     */
+    boolean hasRemaining() {
+        return isFinished && readSubpartition < firstIndexEntryAddresses.length;
+    }
+
+    /**
+     * 把当前子分区的数据尽可能多地拷进 {@code target}，格式和 {@link cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer}
+     * 相同，记录可以跨越多个 target。一个 target 里只有一个子分区的数据，当前子分区读完时 target 可能没有写满。
+     *
+     * @return target 里的数据所属的子分区；没有数据可读时返回 -1
+     */
+    int copyIntoBuffer(ByteBuf target) {
+        if (!hasRemaining()) {
+            return -1;
+        }
+        int subpartitionIndex = readSubpartition;
+        while (target.isWritable() && readIndexEntryAddress != NO_ADDRESS) {
+            ByteBuf indexBuffer = buffers.get(bufferIndex(readIndexEntryAddress));
+            int indexOffset = offsetInBuffer(readIndexEntryAddress);
+            int recordSize = indexBuffer.getInt(indexOffset);
+
+            for (; recordBytesRead < Integer.BYTES && target.isWritable(); recordBytesRead++) {
+                target.writeByte(recordSize >>> (Byte.SIZE * (Integer.BYTES - 1 - recordBytesRead)));
+            }
+            while (recordBytesRead < Integer.BYTES + recordSize && target.isWritable()) {
+                long address = readIndexEntryAddress + INDEX_ENTRY_SIZE + recordBytesRead - Integer.BYTES;
+                int offset = offsetInBuffer(address);
+                int length = Math.min(Integer.BYTES + recordSize - recordBytesRead,
+                        Math.min(target.writableBytes(), bufferSize - offset));
+                target.writeBytes(buffers.get(bufferIndex(address)), offset, length);
+                recordBytesRead += length;
+            }
+
+            if (recordBytesRead == Integer.BYTES + recordSize) {
+                readIndexEntryAddress = indexBuffer.getLong(indexOffset + Integer.BYTES);
+                recordBytesRead = 0;
+            }
+        }
+        if (readIndexEntryAddress == NO_ADDRESS) {
+            moveToNextSubpartition();
+        }
+        return subpartitionIndex;
+    }
+
+    private void moveToNextSubpartition() {
+        do {
+            readSubpartition++;
+        } while (readSubpartition < firstIndexEntryAddresses.length
+                && firstIndexEntryAddresses[readSubpartition] == NO_ADDRESS);
+        if (readSubpartition < firstIndexEntryAddresses.length) {
+            readIndexEntryAddress = firstIndexEntryAddresses[readSubpartition];
+            recordBytesRead = 0;
+        }
+    }
+
+    /**
+     * 清空内容以便写入下一批记录，已经申请的 buffer 保留下来复用。
+     */
+    void reset() {
+        Arrays.fill(firstIndexEntryAddresses, NO_ADDRESS);
+        Arrays.fill(lastIndexEntryAddresses, NO_ADDRESS);
+        writeAddress = 0;
+        numTotalRecords = 0;
+        isFinished = false;
+        readIndexEntryAddress = NO_ADDRESS;
+        recordBytesRead = 0;
+    }
+
+    /**
+     * 把所有 buffer 还给分区的 buffer 池，可以重复调用。
+     */
+    void release() {
+        for (ByteBuf buffer : buffers) {
+            buffer.release();
+        }
+        buffers.clear();
+        reset();
+    }
+
+    private int bufferIndex(long address) {
+        return (int) (address / bufferSize);
+    }
+
+    private int offsetInBuffer(long address) {
+        return (int) (address % bufferSize);
+    }
+}
@@ -0,0 +1,95 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 排序合并分区写完之后的结果：一个数据文件加一个索引文件。（在 Flink 源码中对应 PartitionedFile）
+ *
+ * <p>数据文件由若干个 region 组成，每次 spill 写一个 region，region 内各子分区的 buffer 按子分区下标连续存放，
+ * 每个 buffer 的格式见 {@link BufferReaderWriterUtil}。
+ * 索引文件为每个 (region, 子分区) 记一项“8 字节起始位置 + 4 字节 buffer 数”，
+ * 第 r 个 region 第 s 个子分区的索引项位于 {@code (r * 子分区数 + s) * 12}。
+ */
+final class PartitionedFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedFile.class);
+
+    static final String DATA_FILE_SUFFIX = ".shuffle.data";
+
+    static final String INDEX_FILE_SUFFIX = ".shuffle.index";
+
+    /** 索引项的大小：8 字节起始位置 + 4 字节 buffer 数 */
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final int numRegions;
+
+    private final int numSubpartitions;
+
+    private final Path dataFilePath;
+
+    private final Path indexFilePath;
+
+    private final long dataFileSize;
+
+    PartitionedFile(int numRegions, int numSubpartitions, Path dataFilePath, Path indexFilePath, long dataFileSize) {
+        this.numRegions = numRegions;
+        this.numSubpartitions = numSubpartitions;
+        this.dataFilePath = dataFilePath;
+        this.indexFilePath = indexFilePath;
+        this.dataFileSize = dataFileSize;
+    }
+
+    int getNumRegions() {
+        return numRegions;
+    }
+
+    Path getDataFilePath() {
+        return dataFilePath;
+    }
+
+    Path getIndexFilePath() {
+        return indexFilePath;
+    }
+
+    static ByteBuffer allocateIndexEntryBuffer() {
+        return ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * 把第 {@code region} 个 region 里第 {@code subpartitionIndex} 个子分区的索引项读进 {@code target}，
+     * 读完之后依次 {@code getLong()} 得到起始位置、{@code getInt()} 得到 buffer 数。
+     */
+    void getIndexEntry(FileChannel indexFileChannel, ByteBuffer target, int region, int subpartitionIndex)
+            throws IOException {
+        if (region < 0 || region >= numRegions || subpartitionIndex < 0 || subpartitionIndex >= numSubpartitions) {
+            throw new IndexOutOfBoundsException("索引项越界: region " + region + "，子分区 " + subpartitionIndex
+                    + "，共 " + numRegions + " 个 region、" + numSubpartitions + " 个子分区");
+        }
+        target.clear();
+        long position = ((long) region * numSubpartitions + subpartitionIndex) * INDEX_ENTRY_SIZE;
+        BufferReaderWriterUtil.readByteBufferFully(indexFileChannel, target, position);
+        target.flip();
+    }
+
+    void deleteQuietly() {
+        for (Path path : new Path[]{dataFilePath, indexFilePath}) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("删除排序合并分区的文件 {} 失败", path, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionedFile(" + dataFilePath + ", " + numRegions + " 个 region, " + dataFileSize + " 字节)";
+    }
+}
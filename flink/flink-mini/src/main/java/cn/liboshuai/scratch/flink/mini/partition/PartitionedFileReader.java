@@ -0,0 +1,101 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BufferRecycler;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按 region 的顺序读出 {@link PartitionedFile} 里某一个子分区的 buffer。（在 Flink 源码中对应 PartitionedFileReader）
+ *
+ * <p>同一个文件的所有读取器共享两个文件通道，都用带位置的读，互不影响读取位置。
+ * 只在读文件的 IO 线程里使用，不是线程安全的。
+ */
+final class PartitionedFileReader {
+
+    private final PartitionedFile partitionedFile;
+
+    private final int subpartitionIndex;
+
+    private final FileChannel dataFileChannel;
+
+    private final FileChannel indexFileChannel;
+
+    private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+    private final ByteBuffer indexEntryBuffer = PartitionedFile.allocateIndexEntryBuffer();
+
+    private int nextRegionToRead;
+
+    /** 下一个 buffer 的长度头在数据文件中的位置 */
+    private long nextOffsetToRead;
+
+    private int currentRegionRemainingBuffers;
+
+    PartitionedFileReader(PartitionedFile partitionedFile,
+                          int subpartitionIndex,
+                          FileChannel dataFileChannel,
+                          FileChannel indexFileChannel) throws IOException {
+        this.partitionedFile = partitionedFile;
+        this.subpartitionIndex = subpartitionIndex;
+        this.dataFileChannel = dataFileChannel;
+        this.indexFileChannel = indexFileChannel;
+        moveToNextReadableRegion();
+    }
+
+    private void moveToNextReadableRegion() throws IOException {
+        while (currentRegionRemainingBuffers == 0 && nextRegionToRead < partitionedFile.getNumRegions()) {
+            partitionedFile.getIndexEntry(indexFileChannel, indexEntryBuffer, nextRegionToRead, subpartitionIndex);
+            nextOffsetToRead = indexEntryBuffer.getLong();
+            currentRegionRemainingBuffers = indexEntryBuffer.getInt();
+            nextRegionToRead++;
+        }
+    }
+
+    boolean hasRemaining() {
+        return currentRegionRemainingBuffers > 0;
+    }
+
+    /**
+     * 调度器按这个位置排序所有读取器，让磁盘尽量顺序读。
+     */
+    long getNextOffsetToRead() {
+        return nextOffsetToRead;
+    }
+
+    int getRemainingBuffersInCurrentRegion() {
+        return currentRegionRemainingBuffers;
+    }
+
+    /**
+     * 把下一个 buffer 读进 {@code target}，当前 region 读完时定位到下一个有数据的 region。
+     *
+     * @return 包装 {@code target} 的 buffer，释放时把内存段交还给 {@code recycler}
+     */
+    ByteBuf readBuffer(MemorySegment target, BufferRecycler recycler) throws IOException {
+        if (!hasRemaining()) {
+            throw new IllegalStateException("子分区 " + subpartitionIndex + " 的数据已经读完了: " + partitionedFile);
+        }
+        int size = BufferReaderWriterUtil.readHeader(dataFileChannel, headerBuffer, nextOffsetToRead);
+        if (size < 0) {
+            throw new IOException("数据文件比索引记录的短，位置 " + nextOffsetToRead + ": " + partitionedFile);
+        }
+        if (size > target.size()) {
+            throw new IOException("buffer 大小 " + size + " 超过了读 buffer 的大小 " + target.size());
+        }
+        BufferReaderWriterUtil.readByteBufferFully(dataFileChannel, target.wrap(0, size),
+                nextOffsetToRead + BufferReaderWriterUtil.HEADER_LENGTH);
+        nextOffsetToRead += BufferReaderWriterUtil.HEADER_LENGTH + size;
+        if (--currentRegionRemainingBuffers == 0) {
+            moveToNextReadableRegion();
+        }
+
+        NetworkBuffer buffer = new NetworkBuffer(target, recycler);
+        buffer.writerIndex(size);
+        return buffer;
+    }
+}
@@ -0,0 +1,136 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 顺序写出 {@link PartitionedFile} 的数据文件和索引文件。（在 Flink 源码中对应 PartitionedFileWriter）
+ *
+ * <p>一个 region 里的 buffer 必须按子分区下标从小到大写入，调用 {@link #finishRegion()} 时写出这个 region 的索引项。
+ * 只在生产者线程里使用，不是线程安全的。
+ */
+final class PartitionedFileWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedFileWriter.class);
+
+    private final int numSubpartitions;
+
+    private final Path dataFilePath;
+
+    private final Path indexFilePath;
+
+    private final FileChannel dataFileChannel;
+
+    private final FileChannel indexFileChannel;
+
+    private final ByteBuffer headerBuffer = BufferReaderWriterUtil.allocateHeaderBuffer();
+
+    /** 一个 region 的全部索引项，region 结束时一次写出 */
+    private final ByteBuffer indexBuffer;
+
+    /** 当前 region 里每个子分区的起始位置和 buffer 数 */
+    private final long[] subpartitionOffsets;
+
+    private final int[] subpartitionBuffers;
+
+    private int currentSubpartition = -1;
+
+    private int numRegions;
+
+    private long totalBytesWritten;
+
+    private boolean isFinished;
+
+    PartitionedFileWriter(int numSubpartitions, Path basePath) throws IOException {
+        this.numSubpartitions = numSubpartitions;
+        this.dataFilePath = basePath.resolveSibling(basePath.getFileName() + PartitionedFile.DATA_FILE_SUFFIX);
+        this.indexFilePath = basePath.resolveSibling(basePath.getFileName() + PartitionedFile.INDEX_FILE_SUFFIX);
+        this.indexBuffer = ByteBuffer.allocateDirect(numSubpartitions * PartitionedFile.INDEX_ENTRY_SIZE);
+        this.subpartitionOffsets = new long[numSubpartitions];
+        this.subpartitionBuffers = new int[numSubpartitions];
+
+        this.dataFileChannel = FileChannel.open(dataFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            this.indexFileChannel = FileChannel.open(indexFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            dataFileChannel.close();
+            Files.deleteIfExists(dataFilePath);
+            throw e;
+        }
+    }
+
+    /**
+     * 把 {@code buffer} 的可读部分写进当前 region，不改变 buffer 的读写下标。
+     */
+    void writeBuffer(ByteBuf buffer, int subpartitionIndex) throws IOException {
+        if (isFinished) {
+            throw new IllegalStateException("文件已经写完了: " + dataFilePath);
+        }
+        if (subpartitionIndex < currentSubpartition) {
+            throw new IllegalStateException("同一个 region 里必须按子分区下标从小到大写入: "
+                    + subpartitionIndex + " < " + currentSubpartition);
+        }
+        if (subpartitionIndex != currentSubpartition) {
+            currentSubpartition = subpartitionIndex;
+            subpartitionOffsets[subpartitionIndex] = totalBytesWritten;
+        }
+        subpartitionBuffers[subpartitionIndex]++;
+        totalBytesWritten += BufferReaderWriterUtil.writeToByteChannel(dataFileChannel, buffer, headerBuffer);
+    }
+
+    /**
+     * 结束当前 region，写出它的索引项。没有写入任何 buffer 时什么也不做。
+     */
+    void finishRegion() throws IOException {
+        if (currentSubpartition < 0) {
+            return;
+        }
+        indexBuffer.clear();
+        for (int i = 0; i < numSubpartitions; i++) {
+            indexBuffer.putLong(subpartitionBuffers[i] > 0 ? subpartitionOffsets[i] : totalBytesWritten);
+            indexBuffer.putInt(subpartitionBuffers[i]);
+        }
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) {
+            indexFileChannel.write(indexBuffer);
+        }
+        Arrays.fill(subpartitionBuffers, 0);
+        currentSubpartition = -1;
+        numRegions++;
+    }
+
+    /**
+     * 结束当前 region 并关闭两个文件。
+     */
+    PartitionedFile finish() throws IOException {
+        finishRegion();
+        isFinished = true;
+        dataFileChannel.close();
+        indexFileChannel.close();
+        LOG.debug("写完了 {}，共 {} 个 region，{} 字节", dataFilePath, numRegions, totalBytesWritten);
+        return new PartitionedFile(numRegions, numSubpartitions, dataFilePath, indexFilePath, totalBytesWritten);
+    }
+
+    /**
+     * 写入失败或者分区在写完之前被释放：关闭并删除两个文件。
+     */
+    void releaseQuietly() {
+        isFinished = true;
+        try {
+            dataFileChannel.close();
+            indexFileChannel.close();
+        } catch (IOException e) {
+            LOG.warn("关闭排序合并分区的文件 {} 失败", dataFilePath, e);
+        }
+        new PartitionedFile(numRegions, numSubpartitions, dataFilePath, indexFilePath, totalBytesWritten).deleteQuietly();
+    }
+}
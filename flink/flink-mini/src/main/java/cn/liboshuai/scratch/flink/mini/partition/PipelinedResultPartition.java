@@ -0,0 +1,19 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+
+/**
+ * 流水线式的结果分区，下游边消费、生产者边写。（在 Flink 源码中对应 PipelinedResultPartition）
+ *
+ * <p>每个子分区是一个 {@link PipelinedSubpartition}，buffer 结束后立即对下游可见；
+ * 何时结束一个没写满的 buffer 由 bufferTimeout 决定，见 {@link BufferWritingResultPartition}。
+ */
+public class PipelinedResultPartition extends BufferWritingResultPartition {
+
+    public PipelinedResultPartition(ResultPartitionID partitionId,
+                                    int numberOfSubpartitions,
+                                    int networkBufferSize,
+                                    long bufferTimeout) {
+        super(partitionId, numberOfSubpartitions, networkBufferSize, bufferTimeout, PipelinedSubpartition::new);
+    }
+}
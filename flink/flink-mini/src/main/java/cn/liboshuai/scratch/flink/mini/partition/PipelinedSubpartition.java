@@ -0,0 +1,316 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 流水线式子分区：生产者往队列里追加 buffer，唯一的消费者视图从队列头部取走。
+ * （在 Flink 源码中对应 PipelinedSubpartition）
+ *
+ * <p>记录先被追加到一个“正在写”的 buffer 里，消费者看不到它；
+ * 只有当它写满、或者被 flush（超时或显式触发）时才会进入队列，对消费者可见。
+ *
+ * <p>buffer 在写到 {@code bufferSize} 字节时就会结束，这个大小默认等于网络 buffer 的容量，
+ * 下游开启 buffer debloating 后会根据实测吞吐量调小它，以减少反压时堆积在网络上的数据量。
+ * 记录由 {@link SpanningRecordSerializer} 加上长度头后写入，当前 buffer 放不下的部分写进下一个 buffer，
+ * 因此 buffer 总是被写满，记录的大小也不受 buffer 大小限制。
+ *
+ * <p>优先事件放在单独的队列里，取数据时总是先取优先事件，因此它会越过所有已经排队的数据 buffer；
+ * 正在写的 buffer 不受影响，其中的记录仍然排在优先事件之后。
+ *
+ * <p>生产者线程、OutputFlusher 线程和 Netty 的 EventLoop 线程会同时访问，所有状态都由 {@code buffers} 的锁保护；
+ * 只有 {@code serializer} 例外，它只被唯一的生产者线程使用。
+ */
+class PipelinedSubpartition extends ResultSubpartition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSubpartition.class);
+
+    /** 只在生产者线程的 {@link #emitRecord} 中使用，不需要加锁 */
+    private final SpanningRecordSerializer serializer = new SpanningRecordSerializer();
+
+    /** 已经生产完成、还没被消费的 buffer */
+    private final ArrayDeque<ByteBuf> buffers = new ArrayDeque<>();
+
+    /** 还没被取走的优先事件，排在 {@code buffers} 前面 */
+    private final ArrayDeque<ByteBuf> priorityEvents = new ArrayDeque<>();
+
+    /** 正在被追加记录、尚未对消费者可见的 buffer */
+    private ByteBuf currentBuffer;
+
+    /** 当前的读取视图，同一时刻最多一个 */
+    private PipelinedSubpartitionView readView;
+
+    /** buffer 写到这么多字节就结束，不超过网络 buffer 的容量 */
+    private int bufferSize;
+
+    private boolean isReleased;
+
+    PipelinedSubpartition(int index, ResultPartition parent) {
+        super(index, parent);
+        this.bufferSize = parent.getNetworkBufferSize();
+    }
+
+    /**
+     * 追加一个已经写好的完整 buffer。正在写的 buffer 会先被结束掉，以保证数据顺序。
+     */
+    @Override
+    void add(ByteBuf buffer) {
+        PipelinedSubpartitionView viewToNotify;
+        synchronized (buffers) {
+            if (isReleased) {
+                buffer.release();
+                return;
+            }
+            viewToNotify = finishCurrentBuffer();
+            if (enqueueFinishedBuffer(buffer) != null) {
+                viewToNotify = readView;
+            }
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    /**
+     * 把一条记录序列化进正在写的 buffer 中，buffer 写满后立即对消费者可见，剩余部分写进新申请的 buffer。
+     * 同一个子分区同一时刻只能有一个线程调用。
+     *
+     * <p>新 buffer 在锁外申请：buffer 池用完时这里会阻塞，而消费者要先拿到锁取走数据，buffer 才会被回收。
+     * 跨 buffer 的记录在等待新 buffer 期间，前半部分可能已经被 flush 出去，下游会把两部分拼起来。
+     */
+    @Override
+    void emitRecord(ByteBuffer record) throws InterruptedException {
+        serializer.serializeRecord(record);
+        ByteBuf newBuffer = null;
+        try {
+            while (true) {
+                PipelinedSubpartitionView viewToNotify = null;
+                synchronized (buffers) {
+                    if (isReleased) {
+                        return;
+                    }
+                    if (currentBuffer == null && newBuffer != null) {
+                        currentBuffer = newBuffer;
+                        newBuffer = null;
+                    }
+                    if (currentBuffer != null) {
+                        serializer.copyToBuffer(currentBuffer, bufferSize - currentBuffer.readableBytes());
+                        if (!currentBuffer.isWritable() || currentBuffer.readableBytes() >= bufferSize) {
+                            viewToNotify = finishCurrentBuffer();
+                        }
+                    }
+                }
+                // 阻塞申请之前先通知消费者，否则刚结束的 buffer 没人取，池里的 buffer 永远不会被回收
+                notifyDataAvailable(viewToNotify);
+                if (!serializer.hasSerializedData()) {
+                    return;
+                }
+                newBuffer = parent.requestBuffer();
+            }
+        } finally {
+            if (newBuffer != null) {
+                newBuffer.release();
+            }
+            if (serializer.hasSerializedData()) {
+                // 分区被释放或者申请 buffer 时被中断，丢掉这条记录剩下的部分
+                serializer.clear();
+            }
+        }
+    }
+
+    /**
+     * 下游通知了新的 buffer 大小。已经达到新大小的正在写的 buffer 立即结束。
+     */
+    void setBufferSize(int newBufferSize) {
+        if (newBufferSize <= 0) {
+            throw new IllegalArgumentException("buffer 大小必须为正数: " + newBufferSize);
+        }
+        PipelinedSubpartitionView viewToNotify = null;
+        synchronized (buffers) {
+            bufferSize = Math.min(newBufferSize, parent.getNetworkBufferSize());
+            if (!isReleased && currentBuffer != null && currentBuffer.readableBytes() >= bufferSize) {
+                viewToNotify = finishCurrentBuffer();
+            }
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    /**
+     * 追加一个优先事件，它会越过所有已经排队的数据，event 的所有权随之转移给子分区。
+     */
+    @Override
+    void addPriorityEvent(ByteBuf event) {
+        PipelinedSubpartitionView viewToNotify;
+        synchronized (buffers) {
+            if (isReleased) {
+                event.release();
+                return;
+            }
+            priorityEvents.add(event);
+            // 即使队列里早就有数据也要通知：读取器可能因为没有 credit 而没在发送，优先事件不需要 credit
+            viewToNotify = priorityEvents.size() == 1 ? readView : null;
+        }
+        if (viewToNotify != null) {
+            viewToNotify.notifyPriorityEvent();
+        }
+    }
+
+    /**
+     * 结束正在写的 buffer（即使没写满），让其中的数据对消费者可见。
+     */
+    @Override
+    void flush() {
+        PipelinedSubpartitionView viewToNotify;
+        synchronized (buffers) {
+            if (isReleased) {
+                return;
+            }
+            viewToNotify = finishCurrentBuffer();
+        }
+        notifyDataAvailable(viewToNotify);
+    }
+
+    /**
+     * 流水线式子分区边写边读，结束时只需要把正在写的 buffer 交出去。
+     */
+    @Override
+    void finish() {
+        flush();
+    }
+
+    /**
+     * 必须持有 {@code buffers} 的锁。
+     *
+     * @return 需要通知的读取视图，不需要通知时返回 {@code null}
+     */
+    private PipelinedSubpartitionView finishCurrentBuffer() {
+        if (currentBuffer == null || !currentBuffer.isReadable()) {
+            return null;
+        }
+        ByteBuf finished = currentBuffer;
+        currentBuffer = null;
+        return enqueueFinishedBuffer(finished);
+    }
+
+    /**
+     * 必须持有 {@code buffers} 的锁。
+     */
+    private PipelinedSubpartitionView enqueueFinishedBuffer(ByteBuf buffer) {
+        buffers.add(buffer);
+        // 只有从“空”变成“非空”时才需要通知，其余情况消费者会在取数据时自己发现
+        return buffers.size() == 1 ? readView : null;
+    }
+
+    private static void notifyDataAvailable(PipelinedSubpartitionView viewToNotify) {
+        // 回调放到锁外执行，避免和 EventLoop 线程互相等锁
+        if (viewToNotify != null) {
+            viewToNotify.notifyDataAvailable();
+        }
+    }
+
+    @Override
+    PipelinedSubpartitionView createReadView(BufferAvailabilityListener availabilityListener) {
+        PipelinedSubpartitionView view;
+        boolean notifyDataAvailable;
+        boolean notifyPriorityEvent;
+        synchronized (buffers) {
+            if (isReleased) {
+                throw new IllegalStateException("子分区已释放: " + this);
+            }
+            if (readView != null) {
+                throw new IllegalStateException("子分区已经有一个读取视图了: " + this);
+            }
+            LOG.debug("为 {} 创建读取视图", this);
+            view = new PipelinedSubpartitionView(this, availabilityListener);
+            readView = view;
+            notifyDataAvailable = !buffers.isEmpty();
+            notifyPriorityEvent = !priorityEvents.isEmpty();
+        }
+
+        if (notifyPriorityEvent) {
+            view.notifyPriorityEvent();
+        } else if (notifyDataAvailable) {
+            view.notifyDataAvailable();
+        }
+        return view;
+    }
+
+    /**
+     * 取出队头的 buffer，有优先事件时先取优先事件。积压数是队列里剩下的已完成数据 buffer 数，不包括正在写的那个。
+     */
+    BufferAndBacklog pollBuffer() {
+        synchronized (buffers) {
+            ByteBuf event = priorityEvents.poll();
+            if (event != null) {
+                return new BufferAndBacklog(event, buffers.size(), DataType.PRIORITIZED_EVENT_BUFFER);
+            }
+            ByteBuf buffer = buffers.poll();
+            return buffer == null ? null : new BufferAndBacklog(buffer, buffers.size());
+        }
+    }
+
+    int getNumberOfQueuedBuffers() {
+        synchronized (buffers) {
+            return buffers.size();
+        }
+    }
+
+    boolean isAvailable() {
+        synchronized (buffers) {
+            return !buffers.isEmpty() || !priorityEvents.isEmpty();
+        }
+    }
+
+    boolean hasPriorityEvent() {
+        synchronized (buffers) {
+            return !priorityEvents.isEmpty();
+        }
+    }
+
+    /**
+     * 读取视图被释放，下一个消费者可以重新建立视图。
+     */
+    void onConsumedSubpartition() {
+        synchronized (buffers) {
+            readView = null;
+        }
+    }
+
+    @Override
+    void release() {
+        synchronized (buffers) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            if (currentBuffer != null) {
+                currentBuffer.release();
+                currentBuffer = null;
+            }
+            ByteBuf buffer;
+            while ((buffer = buffers.poll()) != null) {
+                buffer.release();
+            }
+            while ((buffer = priorityEvents.poll()) != null) {
+                buffer.release();
+            }
+            readView = null;
+        }
+    }
+
+    @Override
+    boolean isReleased() {
+        synchronized (buffers) {
+            return isReleased;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PipelinedSubpartition#" + index + " of " + parent.getPartitionId();
+    }
+}
@@ -0,0 +1,70 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link PipelinedSubpartition} 的读取视图。
+ */
+class PipelinedSubpartitionView implements ResultSubpartitionView {
+
+    private final PipelinedSubpartition parent;
+
+    private final BufferAvailabilityListener availabilityListener;
+
+    private final AtomicBoolean isReleased = new AtomicBoolean();
+
+    PipelinedSubpartitionView(PipelinedSubpartition parent, BufferAvailabilityListener availabilityListener) {
+        this.parent = parent;
+        this.availabilityListener = availabilityListener;
+    }
+
+    @Override
+    public BufferAndBacklog getNextBuffer() {
+        return parent.pollBuffer();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return parent.isAvailable();
+    }
+
+    @Override
+    public boolean hasPriorityEvent() {
+        return parent.hasPriorityEvent();
+    }
+
+    @Override
+    public void notifyNewBufferSize(int newBufferSize) {
+        parent.setBufferSize(newBufferSize);
+    }
+
+    @Override
+    public int getNumberOfQueuedBuffers() {
+        return parent.getNumberOfQueuedBuffers();
+    }
+
+    void notifyDataAvailable() {
+        availabilityListener.notifyDataAvailable();
+    }
+
+    void notifyPriorityEvent() {
+        availabilityListener.notifyPriorityEvent();
+    }
+
+    @Override
+    public void releaseAllResources() {
+        if (isReleased.compareAndSet(false, true)) {
+            parent.onConsumedSubpartition();
+        }
+    }
+
+    @Override
+    public boolean isReleased() {
+        return isReleased.get() || parent.isReleased();
+    }
+
+    @Override
+    public String toString() {
+        return "PipelinedSubpartitionView(" + parent + ")";
+    }
+}
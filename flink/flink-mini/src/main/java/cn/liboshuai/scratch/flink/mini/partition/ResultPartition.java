@@ -0,0 +1,125 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 一个生产者任务产出的结果分区，按下游并行度切分成若干个子分区。（在 Flink 源码中对应 ResultPartition）
+ *
+ * <p>这里只定义生产者写入、下游读取的接口以及 buffer 池的管理，数据怎么组织由子类决定：
+ * <ul>
+ *     <li>{@link PipelinedResultPartition}：流水线式，下游边消费、生产者边写；</li>
+ *     <li>{@link BoundedBlockingResultPartition}：每个子分区写一个文件，生产完成之后下游才能读取；</li>
+ *     <li>{@link SortMergeResultPartition}：所有子分区的数据先在内存里按子分区排序，再写进同一个文件。</li>
+ * </ul>
+ */
+public abstract class ResultPartition {
+
+    /** bufferTimeout 取这个值时只在 buffer 写满或显式 flush 时发送 */
+    public static final long FLUSH_ONLY_WHEN_FULL = -1;
+
+    @Getter
+    protected final ResultPartitionID partitionId;
+
+    /** 每个网络 buffer 的大小，比它大的记录会跨越多个 buffer */
+    @Getter
+    protected final int networkBufferSize;
+
+    @Getter
+    protected final int numberOfSubpartitions;
+
+    /** 生产者写数据用的 buffer 池，没有设置时退回到 Netty 的池化分配器，不受网络内存总量限制 */
+    private volatile LocalBufferPool bufferPool;
+
+    protected ResultPartition(ResultPartitionID partitionId, int numberOfSubpartitions, int networkBufferSize) {
+        if (numberOfSubpartitions <= 0) {
+            throw new IllegalArgumentException("子分区数量必须为正数: " + numberOfSubpartitions);
+        }
+        this.partitionId = partitionId;
+        this.numberOfSubpartitions = numberOfSubpartitions;
+        this.networkBufferSize = networkBufferSize;
+    }
+
+    /**
+     * 设置生产者使用的 buffer 池，池的所有权随之转移给分区，分区释放时一起销毁。
+     */
+    public void setBufferPool(LocalBufferPool bufferPool) {
+        if (bufferPool.getMemorySegmentSize() != networkBufferSize) {
+            throw new IllegalArgumentException("buffer 池的内存段大小 " + bufferPool.getMemorySegmentSize()
+                    + " 与分区的网络 buffer 大小 " + networkBufferSize + " 不一致");
+        }
+        if (this.bufferPool != null) {
+            throw new IllegalStateException("分区已经设置过 buffer 池了: " + this);
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 申请一个用来写记录的 buffer，buffer 池用完时阻塞。
+     */
+    ByteBuf requestBuffer() throws InterruptedException {
+        LocalBufferPool pool = bufferPool;
+        if (pool == null) {
+            return PooledByteBufAllocator.DEFAULT.directBuffer(networkBufferSize, networkBufferSize);
+        }
+        return pool.requestBufferBlocking();
+    }
+
+    /**
+     * 归还生产者 buffer 池里的内存，池里还在被使用的 buffer 在回收时归还，可以重复调用。
+     */
+    void destroyBufferPool() {
+        LocalBufferPool pool = bufferPool;
+        if (pool != null) {
+            pool.lazyDestroy();
+        }
+    }
+
+    /**
+     * 把一条记录写给指定子分区，需要新 buffer 而 buffer 池已经用完时阻塞。
+     * 记录的格式是“4 字节长度 + 记录内容”，下游用 {@link cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer} 还原。
+     */
+    public abstract void emitRecord(ByteBuffer record, int targetSubpartition) throws IOException, InterruptedException;
+
+    /**
+     * 把一条记录写给所有子分区。
+     */
+    public abstract void broadcastRecord(ByteBuffer record) throws IOException, InterruptedException;
+
+    /**
+     * 把一个优先事件发给所有子分区，它会排在每个子分区已有的数据前面。
+     */
+    public abstract void broadcastPriorityEvent(ByteBuffer event);
+
+    public abstract void flush(int subpartitionIndex);
+
+    public abstract void flushAll();
+
+    /**
+     * 生产者写完了所有数据：交出所有正在写的数据，之后不能再写入。
+     */
+    public abstract void finish() throws IOException;
+
+    abstract ResultSubpartitionView createSubpartitionView(int subpartitionIndex,
+                                                           BufferAvailabilityListener availabilityListener);
+
+    abstract void release();
+
+    protected void checkSubpartitionIndex(int subpartitionIndex) {
+        if (subpartitionIndex < 0 || subpartitionIndex >= numberOfSubpartitions) {
+            throw new IndexOutOfBoundsException("子分区下标越界: " + subpartitionIndex
+                    + "，分区 " + partitionId + " 共有 " + numberOfSubpartitions + " 个子分区");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + partitionId + ", " + numberOfSubpartitions + " 个子分区)";
+    }
+}
@@ -0,0 +1,65 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 管理本进程内所有正在生产的结果分区，网络层通过它为下游请求创建子分区视图。
+ * （在 Flink 源码中对应 ResultPartitionManager）
+ */
+public class ResultPartitionManager implements ResultPartitionProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResultPartitionManager.class);
+
+    private final Map<ResultPartitionID, ResultPartition> registeredPartitions = new ConcurrentHashMap<>();
+
+    public void registerResultPartition(ResultPartition partition) {
+        ResultPartition previous = registeredPartitions.putIfAbsent(partition.getPartitionId(), partition);
+        if (previous != null) {
+            throw new IllegalStateException("分区已经注册过了: " + partition.getPartitionId());
+        }
+        LOG.debug("注册分区 {}", partition);
+    }
+
+    /**
+     * 分区是否注册在本进程内，下游据此决定使用本地通道还是远程通道。
+     */
+    public boolean isRegistered(ResultPartitionID partitionId) {
+        return registeredPartitions.containsKey(partitionId);
+    }
+
+    @Override
+    public ResultSubpartitionView createSubpartitionView(
+            ResultPartitionID partitionId,
+            int subpartitionIndex,
+            BufferAvailabilityListener availabilityListener) throws PartitionNotFoundException {
+        ResultPartition partition = registeredPartitions.get(partitionId);
+        if (partition == null) {
+            throw new PartitionNotFoundException(partitionId);
+        }
+
+        LOG.debug("为分区 {} 的子分区 {} 创建读取视图", partitionId, subpartitionIndex);
+        return partition.createSubpartitionView(subpartitionIndex, availabilityListener);
+    }
+
+    /**
+     * 注销并释放分区。
+     */
+    public void releasePartition(ResultPartitionID partitionId) {
+        ResultPartition partition = registeredPartitions.remove(partitionId);
+        if (partition != null) {
+            partition.release();
+            LOG.debug("释放分区 {}", partitionId);
+        }
+    }
+
+    public void shutdown() {
+        for (ResultPartitionID partitionId : registeredPartitions.keySet()) {
+            releasePartition(partitionId);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+
+/**
+ * 按 {@link ResultPartitionID} 为网络层提供子分区视图。
+ */
+public interface ResultPartitionProvider {
+
+    /**
+     * 为指定分区的某个子分区创建读取视图。
+     *
+     * @throws PartitionNotFoundException 分区没有在本进程中注册
+     */
+    ResultSubpartitionView createSubpartitionView(
+            ResultPartitionID partitionId,
+            int subpartitionIndex,
+            BufferAvailabilityListener availabilityListener) throws PartitionNotFoundException;
+}
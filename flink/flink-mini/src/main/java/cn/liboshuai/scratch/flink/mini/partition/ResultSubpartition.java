@@ -0,0 +1,58 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 结果分区中发往某一个下游的那部分数据。（在 Flink 源码中对应 ResultSubpartition）
+ *
+ * <p>流水线式的 {@link PipelinedSubpartition} 把数据放在内存队列里边写边读；
+ * 阻塞式的 {@link BoundedBlockingSubpartition} 把数据写进文件，生产完成之后下游才能读取。
+ */
+abstract class ResultSubpartition {
+
+    protected final int index;
+
+    protected final ResultPartition parent;
+
+    ResultSubpartition(int index, ResultPartition parent) {
+        this.index = index;
+        this.parent = parent;
+    }
+
+    /**
+     * 追加一个已经写好的完整 buffer，buffer 的所有权随之转移给子分区。
+     */
+    abstract void add(ByteBuf buffer) throws IOException;
+
+    /**
+     * 把一条记录序列化进子分区，同一个子分区同一时刻只能有一个线程调用。
+     */
+    abstract void emitRecord(ByteBuffer record) throws IOException, InterruptedException;
+
+    /**
+     * 追加一个优先事件，event 的所有权随之转移给子分区。
+     *
+     * <p>只有能让事件越过排队数据的子分区才覆盖这个方法。不支持优先事件的分区在
+     * {@link ResultPartition#broadcastPriorityEvent(ByteBuffer)} 里就提前拒绝了，不会走到这里。
+     */
+    void addPriorityEvent(ByteBuf event) {
+        event.release();
+        throw new IllegalStateException(getClass().getSimpleName() + " 不支持优先事件，分区应该提前拒绝: " + parent);
+    }
+
+    abstract void flush();
+
+    /**
+     * 生产者不会再写入数据了。
+     */
+    abstract void finish() throws IOException;
+
+    abstract ResultSubpartitionView createReadView(BufferAvailabilityListener availabilityListener);
+
+    abstract void release();
+
+    abstract boolean isReleased();
+}
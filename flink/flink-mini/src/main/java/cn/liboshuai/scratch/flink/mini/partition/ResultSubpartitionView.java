@@ -0,0 +1,44 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import java.io.IOException;
+
+/**
+ * 消费者读取某个子分区的视图。每个下游 InputChannel 持有一个。
+ */
+public interface ResultSubpartitionView {
+
+    /**
+     * 取出下一个 buffer 以及此时的积压数，buffer 的所有权随之转移给调用方。优先事件总是排在数据前面。
+     *
+     * @return 下一个 buffer；暂时没有数据时返回 {@code null}
+     * @throws IOException 从文件读取数据失败
+     */
+    BufferAndBacklog getNextBuffer() throws IOException;
+
+    /**
+     * 当前是否有可读的数据。
+     */
+    boolean isAvailable();
+
+    /**
+     * 队头是否是优先事件。优先事件不需要 credit，下游没有 credit 时也可以发送。
+     */
+    boolean hasPriorityEvent();
+
+    /**
+     * 下游要求以后按 {@code newBufferSize} 切分 buffer，已经在写的 buffer 也会按新大小结束。
+     */
+    void notifyNewBufferSize(int newBufferSize);
+
+    /**
+     * 已经生产完成、还没被取走的 buffer 数，只用于指标，读到的值可能已经过时。
+     */
+    int getNumberOfQueuedBuffers();
+
+    /**
+     * 消费结束或连接断开时释放视图占用的资源。
+     */
+    void releaseAllResources();
+
+    boolean isReleased();
+}
@@ -0,0 +1,217 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BatchShuffleReadBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordSerializer;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * 批处理作业使用的排序合并结果分区。（在 Flink 源码中对应 SortMergeResultPartition）
+ *
+ * <p>和每个子分区一个文件的 {@link BoundedBlockingResultPartition} 不同，所有子分区的数据写进同一个文件：
+ * 记录先追加到一个大小固定的 {@link PartitionSortedBuffer}，写满时按子分区排好序，作为一个 region 写进数据文件，
+ * 同时在索引文件里记下每个子分区在这个 region 里的位置，见 {@link PartitionedFile}。
+ * 下游并行度再大，一个分区也只有一个数据文件和一个索引文件；写文件是整块的顺序写，不会在几千个小文件之间来回切换。
+ *
+ * <p>下游的读取由 {@link SortMergeResultPartitionReadScheduler} 在 {@code readIOExecutor} 里统一调度，
+ * 读 buffer 来自所有分区共享的 {@link BatchShuffleReadBufferPool}。
+ *
+ * <p>排序缓冲占用 {@code numSortBuffers} 个网络 buffer，spill 时还要一个写 buffer，
+ * 设置的 buffer 池至少要能给出 {@code numSortBuffers + 1} 个 buffer，否则生产者会一直阻塞。
+ * 比整个排序缓冲还大的记录不进排序缓冲，直接作为单独的 region 写进文件。
+ * 记录不会因为超时被 flush，也不支持优先事件。
+ */
+public class SortMergeResultPartition extends ResultPartition {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SortMergeResultPartition.class);
+
+    private final PartitionedFileWriter fileWriter;
+
+    private final PartitionSortedBuffer sortBuffer;
+
+    private final SortMergeResultPartitionReadScheduler readScheduler;
+
+    /** 只在生产者线程里使用：写大记录时序列化用 */
+    private final SpanningRecordSerializer serializer = new SpanningRecordSerializer();
+
+    /** spill 时从排序缓冲拷出数据、再写进文件的 buffer，第一次 spill 时申请 */
+    private ByteBuf writeBuffer;
+
+    /** 写完之前为 null */
+    private volatile PartitionedFile resultFile;
+
+    private volatile boolean isReleased;
+
+    public SortMergeResultPartition(ResultPartitionID partitionId,
+                                    int numberOfSubpartitions,
+                                    int networkBufferSize,
+                                    File tempDirectory,
+                                    int numSortBuffers,
+                                    BatchShuffleReadBufferPool readBufferPool,
+                                    Executor readIOExecutor) throws IOException {
+        super(partitionId, numberOfSubpartitions, networkBufferSize);
+        if (readBufferPool.getBufferSize() < networkBufferSize) {
+            throw new IllegalArgumentException("读 buffer 大小 " + readBufferPool.getBufferSize()
+                    + " 小于网络 buffer 大小 " + networkBufferSize);
+        }
+        this.sortBuffer = new PartitionSortedBuffer(this, numSortBuffers);
+        this.readScheduler = new SortMergeResultPartitionReadScheduler(readBufferPool, readIOExecutor);
+        this.fileWriter = new PartitionedFileWriter(numberOfSubpartitions,
+                new File(tempDirectory, partitionId.toString()).toPath());
+    }
+
+    @Override
+    public void emitRecord(ByteBuffer record, int targetSubpartition) throws IOException, InterruptedException {
+        checkSubpartitionIndex(targetSubpartition);
+        checkInProduceState();
+        if (sortBuffer.append(record, targetSubpartition)) {
+            return;
+        }
+        if (!sortBuffer.isEmpty()) {
+            flushSortBuffer();
+            if (sortBuffer.append(record, targetSubpartition)) {
+                return;
+            }
+        }
+        writeLargeRecord(record, targetSubpartition);
+    }
+
+    /**
+     * 每个子分区各写一份，排好序之后每份都落在各自子分区的连续区间里。
+     */
+    @Override
+    public void broadcastRecord(ByteBuffer record) throws IOException, InterruptedException {
+        for (int i = 0; i < numberOfSubpartitions; i++) {
+            emitRecord(record.duplicate(), i);
+        }
+    }
+
+    @Override
+    public void broadcastPriorityEvent(ByteBuffer event) {
+        throw new UnsupportedOperationException("排序合并分区不支持优先事件: " + this);
+    }
+
+    /**
+     * 数据在 {@link #finish()} 之前对下游不可见，flush 没有意义。
+     */
+    @Override
+    public void flush(int subpartitionIndex) {
+        checkSubpartitionIndex(subpartitionIndex);
+    }
+
+    @Override
+    public void flushAll() {
+    }
+
+    /**
+     * 把排序缓冲里的记录排好序写成一个新的 region。
+     */
+    private void flushSortBuffer() throws IOException, InterruptedException {
+        sortBuffer.finish();
+        ByteBuf buffer = requestWriteBuffer();
+        while (sortBuffer.hasRemaining()) {
+            buffer.clear();
+            int subpartitionIndex = sortBuffer.copyIntoBuffer(buffer);
+            fileWriter.writeBuffer(buffer, subpartitionIndex);
+        }
+        fileWriter.finishRegion();
+        sortBuffer.reset();
+    }
+
+    /**
+     * 放不进空排序缓冲的记录直接切成网络 buffer 大小，作为一个单独的 region 写进文件。
+     */
+    private void writeLargeRecord(ByteBuffer record, int targetSubpartition) throws IOException, InterruptedException {
+        ByteBuf buffer = requestWriteBuffer();
+        serializer.serializeRecord(record);
+        try {
+            while (serializer.hasSerializedData()) {
+                buffer.clear();
+                serializer.copyToBuffer(buffer, buffer.writableBytes());
+                fileWriter.writeBuffer(buffer, targetSubpartition);
+            }
+        } finally {
+            serializer.clear();
+        }
+        fileWriter.finishRegion();
+    }
+
+    private ByteBuf requestWriteBuffer() throws InterruptedException {
+        if (writeBuffer == null) {
+            writeBuffer = requestBuffer();
+        }
+        return writeBuffer;
+    }
+
+    /**
+     * 写出排序缓冲里剩下的记录，关闭文件，归还全部网络内存，之后下游才能读到数据。
+     */
+    @Override
+    public void finish() throws IOException {
+        checkInProduceState();
+        try {
+            if (!sortBuffer.isEmpty()) {
+                flushSortBuffer();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("写出排序缓冲时被中断: " + this, e);
+        }
+        releaseWriteBuffers();
+        resultFile = fileWriter.finish();
+        destroyBufferPool();
+        LOG.debug("{} 写入结束: {}", this, resultFile);
+        readScheduler.setPartitionedFile(resultFile);
+    }
+
+    private void checkInProduceState() {
+        if (isReleased) {
+            throw new IllegalStateException("分区已经被释放了: " + this);
+        }
+        if (resultFile != null) {
+            throw new IllegalStateException("分区已经结束写入了: " + this);
+        }
+    }
+
+    private void releaseWriteBuffers() {
+        sortBuffer.release();
+        if (writeBuffer != null) {
+            writeBuffer.release();
+            writeBuffer = null;
+        }
+    }
+
+    @Override
+    ResultSubpartitionView createSubpartitionView(int subpartitionIndex,
+                                                  BufferAvailabilityListener availabilityListener) {
+        checkSubpartitionIndex(subpartitionIndex);
+        return readScheduler.createSubpartitionReader(availabilityListener, subpartitionIndex);
+    }
+
+    /**
+     * 让所有读取器失败并删除文件。写完之前释放只在生产者已经停止写入时发生，例如任务失败，这时一并归还排序缓冲。
+     */
+    @Override
+    void release() {
+        if (isReleased) {
+            return;
+        }
+        isReleased = true;
+        readScheduler.release();
+        PartitionedFile file = resultFile;
+        if (file != null) {
+            file.deleteQuietly();
+        } else {
+            releaseWriteBuffers();
+            fileWriter.releaseQuietly();
+        }
+        destroyBufferPool();
+    }
+}
@@ -0,0 +1,275 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BatchShuffleReadBufferPool;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * 在服务端统一调度一个排序合并分区的所有读取器。（在 Flink 源码中对应 SortMergeResultPartitionReadScheduler）
+ *
+ * <p>每一轮在 IO 线程里：
+ * <ol>
+ *     <li>从 {@link BatchShuffleReadBufferPool} 非阻塞地取一批读 buffer，池用完时等有 buffer 被回收再开始下一轮；</li>
+ *     <li>把需要数据的读取器按下一次要读的文件位置排序，依次读出各自当前 region 里的数据，
+ *     磁盘上基本是从前往后的顺序读，而不是几千个下游各读各的随机读；</li>
+ *     <li>没用完的 buffer 还回池里，还有读取器需要数据时立即开始下一轮。</li>
+ * </ol>
+ * 读取器的预读队列有上限，读 buffer 池有上限，服务端读文件占用的内存因此是固定的。
+ * 一个分区无论有多少个下游，读的时候都只打开数据文件和索引文件各一次，所有读取器共享；最后一个读取器释放时关闭。
+ */
+final class SortMergeResultPartitionReadScheduler implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SortMergeResultPartitionReadScheduler.class);
+
+    private final BatchShuffleReadBufferPool bufferPool;
+
+    private final Executor ioExecutor;
+
+    /** 保护下面的字段 */
+    private final Object lock = new Object();
+
+    private final Set<SortMergeSubpartitionReader> allReaders = new HashSet<>();
+
+    /** 分区写完之前为 null，这时读取器只是登记下来，不读数据 */
+    private PartitionedFile partitionedFile;
+
+    private FileChannel dataFileChannel;
+
+    private FileChannel indexFileChannel;
+
+    /** 已经提交给 IO 线程、还没结束的一轮 */
+    private boolean isRunning;
+
+    /** 上一轮没拿到读 buffer，正在等池里有 buffer 被回收 */
+    private boolean isWaitingForBuffers;
+
+    private boolean isReleased;
+
+    SortMergeResultPartitionReadScheduler(BatchShuffleReadBufferPool bufferPool, Executor ioExecutor) {
+        this.bufferPool = bufferPool;
+        this.ioExecutor = ioExecutor;
+    }
+
+    SortMergeSubpartitionReader createSubpartitionReader(BufferAvailabilityListener availabilityListener,
+                                                         int subpartitionIndex) {
+        synchronized (lock) {
+            if (isReleased) {
+                throw new IllegalStateException("分区已经被释放了");
+            }
+            SortMergeSubpartitionReader reader =
+                    new SortMergeSubpartitionReader(this, availabilityListener, subpartitionIndex);
+            allReaders.add(reader);
+            mayTriggerReading();
+            return reader;
+        }
+    }
+
+    /**
+     * 分区写完了，开始为已经登记的读取器读数据。
+     */
+    void setPartitionedFile(PartitionedFile partitionedFile) {
+        synchronized (lock) {
+            this.partitionedFile = partitionedFile;
+            mayTriggerReading();
+        }
+    }
+
+    void notifyReaderNeedsData() {
+        synchronized (lock) {
+            mayTriggerReading();
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。没有正在进行的一轮、也没在等读 buffer 时，只要有读取器需要数据就提交新的一轮。
+     */
+    private void mayTriggerReading() {
+        if (isRunning || isWaitingForBuffers || isReleased || partitionedFile == null) {
+            return;
+        }
+        for (SortMergeSubpartitionReader reader : allReaders) {
+            if (reader.needsData()) {
+                isRunning = true;
+                ioExecutor.execute(this);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            readData();
+        } catch (Throwable t) {
+            LOG.error("读取排序合并分区的文件时出现意外错误", t);
+            failAllReaders(t);
+        } finally {
+            synchronized (lock) {
+                isRunning = false;
+                mayTriggerReading();
+            }
+        }
+    }
+
+    private void readData() {
+        List<SortMergeSubpartitionReader> readers = new ArrayList<>();
+        PartitionedFile file;
+        FileChannel dataChannel;
+        FileChannel indexChannel;
+        IOException openFailure = null;
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            for (SortMergeSubpartitionReader reader : allReaders) {
+                if (reader.needsData()) {
+                    readers.add(reader);
+                }
+            }
+            if (readers.isEmpty()) {
+                return;
+            }
+            try {
+                openFileChannels();
+            } catch (IOException e) {
+                closeFileChannels();
+                openFailure = e;
+            }
+            file = partitionedFile;
+            dataChannel = dataFileChannel;
+            indexChannel = indexFileChannel;
+        }
+        if (openFailure != null) {
+            IOException cause = openFailure;
+            readers.forEach(reader -> reader.fail(cause));
+            return;
+        }
+
+        PriorityQueue<SortMergeSubpartitionReader> readersByOffset =
+                new PriorityQueue<>(Comparator.comparingLong(SortMergeSubpartitionReader::getNextOffsetToRead));
+        int numBuffersToRead = 0;
+        for (SortMergeSubpartitionReader reader : readers) {
+            try {
+                reader.prepareFileReader(file, dataChannel, indexChannel);
+                if (reader.needsData()) {
+                    readersByOffset.add(reader);
+                    numBuffersToRead += reader.getNumberOfBuffersToRead();
+                }
+            } catch (Throwable t) {
+                reader.fail(t);
+            }
+        }
+        if (numBuffersToRead == 0) {
+            return;
+        }
+
+        Queue<MemorySegment> freeSegments = new ArrayDeque<>(bufferPool.requestBuffers(numBuffersToRead));
+        if (freeSegments.isEmpty()) {
+            synchronized (lock) {
+                isWaitingForBuffers = true;
+            }
+            bufferPool.getAvailableFuture().thenRun(this::onBuffersAvailable);
+            return;
+        }
+        try {
+            while (!freeSegments.isEmpty() && !readersByOffset.isEmpty()) {
+                SortMergeSubpartitionReader reader = readersByOffset.poll();
+                try {
+                    reader.readBuffers(freeSegments, bufferPool);
+                    // 读完当前 region 之后，按新的位置排回去
+                    if (reader.needsData()) {
+                        readersByOffset.add(reader);
+                    }
+                } catch (Throwable t) {
+                    reader.fail(t);
+                }
+            }
+        } finally {
+            bufferPool.recycle(freeSegments);
+        }
+    }
+
+    private void onBuffersAvailable() {
+        synchronized (lock) {
+            isWaitingForBuffers = false;
+            mayTriggerReading();
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。
+     */
+    private void openFileChannels() throws IOException {
+        if (dataFileChannel == null) {
+            dataFileChannel = FileChannel.open(partitionedFile.getDataFilePath(), StandardOpenOption.READ);
+        }
+        if (indexFileChannel == null) {
+            indexFileChannel = FileChannel.open(partitionedFile.getIndexFilePath(), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * 必须持有 {@code lock}。还在读的读取器会因为通道被关闭而失败，只在它们已经被释放时发生。
+     */
+    private void closeFileChannels() {
+        for (FileChannel channel : new FileChannel[]{dataFileChannel, indexFileChannel}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("关闭排序合并分区的文件通道失败", e);
+                }
+            }
+        }
+        dataFileChannel = null;
+        indexFileChannel = null;
+    }
+
+    void releaseSubpartitionReader(SortMergeSubpartitionReader reader) {
+        synchronized (lock) {
+            if (allReaders.remove(reader) && allReaders.isEmpty()) {
+                closeFileChannels();
+            }
+        }
+    }
+
+    private void failAllReaders(Throwable cause) {
+        List<SortMergeSubpartitionReader> readers;
+        synchronized (lock) {
+            readers = new ArrayList<>(allReaders);
+        }
+        readers.forEach(reader -> reader.fail(cause));
+    }
+
+    /**
+     * 分区被释放：所有读取器失败，关闭文件通道，之后不能再创建读取器。
+     */
+    void release() {
+        List<SortMergeSubpartitionReader> readers;
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            readers = new ArrayList<>(allReaders);
+            allReaders.clear();
+            closeFileChannels();
+        }
+        IllegalStateException cause = new IllegalStateException("分区已经被释放了");
+        readers.forEach(reader -> reader.fail(cause));
+    }
+}
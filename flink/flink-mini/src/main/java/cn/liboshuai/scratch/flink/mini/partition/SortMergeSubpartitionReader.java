@@ -0,0 +1,237 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BufferRecycler;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * {@link SortMergeResultPartition} 某个子分区的读取视图。（在 Flink 源码中对应 SortMergeSubpartitionReader）
+ *
+ * <p>视图自己不读文件：由 {@link SortMergeResultPartitionReadScheduler} 在 IO 线程里把数据读进读 buffer，
+ * 放进这里的队列，下游从队列里取。队列最多攒 {@link #MAX_BUFFERS_TO_READ_AHEAD} 个 buffer，
+ * 一个不读数据的下游因此占不满整个读 buffer 池；取走数据让队列从满变为不满时，再请调度器接着读。
+ */
+final class SortMergeSubpartitionReader implements ResultSubpartitionView {
+
+    /** 每个视图最多预读多少个 buffer */
+    static final int MAX_BUFFERS_TO_READ_AHEAD = 8;
+
+    private final SortMergeResultPartitionReadScheduler scheduler;
+
+    private final BufferAvailabilityListener availabilityListener;
+
+    private final int subpartitionIndex;
+
+    /** 只在 IO 线程里创建和使用 */
+    private PartitionedFileReader fileReader;
+
+    /** 保护下面的字段，IO 线程、网络线程和释放视图的线程都会访问 */
+    private final Object lock = new Object();
+
+    private final ArrayDeque<ByteBuf> buffersRead = new ArrayDeque<>();
+
+    /** 文件里还有没读出的数据，打开文件读取器之前不知道，视为还有 */
+    private boolean hasRemainingData = true;
+
+    private Throwable failureCause;
+
+    private boolean isReleased;
+
+    SortMergeSubpartitionReader(SortMergeResultPartitionReadScheduler scheduler,
+                                BufferAvailabilityListener availabilityListener,
+                                int subpartitionIndex) {
+        this.scheduler = scheduler;
+        this.availabilityListener = availabilityListener;
+        this.subpartitionIndex = subpartitionIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    //  由调度器在 IO 线程里调用
+    // ------------------------------------------------------------------------
+
+    void prepareFileReader(PartitionedFile partitionedFile, FileChannel dataFileChannel, FileChannel indexFileChannel)
+            throws IOException {
+        if (fileReader != null) {
+            return;
+        }
+        fileReader = new PartitionedFileReader(partitionedFile, subpartitionIndex, dataFileChannel, indexFileChannel);
+        synchronized (lock) {
+            hasRemainingData = fileReader.hasRemaining();
+        }
+    }
+
+    long getNextOffsetToRead() {
+        return fileReader.getNextOffsetToRead();
+    }
+
+    /**
+     * 队列还有空位、文件里还有数据。
+     */
+    boolean needsData() {
+        synchronized (lock) {
+            return !isReleased && failureCause == null && hasRemainingData
+                    && buffersRead.size() < MAX_BUFFERS_TO_READ_AHEAD;
+        }
+    }
+
+    int getNumberOfBuffersToRead() {
+        synchronized (lock) {
+            if (isReleased || failureCause != null) {
+                return 0;
+            }
+            return Math.min(MAX_BUFFERS_TO_READ_AHEAD - buffersRead.size(),
+                    fileReader.getRemainingBuffersInCurrentRegion());
+        }
+    }
+
+    /**
+     * 用 {@code freeSegments} 里的内存段读出当前 region 里的数据，最多读满预读队列。没用上的内存段留在 {@code freeSegments} 里。
+     */
+    void readBuffers(Queue<MemorySegment> freeSegments, BufferRecycler recycler) throws IOException {
+        int numBuffersToRead = getNumberOfBuffersToRead();
+        List<ByteBuf> readBuffers = new ArrayList<>(numBuffersToRead);
+        try {
+            while (readBuffers.size() < numBuffersToRead && !freeSegments.isEmpty()) {
+                MemorySegment segment = freeSegments.poll();
+                try {
+                    readBuffers.add(fileReader.readBuffer(segment, recycler));
+                } catch (Throwable t) {
+                    freeSegments.add(segment);
+                    throw t;
+                }
+            }
+        } catch (Throwable t) {
+            readBuffers.forEach(ByteBuf::release);
+            throw t;
+        }
+
+        boolean notify;
+        synchronized (lock) {
+            notify = !isReleased && failureCause == null;
+            if (notify) {
+                notify = buffersRead.isEmpty() && !readBuffers.isEmpty();
+                buffersRead.addAll(readBuffers);
+                readBuffers.clear();
+                hasRemainingData = fileReader.hasRemaining();
+            }
+        }
+        // 视图已经被释放或者失败了
+        readBuffers.forEach(ByteBuf::release);
+        if (notify) {
+            availabilityListener.notifyDataAvailable();
+        }
+    }
+
+    /**
+     * 读文件失败或者分区被释放：丢掉已经读出的数据，下游下一次取数据时收到这个异常。
+     */
+    void fail(Throwable cause) {
+        List<ByteBuf> toRelease;
+        synchronized (lock) {
+            if (isReleased || failureCause != null) {
+                return;
+            }
+            failureCause = cause;
+            toRelease = pollAllBuffersRead();
+        }
+        toRelease.forEach(ByteBuf::release);
+        availabilityListener.notifyDataAvailable();
+    }
+
+    // ------------------------------------------------------------------------
+    //  ResultSubpartitionView
+    // ------------------------------------------------------------------------
+
+    @Override
+    public BufferAndBacklog getNextBuffer() throws IOException {
+        ByteBuf buffer;
+        int backlog;
+        boolean readMore;
+        synchronized (lock) {
+            if (failureCause != null) {
+                throw new IOException("读取排序合并分区的子分区 " + subpartitionIndex + " 失败", failureCause);
+            }
+            if (isReleased) {
+                return null;
+            }
+            readMore = hasRemainingData && buffersRead.size() == MAX_BUFFERS_TO_READ_AHEAD;
+            buffer = buffersRead.poll();
+            if (buffer == null) {
+                return null;
+            }
+            backlog = buffersRead.size();
+        }
+        if (readMore) {
+            scheduler.notifyReaderNeedsData();
+        }
+        return new BufferAndBacklog(buffer, backlog);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        synchronized (lock) {
+            return failureCause != null || !buffersRead.isEmpty();
+        }
+    }
+
+    @Override
+    public boolean hasPriorityEvent() {
+        return false;
+    }
+
+    /**
+     * 数据已经按生产时的大小切好写进了文件，不再调整。
+     */
+    @Override
+    public void notifyNewBufferSize(int newBufferSize) {
+    }
+
+    @Override
+    public int getNumberOfQueuedBuffers() {
+        synchronized (lock) {
+            return buffersRead.size();
+        }
+    }
+
+    @Override
+    public void releaseAllResources() {
+        List<ByteBuf> toRelease;
+        synchronized (lock) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            toRelease = pollAllBuffersRead();
+        }
+        toRelease.forEach(ByteBuf::release);
+        scheduler.releaseSubpartitionReader(this);
+    }
+
+    /**
+     * 必须持有 {@code lock}。取出的 buffer 要在锁外释放：回收读 buffer 可能触发调度器开始新的一轮，而调度器会反过来查询视图的状态。
+     */
+    private List<ByteBuf> pollAllBuffersRead() {
+        List<ByteBuf> buffers = new ArrayList<>(buffersRead);
+        buffersRead.clear();
+        return buffers;
+    }
+
+    @Override
+    public boolean isReleased() {
+        synchronized (lock) {
+            return isReleased;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SortMergeSubpartitionReader(子分区 " + subpartitionIndex + ")";
+    }
+}
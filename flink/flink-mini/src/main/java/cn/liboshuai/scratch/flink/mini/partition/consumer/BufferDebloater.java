@@ -0,0 +1,86 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import java.util.OptionalInt;
+
+/**
+ * 根据实测吞吐量计算上游应该使用的 buffer 大小（在 Flink 源码中对应 BufferDebloater）。
+ *
+ * <p>目标是让在途的数据恰好够消费 {@code targetTotalBufferLifetimeMillis} 毫秒：
+ * <pre>
+ *     buffer 大小 = 吞吐量 × 目标时间 / 在途 buffer 数
+ * </pre>
+ * 算出的值先做指数移动平均，避免吞吐量的瞬时波动让 buffer 大小来回跳动，再限制在
+ * {@code [minBufferSize, maxBufferSize]} 之间；和上次通知的大小相差不到 {@code thresholdPercentages}%
+ * 时不通知上游，省掉没有意义的消息。
+ *
+ * <p>只在 debloating 定时线程中调用，不是线程安全的。
+ */
+class BufferDebloater {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private final long targetTotalBufferLifetimeMillis;
+
+    private final int maxBufferSize;
+
+    private final int minBufferSize;
+
+    private final int thresholdPercentages;
+
+    /** 指数移动平均的权重，取 2 / (样本数 + 1) */
+    private final double alpha;
+
+    private double averageBufferSize;
+
+    private int lastBufferSize;
+
+    BufferDebloater(long targetTotalBufferLifetimeMillis,
+                    int maxBufferSize,
+                    int minBufferSize,
+                    int thresholdPercentages,
+                    int numberOfSamples) {
+        if (targetTotalBufferLifetimeMillis <= 0) {
+            throw new IllegalArgumentException("目标时间必须为正数: " + targetTotalBufferLifetimeMillis);
+        }
+        if (minBufferSize <= 0 || minBufferSize > maxBufferSize) {
+            throw new IllegalArgumentException(String.format(
+                    "buffer 大小的范围不合法: 最小 %d，最大 %d", minBufferSize, maxBufferSize));
+        }
+        if (numberOfSamples <= 0) {
+            throw new IllegalArgumentException("样本数必须为正数: " + numberOfSamples);
+        }
+        this.targetTotalBufferLifetimeMillis = targetTotalBufferLifetimeMillis;
+        this.maxBufferSize = maxBufferSize;
+        this.minBufferSize = minBufferSize;
+        this.thresholdPercentages = thresholdPercentages;
+        this.alpha = 2.0 / (numberOfSamples + 1);
+        // 一开始按最大的 buffer 发送，和不开启 debloating 时一致
+        this.averageBufferSize = maxBufferSize;
+        this.lastBufferSize = maxBufferSize;
+    }
+
+    /**
+     * @param currentThroughput 最近一段时间的吞吐量（字节/秒）
+     * @param buffersInUse      当前在途的 buffer 数，也就是下游给出去的 credit 总数
+     * @return 需要通知上游的新 buffer 大小；变化不大时返回空
+     */
+    OptionalInt recalculateBufferSize(long currentThroughput, int buffersInUse) {
+        long desiredTotalBufferSize = currentThroughput * targetTotalBufferLifetimeMillis / MILLIS_PER_SECOND;
+        double desiredBufferSize = (double) desiredTotalBufferSize / Math.max(1, buffersInUse);
+
+        averageBufferSize += alpha * (desiredBufferSize - averageBufferSize);
+        averageBufferSize = Math.max(minBufferSize, Math.min(maxBufferSize, averageBufferSize));
+        int newBufferSize = (int) Math.round(averageBufferSize);
+
+        if (newBufferSize == lastBufferSize
+                || Math.abs(newBufferSize - lastBufferSize) * 100L < (long) thresholdPercentages * lastBufferSize) {
+            return OptionalInt.empty();
+        }
+        lastBufferSize = newBufferSize;
+        return OptionalInt.of(newBufferSize);
+    }
+
+    int getLastBufferSize() {
+        return lastBufferSize;
+    }
+}
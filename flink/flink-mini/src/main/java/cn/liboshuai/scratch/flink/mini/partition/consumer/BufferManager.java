@@ -0,0 +1,200 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BufferListener;
+import cn.liboshuai.scratch.flink.mini.buffer.BufferRecycler;
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个 {@link RemoteInputChannel} 用来接收数据的 buffer（在 Flink 源码中对应 BufferManager）。
+ *
+ * <p>buffer 分两种：
+ * <ul>
+ *     <li>独占 buffer：setup 时从 {@link NetworkBufferPool} 取走，只属于这个通道，用完回收到这里；</li>
+ *     <li>浮动 buffer：从所属 InputGate 的 {@link LocalBufferPool} 借来，用完直接还回池里给其它通道用。</li>
+ * </ul>
+ * 每有一个 buffer 变为可用（独占 buffer 被回收、借到浮动 buffer），通道就多一个 credit 可以告诉服务端，
+ * 因此服务端发来的 BufferResponse 永远有地方放。
+ *
+ * <p>浮动 buffer 按服务端的积压数借：{@link #requestFloatingBuffers(int)} 设定需要的可用 buffer 数，
+ * 浮动池不够时登记为监听者，之后被回收的浮动 buffer 会一直交给我们，直到可用 buffer 数达标。
+ *
+ * <p>{@link #requestBuffer()} 在 EventLoop 中调用，回收和浮动 buffer 的通知可能来自任意线程。
+ */
+class BufferManager implements BufferRecycler, BufferListener {
+
+    private final NetworkBufferPool globalPool;
+
+    private final LocalBufferPool floatingBufferPool;
+
+    private final RemoteInputChannel inputChannel;
+
+    /** 空闲的独占内存段，同时作为本类所有状态的锁 */
+    private final ArrayDeque<MemorySegment> exclusiveSegments = new ArrayDeque<>();
+
+    /** 已经借到但还没用的浮动 buffer */
+    private final ArrayDeque<NetworkBuffer> floatingBuffers = new ArrayDeque<>();
+
+    /** 是否已经在浮动 buffer 池上登记等待 */
+    private boolean isWaitingForFloatingBuffers;
+
+    /** 根据服务端积压数算出的、希望随时可用的 buffer 数 */
+    private int numRequiredBuffers;
+
+    private boolean isReleased;
+
+    BufferManager(NetworkBufferPool globalPool, LocalBufferPool floatingBufferPool, RemoteInputChannel inputChannel) {
+        this.globalPool = globalPool;
+        this.floatingBufferPool = floatingBufferPool;
+        this.inputChannel = inputChannel;
+    }
+
+    /**
+     * 从全局池中取走 {@code numExclusiveBuffers} 个独占内存段。
+     */
+    void requestExclusiveBuffers(int numExclusiveBuffers) throws IOException {
+        List<MemorySegment> segments = globalPool.requestMemorySegments(numExclusiveBuffers);
+        synchronized (exclusiveSegments) {
+            if (isReleased) {
+                globalPool.recycleMemorySegments(segments);
+                throw new IllegalStateException("通道已经被释放: " + inputChannel);
+            }
+            exclusiveSegments.addAll(segments);
+        }
+    }
+
+    /**
+     * 取一个空闲的 buffer 用来接收数据，优先用浮动 buffer，让它们尽快回到池里。
+     *
+     * @return 空闲的 buffer；没有时返回 {@code null}
+     */
+    NetworkBuffer requestBuffer() {
+        synchronized (exclusiveSegments) {
+            if (isReleased) {
+                return null;
+            }
+            NetworkBuffer buffer = floatingBuffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            MemorySegment segment = exclusiveSegments.poll();
+            return segment == null ? null : new NetworkBuffer(segment, this);
+        }
+    }
+
+    /**
+     * 把可用 buffer 补到 {@code numRequired} 个，不够的部分向浮动池借。
+     *
+     * @return 这次借到的浮动 buffer 数，每个都是一个新的 credit
+     */
+    int requestFloatingBuffers(int numRequired) {
+        if (floatingBufferPool == null) {
+            return 0;
+        }
+        int numRequestedBuffers = 0;
+        synchronized (exclusiveSegments) {
+            if (isReleased) {
+                return 0;
+            }
+            numRequiredBuffers = numRequired;
+            // 已经在等浮动池了，后续回收的 buffer 会按新的需求数交给我们
+            while (!isWaitingForFloatingBuffers && getNumberOfAvailableBuffers() < numRequiredBuffers) {
+                NetworkBuffer buffer = floatingBufferPool.requestBuffer();
+                if (buffer != null) {
+                    floatingBuffers.add(buffer);
+                    numRequestedBuffers++;
+                } else if (floatingBufferPool.addBufferListener(this)) {
+                    isWaitingForFloatingBuffers = true;
+                }
+            }
+        }
+        return numRequestedBuffers;
+    }
+
+    /**
+     * 独占 buffer 的引用计数归零，内存段回到通道。
+     */
+    @Override
+    public void recycle(MemorySegment memorySegment) {
+        synchronized (exclusiveSegments) {
+            if (isReleased) {
+                globalPool.recycleMemorySegments(Collections.singletonList(memorySegment));
+                return;
+            }
+            exclusiveSegments.add(memorySegment);
+        }
+        inputChannel.notifyBufferAvailable(1);
+    }
+
+    /**
+     * 浮动 buffer 池把一个被回收的 buffer 交给了我们。
+     */
+    @Override
+    public boolean notifyBufferAvailable(NetworkBuffer buffer) {
+        boolean needMoreBuffers;
+        synchronized (exclusiveSegments) {
+            isWaitingForFloatingBuffers = false;
+            if (isReleased) {
+                needMoreBuffers = false;
+            } else {
+                floatingBuffers.add(buffer);
+                buffer = null;
+                // 还没达到积压需要的数量就继续留在池的等待队列里，由池重新登记
+                needMoreBuffers = getNumberOfAvailableBuffers() < numRequiredBuffers;
+                isWaitingForFloatingBuffers = needMoreBuffers;
+            }
+        }
+        if (buffer != null) {
+            buffer.release();
+        } else {
+            inputChannel.notifyBufferAvailable(1);
+        }
+        return needMoreBuffers;
+    }
+
+    @Override
+    public void notifyBufferDestroyed() {
+        synchronized (exclusiveSegments) {
+            isWaitingForFloatingBuffers = false;
+        }
+    }
+
+    int getNumberOfAvailableBuffers() {
+        synchronized (exclusiveSegments) {
+            return exclusiveSegments.size() + floatingBuffers.size();
+        }
+    }
+
+    /**
+     * 通道释放时调用：空闲的独占内存段还给全局池，浮动 buffer 还给浮动池；
+     * 还在使用中的独占 buffer 回收时会直接回到全局池。
+     */
+    void releaseAllBuffers() {
+        List<MemorySegment> segments;
+        List<NetworkBuffer> buffers;
+        synchronized (exclusiveSegments) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+            segments = new ArrayList<>(exclusiveSegments);
+            exclusiveSegments.clear();
+            buffers = new ArrayList<>(floatingBuffers);
+            floatingBuffers.clear();
+        }
+        if (!segments.isEmpty()) {
+            globalPool.recycleMemorySegments(segments);
+        }
+        for (NetworkBuffer buffer : buffers) {
+            buffer.release();
+        }
+    }
+}
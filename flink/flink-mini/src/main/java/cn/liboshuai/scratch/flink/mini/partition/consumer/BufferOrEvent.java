@@ -0,0 +1,51 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 任务线程从 {@link InputGate} 取出的一个数据 buffer 或优先事件，以及它来自哪个通道。
+ * （在 Flink 源码中对应 BufferOrEvent）
+ *
+ * <p>buffer 的所有权交给取出它的任务线程，处理完必须 release：数据 buffer 释放后才会变回上游的 credit
+ * （本地通道则是回到生产者的 buffer 池）。
+ */
+public final class BufferOrEvent {
+
+    private final ByteBuf buffer;
+
+    private final DataType dataType;
+
+    private final InputChannel channel;
+
+    BufferOrEvent(ByteBuf buffer, DataType dataType, InputChannel channel) {
+        this.buffer = buffer;
+        this.dataType = dataType;
+        this.channel = channel;
+    }
+
+    public ByteBuf getBuffer() {
+        return buffer;
+    }
+
+    public InputChannel getChannel() {
+        return channel;
+    }
+
+    public boolean isBuffer() {
+        return dataType.isBuffer();
+    }
+
+    public boolean isEvent() {
+        return dataType.isEvent();
+    }
+
+    public boolean hasPriority() {
+        return dataType.hasPriority();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferOrEvent{" + dataType + ", size=" + buffer.readableBytes() + ", channel=" + channel + '}';
+    }
+}
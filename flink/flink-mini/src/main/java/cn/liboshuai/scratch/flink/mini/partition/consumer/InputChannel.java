@@ -0,0 +1,181 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.util.SpscLinkedQueue;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * 消费者端读取一个子分区的通道。（在 Flink 源码中对应 InputChannel）
+ *
+ * <p>上游在另一个进程时用 {@link RemoteInputChannel} 经网络读取，在同一个进程时用 {@link LocalInputChannel}
+ * 直接从子分区的队列里取 buffer。两者都按序把收到的 buffer 交给 {@link #onBufferReceived}，
+ * 这里只把 buffer 放进通道自己的接收队列，由任务线程通过 {@link SingleInputGate#getNext()} 取走并消费。
+ *
+ * <p>接收队列是单生产者单消费者的无锁队列：放入的一方是远程通道所在连接的 EventLoop 或本地通道的取数据线程，
+ * 取出的一方是任务线程。数据 buffer 放入后不立即通知 gate，而是由调用方攒过一批（一轮 Socket 读取、一轮本地取数据）
+ * 之后调用一次 {@link #notifyChannelNonEmpty()}，任务线程的唤醒次数与 buffer 数无关。
+ *
+ * <p>优先事件在子分区里已经越过了排队的数据，收到后放进单独的队列并立即通知 gate，
+ * gate 把通道排到队首，任务线程下一次取数据时先取到事件。
+ */
+public abstract class InputChannel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InputChannel.class);
+
+    protected final SingleInputGate inputGate;
+
+    protected final ResultPartitionID partitionId;
+
+    protected final int subpartitionIndex;
+
+    /** 收到的数据 buffer，等待任务线程取走 */
+    private final SpscLinkedQueue<ByteBuf> receivedBuffers = new SpscLinkedQueue<>();
+
+    /** 收到的优先事件，任务线程先于数据 buffer 取走 */
+    private final SpscLinkedQueue<ByteBuf> priorityEvents = new SpscLinkedQueue<>();
+
+    /** 是否在 gate 的有数据通道队列里，受 gate 的锁保护 */
+    boolean isQueuedInGate;
+
+    /** 是否因为优先事件被排在 gate 队列的队首，受 gate 的锁保护 */
+    boolean isPriorityQueuedInGate;
+
+    private volatile boolean isReleased;
+
+    private volatile Throwable cause;
+
+    protected InputChannel(SingleInputGate inputGate, ResultPartitionID partitionId, int subpartitionIndex) {
+        this.inputGate = inputGate;
+        this.partitionId = partitionId;
+        this.subpartitionIndex = subpartitionIndex;
+    }
+
+    /**
+     * 分配通道需要的资源，由 {@link SingleInputGate#setup()} 调用。
+     */
+    abstract void setup() throws IOException;
+
+    /**
+     * 向上游请求子分区，之后数据开始流入。
+     */
+    public abstract void requestSubpartition() throws IOException, InterruptedException;
+
+    /**
+     * 在途的 buffer 数，debloating 线程用它估算在途数据量。
+     */
+    abstract int getBuffersInUseCount();
+
+    /**
+     * 通知上游以后按 {@code newBufferSize} 切分发给这个通道的 buffer，由 debloating 线程调用。
+     */
+    abstract void announceBufferSize(int newBufferSize);
+
+    public abstract void releaseAllResources();
+
+    /**
+     * 按序收到一个 buffer，放进接收队列等待任务线程取走，buffer 的所有权转移给通道。
+     * 优先事件会立即通知 gate；数据 buffer 不通知，由调用方随后调用 {@link #notifyChannelNonEmpty()}。
+     *
+     * @return 是否放入了数据 buffer，即调用方是否需要通知 gate
+     */
+    protected boolean onBufferReceived(ByteBuf buffer, DataType dataType) {
+        if (dataType.isEvent()) {
+            enqueue(priorityEvents, buffer);
+            inputGate.notifyPriorityEvent(this);
+            return false;
+        }
+        ThroughputCalculator throughputCalculator = inputGate.getThroughputCalculator();
+        if (throughputCalculator != null) {
+            throughputCalculator.incomingDataSize(buffer.readableBytes());
+        }
+        enqueue(receivedBuffers, buffer);
+        return true;
+    }
+
+    private void enqueue(SpscLinkedQueue<ByteBuf> queue, ByteBuf buffer) {
+        queue.offer(buffer);
+        // 与 releaseQueuedBuffers 并发时 buffer 可能晚于清空放进来，这里负责把它释放掉
+        if (isReleased) {
+            releaseQueuedBuffers();
+        }
+    }
+
+    /**
+     * 通知 gate 这个通道有数据了。
+     */
+    void notifyChannelNonEmpty() {
+        inputGate.notifyChannelNonEmpty(this);
+    }
+
+    /**
+     * 取出下一个优先事件，只在任务线程中调用。
+     */
+    ByteBuf pollPriorityEvent() {
+        return priorityEvents.poll();
+    }
+
+    /**
+     * 取出下一个数据 buffer，只在任务线程中调用。
+     */
+    ByteBuf pollBuffer() {
+        return receivedBuffers.poll();
+    }
+
+    boolean hasPriorityEvent() {
+        return !priorityEvents.isEmpty();
+    }
+
+    boolean hasQueuedData() {
+        return !receivedBuffers.isEmpty() || !priorityEvents.isEmpty();
+    }
+
+    boolean isReleased() {
+        return isReleased;
+    }
+
+    /**
+     * 标记通道已释放，并释放接收队列里还没被取走的 buffer，由子类的 {@link #releaseAllResources()} 调用。
+     * 之后再收到的 buffer 会被直接释放。
+     */
+    protected void releaseQueuedBuffers() {
+        isReleased = true;
+        // 清空时充当队列的消费者，与收数据线程里的清空互斥
+        synchronized (receivedBuffers) {
+            ByteBuf buffer;
+            while ((buffer = priorityEvents.poll()) != null) {
+                buffer.release();
+            }
+            while ((buffer = receivedBuffers.poll()) != null) {
+                buffer.release();
+            }
+        }
+    }
+
+    /**
+     * 通道出错时抛出异常，由任务线程在取数据前调用。
+     */
+    void checkError() throws IOException {
+        Throwable t = cause;
+        if (t != null) {
+            throw t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    public void onError(Throwable cause) {
+        if (this.cause == null) {
+            this.cause = cause;
+            LOG.error("{} 出错", this, cause);
+            // 唤醒任务线程，让它在取这个通道的数据时看到错误
+            inputGate.notifyChannelNonEmpty(this);
+        }
+    }
+
+    public Throwable getFailureCause() {
+        return cause;
+    }
+}
@@ -0,0 +1,33 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.netty.ConnectionID;
+import cn.liboshuai.scratch.flink.mini.netty.NettyConnectionManager;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+
+/**
+ * 按上游分区所在的位置创建通道：分区注册在本进程的 {@link ResultPartitionManager} 里时创建 {@link LocalInputChannel}，
+ * 否则创建经网络读取的 {@link RemoteInputChannel}。（在 Flink 源码中对应 SingleInputGateFactory#createInputChannel）
+ */
+public class InputChannelFactory {
+
+    private final NettyConnectionManager connectionManager;
+
+    /** 本进程的分区，为 null 时总是创建远程通道 */
+    private final ResultPartitionManager localPartitionManager;
+
+    public InputChannelFactory(NettyConnectionManager connectionManager, ResultPartitionManager localPartitionManager) {
+        this.connectionManager = connectionManager;
+        this.localPartitionManager = localPartitionManager;
+    }
+
+    public InputChannel createInputChannel(SingleInputGate inputGate,
+                                           ResultPartitionID partitionId,
+                                           int subpartitionIndex,
+                                           ConnectionID connectionId) {
+        if (localPartitionManager != null && localPartitionManager.isRegistered(partitionId)) {
+            return new LocalInputChannel(inputGate, partitionId, subpartitionIndex, localPartitionManager);
+        }
+        return new RemoteInputChannel(inputGate, partitionId, subpartitionIndex, connectionId, connectionManager);
+    }
+}
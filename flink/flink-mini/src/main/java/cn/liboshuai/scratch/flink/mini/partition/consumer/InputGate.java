@@ -0,0 +1,69 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.io.AvailabilityProvider;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 消费者任务读取上游数据的入口。（在 Flink 源码中对应 InputGate）
+ *
+ * <p>网络线程和本地生产者只负责把收到的 buffer 放进各个通道的队列，真正的消费（反序列化、处理记录）
+ * 发生在任务线程中，处理得慢只会反压自己的上游，不会拖住 EventLoop 上的其它连接。
+ *
+ * <p>任务线程可以用不阻塞的 {@link #pollNext()} 取数据，取不到时通过 {@link #getAvailableFuture()} 等待，
+ * 这样一个线程可以同时等待多个 gate（见 {@link UnionInputGate}）；也可以直接调用阻塞的 {@link #getNext()}。
+ */
+public abstract class InputGate implements AvailabilityProvider {
+
+    protected final AvailabilityHelper availabilityHelper = new AvailabilityHelper();
+
+    public abstract int getNumberOfInputChannels();
+
+    /**
+     * gate 是否已经结束，结束后不会再有数据。
+     */
+    public abstract boolean isFinished();
+
+    /**
+     * 取出下一个 buffer 或事件，没有数据时立即返回空。只能由一个任务线程调用。
+     *
+     * @throws IOException 某个通道出错了
+     */
+    public abstract Optional<BufferOrEvent> pollNext() throws IOException;
+
+    /**
+     * 取出下一个 buffer 或事件，没有数据时阻塞等待。只能由一个任务线程调用。
+     *
+     * @return 下一个 buffer 或事件；gate 已经结束时返回空
+     * @throws IOException 某个通道出错了
+     */
+    public Optional<BufferOrEvent> getNext() throws IOException, InterruptedException {
+        while (true) {
+            Optional<BufferOrEvent> next = pollNext();
+            if (next.isPresent() || isFinished()) {
+                return next;
+            }
+            try {
+                getAvailableFuture().get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * 没有数据时返回的 future 会在有通道收到数据、或者 gate 结束时完成。
+     */
+    @Override
+    public CompletableFuture<?> getAvailableFuture() {
+        return availabilityHelper.getAvailableFuture();
+    }
+
+    /**
+     * 释放所有通道和网络内存。必须在任务线程中调用，或者在任务线程不再取数据之后调用。
+     */
+    public abstract void close();
+}
@@ -0,0 +1,178 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.partition.BufferAndBacklog;
+import cn.liboshuai.scratch.flink.mini.partition.BufferAvailabilityListener;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionProvider;
+import cn.liboshuai.scratch.flink.mini.partition.ResultSubpartitionView;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读取同一进程内子分区的通道：直接从子分区的队列里按引用取走生产者写好的 buffer，
+ * 不经过编码、Socket 和解码，也没有任何拷贝。（在 Flink 源码中对应 LocalInputChannel）
+ *
+ * <p>取到的就是生产者 buffer 池里的 buffer，消费完释放后才回到生产者手里。和远程通道的 credit 一样，
+ * 接收队列里最多放 {@code networkBuffersPerChannel} 个数据 buffer，其余的留在子分区里：
+ * 消费跟不上时数据积压在生产者一侧，生产者因为 buffer 池用完而阻塞，在途数据量与远程通道相同。
+ * 优先事件不受这个限制。
+ *
+ * <p>子分区有数据时在通知线程（生产者或 OutputFlusher）中从子分区取数据，放进通道的接收队列，
+ * 取完一轮才通知 gate 一次；接收队列满了就停下，等任务线程取走一个 buffer 让队列从满变为不满时，
+ * 再由任务线程接着取。多个线程同时通知时只有一个线程在取数据，其余通知会让它多取一轮，
+ * 因此 buffer 总是按序、单线程地交出，接收队列始终只有一个生产者。
+ */
+public class LocalInputChannel extends InputChannel implements BufferAvailabilityListener {
+
+    private final ResultPartitionProvider partitionProvider;
+
+    private volatile ResultSubpartitionView subpartitionView;
+
+    /** 还没处理的通知数，不为 0 说明已经有线程在取数据 */
+    private final AtomicInteger pendingNotifications = new AtomicInteger();
+
+    /** 接收队列里的数据 buffer 数，放入之前加一，任务线程取走之后减一 */
+    private final AtomicInteger numQueuedBuffers = new AtomicInteger();
+
+    /** 接收队列里最多放多少个数据 buffer，相当于远程通道的初始 credit */
+    private int maxQueuedBuffers;
+
+    public LocalInputChannel(SingleInputGate inputGate,
+                             ResultPartitionID partitionId,
+                             int subpartitionIndex,
+                             ResultPartitionProvider partitionProvider) {
+        super(inputGate, partitionId, subpartitionIndex);
+        this.partitionProvider = partitionProvider;
+    }
+
+    /**
+     * 本地通道直接使用生产者的 buffer，不需要分配独占 buffer，只按独占 buffer 数限制接收队列的长度。
+     */
+    @Override
+    void setup() {
+        maxQueuedBuffers = inputGate.getNetworkBuffersPerChannel();
+    }
+
+    @Override
+    public void requestSubpartition() throws IOException {
+        if (subpartitionView != null) {
+            throw new IllegalStateException("已经请求过子分区了: " + this);
+        }
+        subpartitionView = partitionProvider.createSubpartitionView(partitionId, subpartitionIndex, this);
+        // 创建视图时子分区里可能已经有数据，那次通知发生在视图赋值之前，这里补一次
+        notifyDataAvailable();
+    }
+
+    @Override
+    public void notifyDataAvailable() {
+        if (pendingNotifications.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            drainSubpartition();
+            missed = pendingNotifications.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drainSubpartition() {
+        ResultSubpartitionView view = subpartitionView;
+        if (view == null || isReleased() || getFailureCause() != null) {
+            return;
+        }
+        boolean receivedData = false;
+        try {
+            BufferAndBacklog next;
+            while (!isReleased() && (numQueuedBuffers.get() < maxQueuedBuffers || view.hasPriorityEvent())
+                    && (next = view.getNextBuffer()) != null) {
+                if (!next.dataType().isEvent()) {
+                    // 先占位再放入，计数因此不会小于队列里实际的 buffer 数
+                    numQueuedBuffers.incrementAndGet();
+                }
+                receivedData |= onBufferReceived(toMemoryBuffer(next), next.dataType());
+            }
+        } catch (Throwable t) {
+            // 不能把异常抛给生产者线程
+            onError(t);
+        } finally {
+            if (receivedData) {
+                notifyChannelNonEmpty();
+            }
+        }
+    }
+
+    /**
+     * 文件区间只能被网络层直接发送，本地通道需要先把它读进内存。
+     */
+    private static ByteBuf toMemoryBuffer(BufferAndBacklog next) throws IOException {
+        if (!next.isFileRegion()) {
+            return next.buffer();
+        }
+        FileRegionBuffer fileRegion = next.fileRegion();
+        ByteBuf buffer = Unpooled.directBuffer(fileRegion.getSize(), fileRegion.getSize());
+        try {
+            fileRegion.readInto(buffer);
+            return buffer;
+        } catch (Throwable t) {
+            buffer.release();
+            throw t;
+        } finally {
+            fileRegion.release();
+        }
+    }
+
+    /**
+     * 任务线程取走一个 buffer。接收队列因此从满变为不满时，由任务线程接着从子分区取数据。
+     */
+    @Override
+    ByteBuf pollBuffer() {
+        ByteBuf buffer = super.pollBuffer();
+        if (buffer != null && numQueuedBuffers.getAndDecrement() == maxQueuedBuffers) {
+            notifyDataAvailable();
+        }
+        return buffer;
+    }
+
+    /**
+     * 接收队列里等待任务线程取走的数据 buffer 数，不超过独占 buffer 数。
+     */
+    int getNumberOfQueuedBuffers() {
+        return numQueuedBuffers.get();
+    }
+
+    /**
+     * 在途的 buffer 数：接收队列里的，加上子分区里还没被取走的。
+     */
+    @Override
+    int getBuffersInUseCount() {
+        ResultSubpartitionView view = subpartitionView;
+        return getNumberOfQueuedBuffers() + (view == null ? 0 : view.getNumberOfQueuedBuffers());
+    }
+
+    @Override
+    void announceBufferSize(int newBufferSize) {
+        ResultSubpartitionView view = subpartitionView;
+        if (view != null && !isReleased()) {
+            view.notifyNewBufferSize(newBufferSize);
+        }
+    }
+
+    @Override
+    public void releaseAllResources() {
+        releaseQueuedBuffers();
+        ResultSubpartitionView view = subpartitionView;
+        if (view != null) {
+            view.releaseAllResources();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LocalInputChannel{partition=" + partitionId + ", subpartition=" + subpartitionIndex + '}';
+    }
+}
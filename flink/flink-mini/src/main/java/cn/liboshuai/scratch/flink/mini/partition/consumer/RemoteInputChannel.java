@@ -0,0 +1,242 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.netty.ConnectionID;
+import cn.liboshuai.scratch.flink.mini.netty.InputChannelID;
+import cn.liboshuai.scratch.flink.mini.netty.NettyConnectionManager;
+import cn.liboshuai.scratch.flink.mini.netty.NettyPartitionRequestClient;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import cn.liboshuai.scratch.flink.mini.metrics.Counter;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricGroup;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消费者端读取一个远端子分区的通道。多个 RemoteInputChannel 可以复用同一条 TCP 连接，
+ * 由 {@link InputChannelID} 区分各自的数据。
+ * （在 Flink 源码中对应 RemoteInputChannel）
+ *
+ * <p>接收数据的 buffer 全部来自 {@link BufferManager}：初始 credit 就是独占 buffer 的数量，
+ * 之后每当有 buffer 被回收或借到浮动 buffer，就多出一个 credit 通知服务端。
+ *
+ * <p>每个 BufferResponse 都带着服务端子分区的积压数，通道据此提前借好浮动 buffer，
+ * 让可用 buffer 数保持在“积压数 + 独占数”，在现有 credit 用完之前就把新的 credit 发出去，
+ * 高延迟链路上不会每用完一轮 credit 就停下来等一个往返。
+ *
+ * <p>通道的指标包括收到的字节数和 buffer 数、可用 buffer 数（已经作为 credit 给了服务端、还没被数据占用的部分）、
+ * 尚未通知服务端的 credit 以及最近一次收到的服务端积压数，由所在连接的处理器注册到 JMX。
+ */
+public class RemoteInputChannel extends InputChannel {
+
+    private final InputChannelID inputChannelId = new InputChannelID();
+
+    private final ConnectionID connectionId;
+
+    private final NettyConnectionManager connectionManager;
+
+    /** setup 之后才有 */
+    private volatile BufferManager bufferManager;
+
+    private int initialCredit;
+
+    /** 已经释放了 buffer、但还没告诉服务端的 credit */
+    private final AtomicInteger unannouncedCredit = new AtomicInteger();
+
+    /** 期望收到的下一个序号，只在 EventLoop 线程中访问 */
+    private int expectedSequenceNumber;
+
+    /** 本轮读取中放进了接收队列、但还没通知 gate 的数据，只在 EventLoop 线程中访问 */
+    private boolean hasUnnotifiedData;
+
+    /** 最近一次收到的服务端积压数，debloating 线程用它估算在途 buffer 数 */
+    private volatile int lastSenderBacklog;
+
+    private volatile NettyPartitionRequestClient partitionRequestClient;
+
+    private final MetricGroup metricGroup = new MetricGroup();
+
+    private final Counter numBytesIn;
+
+    private final Counter numBuffersIn;
+
+    public RemoteInputChannel(SingleInputGate inputGate,
+                              ResultPartitionID partitionId,
+                              int subpartitionIndex,
+                              ConnectionID connectionId,
+                              NettyConnectionManager connectionManager) {
+        super(inputGate, partitionId, subpartitionIndex);
+        this.connectionId = connectionId;
+        this.connectionManager = connectionManager;
+
+        numBytesIn = metricGroup.counter("numBytesIn");
+        metricGroup.meter("numBytesInPerSecond", numBytesIn);
+        numBuffersIn = metricGroup.counter("numBuffersIn");
+        metricGroup.meter("numBuffersInPerSecond", numBuffersIn);
+        metricGroup.gauge("availableBuffers", () -> {
+            BufferManager manager = bufferManager;
+            return manager == null ? 0L : manager.getNumberOfAvailableBuffers();
+        });
+        metricGroup.gauge("unannouncedCredit", () -> (long) unannouncedCredit.get());
+        metricGroup.gauge("senderBacklog", () -> (long) lastSenderBacklog);
+    }
+
+    public InputChannelID getInputChannelId() {
+        return inputChannelId;
+    }
+
+    /**
+     * 分配独占 buffer，由 {@link SingleInputGate#setup()} 调用。
+     */
+    @Override
+    void setup() throws IOException {
+        if (bufferManager != null) {
+            throw new IllegalStateException("已经 setup 过了: " + this);
+        }
+        bufferManager = new BufferManager(inputGate.getNetworkBufferPool(), inputGate.getBufferPool(), this);
+        bufferManager.requestExclusiveBuffers(inputGate.getNetworkBuffersPerChannel());
+        initialCredit = inputGate.getNetworkBuffersPerChannel();
+    }
+
+    /**
+     * 通过（可能复用的）连接向远端请求子分区。
+     */
+    @Override
+    public void requestSubpartition() throws IOException, InterruptedException {
+        if (bufferManager == null) {
+            throw new IllegalStateException("还没有分配 buffer，请先 setup 所属的 InputGate: " + this);
+        }
+        if (partitionRequestClient != null) {
+            throw new IllegalStateException("已经请求过子分区了: " + this);
+        }
+        partitionRequestClient = connectionManager.createPartitionRequestClient(connectionId);
+        partitionRequestClient.requestSubpartition(partitionId, subpartitionIndex, this, initialCredit);
+    }
+
+    /**
+     * 为即将到达的数据取一块空闲的网络 buffer，由解码器在 EventLoop 中调用。
+     *
+     * @return 空闲的 buffer；没有时返回 {@code null}，说明服务端发送的数据超过了我们给的 credit
+     */
+    public NetworkBuffer requestBuffer() {
+        return bufferManager.requestBuffer();
+    }
+
+    /**
+     * 收到一个 buffer，由 EventLoop 调用。buffer 的所有权转移给通道。
+     *
+     * @param backlog 服务端发送这个 buffer 之后还积压着的 buffer 数
+     * @return 通道是否在本轮读取中第一次有了未通知 gate 的数据，是的话调用方要在本轮读取结束时调用 {@link #notifyReceivedBuffers()}
+     */
+    public boolean onBuffer(ByteBuf buffer, int sequenceNumber, int backlog) {
+        return onBuffer(buffer, sequenceNumber, backlog, DataType.DATA_BUFFER);
+    }
+
+    /**
+     * 收到一个 buffer。优先事件的 buffer 是单独分配的堆内 buffer，释放时不会产生新的 credit。
+     */
+    public boolean onBuffer(ByteBuf buffer, int sequenceNumber, int backlog, DataType dataType) {
+        if (sequenceNumber != expectedSequenceNumber) {
+            buffer.release();
+            onError(new IOException("缓冲数据乱序: 期望序号 " + expectedSequenceNumber + "，实际 " + sequenceNumber));
+            return false;
+        }
+        expectedSequenceNumber++;
+        numBytesIn.inc(buffer.readableBytes());
+        numBuffersIn.inc();
+
+        // 先按积压数借浮动 buffer，让新的 credit 和这个 buffer 的处理并行发出
+        onSenderBacklog(backlog);
+
+        // 任务线程释放 buffer 后它回到 BufferManager 或浮动池，由它们把 credit 还给服务端
+        if (onBufferReceived(buffer, dataType) && !hasUnnotifiedData) {
+            hasUnnotifiedData = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把本轮读取中收到的数据通知给 gate，由 EventLoop 在一轮读取结束时调用，
+     * 这样一次读取解码出多个 BufferResponse 时任务线程只被唤醒一次。
+     */
+    public void notifyReceivedBuffers() {
+        if (hasUnnotifiedData) {
+            hasUnnotifiedData = false;
+            notifyChannelNonEmpty();
+        }
+    }
+
+    /**
+     * 服务端还积压着 {@code backlog} 个 buffer：把可用 buffer 补到“积压数 + 独占数”，借到的浮动 buffer 作为新的 credit 通知服务端。
+     * 浮动池暂时不够时，BufferManager 会登记等待，之后借到的每个 buffer 同样会变成 credit。
+     */
+    void onSenderBacklog(int backlog) {
+        lastSenderBacklog = backlog;
+        int numRequestedBuffers = bufferManager.requestFloatingBuffers(backlog + initialCredit);
+        if (numRequestedBuffers > 0) {
+            notifyBufferAvailable(numRequestedBuffers);
+        }
+    }
+
+    /**
+     * 在途的 buffer 数：通道会把可用 buffer 补到“积压数 + 独占数”，并全部作为 credit 发给服务端。
+     */
+    @Override
+    int getBuffersInUseCount() {
+        return lastSenderBacklog + initialCredit;
+    }
+
+    /**
+     * 通知服务端以后按 {@code newBufferSize} 切分发给这个通道的 buffer，由 debloating 线程调用。
+     */
+    @Override
+    void announceBufferSize(int newBufferSize) {
+        NettyPartitionRequestClient client = partitionRequestClient;
+        if (client != null && getFailureCause() == null) {
+            client.notifyNewBufferSize(this, newBufferSize);
+        }
+    }
+
+    /**
+     * 有 buffer 重新变为可用，对应的 credit 需要通知服务端，可能在任意线程中调用。
+     */
+    void notifyBufferAvailable(int numAvailableBuffers) {
+        // 从 0 变为正数时才需要登记，之后的 credit 会在同一条 AddCredit 中一起发出
+        NettyPartitionRequestClient client = partitionRequestClient;
+        if (unannouncedCredit.getAndAdd(numAvailableBuffers) == 0 && client != null) {
+            client.notifyCreditAvailable(this);
+        }
+    }
+
+    /**
+     * 取走所有尚未通知服务端的 credit，由 EventLoop 在发送 AddCredit 时调用。
+     */
+    public int getAndResetUnannouncedCredit() {
+        return unannouncedCredit.getAndSet(0);
+    }
+
+    public MetricGroup getMetricGroup() {
+        return metricGroup;
+    }
+
+    @Override
+    public void releaseAllResources() {
+        if (partitionRequestClient != null) {
+            partitionRequestClient.close(this);
+        }
+        // 先让排队的 buffer 回到 BufferManager，再把它们一起还给全局池
+        releaseQueuedBuffers();
+        if (bufferManager != null) {
+            bufferManager.releaseAllBuffers();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteInputChannel{" + inputChannelId + ", partition=" + partitionId
+                + ", subpartition=" + subpartitionIndex + ", connection=" + connectionId + '}';
+    }
+}
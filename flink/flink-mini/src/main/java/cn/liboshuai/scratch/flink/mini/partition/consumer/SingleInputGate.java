@@ -0,0 +1,395 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.LocalBufferPool;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.NettyConfig;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一个消费者任务的一组输入通道（在 Flink 源码中对应 SingleInputGate）。
+ *
+ * <p>gate 负责通道的网络内存：每个远程通道在 {@link #setup()} 时从 {@link NetworkBufferPool}
+ * 拿到 {@code networkBuffersPerChannel} 个独占 buffer，gate 内所有通道再共享一个
+ * {@code floatingNetworkBuffersPerGate} 大小的浮动 buffer 池。
+ * 因此一个 gate 最多占用 {@code 通道数 × 独占数 + 浮动数} 个 buffer，网络内存是确定有界的。
+ * 本地通道直接读取生产者的 buffer，不占用 gate 的网络内存。
+ *
+ * <p>通过 {@link #enableBufferDebloating(NettyConfig)} 开启 buffer debloating 后，gate 统计所有通道收到的字节数，
+ * 由后台线程定期用 {@link BufferDebloater} 算出合适的 buffer 大小，变化足够大时通过每个通道通知上游。
+ *
+ * <p>收到的数据留在各个通道的无锁接收队列里，gate 只维护一个“有数据的通道”队列，任务线程通过 {@link #pollNext()}
+ * 从中取通道，再从通道里一次最多取 {@link #MAX_BUFFERS_PER_CHANNEL_POLL} 个 buffer，通道还有数据就重新排到队尾。
+ * 因此取数据的开销只与有数据的通道有关，与通道总数无关，有几千个空闲通道时也不会逐个去问。
+ * 加锁访问这个队列的次数与批数而不是 buffer 数成正比；通道只在从“没排队”变为“排队”时通知 gate，
+ * 可用性 future 只在队列从空变为非空时完成。有优先事件的通道排在队首，并且会打断任务线程手里还没处理完的一批数据。
+ */
+public class SingleInputGate extends InputGate {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SingleInputGate.class);
+
+    /** 任务线程从一个通道一次最多取出的 buffer 数，摊薄访问 {@link #inputChannelsWithData} 的加锁开销 */
+    static final int MAX_BUFFERS_PER_CHANNEL_POLL = 16;
+
+    private final NetworkBufferPool networkBufferPool;
+
+    private final int networkBuffersPerChannel;
+
+    private final int floatingNetworkBuffersPerGate;
+
+    private final List<InputChannel> inputChannels = new ArrayList<>();
+
+    /** gate 内共享的浮动 buffer 池，setup 之后才有 */
+    private LocalBufferPool bufferPool;
+
+    /** 开启 buffer debloating 后才有，各通道在 EventLoop 中记录收到的字节数 */
+    private volatile ThroughputCalculator throughputCalculator;
+
+    private BufferDebloater bufferDebloater;
+
+    private long bufferDebloatPeriodMillis;
+
+    private BufferDebloatTimer bufferDebloatTimer;
+
+    /** 接收队列里有数据的通道，有优先事件的排在最前面；同时保护可用性 future 的切换 */
+    private final ArrayDeque<InputChannel> inputChannelsWithData = new ArrayDeque<>();
+
+    /** 因为优先事件排在队首的通道数，只在持有 {@link #inputChannelsWithData} 的锁时修改 */
+    private volatile int numPriorityChannels;
+
+    /** 从通道里取出、还没交给任务的一批 buffer，只在任务线程中访问 */
+    private final ArrayDeque<BufferOrEvent> polledBuffers = new ArrayDeque<>();
+
+    private boolean isSetUp;
+
+    private volatile boolean isReleased;
+
+    public SingleInputGate(NetworkBufferPool networkBufferPool,
+                           int networkBuffersPerChannel,
+                           int floatingNetworkBuffersPerGate) {
+        if (networkBuffersPerChannel <= 0) {
+            throw new IllegalArgumentException("每个通道的独占 buffer 数必须为正数: " + networkBuffersPerChannel);
+        }
+        if (floatingNetworkBuffersPerGate < 0) {
+            throw new IllegalArgumentException("浮动 buffer 数不能为负数: " + floatingNetworkBuffersPerGate);
+        }
+        this.networkBufferPool = networkBufferPool;
+        this.networkBuffersPerChannel = networkBuffersPerChannel;
+        this.floatingNetworkBuffersPerGate = floatingNetworkBuffersPerGate;
+    }
+
+    public void setInputChannels(InputChannel... channels) {
+        if (isSetUp) {
+            throw new IllegalStateException("gate 已经 setup，不能再添加通道");
+        }
+        inputChannels.addAll(Arrays.asList(channels));
+    }
+
+    public List<InputChannel> getInputChannels() {
+        return Collections.unmodifiableList(inputChannels);
+    }
+
+    @Override
+    public int getNumberOfInputChannels() {
+        return inputChannels.size();
+    }
+
+    NetworkBufferPool getNetworkBufferPool() {
+        return networkBufferPool;
+    }
+
+    int getNetworkBuffersPerChannel() {
+        return networkBuffersPerChannel;
+    }
+
+    LocalBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    ThroughputCalculator getThroughputCalculator() {
+        return throughputCalculator;
+    }
+
+    /**
+     * 开启 buffer debloating，必须在 {@link #setup()} 之前调用。buffer 大小的上限是网络 buffer 的容量。
+     */
+    public void enableBufferDebloating(NettyConfig config) {
+        if (isSetUp || isReleased) {
+            throw new IllegalStateException("gate 已经 setup 或已经释放，不能再开启 buffer debloating");
+        }
+        if (config.getBufferDebloatPeriodMillis() <= 0) {
+            throw new IllegalArgumentException("debloating 周期必须为正数: " + config.getBufferDebloatPeriodMillis());
+        }
+        bufferDebloater = new BufferDebloater(
+                config.getBufferDebloatTargetMillis(),
+                networkBufferPool.getMemorySegmentSize(),
+                Math.min(config.getBufferDebloatMinBufferSize(), networkBufferPool.getMemorySegmentSize()),
+                config.getBufferDebloatThresholdPercentages(),
+                config.getBufferDebloatNumberOfSamples());
+        bufferDebloatPeriodMillis = config.getBufferDebloatPeriodMillis();
+        throughputCalculator = new ThroughputCalculator();
+    }
+
+    /**
+     * 按最近一个周期的吞吐量重新计算 buffer 大小，变化足够大时通知所有通道的上游。
+     */
+    void triggerDebloating() {
+        if (bufferDebloater == null) {
+            return;
+        }
+        long throughput = throughputCalculator.calculateThroughput();
+        int buffersInUse = 0;
+        for (InputChannel inputChannel : inputChannels) {
+            buffersInUse += inputChannel.getBuffersInUseCount();
+        }
+        OptionalInt newBufferSize = bufferDebloater.recalculateBufferSize(throughput, buffersInUse);
+        if (newBufferSize.isPresent()) {
+            LOG.debug("吞吐量 {} 字节/秒，在途 buffer {} 个，通知上游把 buffer 大小调整为 {}",
+                    throughput, buffersInUse, newBufferSize.getAsInt());
+            for (InputChannel inputChannel : inputChannels) {
+                inputChannel.announceBufferSize(newBufferSize.getAsInt());
+            }
+        }
+    }
+
+    /**
+     * 分配网络内存：先创建浮动 buffer 池，再给每个通道分配独占 buffer。内存不足时抛出 {@link IOException}。
+     */
+    public void setup() throws IOException {
+        if (isSetUp || isReleased) {
+            throw new IllegalStateException("gate 已经 setup 或已经释放");
+        }
+        isSetUp = true;
+        try {
+            if (floatingNetworkBuffersPerGate > 0) {
+                bufferPool = networkBufferPool.createBufferPool(
+                        floatingNetworkBuffersPerGate, floatingNetworkBuffersPerGate);
+            }
+            for (InputChannel inputChannel : inputChannels) {
+                inputChannel.setup();
+            }
+            if (bufferDebloater != null) {
+                bufferDebloatTimer = new BufferDebloatTimer();
+                bufferDebloatTimer.start();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 所有通道向上游请求各自的子分区。
+     */
+    public void requestPartitions() throws IOException, InterruptedException {
+        for (InputChannel inputChannel : inputChannels) {
+            inputChannel.requestSubpartition();
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return isReleased;
+    }
+
+    @Override
+    public Optional<BufferOrEvent> pollNext() throws IOException {
+        while (true) {
+            // 有优先事件时先去 gate 的队首取事件，手里这批数据留到之后
+            if (numPriorityChannels == 0) {
+                BufferOrEvent next = polledBuffers.poll();
+                if (next != null) {
+                    return Optional.of(next);
+                }
+            }
+
+            InputChannel channel = getChannelWithData();
+            if (channel == null) {
+                return Optional.empty();
+            }
+            channel.checkError();
+
+            ByteBuf event = channel.pollPriorityEvent();
+            if (event != null) {
+                if (channel.hasQueuedData()) {
+                    queueChannel(channel, channel.hasPriorityEvent());
+                }
+                return Optional.of(new BufferOrEvent(event, DataType.PRIORITIZED_EVENT_BUFFER, channel));
+            }
+
+            ByteBuf buffer;
+            int numPolled = 0;
+            while (numPolled < MAX_BUFFERS_PER_CHANNEL_POLL && (buffer = channel.pollBuffer()) != null) {
+                polledBuffers.add(new BufferOrEvent(buffer, DataType.DATA_BUFFER, channel));
+                numPolled++;
+            }
+            if (channel.hasQueuedData()) {
+                queueChannel(channel, channel.hasPriorityEvent());
+            }
+        }
+    }
+
+    /**
+     * 手里还有取出的一批数据时总是可用，否则看有没有排队的通道。只在任务线程中调用。
+     */
+    @Override
+    public CompletableFuture<?> getAvailableFuture() {
+        if (!polledBuffers.isEmpty()) {
+            return AVAILABLE;
+        }
+        return super.getAvailableFuture();
+    }
+
+    /**
+     * 取出排在最前面的有数据的通道。没有时把 gate 标记为不可用并返回 {@code null}，gate 关闭后也返回 {@code null}。
+     */
+    private InputChannel getChannelWithData() {
+        synchronized (inputChannelsWithData) {
+            if (isReleased) {
+                return null;
+            }
+            InputChannel channel = inputChannelsWithData.poll();
+            if (channel == null) {
+                // 与 queueChannel 在同一把锁里切换，之后排进来的通道一定会完成新的 future
+                availabilityHelper.resetUnavailable();
+                return null;
+            }
+            // 先清掉排队标记再取数据：之后收到的数据会重新把通道排进来，不会丢失通知
+            channel.isQueuedInGate = false;
+            if (channel.isPriorityQueuedInGate) {
+                channel.isPriorityQueuedInGate = false;
+                numPriorityChannels--;
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * 通道的接收队列有数据了（或者通道出错了），可能在任意线程中调用。
+     */
+    void notifyChannelNonEmpty(InputChannel channel) {
+        queueChannel(channel, false);
+    }
+
+    /**
+     * 通道收到了优先事件，把它排到队首，可能在任意线程中调用。
+     */
+    void notifyPriorityEvent(InputChannel channel) {
+        queueChannel(channel, true);
+    }
+
+    private void queueChannel(InputChannel channel, boolean priority) {
+        CompletableFuture<?> toNotify = null;
+        synchronized (inputChannelsWithData) {
+            if (priority) {
+                if (channel.isPriorityQueuedInGate) {
+                    return;
+                }
+                if (channel.isQueuedInGate) {
+                    inputChannelsWithData.remove(channel);
+                }
+                inputChannelsWithData.addFirst(channel);
+                channel.isPriorityQueuedInGate = true;
+                numPriorityChannels++;
+            } else {
+                if (channel.isQueuedInGate) {
+                    return;
+                }
+                inputChannelsWithData.add(channel);
+            }
+            channel.isQueuedInGate = true;
+            // 只有队列为空时 gate 才会是不可用的，因此只有从空变为非空时需要通知
+            if (inputChannelsWithData.size() == 1) {
+                toNotify = availabilityHelper.getUnavailableToResetAvailable();
+            }
+        }
+        if (toNotify != null) {
+            toNotify.complete(null);
+        }
+    }
+
+    /**
+     * 释放所有通道并归还网络内存。gate 随之结束，可用性 future 完成，还在等待数据的任务线程会从 {@link #getNext()} 返回空。
+     */
+    @Override
+    public void close() {
+        if (isReleased) {
+            return;
+        }
+        CompletableFuture<?> toNotify;
+        synchronized (inputChannelsWithData) {
+            isReleased = true;
+            inputChannelsWithData.clear();
+            toNotify = availabilityHelper.getUnavailableToResetAvailable();
+        }
+        toNotify.complete(null);
+        BufferOrEvent polled;
+        while ((polled = polledBuffers.poll()) != null) {
+            polled.getBuffer().release();
+        }
+        if (bufferDebloatTimer != null) {
+            bufferDebloatTimer.terminate();
+        }
+        for (InputChannel inputChannel : inputChannels) {
+            inputChannel.releaseAllResources();
+        }
+        if (bufferPool != null) {
+            bufferPool.lazyDestroy();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SingleInputGate(" + inputChannels.size() + " 个通道)";
+    }
+
+    // =================================================================================
+    //  BufferDebloatTimer：按 bufferDebloatPeriodMillis 周期性地重新计算 buffer 大小
+    // =================================================================================
+    private class BufferDebloatTimer extends Thread {
+
+        private volatile boolean running = true;
+
+        BufferDebloatTimer() {
+            super("BufferDebloater for " + SingleInputGate.this);
+            setDaemon(true);
+        }
+
+        void terminate() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(bufferDebloatPeriodMillis);
+                } catch (InterruptedException e) {
+                    if (running) {
+                        LOG.warn("{} 被意外中断，停止 buffer debloating", getName());
+                    }
+                    return;
+                }
+                try {
+                    triggerDebloating();
+                } catch (Throwable t) {
+                    LOG.error("{} 计算 buffer 大小失败，停止 buffer debloating", getName(), t);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+/**
+ * 统计一个 InputGate 在两次计算之间收到了多少字节，折算成每秒字节数。
+ * （在 Flink 源码中对应 ThroughputCalculator）
+ *
+ * <p>数据在通道收到 buffer 时（EventLoop 或本地通道的取数据线程）记录，吞吐量由 debloating 定时线程计算，因此所有方法都是同步的。
+ * 与 Flink 不同，这里不扣除任务线程“等数据”的空闲时间，统计的是包括空闲在内的实际吞吐量：
+ * 上游生产得慢时算出的吞吐量偏低，buffer 会被调小，这正好让稀疏的数据更快地发出。
+ */
+class ThroughputCalculator {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private long accumulatedDataSize;
+
+    private long measurementStartNanos = System.nanoTime();
+
+    /** 两次计算间隔过短时沿用上一次的结果 */
+    private long lastThroughput;
+
+    synchronized void incomingDataSize(long receivedDataSize) {
+        accumulatedDataSize += receivedDataSize;
+    }
+
+    /**
+     * 计算从上次调用到现在的吞吐量（字节/秒），并开始新一轮统计。
+     */
+    synchronized long calculateThroughput() {
+        long now = System.nanoTime();
+        long elapsedNanos = now - measurementStartNanos;
+        if (elapsedNanos <= 0) {
+            return lastThroughput;
+        }
+        lastThroughput = (long) ((double) accumulatedDataSize * NANOS_PER_SECOND / elapsedNanos);
+        accumulatedDataSize = 0;
+        measurementStartNanos = now;
+        return lastThroughput;
+    }
+}
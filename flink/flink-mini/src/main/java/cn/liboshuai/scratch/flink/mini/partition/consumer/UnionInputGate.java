@@ -0,0 +1,153 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 把多个 InputGate 合成一个，一个任务线程同时读取多个上游（例如 union 算子的多个输入）。
+ * （在 Flink 源码中对应 UnionInputGate）
+ *
+ * <p>与 {@link SingleInputGate} 维护有数据的通道一样，这里维护一个有数据的 gate 队列：
+ * 取不到数据的 gate 在它的可用性 future 上登记回调，有数据时回调把它排进队列，
+ * 因此取数据的开销只与有数据的 gate 有关，任务线程既不会轮询空闲的 gate，也不需要为每个 gate 占一个线程。
+ * 取到数据的 gate 重新排到队尾，各个 gate 轮流被读取。
+ *
+ * <p>优先事件只在各自的 gate 内越过数据，不会让它所在的 gate 越过其它 gate。
+ */
+public class UnionInputGate extends InputGate {
+
+    private final InputGate[] inputGates;
+
+    private final int numberOfInputChannels;
+
+    /** 有数据的 gate；同时保护 {@link #enqueuedInputGatesWithData} 和可用性 future 的切换 */
+    private final ArrayDeque<InputGate> inputGatesWithData = new ArrayDeque<>();
+
+    /** 已经在 {@link #inputGatesWithData} 里的 gate，避免重复排队 */
+    private final Set<InputGate> enqueuedInputGatesWithData = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private volatile boolean isReleased;
+
+    public UnionInputGate(InputGate... inputGates) {
+        if (inputGates.length < 2) {
+            throw new IllegalArgumentException("至少需要合并两个 InputGate: " + inputGates.length);
+        }
+        this.inputGates = inputGates.clone();
+        int channels = 0;
+        for (InputGate inputGate : inputGates) {
+            channels += inputGate.getNumberOfInputChannels();
+        }
+        this.numberOfInputChannels = channels;
+        for (InputGate inputGate : inputGates) {
+            waitForData(inputGate);
+        }
+    }
+
+    @Override
+    public int getNumberOfInputChannels() {
+        return numberOfInputChannels;
+    }
+
+    @Override
+    public boolean isFinished() {
+        if (isReleased) {
+            return true;
+        }
+        for (InputGate inputGate : inputGates) {
+            if (!inputGate.isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<BufferOrEvent> pollNext() throws IOException {
+        while (true) {
+            InputGate inputGate = getInputGateWithData();
+            if (inputGate == null) {
+                return Optional.empty();
+            }
+            Optional<BufferOrEvent> next = inputGate.pollNext();
+            if (next.isPresent()) {
+                // 还有数据的话回调会立即执行，gate 重新排到队尾
+                waitForData(inputGate);
+                return next;
+            }
+            // gate 的数据被取完了：结束的 gate 不再理会，其余的等有数据时再排进来
+            if (!inputGate.isFinished()) {
+                waitForData(inputGate);
+            }
+        }
+    }
+
+    /**
+     * 在 gate 的可用性 future 上登记回调，可用时把它排进 {@link #inputGatesWithData}。
+     * future 已经完成时回调立即在当前线程执行；否则在完成它的线程（EventLoop 或生产者）中执行。
+     */
+    private void waitForData(InputGate inputGate) {
+        inputGate.getAvailableFuture().thenRun(() -> queueInputGate(inputGate));
+    }
+
+    private void queueInputGate(InputGate inputGate) {
+        CompletableFuture<?> toNotify = null;
+        synchronized (inputGatesWithData) {
+            if (isReleased || !enqueuedInputGatesWithData.add(inputGate)) {
+                return;
+            }
+            inputGatesWithData.add(inputGate);
+            if (inputGatesWithData.size() == 1) {
+                toNotify = availabilityHelper.getUnavailableToResetAvailable();
+            }
+        }
+        if (toNotify != null) {
+            toNotify.complete(null);
+        }
+    }
+
+    private InputGate getInputGateWithData() {
+        synchronized (inputGatesWithData) {
+            if (isReleased) {
+                return null;
+            }
+            InputGate inputGate = inputGatesWithData.poll();
+            if (inputGate == null) {
+                availabilityHelper.resetUnavailable();
+                return null;
+            }
+            enqueuedInputGatesWithData.remove(inputGate);
+            return inputGate;
+        }
+    }
+
+    /**
+     * 关闭所有被合并的 gate。
+     */
+    @Override
+    public void close() {
+        if (isReleased) {
+            return;
+        }
+        CompletableFuture<?> toNotify;
+        synchronized (inputGatesWithData) {
+            isReleased = true;
+            inputGatesWithData.clear();
+            enqueuedInputGatesWithData.clear();
+            toNotify = availabilityHelper.getUnavailableToResetAvailable();
+        }
+        toNotify.complete(null);
+        for (InputGate inputGate : inputGates) {
+            inputGate.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnionInputGate(" + inputGates.length + " 个 gate, " + numberOfInputChannels + " 个通道)";
+    }
+}
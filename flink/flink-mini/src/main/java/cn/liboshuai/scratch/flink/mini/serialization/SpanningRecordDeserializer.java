@@ -0,0 +1,172 @@
+package cn.liboshuai.scratch.flink.mini.serialization;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 从一个通道按序收到的 buffer 里逐条还原 {@link SpanningRecordSerializer} 写入的记录。
+ * （在 Flink 源码中对应 SpillingAdaptiveSpanningRecordDeserializer，这里不做溢写）
+ *
+ * <p>完整落在当前 buffer 里的记录直接以切片的形式返回，不发生拷贝；只有跨 buffer 的记录才会被拼接到一个内部的堆内 buffer 中，
+ * 拷贝量只有跨越边界的那一条记录。
+ *
+ * <p>用法：{@link #setNextBuffer(ByteBuf)} 之后反复调用 {@link #getNextRecord()}，
+ * 直到返回结果的 {@link DeserializationResult#isBufferConsumed()} 为 true，此时调用方就可以释放这个 buffer 了，
+ * 没读完的半条记录已经保存在反序列化器内部。每个通道一个实例，不是线程安全的。
+ */
+public class SpanningRecordDeserializer {
+
+    /**
+     * 一次 {@link #getNextRecord()} 的结果。
+     */
+    public enum DeserializationResult {
+        /** 当前 buffer 已经读完，最后一条记录还不完整，需要下一个 buffer */
+        PARTIAL_RECORD(false, true),
+        /** 读到一条完整记录，当前 buffer 里还有数据 */
+        INTERMEDIATE_RECORD_FROM_BUFFER(true, false),
+        /** 读到一条完整记录，并且正好读完了当前 buffer */
+        LAST_RECORD_FROM_BUFFER(true, true);
+
+        private final boolean isFullRecord;
+
+        private final boolean isBufferConsumed;
+
+        DeserializationResult(boolean isFullRecord, boolean isBufferConsumed) {
+            this.isFullRecord = isFullRecord;
+            this.isBufferConsumed = isBufferConsumed;
+        }
+
+        public boolean isFullRecord() {
+            return isFullRecord;
+        }
+
+        public boolean isBufferConsumed() {
+            return isBufferConsumed;
+        }
+    }
+
+    private static final int LENGTH_BYTES = SpanningRecordSerializer.LENGTH_BYTES;
+
+    /** 当前正在读的 buffer，不归反序列化器所有 */
+    private ByteBuf currentBuffer;
+
+    private int position;
+
+    private int limit;
+
+    /** 跨 buffer 的长度头已经读到的字节数和值 */
+    private int partialLengthBytes;
+
+    private int partialLength;
+
+    /** 跨 buffer 记录的长度，-1 表示当前没有跨 buffer 的记录 */
+    private int spanningRecordLength = -1;
+
+    /** 拼接跨 buffer 记录用的堆内 buffer，第一次用到时才分配 */
+    private ByteBuf spanningBuffer;
+
+    private ByteBuf currentRecord;
+
+    /**
+     * 设置下一个要读的 buffer，只读取它的可读部分，不会修改它的读写下标。上一个 buffer 必须已经读完。
+     */
+    public void setNextBuffer(ByteBuf buffer) {
+        if (currentBuffer != null && position < limit) {
+            throw new IllegalStateException("上一个 buffer 还没有读完");
+        }
+        currentBuffer = buffer;
+        position = buffer.readerIndex();
+        limit = buffer.writerIndex();
+    }
+
+    /**
+     * 读取下一条记录。结果是完整记录时，记录内容通过 {@link #getCurrentRecord()} 获取。
+     */
+    public DeserializationResult getNextRecord() {
+        if (currentBuffer == null) {
+            throw new IllegalStateException("还没有设置 buffer");
+        }
+        currentRecord = null;
+        int remaining = limit - position;
+        // 快速路径：没有跨 buffer 的半条记录，并且下一条记录完整地落在当前 buffer 里
+        if (spanningRecordLength < 0 && partialLengthBytes == 0 && remaining >= LENGTH_BYTES) {
+            int recordLength = currentBuffer.getInt(position);
+            if (recordLength <= remaining - LENGTH_BYTES) {
+                currentRecord = currentBuffer.slice(position + LENGTH_BYTES, recordLength);
+                position += LENGTH_BYTES + recordLength;
+                return fullRecordResult();
+            }
+        }
+        return readSpanningRecord();
+    }
+
+    /**
+     * 最近一次读到的完整记录，可读部分就是记录内容。它可能是当前 buffer 的切片，
+     * 只在下一次调用 {@link #getNextRecord()} 之前、并且当前 buffer 被释放之前有效。
+     */
+    public ByteBuf getCurrentRecord() {
+        if (currentRecord == null) {
+            throw new IllegalStateException("没有读到完整的记录");
+        }
+        return currentRecord;
+    }
+
+    /**
+     * 当前是否有一条读了一半的记录。
+     */
+    public boolean hasUnfinishedData() {
+        return spanningRecordLength >= 0 || partialLengthBytes > 0;
+    }
+
+    /**
+     * 丢弃所有状态，通道被释放或重建时调用。
+     */
+    public void clear() {
+        currentBuffer = null;
+        currentRecord = null;
+        position = 0;
+        limit = 0;
+        partialLengthBytes = 0;
+        partialLength = 0;
+        spanningRecordLength = -1;
+        if (spanningBuffer != null) {
+            spanningBuffer.clear();
+        }
+    }
+
+    private DeserializationResult readSpanningRecord() {
+        if (spanningRecordLength < 0) {
+            // 长度头可能也被拆开了，逐字节拼起来
+            while (partialLengthBytes < LENGTH_BYTES && position < limit) {
+                partialLength = (partialLength << 8) | currentBuffer.getUnsignedByte(position++);
+                partialLengthBytes++;
+            }
+            if (partialLengthBytes < LENGTH_BYTES) {
+                return DeserializationResult.PARTIAL_RECORD;
+            }
+            spanningRecordLength = partialLength;
+            partialLengthBytes = 0;
+            partialLength = 0;
+            if (spanningBuffer == null) {
+                spanningBuffer = Unpooled.buffer(spanningRecordLength);
+            }
+            spanningBuffer.clear().ensureWritable(spanningRecordLength);
+        }
+
+        int toCopy = Math.min(spanningRecordLength - spanningBuffer.readableBytes(), limit - position);
+        spanningBuffer.writeBytes(currentBuffer, position, toCopy);
+        position += toCopy;
+        if (spanningBuffer.readableBytes() < spanningRecordLength) {
+            return DeserializationResult.PARTIAL_RECORD;
+        }
+        spanningRecordLength = -1;
+        currentRecord = spanningBuffer;
+        return fullRecordResult();
+    }
+
+    private DeserializationResult fullRecordResult() {
+        return position == limit
+                ? DeserializationResult.LAST_RECORD_FROM_BUFFER
+                : DeserializationResult.INTERMEDIATE_RECORD_FROM_BUFFER;
+    }
+}
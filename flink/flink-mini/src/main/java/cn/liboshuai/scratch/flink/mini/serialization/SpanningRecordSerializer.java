@@ -0,0 +1,95 @@
+package cn.liboshuai.scratch.flink.mini.serialization;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把记录以“4 字节长度 + 记录内容”的格式写进定长的网络 buffer，一个 buffer 放不下时剩余部分写进下一个 buffer。
+ * （在 Flink 源码中对应 SpanningRecordSerializer，新版本中这部分逻辑在 RecordWriter 与 BufferWritingResultPartition 中）
+ *
+ * <p>用法：先 {@link #serializeRecord(ByteBuffer)}，再反复 {@link #copyToBuffer(ByteBuf, int)}，
+ * 直到 {@link #hasSerializedData()} 返回 false。记录内容不会被先拷贝到中间数组，而是直接从调用方的 ByteBuffer 写进网络 buffer，
+ * 因此在记录写完之前调用方不能修改它。
+ *
+ * <p>长度头本身也可能被拆在两个 buffer 里，由 {@link SpanningRecordDeserializer} 负责拼回来。
+ * 不是线程安全的，一个子分区只能由一个生产者线程写。
+ */
+public class SpanningRecordSerializer {
+
+    public static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_BYTES);
+
+    /** 当前记录还没写出去的部分，写完后为 null */
+    private ByteBuffer dataBuffer;
+
+    public SpanningRecordSerializer() {
+        lengthBuffer.position(LENGTH_BYTES);
+    }
+
+    /**
+     * 开始序列化一条新记录，记录是 {@code record} 从 position 到 limit 的部分。上一条记录必须已经写完。
+     */
+    public void serializeRecord(ByteBuffer record) {
+        if (hasSerializedData()) {
+            throw new IllegalStateException("上一条记录还没有写完");
+        }
+        lengthBuffer.clear();
+        lengthBuffer.putInt(0, record.remaining());
+        dataBuffer = record;
+    }
+
+    /**
+     * 把当前记录尽可能多地写进 {@code target}，最多写 {@code maxBytes} 个字节，也不会超过 target 的可写空间。
+     *
+     * @return 实际写入的字节数
+     */
+    public int copyToBuffer(ByteBuf target, int maxBytes) {
+        int limit = Math.min(maxBytes, target.writableBytes());
+        if (lengthBuffer.position() == 0 && dataBuffer.remaining() + LENGTH_BYTES <= limit) {
+            // 快速路径：整条记录都放得下，直接写，不用逐段调整 limit
+            int recordLength = dataBuffer.remaining();
+            target.writeInt(recordLength);
+            target.writeBytes(dataBuffer);
+            lengthBuffer.position(LENGTH_BYTES);
+            dataBuffer = null;
+            return LENGTH_BYTES + recordLength;
+        }
+        int written = copy(lengthBuffer, target, limit);
+        if (dataBuffer != null) {
+            written += copy(dataBuffer, target, limit - written);
+            if (!lengthBuffer.hasRemaining() && !dataBuffer.hasRemaining()) {
+                dataBuffer = null;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 当前记录是否还有没写出去的部分。
+     */
+    public boolean hasSerializedData() {
+        return lengthBuffer.hasRemaining() || dataBuffer != null;
+    }
+
+    /**
+     * 丢弃当前记录还没写出去的部分。
+     */
+    public void clear() {
+        lengthBuffer.position(LENGTH_BYTES);
+        dataBuffer = null;
+    }
+
+    private static int copy(ByteBuffer source, ByteBuf target, int maxBytes) {
+        int length = Math.min(source.remaining(), maxBytes);
+        if (length <= 0) {
+            return 0;
+        }
+        int oldLimit = source.limit();
+        source.limit(source.position() + length);
+        target.writeBytes(source);
+        source.limit(oldLimit);
+        return length;
+    }
+}
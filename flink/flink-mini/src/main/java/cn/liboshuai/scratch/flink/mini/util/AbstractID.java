@@ -0,0 +1,79 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 128 位的唯一标识，直接用两个 long 存储（在 Flink 源码中对应 org.apache.flink.util.AbstractID）。
+ *
+ * <p>与包装一个 {@link UUID} 相比少了一层对象，{@code equals} / {@code hashCode} 也只是比较两个 long，
+ * 解码时还可以只读出两个 long 去查找已注册的对象，完全不需要创建新的 ID。
+ */
+public class AbstractID {
+
+    private static final Random RND = new Random();
+
+    /** 序列化后占用的字节数 */
+    public static final int SIZE = 16;
+
+    protected final long upperPart;
+
+    protected final long lowerPart;
+
+    public AbstractID(long upperPart, long lowerPart) {
+        this.upperPart = upperPart;
+        this.lowerPart = lowerPart;
+    }
+
+    public AbstractID() {
+        this(RND.nextLong(), RND.nextLong());
+    }
+
+    public long getUpperPart() {
+        return upperPart;
+    }
+
+    public long getLowerPart() {
+        return lowerPart;
+    }
+
+    public void writeTo(ByteBuf buf) {
+        buf.writeLong(upperPart);
+        buf.writeLong(lowerPart);
+    }
+
+    /**
+     * 与 {@link #hashCode()} 相同的哈希算法，供只拿到两个 long 的查找路径使用。
+     */
+    public static int hashCode(long upperPart, long lowerPart) {
+        return (int) (lowerPart ^ (lowerPart >>> 32) ^ upperPart ^ (upperPart >>> 32));
+    }
+
+    public boolean matches(long upperPart, long lowerPart) {
+        return this.upperPart == upperPart && this.lowerPart == lowerPart;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        AbstractID that = (AbstractID) obj;
+        return that.matches(upperPart, lowerPart);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode(upperPart, lowerPart);
+    }
+
+    @Override
+    public String toString() {
+        return new UUID(upperPart, lowerPart).toString();
+    }
+}
@@ -0,0 +1,158 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 以 {@link AbstractID} 为键、读多写少的并发 Map。
+ *
+ * <p>内部是开放寻址的哈希表，每次写入都复制出一张新表再通过 volatile 发布，
+ * 因此读取完全无锁；并且可以直接用两个 long 查找（{@link #get(long, long)}），
+ * 解码时无需为了查找而创建 ID 对象。适合“注册很少、每条消息都要查找”的场景，例如按接收者分发数据。
+ */
+public class CopyOnWriteIdMap<K extends AbstractID, V> {
+
+    private volatile Table table = new Table(new Object[2], new Object[2], 0);
+
+    public V get(long upperPart, long lowerPart) {
+        Table current = table;
+        Object[] keys = current.keys;
+        int mask = keys.length - 1;
+        int index = spread(AbstractID.hashCode(upperPart, lowerPart)) & mask;
+        while (true) {
+            AbstractID key = (AbstractID) keys[index];
+            if (key == null) {
+                return null;
+            }
+            if (key.matches(upperPart, lowerPart)) {
+                return current.value(index);
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public V get(K key) {
+        return get(key.getUpperPart(), key.getLowerPart());
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public synchronized V put(K key, V value) {
+        return update(key, value, false);
+    }
+
+    public synchronized V putIfAbsent(K key, V value) {
+        return update(key, value, true);
+    }
+
+    public synchronized V remove(K key) {
+        V previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+        List<Object> keys = new ArrayList<>(table.size);
+        List<Object> values = new ArrayList<>(table.size);
+        collect(keys, values, key);
+        table = build(keys, values);
+        return previous;
+    }
+
+    public synchronized void clear() {
+        table = new Table(new Object[2], new Object[2], 0);
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    public boolean isEmpty() {
+        return table.size == 0;
+    }
+
+    /**
+     * 当前所有值的快照。
+     */
+    public Collection<V> values() {
+        Table current = table;
+        List<V> values = new ArrayList<>(current.size);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != null) {
+                values.add(current.value(i));
+            }
+        }
+        return values;
+    }
+
+    private V update(K key, V value, boolean onlyIfAbsent) {
+        V previous = get(key);
+        if (previous != null && onlyIfAbsent) {
+            return previous;
+        }
+        List<Object> keys = new ArrayList<>(table.size + 1);
+        List<Object> values = new ArrayList<>(table.size + 1);
+        collect(keys, values, key);
+        keys.add(key);
+        values.add(value);
+        table = build(keys, values);
+        return previous;
+    }
+
+    /**
+     * 收集当前表中除 {@code excludedKey} 以外的所有键值对。
+     */
+    private void collect(List<Object> keys, List<Object> values, AbstractID excludedKey) {
+        Table current = table;
+        for (int i = 0; i < current.keys.length; i++) {
+            Object key = current.keys[i];
+            if (key != null && !key.equals(excludedKey)) {
+                keys.add(key);
+                values.add(current.values[i]);
+            }
+        }
+    }
+
+    private static Table build(List<Object> keys, List<Object> values) {
+        // 装载因子不超过 0.5，保证线性探测的查找很短，并且表里永远有空槽
+        int capacity = 2;
+        while (capacity < keys.size() * 2) {
+            capacity <<= 1;
+        }
+        Object[] newKeys = new Object[capacity];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.size(); i++) {
+            AbstractID key = (AbstractID) keys.get(i);
+            int index = spread(key.hashCode()) & mask;
+            while (newKeys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            newKeys[index] = key;
+            newValues[index] = values.get(i);
+        }
+        return new Table(newKeys, newValues, keys.size());
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Table {
+        final Object[] keys;
+        final Object[] values;
+        final int size;
+
+        Table(Object[] keys, Object[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        <V> V value(int index) {
+            return (V) values[index];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+/**
+ * 异常处理的小工具集合（对应 Flink 中的 org.apache.flink.util.ExceptionUtils）。
+ */
+public final class ExceptionUtils {
+
+    private ExceptionUtils() {
+    }
+
+    /**
+     * 原样抛出 Error 和 RuntimeException，受检异常则包装成 RuntimeException 再抛出。
+     */
+    public static void rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 与 {@link #rethrow(Throwable)} 相同，只是包装受检异常时使用给定的消息。
+     */
+    public static void rethrow(Throwable t, String parentMessage) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else {
+            throw new RuntimeException(parentMessage, t);
+        }
+    }
+}
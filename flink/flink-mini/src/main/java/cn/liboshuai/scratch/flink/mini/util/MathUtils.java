@@ -0,0 +1,45 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+/**
+ * 数学相关的小工具集合（对应 Flink 中的 org.apache.flink.util.MathUtils）。
+ */
+public final class MathUtils {
+
+    private MathUtils() {
+    }
+
+    /**
+     * 对 hashCode 做一轮 murmur 哈希，结果总是非负数。
+     */
+    public static int murmurHash(int code) {
+        code *= 0xcc9e2d51;
+        code = Integer.rotateLeft(code, 15);
+        code *= 0x1b873593;
+
+        code = Integer.rotateLeft(code, 13);
+        code = code * 5 + 0xe6546b64;
+
+        code ^= 4;
+        code = bitMix(code);
+
+        if (code >= 0) {
+            return code;
+        } else if (code != Integer.MIN_VALUE) {
+            return -code;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * murmur 哈希的最后一步，让每一位输入都影响到所有输出位。
+     */
+    public static int bitMix(int in) {
+        in ^= in >>> 16;
+        in *= 0x85ebca6b;
+        in ^= in >>> 13;
+        in *= 0xc2b2ae35;
+        in ^= in >>> 16;
+        return in;
+    }
+}
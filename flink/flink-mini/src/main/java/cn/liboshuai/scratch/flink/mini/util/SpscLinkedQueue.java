@@ -0,0 +1,72 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 单生产者、单消费者的无界无锁队列。
+ *
+ * <p>内部是单向链表：生产者只写尾节点的 next，消费者只移动头节点，两边没有共享的可写状态，
+ * 因此入队和出队都不需要 CAS 和锁，入队只是一次有序写（lazySet），出队只是一次 volatile 读。
+ *
+ * <p>“单生产者”指同一时刻只有一个线程入队，并且前后两个入队线程之间存在 happens-before 关系
+ * （例如交接时经过同一个锁或原子变量）；消费者同理。{@link #isEmpty()} 和 {@link #peek()} 属于消费者一侧。
+ */
+public final class SpscLinkedQueue<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    /** 最后一个节点，只在生产者线程中访问 */
+    private Node<E> producerNode;
+
+    /** 已经被取走的最后一个节点（初始时是哨兵），它的 next 才是队首，只在消费者线程中访问 */
+    private Node<E> consumerNode;
+
+    public SpscLinkedQueue() {
+        Node<E> stub = new Node<>(null);
+        producerNode = stub;
+        consumerNode = stub;
+    }
+
+    public void offer(E element) {
+        Node<E> node = new Node<>(Objects.requireNonNull(element));
+        // 节点的内容先于链接对消费者可见
+        NEXT.lazySet(producerNode, node);
+        producerNode = node;
+    }
+
+    public E poll() {
+        Node<E> next = consumerNode.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.value;
+        // 取走后的节点成为新的哨兵，断开对元素的引用以便回收
+        next.value = null;
+        consumerNode = next;
+        return element;
+    }
+
+    public E peek() {
+        Node<E> next = consumerNode.next;
+        return next == null ? null : next.value;
+    }
+
+    public boolean isEmpty() {
+        return consumerNode.next == null;
+    }
+
+    /** 不能是 private 的，否则按 Java 8 编译时字段更新器没有访问权限 */
+    static final class Node<E> {
+
+        E value;
+
+        volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+}
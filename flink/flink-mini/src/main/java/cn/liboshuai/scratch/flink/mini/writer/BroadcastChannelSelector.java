@@ -0,0 +1,30 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把每条记录发给所有通道。（在 Flink 源码中对应 BroadcastPartitioner）
+ *
+ * <p>只是一个标记，{@link RecordWriter} 看到它会创建 {@link BroadcastRecordWriter}，记录只序列化一次。
+ */
+public class BroadcastChannelSelector implements ChannelSelector {
+
+    @Override
+    public void setup(int numberOfChannels) {
+    }
+
+    @Override
+    public int selectChannel(ByteBuffer record) {
+        throw new UnsupportedOperationException("广播不需要选择通道，应该使用 BroadcastRecordWriter");
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "BROADCAST";
+    }
+}
@@ -0,0 +1,26 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 决定一条记录写到结果分区的哪个子分区（也就是下游的哪个通道）。（在 Flink 源码中对应 ChannelSelector）
+ *
+ * <p>选择器只在生产者线程中使用，可以有状态，例如轮询的下标。
+ */
+public interface ChannelSelector {
+
+    /**
+     * 告诉选择器一共有多少个通道，在第一次 {@link #selectChannel} 之前由 {@link RecordWriter} 调用。
+     */
+    void setup(int numberOfChannels);
+
+    /**
+     * 为记录选择一个通道，返回值在 {@code [0, numberOfChannels)} 之间。不能修改 record 的读写位置。
+     */
+    int selectChannel(ByteBuffer record);
+
+    /**
+     * 是否把每条记录发给所有通道。为 true 时 {@link RecordWriter} 走广播路径，不再调用 {@link #selectChannel}。
+     */
+    boolean isBroadcast();
+}
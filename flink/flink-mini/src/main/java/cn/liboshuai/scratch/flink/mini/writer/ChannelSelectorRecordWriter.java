@@ -0,0 +1,25 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 每条记录由 {@link ChannelSelector} 选出一个子分区。（在 Flink 源码中对应 ChannelSelectorRecordWriter）
+ */
+public final class ChannelSelectorRecordWriter extends RecordWriter {
+
+    private final ChannelSelector channelSelector;
+
+    ChannelSelectorRecordWriter(ResultPartition targetPartition, ChannelSelector channelSelector) {
+        super(targetPartition);
+        this.channelSelector = channelSelector;
+        channelSelector.setup(numberOfChannels);
+    }
+
+    @Override
+    public void emit(ByteBuffer record) throws IOException, InterruptedException {
+        targetPartition.emitRecord(record, channelSelector.selectChannel(record));
+    }
+}
@@ -0,0 +1,46 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import cn.liboshuai.scratch.flink.mini.util.MathUtils;
+
+import java.nio.ByteBuffer;
+import java.util.function.ToIntFunction;
+
+/**
+ * 按记录的 key 选择通道，同一个 key 的记录总是发往同一个下游。（在 Flink 源码中对应 KeyGroupStreamPartitioner）
+ *
+ * <p>key 的 hashCode 由调用方从记录中提取，再经过 murmur hash 打散，避免 hashCode 分布不均导致数据倾斜。
+ * 这里没有 key group 的概念，直接对通道数取模。
+ */
+public class HashChannelSelector implements ChannelSelector {
+
+    private final ToIntFunction<ByteBuffer> keyHashExtractor;
+
+    private int numberOfChannels;
+
+    /**
+     * @param keyHashExtractor 从记录中提取 key 的 hashCode，不能修改 record 的读写位置
+     */
+    public HashChannelSelector(ToIntFunction<ByteBuffer> keyHashExtractor) {
+        this.keyHashExtractor = keyHashExtractor;
+    }
+
+    @Override
+    public void setup(int numberOfChannels) {
+        this.numberOfChannels = numberOfChannels;
+    }
+
+    @Override
+    public int selectChannel(ByteBuffer record) {
+        return MathUtils.murmurHash(keyHashExtractor.applyAsInt(record)) % numberOfChannels;
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "HASH";
+    }
+}
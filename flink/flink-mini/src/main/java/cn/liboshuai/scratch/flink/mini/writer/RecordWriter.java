@@ -0,0 +1,48 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 生产者写记录的入口，按 {@link ChannelSelector} 把记录分发到结果分区的各个子分区。（在 Flink 源码中对应 RecordWriter）
+ *
+ * <p>通过 {@link #createRecordWriter(ResultPartition, ChannelSelector)} 创建：广播选择器得到 {@link BroadcastRecordWriter}，
+ * 其余得到 {@link ChannelSelectorRecordWriter}。记录的序列化和跨 buffer 都由结果分区完成。
+ * 不是线程安全的，一个结果分区只能有一个生产者线程写。
+ */
+public abstract class RecordWriter {
+
+    protected final ResultPartition targetPartition;
+
+    protected final int numberOfChannels;
+
+    protected RecordWriter(ResultPartition targetPartition) {
+        this.targetPartition = targetPartition;
+        this.numberOfChannels = targetPartition.getNumberOfSubpartitions();
+    }
+
+    public static RecordWriter createRecordWriter(ResultPartition targetPartition, ChannelSelector channelSelector) {
+        if (channelSelector.isBroadcast()) {
+            return new BroadcastRecordWriter(targetPartition);
+        }
+        return new ChannelSelectorRecordWriter(targetPartition, channelSelector);
+    }
+
+    /**
+     * 写一条记录，发往哪些子分区由具体实现决定。需要新 buffer 而 buffer 池已经用完时阻塞。
+     */
+    public abstract void emit(ByteBuffer record) throws IOException, InterruptedException;
+
+    /**
+     * 不管选择器是什么，都把记录写给所有子分区，记录只序列化一次。
+     */
+    public void broadcastEmit(ByteBuffer record) throws IOException, InterruptedException {
+        targetPartition.broadcastRecord(record);
+    }
+
+    public void flushAll() {
+        targetPartition.flushAll();
+    }
+}
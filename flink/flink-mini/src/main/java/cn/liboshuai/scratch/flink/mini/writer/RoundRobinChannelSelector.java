@@ -0,0 +1,39 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 轮询地把记录均匀发给各个通道，用于 rebalance。（在 Flink 源码中对应 RebalancePartitioner）
+ *
+ * <p>起始通道是随机的，避免所有生产者都从第 0 个通道开始，让下游在刚启动时就负载均衡。
+ */
+public class RoundRobinChannelSelector implements ChannelSelector {
+
+    private int numberOfChannels;
+
+    private int nextChannel;
+
+    @Override
+    public void setup(int numberOfChannels) {
+        this.numberOfChannels = numberOfChannels;
+        this.nextChannel = ThreadLocalRandom.current().nextInt(numberOfChannels);
+    }
+
+    @Override
+    public int selectChannel(ByteBuffer record) {
+        int channel = nextChannel;
+        nextChannel = channel + 1 == numberOfChannels ? 0 : channel + 1;
+        return channel;
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "REBALANCE";
+    }
+}
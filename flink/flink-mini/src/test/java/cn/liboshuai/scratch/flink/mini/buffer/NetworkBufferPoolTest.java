@@ -0,0 +1,110 @@
+package cn.liboshuai.scratch.flink.mini.buffer;
+
+import cn.liboshuai.scratch.flink.mini.memory.MemorySegment;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.SingleInputGate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NetworkBufferPoolTest {
+
+    private final NetworkBufferPool networkBufferPool = new NetworkBufferPool(10, 128);
+
+    @AfterEach
+    void tearDown() {
+        networkBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("独占申请: 超过总量时应整体失败，不取走任何内存段")
+    void testRequestMemorySegmentsIsAllOrNothing() throws IOException {
+        List<MemorySegment> segments = networkBufferPool.requestMemorySegments(6);
+        assertEquals(4, networkBufferPool.getNumberOfAvailableMemorySegments());
+
+        assertThrows(IOException.class, () -> networkBufferPool.requestMemorySegments(5));
+        assertEquals(4, networkBufferPool.getNumberOfAvailableMemorySegments());
+        assertThrows(IOException.class, () -> networkBufferPool.createBufferPool(5, 5));
+
+        networkBufferPool.recycleMemorySegments(segments);
+        assertEquals(10, networkBufferPool.getNumberOfAvailableMemorySegments());
+    }
+
+    @Test
+    @DisplayName("本地池: 用完后返回 null，回收的 buffer 应直接交给等待的监听者")
+    void testLocalBufferPoolNotifiesListener() throws IOException {
+        LocalBufferPool localBufferPool = networkBufferPool.createBufferPool(2, 2);
+        NetworkBuffer first = localBufferPool.requestBuffer();
+        NetworkBuffer second = localBufferPool.requestBuffer();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(localBufferPool.requestBuffer(), "超过上限后不应再拿到 buffer");
+
+        List<NetworkBuffer> received = new ArrayList<>();
+        assertTrue(localBufferPool.addBufferListener(new BufferListener() {
+            @Override
+            public boolean notifyBufferAvailable(NetworkBuffer buffer) {
+                received.add(buffer);
+                return false;
+            }
+
+            @Override
+            public void notifyBufferDestroyed() {
+            }
+        }));
+
+        first.writeInt(42);
+        first.release();
+        assertEquals(1, received.size());
+        assertSame(first.getMemorySegment(), received.get(0).getMemorySegment(), "应复用同一块内存段");
+        assertEquals(0, received.get(0).readableBytes(), "重新交出的 buffer 应是空的");
+
+        received.get(0).release();
+        second.release();
+        assertEquals(2, localBufferPool.getNumberOfAvailableMemorySegments());
+
+        localBufferPool.lazyDestroy();
+        assertEquals(10, networkBufferPool.getNumberOfAvailableMemorySegments());
+        assertEquals(0, networkBufferPool.getNumberOfRegisteredBufferPools());
+    }
+
+    @Test
+    @DisplayName("InputChannel: 按服务端积压数提前借浮动 buffer，每个重新可用的 buffer 都变成一个 credit")
+    void testInputChannelBuffersBecomeCredit() throws Exception {
+        SingleInputGate inputGate = new SingleInputGate(networkBufferPool, 2, 3);
+        RemoteInputChannel inputChannel = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+        inputGate.setInputChannels(inputChannel);
+        inputGate.setup();
+        assertEquals(5, networkBufferPool.getNumberOfAvailableMemorySegments(), "应划走 3 个浮动 + 2 个独占");
+
+        NetworkBuffer first = inputChannel.requestBuffer();
+        NetworkBuffer second = inputChannel.requestBuffer();
+        assertNull(inputChannel.requestBuffer());
+        assertEquals(0, inputChannel.getAndResetUnannouncedCredit(), "没有积压信息时不应借浮动 buffer");
+
+        // 服务端还积压 2 个，需要 2 + 2 个可用 buffer：浮动池的 3 个全部借走，还差 1 个要等任务处理完 first
+        assertTrue(inputChannel.onBuffer(first, 0, 2));
+        assertEquals(3, inputChannel.getAndResetUnannouncedCredit());
+        inputChannel.notifyReceivedBuffers();
+        inputGate.getNext().get().getBuffer().release();
+        assertEquals(1, inputChannel.getAndResetUnannouncedCredit(), "first 回收后的独占 buffer 应变成 credit");
+
+        NetworkBuffer floating = inputChannel.requestBuffer();
+        assertTrue(floating.getRecycler() instanceof LocalBufferPool, "应优先使用浮动 buffer");
+        floating.release();
+        assertEquals(1, inputChannel.getAndResetUnannouncedCredit(), "登记等待的通道应直接拿回被回收的浮动 buffer");
+
+        second.release();
+        assertEquals(1, inputChannel.getAndResetUnannouncedCredit(), "独占 buffer 回收后应变成 credit");
+
+        inputGate.close();
+        assertEquals(10, networkBufferPool.getNumberOfAvailableMemorySegments());
+    }
+}
@@ -0,0 +1,88 @@
+package cn.liboshuai.scratch.flink.mini.memory;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemorySegmentTest {
+
+    @Test
+    @DisplayName("基本类型按大端序存放，带检查的访问越界时抛出异常")
+    void testPrimitiveAccess() {
+        MemorySegment segment = MemorySegmentFactory.allocateUnpooledOffHeapMemory(16);
+        segment.putInt(0, 0x01020304);
+        segment.putLongUnchecked(8, 0x1122334455667788L);
+
+        assertEquals(0x01, segment.get(0));
+        assertEquals(0x04, segment.get(3));
+        assertEquals(0x0102, segment.getShort(0));
+        assertEquals(0x1122334455667788L, segment.getLong(8));
+
+        ByteBuffer wrapped = segment.wrap(0, 4);
+        assertEquals(0x01020304, wrapped.getInt());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> segment.getInt(13));
+        assertThrows(IndexOutOfBoundsException.class, () -> segment.put(-1, (byte) 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> segment.wrap(8, 9));
+    }
+
+    @Test
+    @DisplayName("批量拷贝支持字节数组、堆内/堆外 ByteBuffer 和另一个内存段")
+    void testBulkCopy() {
+        MemorySegment segment = MemorySegmentFactory.allocateUnpooledOffHeapMemory(16);
+        segment.put(0, new byte[]{1, 2, 3, 4}, 0, 4);
+
+        ByteBuffer heap = ByteBuffer.wrap(new byte[]{5, 6, 7, 8});
+        segment.put(4, heap, 4);
+        assertFalse(heap.hasRemaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        segment.get(0, direct, 8);
+        direct.flip();
+        assertEquals(0x0102030405060708L, direct.getLong());
+
+        MemorySegment target = MemorySegmentFactory.allocateUnpooledOffHeapMemory(8);
+        segment.copyTo(2, target, 0, 4);
+        byte[] bytes = new byte[4];
+        target.get(0, bytes, 0, 4);
+        assertArrayEquals(new byte[]{3, 4, 5, 6}, bytes);
+    }
+
+    @Test
+    @DisplayName("NetworkBuffer 直接读写内存段，引用计数归零时内存段交还给回收者")
+    void testNetworkBufferSharesSegment() {
+        MemorySegment segment = MemorySegmentFactory.allocateUnpooledOffHeapMemory(32);
+        AtomicInteger recycled = new AtomicInteger();
+        NetworkBuffer buffer = new NetworkBuffer(segment, recycledSegment -> {
+            assertSame(segment, recycledSegment);
+            recycled.incrementAndGet();
+        });
+
+        buffer.writeInt(42);
+        buffer.writeBytes(Unpooled.wrappedBuffer(new byte[]{9, 9}));
+        assertEquals(42, segment.getInt(0));
+        assertEquals(segment.getAddress(), buffer.memoryAddress());
+
+        ByteBuf direct = Unpooled.directBuffer(8);
+        direct.writeLong(7L);
+        buffer.writeBytes(direct);
+        assertEquals(7L, segment.getLong(6));
+        assertEquals(14, buffer.readableBytes());
+        direct.release();
+
+        ByteBuf copy = Unpooled.directBuffer(14);
+        copy.writeBytes(buffer);
+        assertEquals(42, copy.readInt());
+        copy.release();
+
+        buffer.release();
+        assertEquals(1, recycled.get());
+    }
+}
@@ -0,0 +1,63 @@
+package cn.liboshuai.scratch.flink.mini.metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricGroupTest {
+
+    @Test
+    @DisplayName("速率按时间窗口内计数的差值计算，直方图的分位数精确到 2 的幂的桶上界")
+    void testMeterAndHistogram() {
+        Counter counter = new Counter();
+        MeterView meter = new MeterView(counter, 10);
+        counter.inc(100);
+        meter.update();
+        // 窗口是 10 秒，起点的计数是 0
+        assertEquals(10.0, meter.getRate(), 0.001);
+        meter.update();
+        meter.update();
+        assertEquals(0.0, meter.getRate(), 0.001);
+
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(63, histogram.getQuantile(0.5));
+        assertEquals(100, histogram.getQuantile(0.99));
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    @DisplayName("注册后可以通过 JMX 读到指标，注销后 MBean 消失")
+    void testPublishedOverJmx() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        MetricGroup group = new MetricGroup();
+        Counter numBytes = group.counter("numBytes");
+        group.gauge("credit", () -> 7L);
+        Histogram latency = group.histogram("latency");
+        numBytes.inc(42);
+        latency.update(5);
+
+        registry.register("Test", "group-1", group);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MetricRegistry.JMX_DOMAIN + ":type=Test,name=\"group-1\"");
+            assertEquals(42L, server.getAttribute(name, "numBytes"));
+            assertEquals(7L, server.getAttribute(name, "credit"));
+            assertEquals(1L, server.getAttribute(name, "latencyCount"));
+
+            registry.unregister(group);
+            assertFalse(server.isRegistered(name));
+        } finally {
+            registry.shutdown();
+        }
+    }
+}
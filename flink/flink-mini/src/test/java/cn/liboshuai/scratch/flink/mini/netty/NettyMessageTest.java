@@ -0,0 +1,435 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.metrics.MetricRegistry;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.RemoteInputChannel;
+import cn.liboshuai.scratch.flink.mini.partition.consumer.SingleInputGate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NettyMessageTest {
+
+    private static final String PAYLOAD = "Hello Flink Data Stream";
+
+    private NetworkBufferPool networkBufferPool;
+
+    private SingleInputGate inputGate;
+
+    /** 注册在客户端处理器上的接收者，发给它的数据会被解码进它提供的 buffer */
+    private RemoteInputChannel inputChannel;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        networkBufferPool = new NetworkBufferPool(8, 1024);
+        inputGate = new SingleInputGate(networkBufferPool, 4, 0);
+        inputChannel = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+        inputGate.setInputChannels(inputChannel);
+        inputGate.setup();
+    }
+
+    @AfterEach
+    void tearDown() {
+        inputGate.close();
+        assertEquals(8, networkBufferPool.getNumberOfAvailableMemorySegments(), "所有网络 buffer 都应被归还");
+        networkBufferPool.destroy();
+    }
+
+    // ========================================================================
+    // BufferResponse 编码
+    // ========================================================================
+
+    @Test
+    @DisplayName("零拷贝编码: 数据 buffer 应原样交给 Channel，且只额外写出一个 header")
+    void testZeroCopyEncodingPassesDataThrough() {
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+        ByteBuf data = payload();
+
+        channel.writeOutbound(new NettyMessage.BufferResponse(new InputChannelID(), 7, data));
+
+        ByteBuf header = channel.readOutbound();
+        ByteBuf written = channel.readOutbound();
+        try {
+            assertEquals(NettyMessage.FRAME_HEADER_LENGTH + NettyMessage.BufferResponse.MESSAGE_HEADER_LENGTH,
+                    header.readableBytes(), "header 中不应包含数据");
+            assertEquals(header.readableBytes() + data.readableBytes(), header.getInt(0), "帧长度应包含数据");
+            assertSame(data, written, "数据 buffer 不应被拷贝");
+            assertEquals(1, data.refCnt(), "所有权交给 Channel 后引用计数不应变化");
+        } finally {
+            header.release();
+            written.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    @DisplayName("拷贝编码: 应写出一整块帧，并释放原始数据 buffer")
+    void testCopyingEncodingReleasesData() {
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(false));
+        ByteBuf data = payload();
+        int dataLength = data.readableBytes();
+
+        channel.writeOutbound(new NettyMessage.BufferResponse(new InputChannelID(), 7, data));
+
+        ByteBuf frame = channel.readOutbound();
+        try {
+            assertEquals(NettyMessage.FRAME_HEADER_LENGTH + NettyMessage.BufferResponse.MESSAGE_HEADER_LENGTH + dataLength,
+                    frame.readableBytes());
+            assertEquals(0, data.refCnt(), "数据拷贝完成后原始 buffer 应被释放");
+        } finally {
+            frame.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    @DisplayName("两种编码方式产出的字节流应能被解码器还原为相同的 BufferResponse")
+    void testBothEncodingsRoundTrip() {
+        for (boolean zeroCopy : new boolean[] {true, false}) {
+            InputChannelID receiverId = inputChannel.getInputChannelId();
+            NettyMessage.BufferResponse decoded = (NettyMessage.BufferResponse) encodeAndDecode(
+                    new NettyMessage.BufferResponse(receiverId, 42, payload()), zeroCopy);
+            try {
+                assertEquals(receiverId.toString(), decoded.receiverId.toString());
+                assertEquals(42, decoded.sequenceNumber);
+                assertEquals(PAYLOAD, decoded.getBuffer().toString(StandardCharsets.UTF_8));
+            } finally {
+                decoded.getBuffer().release();
+            }
+        }
+    }
+
+    // ========================================================================
+    // 控制消息
+    @Test
+    @DisplayName("优先事件: 应以独立的消息 ID 还原出事件类型，并且不占用网络 buffer")
+    void testPriorityEventRoundTrip() {
+        for (boolean zeroCopy : new boolean[] {true, false}) {
+            NettyMessage.BufferResponse decoded = (NettyMessage.BufferResponse) encodeAndDecode(
+                    new NettyMessage.BufferResponse(inputChannel.getInputChannelId(), NettyMessage.NO_RECEIVER_INDEX,
+                            3, 5, payload(), DataType.PRIORITIZED_EVENT_BUFFER), zeroCopy);
+            try {
+                assertEquals(DataType.PRIORITIZED_EVENT_BUFFER, decoded.getDataType());
+                assertEquals(3, decoded.sequenceNumber);
+                assertEquals(5, decoded.backlog);
+                assertEquals(PAYLOAD, decoded.getBuffer().toString(StandardCharsets.UTF_8));
+                assertFalse(decoded.getBuffer() instanceof NetworkBuffer, "事件不应占用接收端的网络 buffer");
+            } finally {
+                decoded.getBuffer().release();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("文件区间: 零拷贝编码原样交出 FileRegion，拷贝编码从文件读出数据，两种方式客户端都能解码")
+    void testFileRegionRoundTrip(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("subpartition.data");
+        Files.write(file, PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            FileRegionBuffer region = new FileRegionBuffer(fileChannel, 0, PAYLOAD.length());
+            EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+            encoder.writeOutbound(new NettyMessage.BufferResponse(
+                    inputChannel.getInputChannelId(), NettyMessage.NO_RECEIVER_INDEX, 4, 2, region));
+
+            ByteBuf header = encoder.readOutbound();
+            FileRegion written = encoder.readOutbound();
+            assertSame(region, written, "文件区间应原样交给 Channel，由传输层 sendfile");
+            assertEquals(header.readableBytes() + PAYLOAD.length(), header.getInt(0), "帧长度应包含文件区间");
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            written.transferTo(Channels.newChannel(sent), 0);
+            written.release();
+
+            EmbeddedChannel decoder = clientDecoderChannel(1024);
+            decoder.writeInbound(header, Unpooled.wrappedBuffer(sent.toByteArray()));
+            assertFileRegionDecoded(decoder.readInbound());
+
+            assertFileRegionDecoded(encodeAndDecode(new NettyMessage.BufferResponse(
+                    inputChannel.getInputChannelId(), NettyMessage.NO_RECEIVER_INDEX, 4, 2,
+                    new FileRegionBuffer(fileChannel, 0, PAYLOAD.length())), false));
+        }
+    }
+
+    private static void assertFileRegionDecoded(NettyMessage msg) {
+        NettyMessage.BufferResponse decoded = (NettyMessage.BufferResponse) msg;
+        try {
+            assertEquals(4, decoded.sequenceNumber);
+            assertEquals(2, decoded.backlog);
+            assertEquals(PAYLOAD, decoded.getBuffer().toString(StandardCharsets.UTF_8));
+        } finally {
+            decoded.getBuffer().release();
+        }
+    }
+
+    // ========================================================================
+
+    @Test
+    @DisplayName("AddCredit 应能被服务端解码器还原")
+    void testAddCreditRoundTrip() {
+        InputChannelID receiverId = new InputChannelID();
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyMessage.NettyMessageDecoder());
+
+        encoder.writeOutbound(new NettyMessage.AddCredit(3, receiverId));
+        decoder.writeInbound((ByteBuf) encoder.readOutbound());
+
+        NettyMessage.AddCredit decoded = decoder.readInbound();
+        assertEquals(3, decoded.credit);
+        assertEquals(receiverId, decoded.receiverId);
+    }
+
+    @Test
+    @DisplayName("ErrorResponse 应能被客户端解码器还原")
+    void testErrorResponseRoundTrip() {
+        InputChannelID receiverId = new InputChannelID();
+
+        NettyMessage.ErrorResponse decoded = (NettyMessage.ErrorResponse) encodeAndDecode(
+                new NettyMessage.ErrorResponse("找不到分区", receiverId), true);
+        assertEquals("找不到分区", decoded.message);
+        assertEquals(receiverId, decoded.receiverId);
+
+        NettyMessage.ErrorResponse fatal = (NettyMessage.ErrorResponse) encodeAndDecode(
+                new NettyMessage.ErrorResponse("连接出错", null), true);
+        assertTrue(fatal.isFatalError());
+    }
+
+    // ========================================================================
+    // 客户端流式解码
+    // ========================================================================
+
+    @Test
+    @DisplayName("客户端解码: 字节逐个到达时也应还原出完整的多条 BufferResponse")
+    void testClientDecoderHandlesFragmentedInput() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+        InputChannelID receiverId = inputChannel.getInputChannelId();
+        encoder.writeOutbound(new NettyMessage.BufferResponse(receiverId, 1, payload()));
+        encoder.writeOutbound(new NettyMessage.BufferResponse(receiverId, 2, payload()));
+
+        ByteBuf wire = Unpooled.buffer();
+        ByteBuf encoded;
+        while ((encoded = encoder.readOutbound()) != null) {
+            wire.writeBytes(encoded);
+            encoded.release();
+        }
+
+        EmbeddedChannel decoder = clientDecoderChannel(1024);
+        while (wire.isReadable()) {
+            decoder.writeInbound(wire.readRetainedSlice(1));
+        }
+        wire.release();
+
+        for (int expectedSeq = 1; expectedSeq <= 2; expectedSeq++) {
+            NettyMessage.BufferResponse decoded = decoder.readInbound();
+            try {
+                assertEquals(expectedSeq, decoded.sequenceNumber);
+                assertEquals(PAYLOAD, decoded.getBuffer().toString(StandardCharsets.UTF_8));
+            } finally {
+                decoded.getBuffer().release();
+            }
+        }
+        assertNull(decoder.readInbound());
+    }
+
+    @Test
+    @DisplayName("客户端解码: 数据超过网络 buffer 上限时应报错而不是无限累积")
+    void testClientDecoderRejectsOversizedBuffer() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+        encoder.writeOutbound(new NettyMessage.BufferResponse(new InputChannelID(), 0, payload()));
+
+        EmbeddedChannel decoder = clientDecoderChannel(PAYLOAD.length() - 1);
+        ByteBuf header = encoder.readOutbound();
+        ByteBuf data = encoder.readOutbound();
+        try {
+            assertThrows(IllegalStateException.class, () -> decoder.writeInbound(header));
+        } finally {
+            data.release();
+        }
+    }
+
+    @Test
+    @DisplayName("客户端解码: 发往未注册接收者的数据应被跳过，不影响后续消息")
+    void testClientDecoderSkipsDataOfUnknownReceiver() {
+        NettyMessage.BufferResponse decoded = (NettyMessage.BufferResponse) encodeAndDecode(
+                new NettyMessage.BufferResponse(new InputChannelID(), 0, payload()), true);
+        assertNull(decoded.getBuffer());
+    }
+
+    // ========================================================================
+    // 连接内下标（紧凑格式）
+    // ========================================================================
+
+    @Test
+    @DisplayName("紧凑格式: BufferResponse 应用下标代替完整 ID，逐字节到达时也能按下标分发")
+    void testCompactBufferResponseRoundTrip() {
+        PartitionRequestClientHandler clientHandler = new PartitionRequestClientHandler(true);
+        int receiverIndex = clientHandler.addInputChannel(inputChannel);
+        assertEquals(0, receiverIndex);
+
+        for (boolean zeroCopy : new boolean[] {true, false}) {
+            EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(zeroCopy));
+            encoder.writeOutbound(new NettyMessage.BufferResponse(
+                    inputChannel.getInputChannelId(), receiverIndex, 5, 3, payload()));
+            ByteBuf wire = Unpooled.buffer();
+            ByteBuf encoded;
+            while ((encoded = encoder.readOutbound()) != null) {
+                wire.writeBytes(encoded);
+                encoded.release();
+            }
+            assertEquals(NettyMessage.FRAME_HEADER_LENGTH + 1 + 2 * Integer.BYTES + PAYLOAD.length(),
+                    wire.readableBytes(), "下标小于 128 时 header 只应占 1 + 4 + 4 个字节");
+
+            EmbeddedChannel decoder = new EmbeddedChannel(new NettyMessageClientDecoderDelegate(
+                    new NetworkBufferAllocator(clientHandler, 1024)));
+            while (wire.isReadable()) {
+                decoder.writeInbound(wire.readRetainedSlice(1));
+            }
+            wire.release();
+
+            NettyMessage.BufferResponse decoded = decoder.readInbound();
+            try {
+                assertTrue(decoded.isCompact());
+                assertEquals(receiverIndex, decoded.receiverIndex);
+                assertSame(inputChannel.getInputChannelId(), decoded.receiverId);
+                assertEquals(5, decoded.sequenceNumber);
+                assertEquals(3, decoded.backlog);
+                assertEquals(PAYLOAD, decoded.getBuffer().toString(StandardCharsets.UTF_8));
+            } finally {
+                decoded.getBuffer().release();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("紧凑格式: header 按下标的变长编码占 1 / 2 / 3 个字节，都比完整 ID 的 header 短")
+    void testCompactHeaderLengthFollowsReceiverIndex() {
+        int[][] indexAndVarIntLength = {{5, 1}, {1_000, 2}, {100_000, 3}};
+        for (int[] expected : indexAndVarIntLength) {
+            EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(true));
+            encoder.writeOutbound(new NettyMessage.BufferResponse(
+                    inputChannel.getInputChannelId(), expected[0], 0, 0, payload()));
+            ByteBuf header = encoder.readOutbound();
+            ByteBuf data = encoder.readOutbound();
+            try {
+                assertEquals(NettyMessage.FRAME_HEADER_LENGTH + expected[1] + 2 * Integer.BYTES,
+                        header.readableBytes(), "下标 " + expected[0]);
+                assertTrue(header.readableBytes()
+                        < NettyMessage.FRAME_HEADER_LENGTH + NettyMessage.BufferResponse.MESSAGE_HEADER_LENGTH);
+            } finally {
+                header.release();
+                data.release();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("紧凑格式: PartitionRequest 的下标是可选字段，不带下标时服务端应回退到完整 ID")
+    void testPartitionRequestReceiverIndexIsOptional() {
+        ResultPartitionID partitionId = new ResultPartitionID();
+        InputChannelID receiverId = new InputChannelID();
+
+        NettyMessage.PartitionRequest legacy = decodeOnServer(
+                new NettyMessage.PartitionRequest(partitionId, 1, receiverId, 2));
+        assertEquals(NettyMessage.NO_RECEIVER_INDEX, legacy.receiverIndex);
+        assertEquals(receiverId, legacy.receiverId);
+
+        NettyMessage.PartitionRequest compact = decodeOnServer(
+                new NettyMessage.PartitionRequest(partitionId, 1, receiverId, 2, 300));
+        assertEquals(300, compact.receiverIndex);
+        assertEquals(2, compact.credit);
+
+        NettyMessage.AddCredit addCredit = decodeOnServer(NettyMessage.AddCredit.compact(4, 300));
+        assertTrue(addCredit.isCompact());
+        assertEquals(300, addCredit.receiverIndex);
+        assertEquals(4, addCredit.credit);
+    }
+
+    @Test
+    @DisplayName("紧凑格式: 下标不复用，用完后新注册的 InputChannel 退回完整 ID")
+    void testReceiverIndicesAreBounded() {
+        int maxReceiverIndices = 4;
+        PartitionRequestClientHandler clientHandler = new PartitionRequestClientHandler(
+                true, new NettyConnectionMetrics(MetricRegistry.NO_OP), maxReceiverIndices);
+        assertEquals(0, clientHandler.addInputChannel(inputChannel));
+        clientHandler.removeInputChannel(inputChannel);
+        assertNull(clientHandler.getInputChannel(0));
+
+        for (int i = 1; i < maxReceiverIndices; i++) {
+            RemoteInputChannel channel = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+            assertEquals(i, clientHandler.addInputChannel(channel));
+        }
+
+        RemoteInputChannel overflow = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+        assertEquals(NettyMessage.NO_RECEIVER_INDEX, clientHandler.addInputChannel(overflow));
+        assertSame(overflow, clientHandler.getInputChannel(overflow.getInputChannelId()));
+        assertNull(clientHandler.getInputChannel(maxReceiverIndices));
+    }
+
+    @Test
+    @DisplayName("NewBufferSize: 服务端应能解码出接收者和新的 buffer 大小")
+    void testNewBufferSizeRoundTrip() {
+        InputChannelID receiverId = new InputChannelID();
+        NettyMessage.NewBufferSize decoded = decodeOnServer(new NettyMessage.NewBufferSize(4096, receiverId));
+        assertEquals(receiverId, decoded.receiverId);
+        assertEquals(4096, decoded.bufferSize);
+    }
+
+    // ========================================================================
+    // 工具方法
+    // ========================================================================
+
+    private static ByteBuf payload() {
+        ByteBuf data = Unpooled.directBuffer();
+        data.writeBytes(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        return data;
+    }
+
+    private static <T extends NettyMessage> T decodeOnServer(NettyMessage msg) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyMessage.NettyMessageDecoder());
+        encoder.writeOutbound(msg);
+        decoder.writeInbound((ByteBuf) encoder.readOutbound());
+        T decoded = decoder.readInbound();
+        assertNotNull(decoded);
+        return decoded;
+    }
+
+    private EmbeddedChannel clientDecoderChannel(int maxBufferSize) {
+        PartitionRequestClientHandler clientHandler = new PartitionRequestClientHandler();
+        clientHandler.addInputChannel(inputChannel);
+        return new EmbeddedChannel(new NettyMessageClientDecoderDelegate(
+                new NetworkBufferAllocator(clientHandler, maxBufferSize)));
+    }
+
+    private NettyMessage encodeAndDecode(NettyMessage msg, boolean zeroCopy) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyMessage.NettyMessageEncoder(zeroCopy));
+        EmbeddedChannel decoder = clientDecoderChannel(1024);
+
+        encoder.writeOutbound(msg);
+        ByteBuf encoded;
+        while ((encoded = encoder.readOutbound()) != null) {
+            decoder.writeInbound(encoded);
+        }
+        NettyMessage decoded = decoder.readInbound();
+        assertNotNull(decoded);
+        return decoded;
+    }
+}
@@ -0,0 +1,166 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionRequestClientFactoryTest {
+
+    private static final InetSocketAddress REMOTE = new InetSocketAddress("127.0.0.1", 9091);
+
+    /** 两端都不需要处理消息，只要连接本身；ChannelInitializer 是 @Sharable 的，可以装到每条连接上 */
+    private static final ChannelInitializer<Channel> NO_OP_INITIALIZER = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel channel) {
+        }
+    };
+
+    private EventLoopGroup eventLoopGroup;
+
+    private Channel serverChannel;
+
+    private LocalNettyClient nettyClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        eventLoopGroup = new DefaultEventLoopGroup(2);
+        LocalAddress serverAddress = new LocalAddress("partition-request-client-factory-test");
+        serverChannel = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(NO_OP_INITIALIZER)
+                .bind(serverAddress).sync().channel();
+        nettyClient = new LocalNettyClient(eventLoopGroup, serverAddress);
+    }
+
+    @AfterEach
+    void tearDown() {
+        serverChannel.close().syncUninterruptibly();
+        eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("多个线程同时请求同一个连接时只建立一条连接，所有线程拿到同一个客户端")
+    void testConcurrentRequestsShareOneConnect() throws Exception {
+        PartitionRequestClientFactory factory = new PartitionRequestClientFactory(nettyClient, 1);
+        // 第一个线程建立连接时故意慢一点，让其余线程都在等同一个 future
+        nettyClient.connectDelayMillis = 100;
+
+        int numThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<NettyPartitionRequestClient>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    return factory.createPartitionRequestClient(new ConnectionID(REMOTE, 0));
+                }));
+            }
+            startLatch.countDown();
+
+            Set<NettyPartitionRequestClient> clients = new HashSet<>();
+            for (Future<NettyPartitionRequestClient> future : futures) {
+                clients.add(future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, clients.size());
+            assertEquals(1, nettyClient.channels.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("连接下标按 maxConnections 取模，下标同余的 ConnectionID 复用同一条连接")
+    void testConnectionIndexIsFoldedIntoPool() throws Exception {
+        PartitionRequestClientFactory factory = new PartitionRequestClientFactory(nettyClient, 2);
+
+        NettyPartitionRequestClient first = factory.createPartitionRequestClient(new ConnectionID(REMOTE, 0));
+        NettyPartitionRequestClient second = factory.createPartitionRequestClient(new ConnectionID(REMOTE, 1));
+        assertNotSame(first, second);
+        assertSame(first, factory.createPartitionRequestClient(new ConnectionID(REMOTE, 2)));
+        assertSame(second, factory.createPartitionRequestClient(new ConnectionID(REMOTE, 5)));
+        assertEquals(2, nettyClient.channels.size());
+        assertEquals(2, factory.getNumberOfActiveClients());
+    }
+
+    @Test
+    @DisplayName("连接关闭后从池中移除，下一次请求重新建立连接")
+    void testReconnectAfterChannelClosed() throws Exception {
+        PartitionRequestClientFactory factory = new PartitionRequestClientFactory(nettyClient, 1);
+        NettyPartitionRequestClient first = factory.createPartitionRequestClient(new ConnectionID(REMOTE, 0));
+
+        nettyClient.channels.get(0).close().sync();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (factory.getNumberOfActiveClients() != 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "关闭的连接没有从池中移除");
+            Thread.sleep(1);
+        }
+
+        NettyPartitionRequestClient second = factory.createPartitionRequestClient(new ConnectionID(REMOTE, 0));
+        assertNotSame(first, second);
+        assertTrue(second.isActive());
+        assertEquals(2, nettyClient.channels.size());
+        assertEquals(1, factory.getNumberOfActiveClients());
+    }
+
+    /**
+     * 不管要连哪个地址，都连到进程内的 {@link LocalServerChannel}，并记下建立的每条连接。
+     */
+    private static final class LocalNettyClient extends NettyClient {
+
+        private final Bootstrap bootstrap;
+
+        private final LocalAddress serverAddress;
+
+        final List<Channel> channels = new CopyOnWriteArrayList<>();
+
+        volatile long connectDelayMillis;
+
+        LocalNettyClient(EventLoopGroup eventLoopGroup, LocalAddress serverAddress) {
+            super(null, null);
+            this.bootstrap = new Bootstrap()
+                    .group(eventLoopGroup)
+                    .channel(LocalChannel.class)
+                    .handler(NO_OP_INITIALIZER);
+            this.serverAddress = serverAddress;
+        }
+
+        @Override
+        public ChannelFuture connect(InetSocketAddress serverSocketAddress) {
+            try {
+                Thread.sleep(connectDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ChannelFuture connectFuture = bootstrap.connect(serverAddress);
+            channels.add(connectFuture.channel());
+            return connectFuture;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package cn.liboshuai.scratch.flink.mini.netty;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.partition.PipelinedResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionRequestServerHandlerTest {
+
+    private ResultPartitionManager partitionManager;
+    private PipelinedResultPartition partition;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        partitionManager = new ResultPartitionManager();
+        partition = new PipelinedResultPartition(new ResultPartitionID(), 2, 1024, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partitionManager.registerResultPartition(partition);
+
+        PartitionRequestQueue queue = new PartitionRequestQueue();
+        channel = new EmbeddedChannel(new PartitionRequestServerHandler(partitionManager, queue), queue);
+    }
+
+    @Test
+    @DisplayName("credit 流控: 只发送初始 credit 数量的 buffer，收到 AddCredit 后再继续")
+    void testSendsOnlyWithCredit() throws IOException {
+        InputChannelID receiverId = new InputChannelID();
+        produce(0, 3);
+
+        channel.writeInbound(new NettyMessage.PartitionRequest(partition.getPartitionId(), 0, receiverId, 1));
+        channel.runPendingTasks();
+        assertEquals(0, readResponse().sequenceNumber);
+        assertNull(channel.readOutbound(), "credit 用完后不应再发送");
+
+        channel.writeInbound(new NettyMessage.AddCredit(2, receiverId));
+        assertEquals(1, readResponse().sequenceNumber);
+        assertEquals(2, readResponse().sequenceNumber);
+        assertNull(channel.readOutbound());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("生产者新写入的数据应在 EventLoop 中被发送给已有 credit 的读取器")
+    void testSendsNewlyProducedData() throws IOException {
+        InputChannelID receiverId = new InputChannelID();
+        channel.writeInbound(new NettyMessage.PartitionRequest(partition.getPartitionId(), 1, receiverId, 5));
+        assertNull(channel.readOutbound());
+
+        produce(1, 2);
+        channel.runPendingTasks();
+
+        assertEquals(0, readResponse().sequenceNumber);
+        assertEquals(1, readResponse().sequenceNumber);
+        assertNull(channel.readOutbound());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("Channel 不可写时应暂停发送，恢复可写后继续")
+    void testPausesWhileChannelNotWritable() throws IOException {
+        InputChannelID receiverId = new InputChannelID();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        assertFalse(channel.isWritable());
+
+        produce(0, 2);
+        channel.writeInbound(new NettyMessage.PartitionRequest(partition.getPartitionId(), 0, receiverId, 5));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound(), "不可写时不应写出任何数据");
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        assertEquals(0, readResponse().sequenceNumber);
+        assertEquals(1, readResponse().sequenceNumber);
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("紧凑格式: 请求带下标时应按下标发送数据，并接受按下标追加的 credit")
+    void testCompactReceiverIndex() throws IOException {
+        InputChannelID receiverId = new InputChannelID();
+        produce(0, 2);
+
+        channel.writeInbound(new NettyMessage.PartitionRequest(partition.getPartitionId(), 0, receiverId, 1, 3));
+        channel.runPendingTasks();
+        NettyMessage.BufferResponse first = readResponse();
+        assertTrue(first.isCompact());
+        assertEquals(3, first.receiverIndex);
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(NettyMessage.AddCredit.compact(1, 3));
+        assertEquals(1, readResponse().sequenceNumber);
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("优先事件: 没有 credit 时也越过排队的数据立即发送，且不消耗 credit")
+    void testPriorityEventOvertakesQueuedData() throws IOException {
+        InputChannelID receiverId = new InputChannelID();
+        produce(0, 3);
+
+        channel.writeInbound(new NettyMessage.PartitionRequest(partition.getPartitionId(), 0, receiverId, 1));
+        channel.runPendingTasks();
+        assertEquals(0, readResponse().sequenceNumber);
+        assertNull(channel.readOutbound());
+
+        partition.broadcastPriorityEvent(ByteBuffer.wrap(new byte[] {42}));
+        channel.runPendingTasks();
+        NettyMessage.BufferResponse event = channel.readOutbound();
+        assertNotNull(event);
+        assertEquals(DataType.PRIORITIZED_EVENT_BUFFER, event.getDataType());
+        assertEquals(1, event.sequenceNumber);
+        assertEquals(2, event.backlog, "事件之后还有两个数据 buffer 在排队");
+        assertEquals(42, event.getBuffer().getByte(0));
+        event.getBuffer().release();
+        assertNull(channel.readOutbound(), "优先事件不应消耗 credit，也不应带出后面的数据");
+
+        channel.writeInbound(new NettyMessage.AddCredit(1, receiverId));
+        NettyMessage.BufferResponse data = channel.readOutbound();
+        assertEquals(DataType.DATA_BUFFER, data.getDataType());
+        assertEquals(2, data.sequenceNumber);
+        assertEquals(1, data.getBuffer().getInt(0));
+        data.getBuffer().release();
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("请求未注册的分区时应回复 ErrorResponse")
+    void testRespondsErrorForUnknownPartition() {
+        InputChannelID receiverId = new InputChannelID();
+        channel.writeInbound(new NettyMessage.PartitionRequest(new ResultPartitionID(), 0, receiverId, 1));
+
+        NettyMessage.ErrorResponse error = channel.readOutbound();
+        assertNotNull(error);
+        assertEquals(receiverId, error.receiverId);
+        assertFalse(error.isFatalError());
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("对端断开引起的 IOException 只关闭连接，不再写 ErrorResponse；其余异常先通知对端再关闭")
+    void testPeerDisconnectClosesQuietly() {
+        channel.pipeline().fireExceptionCaught(new IOException("Connection reset by peer"));
+        assertFalse(channel.isOpen());
+        assertNull(channel.readOutbound());
+
+        PartitionRequestQueue queue = new PartitionRequestQueue();
+        EmbeddedChannel another = new EmbeddedChannel(new PartitionRequestServerHandler(partitionManager, queue), queue);
+        another.pipeline().fireExceptionCaught(new IllegalStateException("协议错误"));
+        assertTrue(another.readOutbound() instanceof NettyMessage.ErrorResponse);
+        assertFalse(another.isOpen());
+    }
+
+    @Test
+    @DisplayName("credit 流控: 发往未知接收者的 AddCredit 应被忽略")
+    void testIgnoresCreditForUnknownReceiver() {
+        channel.writeInbound(new NettyMessage.AddCredit(5, new InputChannelID()));
+
+        assertNull(channel.readOutbound());
+        assertTrue(channel.isActive());
+        channel.finishAndReleaseAll();
+    }
+
+    private void produce(int subpartitionIndex, int numBuffers) throws IOException {
+        for (int i = 0; i < numBuffers; i++) {
+            partition.addBuffer(Unpooled.copyInt(i), subpartitionIndex);
+        }
+    }
+
+    private NettyMessage.BufferResponse readResponse() {
+        NettyMessage.BufferResponse response = channel.readOutbound();
+        assertNotNull(response);
+        response.getBuffer().release();
+        return response;
+    }
+}
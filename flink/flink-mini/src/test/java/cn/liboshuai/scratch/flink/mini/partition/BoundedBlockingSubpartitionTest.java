@@ -0,0 +1,133 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedBlockingSubpartitionTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("阻塞式分区: 结束之前下游读不到数据，结束时归还全部网络内存，之后按序读出，积压数逐个减少")
+    void testReadAfterFinish() throws Exception {
+        for (BoundedBlockingSubpartitionType type : BoundedBlockingSubpartitionType.values()) {
+            NetworkBufferPool networkBufferPool = new NetworkBufferPool(4, 16);
+            ResultPartition partition = new BoundedBlockingResultPartition(
+                    new ResultPartitionID(), 2, 16, tempDir.toFile(), type);
+            partition.setBufferPool(networkBufferPool.createBufferPool(2, 4));
+            AtomicInteger notifications = new AtomicInteger();
+            ResultSubpartitionView view = partition.createSubpartitionView(0, notifications::incrementAndGet);
+
+            // 每条记录 4 + 4 字节，一个 buffer 放两条
+            for (int i = 0; i < 10; i++) {
+                partition.emitRecord(record(i), 0);
+            }
+            assertFalse(view.isAvailable(), type + ": 写入结束之前下游不应看到数据");
+            assertNull(view.getNextBuffer());
+
+            partition.finish();
+            assertEquals(1, notifications.get());
+            assertEquals(4, networkBufferPool.getNumberOfAvailableMemorySegments(), type + ": 结束后应归还全部网络内存");
+            assertEquals(1, countFiles(), type + ": 没有数据的子分区不应产生文件");
+            assertEquals(5, view.getNumberOfQueuedBuffers());
+
+            List<Integer> records = new ArrayList<>();
+            SpanningRecordDeserializer deserializer = new SpanningRecordDeserializer();
+            for (int expectedBacklog = 4; expectedBacklog >= 0; expectedBacklog--) {
+                BufferAndBacklog next = view.getNextBuffer();
+                assertEquals(expectedBacklog, next.buffersInBacklog());
+                assertEquals(type == BoundedBlockingSubpartitionType.FILE, next.isFileRegion());
+                readRecords(next, deserializer, records);
+            }
+            assertNull(view.getNextBuffer());
+            assertFalse(view.isAvailable());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, records.get(i));
+            }
+
+            view.releaseAllResources();
+            partition.release();
+            assertEquals(0, countFiles(), type + ": 释放后应删除文件");
+            networkBufferPool.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("分区释放时还有读取器没结束，文件保留到最后一个读取器释放，期间仍然可以读取")
+    void testFileOutlivesPartitionWhileBeingRead() throws Exception {
+        ResultPartition partition = new BoundedBlockingResultPartition(
+                new ResultPartitionID(), 1, 16, tempDir.toFile(), BoundedBlockingSubpartitionType.MMAP);
+        partition.emitRecord(record(7), 0);
+        // 优先事件在分区上就被拒绝，不影响已经写入的数据
+        assertThrows(UnsupportedOperationException.class,
+                () -> partition.broadcastPriorityEvent(ByteBuffer.wrap(new byte[]{1})));
+        partition.finish();
+        ResultSubpartitionView first = partition.createSubpartitionView(0, () -> { });
+        ResultSubpartitionView second = partition.createSubpartitionView(0, () -> { });
+
+        partition.release();
+        assertEquals(1, countFiles());
+
+        first.releaseAllResources();
+        assertEquals(1, countFiles());
+        List<Integer> records = new ArrayList<>();
+        readRecords(second.getNextBuffer(), new SpanningRecordDeserializer(), records);
+        assertEquals(7, records.get(0));
+
+        second.releaseAllResources();
+        assertEquals(0, countFiles());
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static ByteBuffer record(int value) {
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES);
+        record.putInt(0, value);
+        return record;
+    }
+
+    private static void readRecords(BufferAndBacklog next, SpanningRecordDeserializer deserializer,
+                                    List<Integer> records) throws IOException {
+        ByteBuf buffer = next.buffer();
+        if (next.isFileRegion()) {
+            FileRegionBuffer fileRegion = next.fileRegion();
+            buffer = Unpooled.buffer(fileRegion.getSize());
+            fileRegion.readInto(buffer);
+            fileRegion.release();
+        }
+        deserializer.setNextBuffer(buffer);
+        DeserializationResult result;
+        do {
+            result = deserializer.getNextRecord();
+            if (result.isFullRecord()) {
+                ByteBuf record = deserializer.getCurrentRecord();
+                records.add(record.getInt(record.readerIndex()));
+            }
+        } while (!result.isBufferConsumed());
+        buffer.release();
+    }
+}
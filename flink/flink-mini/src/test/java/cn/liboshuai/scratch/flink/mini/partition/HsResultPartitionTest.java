@@ -0,0 +1,127 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.FileRegionBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HsResultPartitionTest {
+
+    /** 4 字节长度头 + 4 字节序号 + 8 字节填充，一条记录正好写满一个 buffer */
+    private static final int BUFFER_SIZE = 16;
+
+    private static final int NUM_BUFFERS = 10;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("下游不读时生产者不会被 buffer 池卡住：最早的 buffer 溢写到文件，下游按顺序先读到文件里的、再读到内存里的")
+    void testSpillWhenConsumerLags() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(NUM_BUFFERS, BUFFER_SIZE);
+        HsResultPartition partition = new HsResultPartition(new ResultPartitionID(), 2, BUFFER_SIZE,
+                ResultPartition.FLUSH_ONLY_WHEN_FULL, tempDir.toFile());
+        partition.setBufferPool(networkBufferPool.createBufferPool(NUM_BUFFERS, NUM_BUFFERS));
+        ResultSubpartitionView[] views = {
+                partition.createSubpartitionView(0, () -> { }),
+                partition.createSubpartitionView(1, () -> { })};
+
+        // 远远超过 buffer 池的容量
+        for (int i = 0; i < 100; i++) {
+            partition.emitRecord(record(i), i % 2);
+        }
+        partition.finish();
+        assertEquals(1, countFiles());
+
+        for (int sp = 0; sp < 2; sp++) {
+            int fromFile = 0;
+            int fromMemory = 0;
+            for (int i = sp; i < 100; i += 2) {
+                BufferAndBacklog next = views[sp].getNextBuffer();
+                assertNotNull(next, "子分区 " + sp + " 缺少记录 " + i);
+                if (next.isFileRegion()) {
+                    assertEquals(0, fromMemory, "文件里的数据应排在内存里的数据前面");
+                    fromFile++;
+                } else {
+                    fromMemory++;
+                }
+                assertEquals(i, readValue(next));
+            }
+            assertNull(views[sp].getNextBuffer());
+            assertTrue(fromFile > 0 && fromMemory > 0, "文件: " + fromFile + ", 内存: " + fromMemory);
+        }
+
+        partition.release();
+        assertEquals(0, countFiles());
+        assertEquals(NUM_BUFFERS, networkBufferPool.getNumberOfAvailableMemorySegments());
+        networkBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("下游跟得上时 buffer 在溢写之前就被取走，不产生文件")
+    void testNoSpillWhenConsumerKeepsUp() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(NUM_BUFFERS, BUFFER_SIZE);
+        HsResultPartition partition = new HsResultPartition(new ResultPartitionID(), 1, BUFFER_SIZE,
+                ResultPartition.FLUSH_ONLY_WHEN_FULL, tempDir.toFile());
+        partition.setBufferPool(networkBufferPool.createBufferPool(NUM_BUFFERS, NUM_BUFFERS));
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+
+        for (int i = 0; i < 100; i++) {
+            partition.emitRecord(record(i), 0);
+            BufferAndBacklog next = view.getNextBuffer();
+            assertFalse(next.isFileRegion());
+            assertEquals(i, readValue(next));
+        }
+        assertEquals(0, countFiles());
+
+        partition.release();
+        assertEquals(NUM_BUFFERS, networkBufferPool.getNumberOfAvailableMemorySegments());
+        networkBufferPool.destroy();
+    }
+
+    /**
+     * 读出 buffer 里唯一一条记录的序号，并释放 buffer。
+     */
+    private static int readValue(BufferAndBacklog next) throws IOException {
+        ByteBuf buffer;
+        if (next.isFileRegion()) {
+            FileRegionBuffer fileRegion = next.fileRegion();
+            buffer = Unpooled.buffer(fileRegion.getSize());
+            fileRegion.readInto(buffer);
+            fileRegion.release();
+        } else {
+            buffer = next.buffer();
+        }
+        try {
+            assertEquals(BUFFER_SIZE, buffer.readableBytes());
+            assertEquals(BUFFER_SIZE - Integer.BYTES, buffer.getInt(buffer.readerIndex()));
+            return buffer.getInt(buffer.readerIndex() + Integer.BYTES);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static ByteBuffer record(int value) {
+        ByteBuffer record = ByteBuffer.allocate(BUFFER_SIZE - Integer.BYTES);
+        record.putInt(0, value);
+        return record;
+    }
+}
@@ -0,0 +1,208 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBuffer;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultPartitionTest {
+
+    @Test
+    @DisplayName("记录在 buffer 写满或显式 flush 之前对消费者不可见")
+    void testRecordsBecomeVisibleOnlyWhenFullOrFlushed() throws Exception {
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 16, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        AtomicInteger notifications = new AtomicInteger();
+        ResultSubpartitionView view = partition.createSubpartitionView(0, notifications::incrementAndGet);
+
+        // 每条记录前面还有 4 字节的长度头
+        partition.emitRecord(record(4), 0);
+        assertFalse(view.isAvailable(), "未写满的 buffer 不应对消费者可见");
+
+        // 第二条记录正好写满 buffer
+        partition.emitRecord(record(4), 0);
+        assertEquals(1, notifications.get());
+        assertBuffer(view.getNextBuffer(), 16);
+
+        partition.emitRecord(record(3), 0);
+        assertNull(view.getNextBuffer());
+        partition.flushAll();
+        assertEquals(2, notifications.get());
+        assertBuffer(view.getNextBuffer(), 7);
+
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("当前 buffer 放不下的记录跨到后续的 buffer 中，记录可以比 buffer 还大")
+    void testRecordThatDoesNotFitSpansBuffers() throws Exception {
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 8, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+
+        // 4 + 5 字节，第一个 buffer 写满，剩下 1 个字节
+        partition.emitRecord(record(5), 0);
+        assertBuffer(view.getNextBuffer(), 8);
+        assertNull(view.getNextBuffer());
+
+        // 4 + 17 字节，连同上一条剩下的 1 个字节一共写满 2 个 buffer，还剩 6 个字节
+        partition.emitRecord(record(17), 0);
+        assertBuffer(view.getNextBuffer(), 8, 1);
+        assertBuffer(view.getNextBuffer(), 8, 0);
+        assertNull(view.getNextBuffer());
+        partition.flushAll();
+        assertBuffer(view.getNextBuffer(), 6);
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("bufferTimeout 为 0 时每条记录都应立即可见")
+    void testZeroBufferTimeoutFlushesEveryRecord() throws Exception {
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 2, 1024, 0);
+        ResultSubpartitionView view = partition.createSubpartitionView(1, () -> { });
+
+        partition.emitRecord(record(10), 1);
+        partition.emitRecord(record(20), 1);
+
+        // 取走第一个 buffer 时第二个还在队列里，积压数为 1
+        assertBuffer(view.getNextBuffer(), 14, 1);
+        assertBuffer(view.getNextBuffer(), 24, 0);
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("bufferTimeout 大于 0 时 OutputFlusher 应定期把未写满的 buffer 发出")
+    void testOutputFlusherFlushesPeriodically() throws Exception {
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 1024, 10);
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+
+        partition.emitRecord(record(16), 0);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!view.isAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertBuffer(view.getNextBuffer(), 20);
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("OutputFlusher 的 flush 失败后，生产者下一次写入时收到这个异常")
+    void testOutputFlusherFailureIsReportedToProducer() throws Exception {
+        CompletableFuture<Thread> failingThread = new CompletableFuture<>();
+        ResultPartition partition = new BufferWritingResultPartition(new ResultPartitionID(), 1, 1024, 10,
+                (index, parent) -> new PipelinedSubpartition(index, parent) {
+                    @Override
+                    void add(ByteBuf buffer) {
+                        buffer.release();
+                        failingThread.complete(Thread.currentThread());
+                        throw new UncheckedIOException(new IOException("模拟写盘失败"));
+                    }
+                }) {
+        };
+        // 没写满的广播 buffer 留给 OutputFlusher 分发给子分区，生产者在那之前不再写入
+        partition.broadcastRecord(record(16));
+
+        // OutputFlusher 记下失败原因后就退出，等线程结束而不是等一段固定时间
+        Thread flusher = failingThread.get(5, TimeUnit.SECONDS);
+        assertTrue(flusher.getName().startsWith("OutputFlusher"), flusher.getName());
+        flusher.join(5_000);
+        assertFalse(flusher.isAlive(), "flush 失败后 OutputFlusher 应该退出");
+
+        IOException failure = assertThrows(IOException.class, () -> partition.emitRecord(record(0), 0));
+        assertEquals("模拟写盘失败", failure.getCause().getMessage());
+        assertThrows(IOException.class, partition::finish);
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("下游通知新的 buffer 大小后，buffer 应按新大小结束，放不下的记录跨到下一个 buffer")
+    void testNewBufferSizeCutsBuffersEarlier() throws Exception {
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 64, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+
+        partition.emitRecord(record(10), 0);
+        // 正在写的 buffer 已经超过新大小，应立即结束
+        view.notifyNewBufferSize(8);
+        assertBuffer(view.getNextBuffer(), 14);
+
+        partition.emitRecord(record(0), 0);
+        assertNull(view.getNextBuffer());
+        // 4 + 2 字节，只有 4 个字节能放进当前 buffer
+        partition.emitRecord(record(2), 0);
+        assertBuffer(view.getNextBuffer(), 8);
+        partition.flushAll();
+        assertBuffer(view.getNextBuffer(), 2);
+
+        partition.release();
+    }
+
+    @Test
+    @DisplayName("使用 buffer 池时记录直接写进网络内存段，池用完后生产者阻塞到 buffer 被回收")
+    void testBufferPoolBackpressure() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(2, 8);
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 8, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partition.setBufferPool(networkBufferPool.createBufferPool(1, 2));
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+
+        // 4 + 8 字节，跨越两个 buffer；第二条空记录正好把第二个 buffer 写满
+        partition.emitRecord(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}), 0);
+        partition.emitRecord(record(0), 0);
+
+        CompletableFuture<Void> blockedEmit = CompletableFuture.runAsync(() -> {
+            try {
+                partition.emitRecord(record(0), 0);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(blockedEmit.isDone(), "buffer 池用完后生产者应该被阻塞");
+
+        ByteBuf first = view.getNextBuffer().buffer();
+        assertTrue(first instanceof NetworkBuffer);
+        assertEquals(8, ((NetworkBuffer) first).getMemorySegment().getInt(0));
+        assertEquals(0x01020304, first.getInt(4));
+        first.release();
+        blockedEmit.get(5, TimeUnit.SECONDS);
+
+        ByteBuf second = view.getNextBuffer().buffer();
+        assertEquals(0x05060708, second.getInt(0));
+        assertEquals(0, second.getInt(4));
+        second.release();
+        partition.flushAll();
+        assertBuffer(view.getNextBuffer(), 4, 0);
+        partition.release();
+        assertEquals(2, networkBufferPool.getNumberOfAvailableMemorySegments());
+        assertEquals(0, networkBufferPool.getNumberOfRegisteredBufferPools());
+        networkBufferPool.destroy();
+    }
+
+    private static ByteBuffer record(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    private static void assertBuffer(BufferAndBacklog next, int expectedSize) {
+        assertNotNull(next);
+        try {
+            assertEquals(expectedSize, next.buffer().readableBytes());
+        } finally {
+            next.buffer().release();
+        }
+    }
+
+    private static void assertBuffer(BufferAndBacklog next, int expectedSize, int expectedBacklog) {
+        assertNotNull(next);
+        assertEquals(expectedBacklog, next.buffersInBacklog());
+        assertBuffer(next, expectedSize);
+    }
+}
@@ -0,0 +1,156 @@
+package cn.liboshuai.scratch.flink.mini.partition;
+
+import cn.liboshuai.scratch.flink.mini.buffer.BatchShuffleReadBufferPool;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortMergeResultPartitionTest {
+
+    private static final int NUM_SUBPARTITIONS = 4;
+
+    private static final int BUFFER_SIZE = 32;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        ioExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("排序缓冲多次写满、夹杂广播和大记录：只产生两个文件，每个子分区按写入顺序读出，读 buffer 最后全部归还")
+    void testWriteAndReadMultipleRegions() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(3, BUFFER_SIZE);
+        BatchShuffleReadBufferPool readBufferPool = new BatchShuffleReadBufferPool(4, BUFFER_SIZE);
+        SortMergeResultPartition partition = new SortMergeResultPartition(new ResultPartitionID(),
+                NUM_SUBPARTITIONS, BUFFER_SIZE, tempDir.toFile(), 2, readBufferPool, ioExecutor);
+        partition.setBufferPool(networkBufferPool.createBufferPool(3, 3));
+        // 写完之前就来请求的读取器，写完之后才开始读
+        ResultSubpartitionView earlyView = partition.createSubpartitionView(0, () -> { });
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < NUM_SUBPARTITIONS; i++) {
+            expected.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 200; i++) {
+            partition.emitRecord(record(i, i % 7), i % NUM_SUBPARTITIONS);
+            expected.get(i % NUM_SUBPARTITIONS).add(i);
+            if (i == 100) {
+                partition.broadcastRecord(record(-1, 3));
+                expected.forEach(records -> records.add(-1));
+            }
+        }
+        // 比整个排序缓冲（2 个 buffer，64 字节）还大
+        partition.emitRecord(record(-2, 100), 2);
+        expected.get(2).add(-2);
+        partition.finish();
+
+        assertEquals(2, countFiles());
+        assertEquals(3, networkBufferPool.getNumberOfAvailableMemorySegments(), "写完之后应归还全部网络内存");
+
+        // 读 buffer 池只有 4 个 buffer，一个子分区读完释放之后下一个才能拿到足够的读 buffer
+        for (int i = 0; i < NUM_SUBPARTITIONS; i++) {
+            ResultSubpartitionView view = i == 0 ? earlyView : partition.createSubpartitionView(i, () -> { });
+            assertEquals(expected.get(i), readAll(view, expected.get(i).size()), "子分区 " + i);
+            view.releaseAllResources();
+        }
+        waitUntil(() -> readBufferPool.getNumberOfAvailableBuffers() == 4);
+        partition.release();
+        assertEquals(0, countFiles());
+        networkBufferPool.destroy();
+        readBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("分区被释放时正在读的下游收到异常，文件被删除")
+    void testReleaseFailsReaders() throws Exception {
+        BatchShuffleReadBufferPool readBufferPool = new BatchShuffleReadBufferPool(4, BUFFER_SIZE);
+        SortMergeResultPartition partition = new SortMergeResultPartition(new ResultPartitionID(),
+                1, BUFFER_SIZE, tempDir.toFile(), 2, readBufferPool, ioExecutor);
+        for (int i = 0; i < 50; i++) {
+            partition.emitRecord(record(i, 0), 0);
+        }
+        partition.finish();
+        ResultSubpartitionView view = partition.createSubpartitionView(0, () -> { });
+        waitUntil(view::isAvailable);
+
+        partition.release();
+        assertTrue(view.isAvailable(), "失败也要通知下游来取");
+        assertThrows(IOException.class, view::getNextBuffer);
+        assertEquals(0, countFiles());
+        waitUntil(() -> readBufferPool.getNumberOfAvailableBuffers() == 4);
+    }
+
+    private static List<Integer> readAll(ResultSubpartitionView view, int expectedRecords) throws Exception {
+        List<Integer> records = new ArrayList<>();
+        SpanningRecordDeserializer deserializer = new SpanningRecordDeserializer();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (records.size() < expectedRecords && System.currentTimeMillis() < deadline) {
+            BufferAndBacklog next = view.getNextBuffer();
+            if (next == null) {
+                Thread.sleep(1);
+                continue;
+            }
+            ByteBuf buffer = next.buffer();
+            deserializer.setNextBuffer(buffer);
+            DeserializationResult result;
+            do {
+                result = deserializer.getNextRecord();
+                if (result.isFullRecord()) {
+                    ByteBuf record = deserializer.getCurrentRecord();
+                    records.add(record.getInt(record.readerIndex()));
+                }
+            } while (!result.isBufferConsumed());
+            buffer.release();
+        }
+        assertNull(view.getNextBuffer());
+        return records;
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static void waitUntil(Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.isTrue()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(1);
+        }
+    }
+
+    private static ByteBuffer record(int value, int padding) {
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + padding);
+        record.putInt(0, value);
+        return record;
+    }
+
+    private interface Condition {
+
+        boolean isTrue() throws Exception;
+    }
+}
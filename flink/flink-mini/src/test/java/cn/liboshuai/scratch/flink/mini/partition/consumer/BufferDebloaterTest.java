@@ -0,0 +1,38 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferDebloaterTest {
+
+    @Test
+    @DisplayName("buffer 大小应收敛到 吞吐量 × 目标时间 / 在途 buffer 数，并限制在上下限之间")
+    void testConvergesToTargetBufferSize() {
+        // 只取一个样本时不做平滑，结果就是公式的值
+        BufferDebloater debloater = new BufferDebloater(1000, 32 * 1024, 256, 0, 1);
+
+        // 10 KB/s × 1 s / 5 个 buffer = 2 KB
+        assertEquals(OptionalInt.of(2048), debloater.recalculateBufferSize(10 * 1024, 5));
+        assertEquals(OptionalInt.of(32 * 1024), debloater.recalculateBufferSize(100L << 20, 5), "不应超过上限");
+        assertEquals(OptionalInt.of(256), debloater.recalculateBufferSize(0, 5), "不应低于下限");
+        assertEquals(OptionalInt.empty(), debloater.recalculateBufferSize(0, 5), "大小不变时不应通知");
+    }
+
+    @Test
+    @DisplayName("变化不超过阈值时不通知上游，平滑后的大小逐步逼近目标")
+    void testThresholdAndSmoothing() {
+        BufferDebloater debloater = new BufferDebloater(1000, 32 * 1024, 256, 25, 3);
+
+        // alpha = 0.5：32 KB 先降到 (32 KB + 1 KB) / 2，变化超过 25%，需要通知
+        OptionalInt first = debloater.recalculateBufferSize(1024, 1);
+        assertEquals(OptionalInt.of(16896), first);
+
+        // 吞吐量回升到接近当前大小，变化不到 25%
+        assertEquals(OptionalInt.empty(), debloater.recalculateBufferSize(20 * 1024, 1));
+        assertEquals(16896, debloater.getLastBufferSize());
+    }
+}
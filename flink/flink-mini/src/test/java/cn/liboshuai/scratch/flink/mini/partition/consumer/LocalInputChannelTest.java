@@ -0,0 +1,107 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.partition.PipelinedResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalInputChannelTest {
+
+    @Test
+    @DisplayName("同进程的分区使用本地通道，按引用拿到生产者的 buffer，消费者不释放时生产者被反压")
+    void testLocalChannelReadsProducerBuffersByReference() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(4, 8);
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 8, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partition.setBufferPool(networkBufferPool.createBufferPool(1, 2));
+        partitionManager.registerResultPartition(partition);
+
+        SingleInputGate inputGate = new SingleInputGate(networkBufferPool, 2, 0);
+        InputChannel channel = new InputChannelFactory(null, partitionManager)
+                .createInputChannel(inputGate, partition.getPartitionId(), 0, null);
+        assertTrue(channel instanceof LocalInputChannel);
+
+        inputGate.setInputChannels(channel);
+        inputGate.setup();
+        // 生产者的池预留了 1 个，本地通道不占用独占 buffer
+        assertEquals(3, networkBufferPool.getNumberOfAvailableMemorySegments());
+
+        // 长度头 4 字节 + 记录 4 字节，每条记录正好写满一个 buffer
+        partition.emitRecord(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 0);
+        inputGate.requestPartitions();
+        partition.emitRecord(ByteBuffer.wrap(new byte[]{9, 9, 9, 9}), 0);
+        // 任务先攒着 buffer 不释放，模拟处理得慢
+        ByteBuf first = inputGate.getNext().get().getBuffer();
+        ByteBuf second = inputGate.getNext().get().getBuffer();
+        assertEquals(0x01020304, first.getInt(4));
+        assertEquals(0x09090909, second.getInt(4));
+
+        CompletableFuture<Void> blockedEmit = CompletableFuture.runAsync(() -> {
+            try {
+                partition.emitRecord(ByteBuffer.allocate(4), 0);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(blockedEmit.isDone(), "消费者没有释放 buffer 时生产者应该被阻塞");
+
+        first.release();
+        blockedEmit.get(5, TimeUnit.SECONDS);
+        ByteBuf third = inputGate.getNext().get().getBuffer();
+        second.release();
+        third.release();
+
+        inputGate.close();
+        partitionManager.shutdown();
+        assertEquals(4, networkBufferPool.getNumberOfAvailableMemorySegments());
+        networkBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("接收队列最多放独占 buffer 数个 buffer，其余留在子分区里，任务取走之后再补上；在途 buffer 数包括两边")
+    void testReceivedBuffersAreBoundedByCredit() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(4, 8);
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        ResultPartition partition = new PipelinedResultPartition(new ResultPartitionID(), 1, 8, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partitionManager.registerResultPartition(partition);
+
+        SingleInputGate inputGate = new SingleInputGate(networkBufferPool, 2, 0);
+        LocalInputChannel channel = (LocalInputChannel) new InputChannelFactory(null, partitionManager)
+                .createInputChannel(inputGate, partition.getPartitionId(), 0, null);
+        inputGate.setInputChannels(channel);
+        inputGate.setup();
+        inputGate.requestPartitions();
+
+        for (int i = 0; i < 5; i++) {
+            partition.emitRecord(ByteBuffer.allocate(4).putInt(0, i), 0);
+        }
+        assertEquals(2, channel.getNumberOfQueuedBuffers());
+        assertEquals(5, channel.getBuffersInUseCount());
+
+        // 直接从通道取，绕过 gate 的批量取数据，每取走一个就从子分区补一个
+        for (int i = 0; i < 5; i++) {
+            ByteBuf buffer = channel.pollBuffer();
+            assertEquals(i, buffer.getInt(4));
+            buffer.release();
+            assertEquals(Math.min(2, 4 - i), channel.getNumberOfQueuedBuffers());
+            assertEquals(4 - i, channel.getBuffersInUseCount());
+        }
+        assertNull(channel.pollBuffer());
+
+        inputGate.close();
+        partitionManager.shutdown();
+        networkBufferPool.destroy();
+    }
+}
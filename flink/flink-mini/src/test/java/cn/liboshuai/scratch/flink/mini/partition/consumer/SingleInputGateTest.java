@@ -0,0 +1,144 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.DataType;
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleInputGateTest {
+
+    private NetworkBufferPool networkBufferPool;
+
+    private SingleInputGate inputGate;
+
+    private RemoteInputChannel first;
+
+    private RemoteInputChannel second;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        networkBufferPool = new NetworkBufferPool(4, 8);
+        inputGate = new SingleInputGate(networkBufferPool, 2, 0);
+        first = new RemoteInputChannel(inputGate, new ResultPartitionID(), 0, null, null);
+        second = new RemoteInputChannel(inputGate, new ResultPartitionID(), 1, null, null);
+        inputGate.setInputChannels(first, second);
+        inputGate.setup();
+    }
+
+    @AfterEach
+    void tearDown() {
+        inputGate.close();
+        assertEquals(4, networkBufferPool.getNumberOfAvailableMemorySegments(), "所有网络 buffer 都应被归还");
+        networkBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("一轮读取中的多个 buffer 只通知一次，通知之前任务线程不会被唤醒，之后按序取出")
+    void testNotificationIsCoalescedPerRead() throws Exception {
+        CompletableFuture<Optional<BufferOrEvent>> waiting = getNextAsync();
+
+        assertTrue(first.onBuffer(Unpooled.copyInt(0), 0, 0), "第一个 buffer 需要在读取结束时通知");
+        assertFalse(first.onBuffer(Unpooled.copyInt(1), 1, 0), "同一轮读取中的后续 buffer 不需要再通知");
+        assertFalse(first.onBuffer(Unpooled.copyInt(2), 2, 0));
+        Thread.sleep(50);
+        assertFalse(waiting.isDone(), "读取结束之前不应唤醒任务线程");
+
+        first.notifyReceivedBuffers();
+        assertEquals(0, readInt(waiting.get(5, TimeUnit.SECONDS)));
+        assertEquals(1, readInt(inputGate.getNext()));
+        assertEquals(2, readInt(inputGate.getNext()));
+        assertTrue(first.onBuffer(Unpooled.copyInt(3), 3, 0), "通知过之后的新一轮读取需要重新通知");
+        first.notifyReceivedBuffers();
+        assertEquals(3, readInt(inputGate.getNext()));
+    }
+
+    @Test
+    @DisplayName("优先事件越过所有排队的数据，包括任务线程已经取出、还没处理完的一批")
+    void testPriorityEventOvertakesQueuedData() throws Exception {
+        first.onBuffer(Unpooled.copyInt(0), 0, 0);
+        first.onBuffer(Unpooled.copyInt(1), 1, 0);
+        first.notifyReceivedBuffers();
+        second.onBuffer(Unpooled.copyInt(10), 0, 0);
+        second.notifyReceivedBuffers();
+        // 第一个通道的两个 buffer 被一起取出，第二个留在手里
+        assertEquals(0, readInt(inputGate.getNext()));
+
+        second.onBuffer(Unpooled.wrappedBuffer(new byte[] {42}), 1, 0, DataType.PRIORITIZED_EVENT_BUFFER);
+        BufferOrEvent event = inputGate.getNext().get();
+        assertTrue(event.isEvent());
+        assertTrue(event.hasPriority());
+        assertSame(second, event.getChannel());
+        assertEquals(42, event.getBuffer().getByte(0));
+        event.getBuffer().release();
+
+        assertEquals(1, readInt(inputGate.getNext()));
+        assertEquals(10, readInt(inputGate.getNext()));
+    }
+
+    @Test
+    @DisplayName("pollNext 不阻塞：没有数据时 future 未完成，有通道收到数据时完成，取空后重新变为未完成")
+    void testAvailabilityFuture() throws Exception {
+        assertFalse(inputGate.pollNext().isPresent());
+        CompletableFuture<?> available = inputGate.getAvailableFuture();
+        assertFalse(available.isDone());
+
+        second.onBuffer(Unpooled.copyInt(7), 0, 0);
+        second.notifyReceivedBuffers();
+        assertTrue(available.isDone(), "通道有数据后应完成等待中的 future");
+        assertTrue(inputGate.isAvailable());
+
+        assertEquals(7, readInt(inputGate.pollNext()));
+        assertFalse(inputGate.pollNext().isPresent());
+        assertFalse(inputGate.isAvailable());
+
+        inputGate.close();
+        assertTrue(inputGate.isAvailable(), "关闭后 future 应完成，让等待的任务线程看到结束");
+        assertTrue(inputGate.isFinished());
+    }
+
+    @Test
+    @DisplayName("关闭 gate 时唤醒等待的任务线程，并释放还没取走的 buffer")
+    void testCloseWakesUpTaskAndReleasesQueuedBuffers() throws Exception {
+        CompletableFuture<Optional<BufferOrEvent>> waiting = getNextAsync();
+        ByteBuf queued = Unpooled.copyInt(0);
+        first.onBuffer(queued, 0, 0);
+
+        inputGate.close();
+        assertFalse(waiting.get(5, TimeUnit.SECONDS).isPresent());
+        assertEquals(0, queued.refCnt(), "关闭后排队的 buffer 应被释放");
+
+        ByteBuf late = Unpooled.copyInt(1);
+        first.onBuffer(late, 1, 0);
+        assertEquals(0, late.refCnt(), "关闭后才收到的 buffer 应被直接释放");
+    }
+
+    private CompletableFuture<Optional<BufferOrEvent>> getNextAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return inputGate.getNext();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static int readInt(Optional<BufferOrEvent> next) {
+        assertTrue(next.isPresent());
+        BufferOrEvent bufferOrEvent = next.get();
+        assertTrue(bufferOrEvent.isBuffer());
+        int value = bufferOrEvent.getBuffer().getInt(0);
+        bufferOrEvent.getBuffer().release();
+        return value;
+    }
+}
@@ -0,0 +1,83 @@
+package cn.liboshuai.scratch.flink.mini.partition.consumer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnionInputGateTest {
+
+    @Test
+    @DisplayName("合并的 gate 只在有数据的 gate 之间轮流读取，没有数据时等待任意一个 gate，全部关闭后结束")
+    void testUnionReadsGatesWithData() throws Exception {
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(8, 8);
+        SingleInputGate[] gates = new SingleInputGate[2];
+        RemoteInputChannel[] channels = new RemoteInputChannel[2];
+        for (int i = 0; i < gates.length; i++) {
+            gates[i] = new SingleInputGate(networkBufferPool, 2, 0);
+            channels[i] = new RemoteInputChannel(gates[i], new ResultPartitionID(), 0, null, null);
+            gates[i].setInputChannels(channels[i]);
+            gates[i].setup();
+        }
+        UnionInputGate union = new UnionInputGate(gates);
+        assertEquals(2, union.getNumberOfInputChannels());
+        assertFalse(union.pollNext().isPresent());
+        assertFalse(union.isAvailable());
+
+        // 只有第二个 gate 有数据时，应直接读到它
+        CompletableFuture<?> available = union.getAvailableFuture();
+        receive(channels[1], 10, 0);
+        assertTrue(available.isDone());
+        assertEquals(10, readInt(union.pollNext()));
+        assertFalse(union.pollNext().isPresent());
+
+        receive(channels[0], 0, 0);
+        receive(channels[0], 1, 1);
+        receive(channels[1], 11, 1);
+        assertEquals(0, readInt(union.pollNext()));
+        assertEquals(11, readInt(union.pollNext()), "取到数据的 gate 应排到队尾，让其它 gate 先读");
+        assertEquals(1, readInt(union.pollNext()));
+        assertFalse(union.pollNext().isPresent());
+
+        CompletableFuture<Optional<BufferOrEvent>> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return union.getNext();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+        receive(channels[0], 2, 2);
+        assertEquals(2, readInt(waiting.get(5, TimeUnit.SECONDS)));
+
+        gates[0].close();
+        assertFalse(union.isFinished());
+        gates[1].close();
+        assertTrue(union.isFinished());
+        assertFalse(union.getNext().isPresent());
+
+        union.close();
+        assertEquals(8, networkBufferPool.getNumberOfAvailableMemorySegments());
+        networkBufferPool.destroy();
+    }
+
+    private static void receive(RemoteInputChannel channel, int value, int sequenceNumber) {
+        channel.onBuffer(Unpooled.copyInt(value), sequenceNumber, 0);
+        channel.notifyReceivedBuffers();
+    }
+
+    private static int readInt(Optional<BufferOrEvent> next) {
+        assertTrue(next.isPresent());
+        int value = next.get().getBuffer().getInt(0);
+        next.get().getBuffer().release();
+        return value;
+    }
+}
@@ -0,0 +1,94 @@
+package cn.liboshuai.scratch.flink.mini.serialization;
+
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpanningRecordDeserializerTest {
+
+    @Test
+    @DisplayName("各种大小的记录写进定长 buffer 后应能逐条原样还原，包括长度头被拆开、记录比 buffer 大的情况")
+    void testRoundTripAcrossBufferBoundaries() {
+        Random random = new Random(42);
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // 大部分是小记录，偶尔有比 buffer 大好几倍的记录
+            byte[] record = new byte[random.nextInt(10) == 0 ? random.nextInt(100) : random.nextInt(12)];
+            random.nextBytes(record);
+            records.add(record);
+        }
+
+        for (int bufferSize : new int[]{1, 3, 7, 16, 64}) {
+            List<ByteBuf> buffers = serialize(records, bufferSize);
+            SpanningRecordDeserializer deserializer = new SpanningRecordDeserializer();
+            List<byte[]> deserialized = new ArrayList<>();
+            for (ByteBuf buffer : buffers) {
+                deserializer.setNextBuffer(buffer);
+                DeserializationResult result;
+                do {
+                    result = deserializer.getNextRecord();
+                    if (result.isFullRecord()) {
+                        ByteBuf record = deserializer.getCurrentRecord();
+                        byte[] bytes = new byte[record.readableBytes()];
+                        record.readBytes(bytes);
+                        deserialized.add(bytes);
+                    }
+                } while (!result.isBufferConsumed());
+                assertEquals(0, buffer.readerIndex(), "反序列化不应修改 buffer 的读下标");
+                buffer.release();
+            }
+
+            assertFalse(deserializer.hasUnfinishedData());
+            assertEquals(records.size(), deserialized.size(), "bufferSize = " + bufferSize);
+            for (int i = 0; i < records.size(); i++) {
+                assertArrayEquals(records.get(i), deserialized.get(i), "bufferSize = " + bufferSize + ", 第 " + i + " 条");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("完整落在一个 buffer 里的记录以切片返回，不发生拷贝")
+    void testRecordWithinBufferIsSlice() {
+        ByteBuf buffer = Unpooled.buffer(16).writeInt(3).writeBytes(new byte[]{1, 2, 3}).writeInt(2);
+        SpanningRecordDeserializer deserializer = new SpanningRecordDeserializer();
+        deserializer.setNextBuffer(buffer);
+
+        assertEquals(DeserializationResult.INTERMEDIATE_RECORD_FROM_BUFFER, deserializer.getNextRecord());
+        ByteBuf record = deserializer.getCurrentRecord();
+        assertSame(buffer, record.unwrap());
+        assertEquals(3, record.readableBytes());
+
+        // 只剩下一条记录的长度头，buffer 已经读完
+        assertEquals(DeserializationResult.PARTIAL_RECORD, deserializer.getNextRecord());
+        assertTrue(deserializer.hasUnfinishedData());
+        buffer.release();
+    }
+
+    private static List<ByteBuf> serialize(List<byte[]> records, int bufferSize) {
+        SpanningRecordSerializer serializer = new SpanningRecordSerializer();
+        List<ByteBuf> buffers = new ArrayList<>();
+        ByteBuf current = Unpooled.buffer(bufferSize, bufferSize);
+        for (byte[] record : records) {
+            serializer.serializeRecord(ByteBuffer.wrap(record));
+            while (true) {
+                serializer.copyToBuffer(current, bufferSize);
+                if (!serializer.hasSerializedData()) {
+                    break;
+                }
+                buffers.add(current);
+                current = Unpooled.buffer(bufferSize, bufferSize);
+            }
+        }
+        buffers.add(current);
+        return buffers;
+    }
+}
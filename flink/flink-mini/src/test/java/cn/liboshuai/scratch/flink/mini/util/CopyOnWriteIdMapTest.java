@@ -0,0 +1,51 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CopyOnWriteIdMapTest {
+
+    @Test
+    @DisplayName("应能用 ID 对象或两个 long 查到同一个值，删除后查不到")
+    void testPutGetRemove() {
+        CopyOnWriteIdMap<AbstractID, String> map = new CopyOnWriteIdMap<>();
+        List<AbstractID> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            AbstractID id = new AbstractID();
+            ids.add(id);
+            assertNull(map.put(id, "v" + i));
+        }
+        assertEquals(100, map.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            AbstractID id = ids.get(i);
+            assertEquals("v" + i, map.get(id));
+            assertEquals("v" + i, map.get(id.getUpperPart(), id.getLowerPart()));
+        }
+
+        for (int i = 0; i < ids.size(); i += 2) {
+            assertEquals("v" + i, map.remove(ids.get(i)));
+        }
+        assertEquals(50, map.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i % 2 == 0 ? null : "v" + i, map.get(ids.get(i)));
+        }
+    }
+
+    @Test
+    @DisplayName("putIfAbsent 不应覆盖已有的值")
+    void testPutIfAbsent() {
+        CopyOnWriteIdMap<AbstractID, String> map = new CopyOnWriteIdMap<>();
+        AbstractID id = new AbstractID(1L, 2L);
+
+        assertNull(map.putIfAbsent(id, "first"));
+        assertEquals("first", map.putIfAbsent(new AbstractID(1L, 2L), "second"));
+        assertEquals("first", map.get(1L, 2L));
+        assertNull(map.get(2L, 1L));
+    }
+}
@@ -0,0 +1,52 @@
+package cn.liboshuai.scratch.flink.mini.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpscLinkedQueueTest {
+
+    @Test
+    @DisplayName("先进先出，取空后返回 null")
+    void testFifo() {
+        SpscLinkedQueue<Integer> queue = new SpscLinkedQueue<>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        for (int i = 0; i < 3; i++) {
+            queue.offer(i);
+        }
+        assertFalse(queue.isEmpty());
+        assertEquals(0, queue.peek());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.peek());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    @DisplayName("一个线程写、一个线程读时元素不丢失也不乱序")
+    void testConcurrentProducerAndConsumer() throws Exception {
+        SpscLinkedQueue<Integer> queue = new SpscLinkedQueue<>();
+        int numElements = 1_000_000;
+
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < numElements; i++) {
+                queue.offer(i);
+            }
+        });
+        for (int expected = 0; expected < numElements; ) {
+            Integer next = queue.poll();
+            if (next != null) {
+                assertEquals(expected++, next);
+            }
+        }
+        producer.get(10, TimeUnit.SECONDS);
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,143 @@
+package cn.liboshuai.scratch.flink.mini.writer;
+
+import cn.liboshuai.scratch.flink.mini.buffer.NetworkBufferPool;
+import cn.liboshuai.scratch.flink.mini.netty.ResultPartitionID;
+import cn.liboshuai.scratch.flink.mini.partition.BufferAndBacklog;
+import cn.liboshuai.scratch.flink.mini.partition.PipelinedResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartition;
+import cn.liboshuai.scratch.flink.mini.partition.ResultPartitionManager;
+import cn.liboshuai.scratch.flink.mini.partition.ResultSubpartitionView;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer;
+import cn.liboshuai.scratch.flink.mini.serialization.SpanningRecordDeserializer.DeserializationResult;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordWriterTest {
+
+    @Test
+    @DisplayName("广播只序列化一次，所有子分区共享同一块内存，最后一个下游释放后内存段才回到池里")
+    void testBroadcastSharesOneBuffer() throws Exception {
+        int numSubpartitions = 100;
+        NetworkBufferPool networkBufferPool = new NetworkBufferPool(2, 64);
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        ResultPartition partition = new PipelinedResultPartition(
+                new ResultPartitionID(), numSubpartitions, 64, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partition.setBufferPool(networkBufferPool.createBufferPool(1, 1));
+        partitionManager.registerResultPartition(partition);
+        ResultSubpartitionView[] views = new ResultSubpartitionView[numSubpartitions];
+        for (int i = 0; i < numSubpartitions; i++) {
+            views[i] = partitionManager.createSubpartitionView(partition.getPartitionId(), i, () -> { });
+        }
+
+        RecordWriter writer = RecordWriter.createRecordWriter(partition, new BroadcastChannelSelector());
+        assertTrue(writer instanceof BroadcastRecordWriter);
+        for (int i = 0; i < 3; i++) {
+            writer.emit(ByteBuffer.allocate(8));
+        }
+        writer.flushAll();
+
+        List<ByteBuf> received = new ArrayList<>();
+        for (ResultSubpartitionView view : views) {
+            BufferAndBacklog next = view.getNextBuffer();
+            assertNotNull(next);
+            assertEquals(3 * (4 + 8), next.buffer().readableBytes());
+            received.add(next.buffer());
+        }
+        // 100 个子分区拿到的都是同一个网络 buffer 的 duplicate，buffer 池里只有这一个
+        ByteBuf shared = received.get(0).unwrap();
+        for (ByteBuf buffer : received) {
+            assertSame(shared, buffer.unwrap());
+        }
+
+        for (int i = 0; i < numSubpartitions - 1; i++) {
+            received.get(i).release();
+        }
+        assertEquals(1, shared.refCnt());
+        received.get(numSubpartitions - 1).release();
+        assertEquals(0, shared.refCnt());
+
+        partitionManager.shutdown();
+        assertEquals(2, networkBufferPool.getNumberOfAvailableMemorySegments());
+        networkBufferPool.destroy();
+    }
+
+    @Test
+    @DisplayName("单播和广播交替写入时，每个子分区内的记录保持写入顺序")
+    void testUnicastAndBroadcastKeepOrder() throws Exception {
+        ResultPartitionManager partitionManager = new ResultPartitionManager();
+        ResultPartition partition = new PipelinedResultPartition(
+                new ResultPartitionID(), 2, 64, ResultPartition.FLUSH_ONLY_WHEN_FULL);
+        partitionManager.registerResultPartition(partition);
+        ResultSubpartitionView first = partitionManager.createSubpartitionView(partition.getPartitionId(), 0, () -> { });
+        ResultSubpartitionView second = partitionManager.createSubpartitionView(partition.getPartitionId(), 1, () -> { });
+
+        partition.emitRecord(record(1), 0);
+        partition.broadcastRecord(record(2));
+        partition.emitRecord(record(3), 1);
+        partition.broadcastRecord(record(4));
+        partition.emitRecord(record(5), 0);
+        partition.flushAll();
+
+        assertEquals(Arrays.asList(1, 2, 4, 5), readRecords(first));
+        assertEquals(Arrays.asList(2, 3, 4), readRecords(second));
+        partitionManager.shutdown();
+    }
+
+    @Test
+    @DisplayName("轮询选择器依次使用所有通道，hash 选择器对同一个 key 总是选同一个通道")
+    void testChannelSelectors() {
+        ChannelSelector roundRobin = new RoundRobinChannelSelector();
+        roundRobin.setup(3);
+        int start = roundRobin.selectChannel(record(0));
+        for (int i = 1; i <= 6; i++) {
+            assertEquals((start + i) % 3, roundRobin.selectChannel(record(0)));
+        }
+
+        ChannelSelector hash = new HashChannelSelector(record -> record.getInt(record.position()));
+        hash.setup(7);
+        boolean[] used = new boolean[7];
+        for (int key = 0; key < 100; key++) {
+            int channel = hash.selectChannel(record(key));
+            assertTrue(channel >= 0 && channel < 7);
+            assertEquals(channel, hash.selectChannel(record(key)));
+            used[channel] = true;
+        }
+        for (boolean channelUsed : used) {
+            assertTrue(channelUsed, "100 个 key 应该分散到所有通道上");
+        }
+    }
+
+    private static ByteBuffer record(int value) {
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES);
+        record.putInt(0, value);
+        return record;
+    }
+
+    private static List<Integer> readRecords(ResultSubpartitionView view) throws IOException {
+        SpanningRecordDeserializer deserializer = new SpanningRecordDeserializer();
+        List<Integer> records = new ArrayList<>();
+        BufferAndBacklog next;
+        while ((next = view.getNextBuffer()) != null) {
+            deserializer.setNextBuffer(next.buffer());
+            DeserializationResult result;
+            do {
+                result = deserializer.getNextRecord();
+                if (result.isFullRecord()) {
+                    ByteBuf record = deserializer.getCurrentRecord();
+                    records.add(record.getInt(record.readerIndex()));
+                }
+            } while (!result.isBufferConsumed());
+            next.buffer().release();
+        }
+        return records;
+    }
+}